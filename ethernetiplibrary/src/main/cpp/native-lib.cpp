@@ -196,11 +196,14 @@ Java_com_omnixone_ethernetiplibrary_EtherNetIPLibrary_startOpENerStack(
                     LOGE("Error in NetworkHandler loop! Exiting OpENer.");
                     break;
                 }
+#if !defined(OPENER_USE_EPOLL)
                 usleep(1000); // Sleep for 1ms to avoid CPU overuse
+#endif // epoll_wait() blocks until a socket or the tick timer is ready
             }
 
             // Clean up the network handler
             NetworkHandlerFinish();
+            NvdataShutdown(); // Write pending NV data before the objects go away
             ShutdownCipStack(); // Step 11: Clean CIP
             ShutdownNetwork(ifaceName.c_str());
         }).detach();
@@ -323,6 +326,20 @@ Java_com_omnixone_ethernetiplibrary_EtherNetIPLibrary_setInputValues(JNIEnv *env
 
 
 
+extern "C" JNIEXPORT void JNICALL
+Java_com_omnixone_ethernetiplibrary_EtherNetIPLibrary_setInputRange(JNIEnv *env, jclass clazz, jint assembly_offset,
+                                                                    jbyteArray values, jint offset, jint length) {
+    // Copy only the given range, the rest of the input assembly keeps its data
+    if (assembly_offset < 0 || length < 0 || assembly_offset + length > (jint) sizeof(g_assembly_data064)) {
+        LOGE("setInputRange: range %d+%d exceeds the input assembly", assembly_offset, length);
+        return;
+    }
+    env->GetByteArrayRegion(values, offset, length, reinterpret_cast<jbyte *>(g_assembly_data064 + assembly_offset));
+}
+
+
+
+
 extern "C" int sendDataToJavaFromCPPWrapper(const uint8_t* data, int length) {
     JNIEnv* env = nullptr;
 
@@ -232,6 +232,9 @@ int main(int argc,
     NetworkHandlerFinish();
   }
 
+  /* write pending NV data before the CIP objects are destroyed */
+  NvdataShutdown();
+
   /* close remaining sessions and connections, clean up used data */
   ShutdownCipStack();
 
@@ -26,8 +26,20 @@
 #include "opener_user_conf.h"
 #include "cipqos.h"
 
+#if defined(OPENER_USE_EPOLL)
+#include <unistd.h>
+#include <sys/epoll.h>
+#include <sys/ioctl.h>
+#include <sys/timerfd.h>
+#endif /* defined(OPENER_USE_EPOLL) */
+
 #define MAX_NO_OF_TCP_SOCKETS 10
 
+#if defined(OPENER_USE_EPOLL)
+/** @brief Maximum number of ready events handled per epoll_wait() call */
+#define OPENER_EPOLL_MAX_EVENTS 32
+#endif /* defined(OPENER_USE_EPOLL) */
+
 /** @brief Ethernet/IP standard port */
 
 /* ----- Windows size_t PRI macros ------------- */
@@ -75,6 +87,13 @@ MilliSeconds g_last_time;
 
 NetworkStatus g_network_status;
 
+#if defined(OPENER_USE_EPOLL)
+/** @brief epoll instance watching all sockets, replaces the fd_set scans of select() */
+static int g_epoll_handle = kEipInvalidSocket;
+/** @brief timerfd expiring every kOpenerTimerTickInMilliSeconds to drive the connection manager */
+static int g_tick_timer_handle = kEipInvalidSocket;
+#endif /* defined(OPENER_USE_EPOLL) */
+
 /** @brief Size of the timeout checker function pointer array
  */
 #define OPENER_TIMEOUT_CHECKER_ARRAY_SIZE 10
@@ -114,6 +133,40 @@ void CheckEncapsulationInactivity(int socket_handle);
 
 void RemoveSocketTimerFromList(const int socket_handle);
 
+/** @brief Adds a socket to the set of sockets watched for incoming data
+ *
+ *  @param socket_handle The socket to be watched
+ */
+static void AddSocketToWatchList(int socket_handle);
+
+static EipBool8 AcceptTcpConnection(void);
+
+static EipBool8 HandleUdpGlobalBroadcastMessage(void);
+
+static EipBool8 HandleUdpUnicastMessage(void);
+
+static void HandleTimerTick(void);
+
+#if defined(OPENER_USE_EPOLL)
+/** @brief Creates the epoll instance and the connection manager tick timer
+ *
+ *  @return kEipStatusOk on success, or kEipStatusError on failure
+ */
+static EipStatus InitializeEpoll(void);
+
+/** @brief epoll based replacement of the select() cycle
+ *
+ * Waits until a socket is ready or the tick timer expires and dispatches only
+ * the ready sockets. All sockets are registered edge-triggered, so every
+ * handler drains its socket until it would block.
+ */
+static EipStatus NetworkHandlerProcessCyclicEpoll(void);
+
+static void HandleConsumingUdpMessages(void);
+
+static void HandleTcpSocketEvent(int socket_handle, uint32_t events);
+#endif /* defined(OPENER_USE_EPOLL) */
+
 /*************************************************
 * Function implementations from now on
 *************************************************/
@@ -140,6 +193,12 @@ EipStatus NetworkHandlerInitialize(void) {
   FD_ZERO(&master_socket);
   FD_ZERO(&read_socket);
 
+#if defined(OPENER_USE_EPOLL)
+  if( kEipStatusOk != InitializeEpoll() ) {
+    return kEipStatusError;
+  }
+#endif /* defined(OPENER_USE_EPOLL) */
+
   /* create a new TCP socket */
   if( ( g_network_status.tcp_listener =
           socket(AF_INET, SOCK_STREAM, IPPROTO_TCP) ) == -1 ) {
@@ -358,9 +417,9 @@ EipStatus NetworkHandlerInitialize(void) {
   }
 
   /* add the listener socket to the master set */
-  FD_SET(g_network_status.tcp_listener, &master_socket);
-  FD_SET(g_network_status.udp_unicast_listener, &master_socket);
-  FD_SET(g_network_status.udp_global_broadcast_listener, &master_socket);
+  AddSocketToWatchList(g_network_status.tcp_listener);
+  AddSocketToWatchList(g_network_status.udp_unicast_listener);
+  AddSocketToWatchList(g_network_status.udp_global_broadcast_listener);
 
   /* keep track of the biggest file descriptor */
   highest_socket_handle = GetMaxSocket(g_network_status.tcp_listener,
@@ -411,19 +470,28 @@ EipBool8 CheckSocketSet(int socket) {
 }
 
 void CheckAndHandleTcpListenerSocket(void) {
-  int new_socket = kEipInvalidSocket;
   /* see if this is a connection request to the TCP listener*/
   if( true == CheckSocketSet(g_network_status.tcp_listener) ) {
+    AcceptTcpConnection();
+  }
+}
+
+static EipBool8 AcceptTcpConnection(void) {
+  int new_socket = kEipInvalidSocket;
+  {
     OPENER_TRACE_INFO("networkhandler: new TCP connection\n");
 
     new_socket = accept(g_network_status.tcp_listener, NULL, NULL);
     if(new_socket == kEipInvalidSocket) {
       int error_code = GetSocketErrorNumber();
+      if(OPENER_SOCKET_WOULD_BLOCK == error_code) {
+        return false; /* no more pending connections */
+      }
       char *error_message = GetErrorMessage(error_code);
       OPENER_TRACE_ERR("networkhandler: error on accept: %d - %s\n",
                        error_code, error_message);
       FreeErrorMessage(error_message);
-      return;
+      return false;
     } OPENER_TRACE_INFO(">>> network handler: accepting new TCP socket: %d \n",
                         new_socket);
 
@@ -440,20 +508,45 @@ void CheckAndHandleTcpListenerSocket(void) {
 
     OPENER_ASSERT(socket_timer != NULL);
 
-    FD_SET(new_socket, &master_socket);
     /* add newfd to master set */
-    if(new_socket > highest_socket_handle) {
-      OPENER_TRACE_INFO("New highest socket: %d\n", new_socket);
-      highest_socket_handle = new_socket;
-    }
+    AddSocketToWatchList(new_socket);
 
     OPENER_TRACE_STATE("networkhandler: opened new TCP connection on fd %d\n",
                        new_socket);
   }
+  return true;
+}
+
+static void AddSocketToWatchList(int socket_handle) {
+#if defined(OPENER_USE_EPOLL)
+  struct epoll_event event = {
+    .events = EPOLLIN | EPOLLRDHUP | EPOLLET,
+    .data.fd = socket_handle
+  };
+  if(0 != epoll_ctl(g_epoll_handle, EPOLL_CTL_ADD, socket_handle, &event) ) {
+    int error_code = GetSocketErrorNumber();
+    char *error_message = GetErrorMessage(error_code);
+    OPENER_TRACE_ERR("networkhandler: error adding socket %d to epoll: %d - %s\n",
+                     socket_handle,
+                     error_code,
+                     error_message);
+    FreeErrorMessage(error_message);
+  }
+#else
+  FD_SET(socket_handle, &master_socket);
+#endif /* defined(OPENER_USE_EPOLL) */
+  if(socket_handle > highest_socket_handle) {
+    OPENER_TRACE_INFO("New highest socket: %d\n", socket_handle);
+    highest_socket_handle = socket_handle;
+  }
 }
 
 EipStatus NetworkHandlerProcessCyclic(void) {
 
+#if defined(OPENER_USE_EPOLL)
+  return NetworkHandlerProcessCyclicEpoll();
+#endif /* defined(OPENER_USE_EPOLL) */
+
   read_socket = master_socket;
 
   g_time_value.tv_sec = 0;
@@ -519,31 +612,226 @@ EipStatus NetworkHandlerProcessCyclic(void) {
    * This should compensate the jitter of the windows timer
    */
   if(g_network_status.elapsed_time >= kOpenerTimerTickInMilliSeconds) {
-    /* call manage_connections() in connection manager every kOpenerTimerTickInMilliSeconds ms */
-    ManageConnections(g_network_status.elapsed_time);
+    HandleTimerTick();
+  }
+  return kEipStatusOk;
+}
+
+static void HandleTimerTick(void) {
+  /* call manage_connections() in connection manager every kOpenerTimerTickInMilliSeconds ms */
+  ManageConnections(g_network_status.elapsed_time);
+
+  /* Call timeout checker functions registered in timeout_checker_array */
+  for (size_t i = 0; i < OPENER_TIMEOUT_CHECKER_ARRAY_SIZE; i++) {
+    if (NULL != timeout_checker_array[i]) {
+      (timeout_checker_array[i])(g_network_status.elapsed_time);
+    }
+  }
+
+  g_network_status.elapsed_time = 0;
+}
+
+#if defined(OPENER_USE_EPOLL)
+static EipStatus InitializeEpoll(void) {
+  g_epoll_handle = epoll_create1(EPOLL_CLOEXEC);
+  if(kEipInvalidSocket == g_epoll_handle) {
+    int error_code = GetSocketErrorNumber();
+    char *error_message = GetErrorMessage(error_code);
+    OPENER_TRACE_ERR("networkhandler: error creating epoll instance: %d - %s\n",
+                     error_code,
+                     error_message);
+    FreeErrorMessage(error_message);
+    return kEipStatusError;
+  }
+
+  g_tick_timer_handle = timerfd_create(CLOCK_MONOTONIC,
+                                       TFD_NONBLOCK | TFD_CLOEXEC);
+  if(kEipInvalidSocket == g_tick_timer_handle) {
+    int error_code = GetSocketErrorNumber();
+    char *error_message = GetErrorMessage(error_code);
+    OPENER_TRACE_ERR("networkhandler: error creating tick timer: %d - %s\n",
+                     error_code,
+                     error_message);
+    FreeErrorMessage(error_message);
+    return kEipStatusError;
+  }
+
+  const long tick_in_nanoseconds = kOpenerTimerTickInMilliSeconds * 1000000L;
+  struct itimerspec tick = {
+    .it_interval = { .tv_sec = tick_in_nanoseconds / 1000000000L,
+                     .tv_nsec = tick_in_nanoseconds % 1000000000L },
+    .it_value = { .tv_sec = tick_in_nanoseconds / 1000000000L,
+                  .tv_nsec = tick_in_nanoseconds % 1000000000L }
+  };
+  if(0 != timerfd_settime(g_tick_timer_handle, 0, &tick, NULL) ) {
+    int error_code = GetSocketErrorNumber();
+    char *error_message = GetErrorMessage(error_code);
+    OPENER_TRACE_ERR("networkhandler: error arming tick timer: %d - %s\n",
+                     error_code,
+                     error_message);
+    FreeErrorMessage(error_message);
+    return kEipStatusError;
+  }
+
+  struct epoll_event event = {
+    .events = EPOLLIN,
+    .data.fd = g_tick_timer_handle
+  };
+  if(0 != epoll_ctl(g_epoll_handle, EPOLL_CTL_ADD, g_tick_timer_handle,
+                    &event) ) {
+    OPENER_TRACE_ERR("networkhandler: error adding tick timer to epoll\n");
+    return kEipStatusError;
+  }
+  return kEipStatusOk;
+}
+
+static EipStatus NetworkHandlerProcessCyclicEpoll(void) {
+  struct epoll_event events[OPENER_EPOLL_MAX_EVENTS];
+
+  int ready_events = epoll_wait(g_epoll_handle,
+                                events,
+                                OPENER_EPOLL_MAX_EVENTS,
+                                kOpenerTimerTickInMilliSeconds);
+  if(ready_events < 0) {
+    if(EINTR == errno) {
+      return kEipStatusOk;
+    }
+    int error_code = GetSocketErrorNumber();
+    char *error_message = GetErrorMessage(error_code);
+    OPENER_TRACE_ERR("networkhandler: error with epoll_wait: %d - %s\n",
+                     error_code,
+                     error_message);
+    FreeErrorMessage(error_message);
+    return kEipStatusError;
+  }
+
+  g_actual_time = GetMilliSeconds();
+  g_network_status.elapsed_time += g_actual_time - g_last_time;
+  g_last_time = g_actual_time;
+
+  EipBool8 tick_expired = false;
+  for(int i = 0; i < ready_events; i++) {
+    const int socket_handle = events[i].data.fd;
 
-    /* Call timeout checker functions registered in timeout_checker_array */
-    for (size_t i = 0; i < OPENER_TIMEOUT_CHECKER_ARRAY_SIZE; i++) {
-      if (NULL != timeout_checker_array[i]) {
-        (timeout_checker_array[i])(g_network_status.elapsed_time);
+    if(socket_handle == g_tick_timer_handle) {
+      uint64_t expirations = 0;
+      if(sizeof(expirations) !=
+         read(g_tick_timer_handle, &expirations, sizeof(expirations) ) ) {
+        OPENER_TRACE_WARN("networkhandler: tick timer read failed\n");
+      }
+      tick_expired = true;
+    } else if(socket_handle == g_network_status.tcp_listener) {
+      while( AcceptTcpConnection() ) {
+      }
+    } else if(socket_handle == g_network_status.udp_unicast_listener) {
+      while( HandleUdpUnicastMessage() ) {
+      }
+    } else if(socket_handle ==
+              g_network_status.udp_global_broadcast_listener) {
+      while( HandleUdpGlobalBroadcastMessage() ) {
       }
+    } else if(socket_handle == g_network_status.udp_io_messaging) {
+      HandleConsumingUdpMessages();
+    } else {
+      HandleTcpSocketEvent(socket_handle, events[i].events);
     }
+  }
 
-    g_network_status.elapsed_time = 0;
+  /* the timerfd may lag behind when a burst kept us busy */
+  if(tick_expired ||
+     g_network_status.elapsed_time >= kOpenerTimerTickInMilliSeconds) {
+    /* only the sockets holding a session timer can time out */
+    for(size_t i = 0; i < OPENER_NUMBER_OF_SUPPORTED_SESSIONS; i++) {
+      if(kEipInvalidSocket != g_timestamps[i].socket) {
+        CheckEncapsulationInactivity(g_timestamps[i].socket);
+      }
+    }
+    if(g_network_status.elapsed_time >= kOpenerTimerTickInMilliSeconds) {
+      HandleTimerTick();
+    }
   }
   return kEipStatusOk;
 }
 
+static void HandleConsumingUdpMessages(void) {
+  while(true) {
+    struct sockaddr_in from_address = { 0 };
+    socklen_t from_address_length = sizeof(from_address);
+    CipOctet incoming_message[PC_OPENER_ETHERNET_BUFFER_SIZE];
+
+    int received_size = recvfrom(g_network_status.udp_io_messaging,
+                                 NWBUF_CAST incoming_message,
+                                 sizeof(incoming_message),
+                                 0,
+                                 (struct sockaddr *) &from_address,
+                                 &from_address_length);
+    if(0 > received_size) {
+      int error_code = GetSocketErrorNumber();
+      if(OPENER_SOCKET_WOULD_BLOCK != error_code) {
+        char *error_message = GetErrorMessage(error_code);
+        OPENER_TRACE_ERR("networkhandler: error on recv: %d - %s\n",
+                         error_code,
+                         error_message);
+        FreeErrorMessage(error_message);
+      }
+      return;
+    }
+    OPENER_TRACE_INFO("Processing UDP consuming message\n");
+    HandleReceivedConnectedData(incoming_message, received_size,
+                                &from_address);
+  }
+}
+
+static void HandleTcpSocketEvent(int socket_handle,
+                                 uint32_t events) {
+  /* The session sockets are blocking, HandleDataOnTcpSocket() reads one
+   * message per call. Only call it while data is pending (or the peer hung
+   * up) so that it never blocks the network thread on an empty socket. */
+  int pending_bytes = 0;
+  if(0 != ioctl(socket_handle, FIONREAD, &pending_bytes) ) {
+    return; /* socket has been closed while handling an earlier event */
+  }
+  if(0 == pending_bytes &&
+     0 == ( events & (EPOLLRDHUP | EPOLLHUP | EPOLLERR) ) ) {
+    return;
+  }
+  do {
+    if( kEipStatusError == HandleDataOnTcpSocket(socket_handle) ) {
+      CloseTcpSocket(socket_handle);
+      RemoveSession(socket_handle); /* clean up session and close the socket */
+      return;
+    }
+  } while(0 == ioctl(socket_handle, FIONREAD, &pending_bytes) &&
+          0 < pending_bytes);
+}
+#endif /* defined(OPENER_USE_EPOLL) */
+
 EipStatus NetworkHandlerFinish(void) {
   CloseTcpSocket(g_network_status.tcp_listener);
   CloseUdpSocket(g_network_status.udp_unicast_listener);
   CloseUdpSocket(g_network_status.udp_global_broadcast_listener);
+#if defined(OPENER_USE_EPOLL)
+  if(kEipInvalidSocket != g_tick_timer_handle) {
+    close(g_tick_timer_handle);
+    g_tick_timer_handle = kEipInvalidSocket;
+  }
+  if(kEipInvalidSocket != g_epoll_handle) {
+    close(g_epoll_handle);
+    g_epoll_handle = kEipInvalidSocket;
+  }
+#endif /* defined(OPENER_USE_EPOLL) */
   return kEipStatusOk;
 }
 
 void CheckAndHandleUdpGlobalBroadcastSocket(void) {
   /* see if this is an unsolicited inbound UDP message */
   if( true == CheckSocketSet(g_network_status.udp_global_broadcast_listener) ) {
+    HandleUdpGlobalBroadcastMessage();
+  }
+}
+
+static EipBool8 HandleUdpGlobalBroadcastMessage(void) {
+  {
     struct sockaddr_in from_address = { 0 };
     socklen_t from_address_length = sizeof(from_address);
 
@@ -561,13 +849,16 @@ void CheckAndHandleUdpGlobalBroadcastSocket(void) {
 
     if(received_size <= 0) { /* got error */
       int error_code = GetSocketErrorNumber();
+      if(OPENER_SOCKET_WOULD_BLOCK == error_code) {
+        return false; /* socket drained */
+      }
       char *error_message = GetErrorMessage(error_code);
       OPENER_TRACE_ERR(
         "networkhandler: error on recvfrom UDP global broadcast port: %d - %s\n",
         error_code,
         error_message);
       FreeErrorMessage(error_message);
-      return;
+      return false;
     }
 
     OPENER_TRACE_INFO("Data received on global broadcast UDP:\n");
@@ -607,11 +898,18 @@ void CheckAndHandleUdpGlobalBroadcastSocket(void) {
                        remaining_bytes);
     }
   }
+  return true;
 }
 
 void CheckAndHandleUdpUnicastSocket(void) {
   /* see if this is an unsolicited inbound UDP message */
   if( true == CheckSocketSet(g_network_status.udp_unicast_listener) ) {
+    HandleUdpUnicastMessage();
+  }
+}
+
+static EipBool8 HandleUdpUnicastMessage(void) {
+  {
 
     struct sockaddr_in from_address = { 0 };
     socklen_t from_address_length = sizeof(from_address);
@@ -630,13 +928,16 @@ void CheckAndHandleUdpUnicastSocket(void) {
 
     if(received_size <= 0) { /* got error */
       int error_code = GetSocketErrorNumber();
+      if(OPENER_SOCKET_WOULD_BLOCK == error_code) {
+        return false; /* socket drained */
+      }
       char *error_message = GetErrorMessage(error_code);
       OPENER_TRACE_ERR(
         "networkhandler: error on recvfrom UDP unicast port: %d - %s\n",
         error_code,
         error_message);
       FreeErrorMessage(error_message);
-      return;
+      return false;
     }
 
     OPENER_TRACE_INFO("Data received on UDP unicast:\n");
@@ -677,6 +978,7 @@ void CheckAndHandleUdpUnicastSocket(void) {
         remaining_bytes);
     }
   }
+  return true;
 }
 
 EipStatus SendUdpData(const struct sockaddr_in *const address,
@@ -967,13 +1269,7 @@ int CreateUdpSocket(void) {
   }
 
   /* add new socket to the master list */
-  FD_SET(g_network_status.udp_io_messaging, &master_socket);
-
-  if (g_network_status.udp_io_messaging > highest_socket_handle) {
-    OPENER_TRACE_INFO("New highest socket: %d\n",
-                      g_network_status.udp_io_messaging);
-    highest_socket_handle = g_network_status.udp_io_messaging;
-  }
+  AddSocketToWatchList(g_network_status.udp_io_messaging);
   return g_network_status.udp_io_messaging;
 }
 
@@ -1115,7 +1411,12 @@ void CloseSocket(const int socket_handle) {
   OPENER_TRACE_INFO("networkhandler: closing socket %d\n", socket_handle);
 
   if(kEipInvalidSocket != socket_handle) {
+#if defined(OPENER_USE_EPOLL)
+    /* ignore errors, sockets never added (e.g. unused listeners) end up here too */
+    epoll_ctl(g_epoll_handle, EPOLL_CTL_DEL, socket_handle, NULL);
+#else
     FD_CLR(socket_handle, &master_socket);
+#endif /* defined(OPENER_USE_EPOLL) */
     CloseSocketPlatform(socket_handle);
   } OPENER_TRACE_INFO("networkhandler: closing socket done %d\n",
                       socket_handle);
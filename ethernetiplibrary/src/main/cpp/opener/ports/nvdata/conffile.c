@@ -7,9 +7,8 @@
 /** @file nvqos.c
  *  @brief This file implements the functions to handle QoS object's NV data.
  *
- *  This is only proof-of-concept code. Don't use it in a real product.
- *  Please think about atomic update of the external file and doing something
- *  like fsync() to flush the data really to disk.
+ *  Files opened for writing are written to a temporary file that is synced
+ *  and renamed over the configuration file by ConfFileCommit().
  */
 /* COMPILATION SWITCHES */
 #define ENABLE_VERBOSE  0   /* Enable this to observe internal operation */
@@ -22,9 +21,11 @@
 
 #if defined _WIN32
   #include <direct.h>
+  #include <io.h>
 #else
   #include <sys/stat.h>
   #include <sys/types.h>
+  #include <unistd.h>
 #endif /* if defined _WIN32 */
 
 #include "trace.h"
@@ -33,6 +34,9 @@
 /** Base path for configuration file store */
 #define CFG_BASE  "nvdata/"
 
+/** Suffix of the temporary file a configuration file is written to */
+#define CFG_TEMP_SUFFIX ".tmp"
+
 #if ENABLE_VERBOSE != 0
 #define VERBOSE(pFile, pFmt, ...)   do { fprintf(pFile, pFmt, ## __VA_ARGS__); \
 } while (0)
@@ -106,7 +110,9 @@ static FILE *FopenMkdir(char *p_path,
  *  @return valid file handle: success; NULL: failure, errno set
  *
  *  This function open a configuration file, possibly for write operation,
- *  in the NV data storage directory.
+ *  in the NV data storage directory. A file opened for writing is a
+ *  temporary file that replaces the configuration file only when it is
+ *  passed to ConfFileCommit().
  */
 
 FILE *ConfFileOpen(const bool write,
@@ -114,8 +120,9 @@ FILE *ConfFileOpen(const bool write,
   char path_buf[64];
   int rc;
 
-  rc = snprintf(path_buf, sizeof path_buf, "%s%s", CFG_BASE, p_name);
-  if (rc > 0) {
+  rc = snprintf(path_buf, sizeof path_buf, "%s%s%s", CFG_BASE, p_name,
+                write ? CFG_TEMP_SUFFIX : "");
+  if (rc > 0 && rc < (int)sizeof path_buf) {
     return FopenMkdir(path_buf, write ? "w" : "r");
   }
   return NULL;
@@ -137,3 +144,75 @@ EipStatus ConfFileClose(FILE **p_filep) {
   *p_filep = NULL;
   return eip_status;
 }
+
+/** @brief Flush, close and atomically install a configuration file written
+ *  after ConfFileOpen(true, p_name)
+ *
+ *  @param  p_filep pointer to FILE* to close
+ *  @param  p_name  pointer to file name string given to ConfFileOpen()
+ *  @return kEipStatusOk: success; kEipStatusError: failure and errno set
+ *
+ *  The data is synchronized to the storage before the temporary file is
+ *  renamed over the configuration file, so after a power loss either the
+ *  old or the new file is found but never a partly written one.
+ */
+EipStatus ConfFileCommit(FILE **p_filep,
+                         const char *const p_name) {
+  char temp_path[64];
+  char path_buf[64];
+  EipStatus eip_status = kEipStatusOk;
+
+  if ( 0 != fflush(*p_filep) ) {
+    eip_status = kEipStatusError;
+  }
+#ifdef _WIN32
+  if ( kEipStatusOk == eip_status && 0 != _commit(_fileno(*p_filep) ) ) {
+#else
+  if ( kEipStatusOk == eip_status && 0 != fsync(fileno(*p_filep) ) ) {
+#endif
+    eip_status = kEipStatusError;
+  }
+  eip_status =
+    ( kEipStatusError == ConfFileClose(p_filep) ) ? kEipStatusError : eip_status;
+  if (kEipStatusOk != eip_status) {
+    return eip_status;
+  }
+
+  (void)snprintf(temp_path, sizeof temp_path, "%s%s%s", CFG_BASE, p_name,
+                 CFG_TEMP_SUFFIX);
+  (void)snprintf(path_buf, sizeof path_buf, "%s%s", CFG_BASE, p_name);
+#ifdef _WIN32
+  /* rename() does not replace an existing file on Windows. */
+  (void)remove(path_buf);
+#endif
+  if ( 0 != rename(temp_path, path_buf) ) {
+    char *error_message = GetErrorMessage(errno);
+    OPENER_TRACE_ERR("error while trying to rename '%s', %d - %s\n",
+                     temp_path, errno, error_message);
+    FreeErrorMessage(error_message);
+    eip_status = kEipStatusError;
+  }
+  return eip_status;
+}
+
+/** @brief Close and remove a configuration file written after
+ *  ConfFileOpen(true, p_name) without installing it
+ *
+ *  @param  p_filep pointer to FILE* to close
+ *  @param  p_name  pointer to file name string given to ConfFileOpen()
+ *  @return kEipStatusOk: success; kEipStatusError: failure and errno set
+ *
+ *  The configuration file itself is left unchanged.
+ */
+EipStatus ConfFileAbort(FILE **p_filep,
+                        const char *const p_name) {
+  char temp_path[64];
+  EipStatus eip_status = ConfFileClose(p_filep);
+
+  (void)snprintf(temp_path, sizeof temp_path, "%s%s%s", CFG_BASE, p_name,
+                 CFG_TEMP_SUFFIX);
+  if ( 0 != remove(temp_path) ) {
+    eip_status = kEipStatusError;
+  }
+  return eip_status;
+}
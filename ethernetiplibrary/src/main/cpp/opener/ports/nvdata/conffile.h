@@ -22,4 +22,10 @@ FILE *ConfFileOpen(const bool write,
 
 EipStatus ConfFileClose(FILE **p_filep);
 
+EipStatus ConfFileCommit(FILE **p_filep,
+                         const char *const p_name);
+
+EipStatus ConfFileAbort(FILE **p_filep,
+                        const char *const p_name);
+
 #endif  /* _CONFFILE_H_ */
@@ -11,15 +11,199 @@
  *  known common objects.
  * Also this module provides callback functions to store NV data of known
  *  objects when called by the EIP stack.
+ *
+ * Stores requested by the callbacks are not done on the calling (network)
+ *  thread. The callback takes a snapshot of the object's data and wakes a
+ *  persistence worker thread, which waits NVDATA_STORE_DELAY_MS so that a
+ *  burst of Set Attribute requests results in a single store per object.
+ *  The worker needs POSIX threads; on Windows the stores are done on the
+ *  calling thread.
  */
 #include "nvdata.h"
 
+#include <string.h>
+
+#ifndef _WIN32
+  #include <pthread.h>
+  #include <time.h>
+#endif /* ifndef _WIN32 */
+
 #include "trace.h"
+#include "cipstring.h"
 
 /* Include headers of objects that need support for NV data here. */
 #include "nvqos.h"
 #include "nvtcpip.h"
 
+#ifndef _WIN32
+
+/** Time the worker waits for further changes before it stores the NV data */
+#define NVDATA_STORE_DELAY_MS 50
+
+/** Objects with pending NV data stores */
+typedef enum {
+  kNvdataQos = 0x01,
+  kNvdataTcpip = 0x02
+} NvdataObject;
+
+static pthread_mutex_t s_nvdata_lock = PTHREAD_MUTEX_INITIALIZER;
+static pthread_cond_t s_nvdata_request = PTHREAD_COND_INITIALIZER;
+static pthread_cond_t s_nvdata_idle = PTHREAD_COND_INITIALIZER;
+static pthread_t s_nvdata_worker;
+static bool s_nvdata_worker_running = false;
+static bool s_nvdata_worker_stop = false;
+static bool s_nvdata_writing = false;
+static unsigned int s_nvdata_pending = 0; /**< bit set of NvdataObject */
+
+/* Snapshots of the object data taken when the store was requested. The
+ * strings of the TCP/IP snapshot are copies owned by the snapshot; the worker
+ * takes them over when it picks the snapshot up. */
+static CipQosObject s_qos_snapshot;
+static CipTcpIpObject s_tcpip_snapshot;
+
+/** @brief Release the strings of a TCP/IP object copy */
+static void NvdataClearTcpip(CipTcpIpObject *const p_tcpip) {
+  (void)ClearCipString(&p_tcpip->hostname);
+  (void)ClearCipString(&p_tcpip->interface_configuration.domain_name);
+}
+
+/** @brief Copy a TCP/IP object including the strings it points to
+ *
+ *  @param  p_dst the copy, its previous strings are released
+ *  @param  p_src the object to copy
+ *  @return kEipStatusOk: success; kEipStatusError: out of memory
+ */
+static EipStatus NvdataCopyTcpip(CipTcpIpObject *const p_dst,
+                                 const CipTcpIpObject *const p_src) {
+  NvdataClearTcpip(p_dst);
+  *p_dst = *p_src;
+  p_dst->hostname.length = 0;
+  p_dst->hostname.string = NULL;
+  p_dst->interface_configuration.domain_name.length = 0;
+  p_dst->interface_configuration.domain_name.string = NULL;
+
+  const CipString *const hostname = &p_src->hostname;
+  const CipString *const domain_name =
+    &p_src->interface_configuration.domain_name;
+  if ( NULL == SetCipStringByData(&p_dst->hostname, hostname->length,
+                                  hostname->string) ||
+       NULL == SetCipStringByData(&p_dst->interface_configuration.domain_name,
+                                  domain_name->length,
+                                  domain_name->string) ) {
+    NvdataClearTcpip(p_dst);
+    return kEipStatusError;
+  }
+  return kEipStatusOk;
+}
+
+static void *NvdataWorker(void *arg) {
+  (void)arg;
+  CipQosObject qos;
+  CipTcpIpObject tcpip;
+
+  memset(&tcpip, 0, sizeof tcpip);
+  pthread_mutex_lock(&s_nvdata_lock);
+  while (true) {
+    while (0 == s_nvdata_pending && !s_nvdata_worker_stop) {
+      pthread_cond_wait(&s_nvdata_request, &s_nvdata_lock);
+    }
+    if (0 == s_nvdata_pending) {
+      break; /* stop requested and nothing left to store */
+    }
+    if (!s_nvdata_worker_stop) {
+      /* Give further updates the chance to coalesce with this one. */
+      const struct timespec delay = { 0, NVDATA_STORE_DELAY_MS * 1000000L };
+      pthread_mutex_unlock(&s_nvdata_lock);
+      nanosleep(&delay, NULL);
+      pthread_mutex_lock(&s_nvdata_lock);
+    }
+
+    const unsigned int pending = s_nvdata_pending;
+    s_nvdata_pending = 0;
+    qos = s_qos_snapshot;
+    if ( 0 != (kNvdataTcpip & pending) ) {
+      /* Take over the snapshot's strings. */
+      tcpip = s_tcpip_snapshot;
+      s_tcpip_snapshot.hostname.string = NULL;
+      s_tcpip_snapshot.hostname.length = 0;
+      s_tcpip_snapshot.interface_configuration.domain_name.string = NULL;
+      s_tcpip_snapshot.interface_configuration.domain_name.length = 0;
+    }
+    s_nvdata_writing = true;
+    pthread_mutex_unlock(&s_nvdata_lock);
+
+    if ( 0 != (kNvdataQos & pending) && kEipStatusError == NvQosStore(&qos) ) {
+      OPENER_TRACE_ERR("NV data: storing QoS object failed\n");
+    }
+    if ( 0 != (kNvdataTcpip & pending) &&
+         kEipStatusError == NvTcpipStore(&tcpip) ) {
+      OPENER_TRACE_ERR("NV data: storing TCP/IP object failed\n");
+    }
+    NvdataClearTcpip(&tcpip);
+
+    pthread_mutex_lock(&s_nvdata_lock);
+    s_nvdata_writing = false;
+    pthread_cond_broadcast(&s_nvdata_idle);
+  }
+  pthread_mutex_unlock(&s_nvdata_lock);
+  return NULL;
+}
+
+/** @brief Request an asynchronous store of an object's NV data
+ *
+ *  @param  object the object whose data was snapshot by the caller
+ *  @return kEipStatusOk: store queued; kEipStatusError: no worker available
+ *
+ * Must be called with s_nvdata_lock held. The worker thread is started
+ *  with the first request.
+ */
+static EipStatus NvdataRequestStore(NvdataObject object) {
+  if (!s_nvdata_worker_running) {
+    s_nvdata_worker_stop = false;
+    if ( 0 != pthread_create(&s_nvdata_worker, NULL, NvdataWorker, NULL) ) {
+      OPENER_TRACE_ERR("NV data: failed to start the persistence worker\n");
+      return kEipStatusError;
+    }
+    s_nvdata_worker_running = true;
+  }
+  s_nvdata_pending |= object;
+  pthread_cond_signal(&s_nvdata_request);
+  return kEipStatusOk;
+}
+
+static EipStatus NvdataStoreQos(void) {
+  pthread_mutex_lock(&s_nvdata_lock);
+  s_qos_snapshot = g_qos;
+  EipStatus status = NvdataRequestStore(kNvdataQos);
+  pthread_mutex_unlock(&s_nvdata_lock);
+  /* Without a worker store on the calling thread. */
+  return kEipStatusOk == status ? status : NvQosStore(&g_qos);
+}
+
+static EipStatus NvdataStoreTcpip(void) {
+  pthread_mutex_lock(&s_nvdata_lock);
+  EipStatus status = NvdataCopyTcpip(&s_tcpip_snapshot, &g_tcpip);
+  if (kEipStatusOk == status) {
+    status = NvdataRequestStore(kNvdataTcpip);
+  } else {
+    OPENER_TRACE_ERR("NV data: no memory for the TCP/IP snapshot\n");
+  }
+  pthread_mutex_unlock(&s_nvdata_lock);
+  return kEipStatusOk == status ? status : NvTcpipStore(&g_tcpip);
+}
+
+#else /* ifndef _WIN32 */
+
+static EipStatus NvdataStoreQos(void) {
+  return NvQosStore(&g_qos);
+}
+
+static EipStatus NvdataStoreTcpip(void) {
+  return NvTcpipStore(&g_tcpip);
+}
+
+#endif /* ifndef _WIN32 */
+
 /** @brief Load NV data for all object classes
  *
  *  @return kEipStatusOk on success, kEipStatusError if failure for any object occurred
@@ -38,12 +222,54 @@ EipStatus NvdataLoad(void) {
   EipStatus eip_status = NvQosLoad(&g_qos);
   if (kEipStatusError != eip_status) {
     eip_status =
-      ( kEipStatusError == NvQosStore(&g_qos) ) ? kEipStatusError : eip_status;
+      ( kEipStatusError == NvdataStoreQos() ) ? kEipStatusError : eip_status;
   }
 
   return eip_status;
 }
 
+/** @brief Wait until all requested NV data stores are written
+ *
+ * Returns immediately if nothing is pending. Must not be called from the
+ *  network thread while the stack is running.
+ */
+void NvdataFlush(void) {
+#ifndef _WIN32
+  pthread_mutex_lock(&s_nvdata_lock);
+  while ( s_nvdata_worker_running &&
+          (0 != s_nvdata_pending || s_nvdata_writing) ) {
+    pthread_cond_wait(&s_nvdata_idle, &s_nvdata_lock);
+  }
+  pthread_mutex_unlock(&s_nvdata_lock);
+#endif /* ifndef _WIN32 */
+}
+
+/** @brief Write all pending NV data and stop the persistence worker
+ *
+ * Call this on shutdown before the CIP objects are destroyed.
+ */
+void NvdataShutdown(void) {
+#ifndef _WIN32
+  pthread_mutex_lock(&s_nvdata_lock);
+  if (!s_nvdata_worker_running) {
+    NvdataClearTcpip(&s_tcpip_snapshot);
+    pthread_mutex_unlock(&s_nvdata_lock);
+    return;
+  }
+  s_nvdata_worker_stop = true;
+  pthread_cond_signal(&s_nvdata_request);
+  pthread_mutex_unlock(&s_nvdata_lock);
+
+  pthread_join(s_nvdata_worker, NULL);
+
+  pthread_mutex_lock(&s_nvdata_lock);
+  s_nvdata_worker_running = false;
+  NvdataClearTcpip(&s_tcpip_snapshot);
+  pthread_cond_broadcast(&s_nvdata_idle);
+  pthread_mutex_unlock(&s_nvdata_lock);
+#endif /* ifndef _WIN32 */
+}
+
 /** A PostSetCallback for QoS class to store NV attributes
  *
  * @param  instance  pointer to instance of QoS class
@@ -57,7 +283,8 @@ EipStatus NvdataLoad(void) {
  * class instance to external storage.
  *
  * This application specific implementation chose to save all attributes
- * at once using a single NvQosStore() call.
+ * at once using a single NvQosStore() call. The store is done by the
+ * persistence worker, the callback returns without waiting for it.
  */
 EipStatus NvQosSetCallback(CipInstance *const instance,
                            CipAttributeStruct *const attribute,
@@ -77,7 +304,7 @@ EipStatus NvQosSetCallback(CipInstance *const instance,
                       instance->cip_class->class_name,
                       instance->instance_number,
                       attribute->attribute_number);
-    status = NvQosStore(&g_qos);
+    status = NvdataStoreQos();
   }
   return status;
 }
@@ -93,7 +320,8 @@ EipStatus NvQosSetCallback(CipInstance *const instance,
  * class instance to external storage.
  *
  * This application specific implementation chose to save all attributes
- * at once using a single NvTcpipStore() call.
+ * at once using a single NvTcpipStore() call. The store is done by the
+ * persistence worker, the callback returns without waiting for it.
  */
 EipStatus NvTcpipSetCallback(CipInstance *const instance,
                              CipAttributeStruct *const attribute,
@@ -112,7 +340,7 @@ EipStatus NvTcpipSetCallback(CipInstance *const instance,
                         instance->cip_class->class_name,
                         instance->instance_number,
                         attribute->attribute_number);
-      status = NvTcpipStore(&g_tcpip);
+      status = NvdataStoreTcpip();
     }
   }
   return status;
@@ -17,6 +17,10 @@
 
 EipStatus NvdataLoad(void);
 
+void NvdataFlush(void);
+
+void NvdataShutdown(void);
+
 EipStatus NvQosSetCallback
 (
   CipInstance *const instance,
@@ -8,8 +8,7 @@
  *  @brief This file implements the functions to handle QoS object's NV data.
  *
  *  This is only proof-of-concept code. Don't use it in a real product.
- *  Please think about atomic update of the external file or better parsing
- *  of the data on input.
+ *  Please think about better parsing of the data on input.
  */
 #include "nvqos.h"
 
@@ -120,10 +119,13 @@ EipStatus NvQosStore(const CipQosObject *p_qos) {
       eip_status = kEipStatusError;
     }
 
-    /* Need to try to close all stuff in any case. */
-    eip_status =
-      ( kEipStatusError ==
-        ConfFileClose(&p_file) ) ? kEipStatusError : eip_status;
+    /* Need to try to close all stuff in any case. Only complete data
+     * replaces the configuration file. */
+    if (kEipStatusOk == eip_status) {
+      eip_status = ConfFileCommit(&p_file, QOS_CFG_NAME);
+    } else {
+      (void)ConfFileAbort(&p_file, QOS_CFG_NAME);
+    }
   }
   return eip_status;
 }
@@ -68,9 +68,14 @@ EipStatus NvTcpipStore(const CipTcpIpObject *p_tcp_ip) {
     /* TODO: Implement store */
     EipStatus eip_status = kEipStatusError;
 
-    /* Need to try to close all stuff in any case. */
-    return (kEipStatusError ==
-            ConfFileClose(&p_file) ) ? kEipStatusError : eip_status;
+    /* Need to try to close all stuff in any case. Only complete data
+     * replaces the configuration file. */
+    if (kEipStatusOk == eip_status) {
+      eip_status = ConfFileCommit(&p_file, TCPIP_CFG_NAME);
+    } else {
+      (void)ConfFileAbort(&p_file, TCPIP_CFG_NAME);
+    }
+    return eip_status;
   } else {
     return kEipStatusError; /* File could not be openend*/
   }
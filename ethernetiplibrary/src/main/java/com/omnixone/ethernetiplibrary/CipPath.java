@@ -0,0 +1,122 @@
+package com.omnixone.ethernetiplibrary;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Logical CIP path to a class, an instance and optionally an attribute.
+ *
+ * Segments are encoded with the shortest logical format (8, 16 or 32 bit)
+ * that holds their value, like <tt>cip/cipepath.c</tt> does.
+ */
+public final class CipPath {
+
+    /**
+     * Attribute id of a path that ends at the instance.
+     */
+    public static final int NO_ATTRIBUTE = -1;
+
+    private static final int SEGMENT_CLASS = 0x20;
+    private static final int SEGMENT_INSTANCE = 0x24;
+    private static final int SEGMENT_ATTRIBUTE = 0x30;
+
+    private final int classId;
+    private final int instanceId;
+    private final int attributeId;
+
+    public CipPath(int classId, int instanceId) {
+        this(classId, instanceId, NO_ATTRIBUTE);
+    }
+
+    public CipPath(int classId, int instanceId, int attributeId) {
+        this.classId = classId;
+        this.instanceId = instanceId;
+        this.attributeId = attributeId;
+    }
+
+    public int getClassId() {
+        return classId;
+    }
+
+    public int getInstanceId() {
+        return instanceId;
+    }
+
+    public int getAttributeId() {
+        return attributeId;
+    }
+
+    /**
+     * Returns the encoded length of the path in bytes, always even.
+     *
+     * @return the number of bytes written by {@link #encode(ByteBuffer)}.
+     */
+    public int getEncodedLength() {
+        int length = segmentLength(classId) + segmentLength(instanceId);
+        if (attributeId != NO_ATTRIBUTE) {
+            length += segmentLength(attributeId);
+        }
+        return length;
+    }
+
+    /**
+     * Writes the padded path at the current position of a little endian
+     * buffer.
+     *
+     * @param buffer the buffer to write to.
+     */
+    public void encode(ByteBuffer buffer) {
+        encodeSegment(buffer, SEGMENT_CLASS, classId);
+        encodeSegment(buffer, SEGMENT_INSTANCE, instanceId);
+        if (attributeId != NO_ATTRIBUTE) {
+            encodeSegment(buffer, SEGMENT_ATTRIBUTE, attributeId);
+        }
+    }
+
+    private static int segmentLength(int value) {
+        if ((value & 0xFFFFFF00) == 0) {
+            return 2;
+        }
+        return (value & 0xFFFF0000) == 0 ? 4 : 6;
+    }
+
+    private static void encodeSegment(ByteBuffer buffer, int segment, int value) {
+        if ((value & 0xFFFFFF00) == 0) {
+            buffer.put((byte)segment);
+            buffer.put((byte)value);
+        }
+        else if ((value & 0xFFFF0000) == 0) {
+            buffer.put((byte)(segment | 0x01));
+            buffer.put((byte)0);
+            buffer.putShort((short)value);
+        }
+        else {
+            buffer.put((byte)(segment | 0x02));
+            buffer.put((byte)0);
+            buffer.putInt(value);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CipPath)) {
+            return false;
+        }
+        CipPath other = (CipPath)o;
+        return classId == other.classId && instanceId == other.instanceId && attributeId == other.attributeId;
+    }
+
+    @Override
+    public int hashCode() {
+        return (classId * 31 + instanceId) * 31 + attributeId;
+    }
+
+    @Override
+    public String toString() {
+        return attributeId == NO_ATTRIBUTE
+               ? String.format("%d/%d", classId, instanceId)
+               : String.format("%d/%d/%d", classId, instanceId, attributeId);
+    }
+}
@@ -0,0 +1,69 @@
+package com.omnixone.ethernetiplibrary;
+
+/**
+ * A decoded CIP message router reply.
+ */
+public final class CipReply {
+
+    private final int service;
+    private final int generalStatus;
+    private final int[] extendedStatus;
+    private final byte[] data;
+
+    CipReply(int service, int generalStatus, int[] extendedStatus, byte[] data) {
+        this.service = service;
+        this.generalStatus = generalStatus;
+        this.extendedStatus = extendedStatus;
+        this.data = data;
+    }
+
+    /**
+     * Returns the service code of the request this reply answers, without
+     * the reply bit.
+     *
+     * @return the service code.
+     */
+    public int getService() {
+        return service;
+    }
+
+    public int getGeneralStatus() {
+        return generalStatus;
+    }
+
+    public int[] getExtendedStatus() {
+        return extendedStatus.clone();
+    }
+
+    /**
+     * Returns true if the reply carries a general status of 0.
+     *
+     * @return true on success.
+     */
+    public boolean isSuccess() {
+        return generalStatus == EnipConstants.CIP_SUCCESS;
+    }
+
+    /**
+     * Returns the service specific reply data, e.g. an attribute value.
+     *
+     * @return the reply data, never null.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Returns the reply data or throws if the reply signals an error.
+     *
+     * @return the reply data.
+     * @throws EnipException if the general status is not 0.
+     */
+    public byte[] getDataOrThrow() throws EnipException {
+        if (!isSuccess()) {
+            throw new EnipException(String.format("CIP service 0x%02X failed with general status 0x%02X", service, generalStatus),
+                    EnipConstants.STATUS_SUCCESS, generalStatus, extendedStatus);
+        }
+        return data;
+    }
+}
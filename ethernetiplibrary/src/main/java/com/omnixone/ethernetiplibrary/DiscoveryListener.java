@@ -0,0 +1,7 @@
+package com.omnixone.ethernetiplibrary;
+
+import java.net.InetSocketAddress;
+
+public interface DiscoveryListener {
+    void onDeviceDiscovered(InetSocketAddress source, OpenerIdentity identity);
+}
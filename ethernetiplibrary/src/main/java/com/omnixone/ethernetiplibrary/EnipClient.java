@@ -0,0 +1,581 @@
+package com.omnixone.ethernetiplibrary;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Explicit messaging client for other EtherNet/IP devices.
+ *
+ * The client keeps one TCP encapsulation session per instance and reuses it
+ * for every call; it is registered lazily on the first request and again
+ * after an I/O error. Requests are sent unconnected through SendRRData, or,
+ * when enabled with {@link #setUseClass3Connection(boolean)}, over a Class 3
+ * connection through SendUnitData which is also opened once and reused.
+ *
+ * {@link #getAttributes(List)} batches attribute reads into as few Multiple
+ * Service Packet requests as the packet size allows.
+ *
+ * The framing follows the layout of the bundled OpENer encapsulation layer
+ * (<tt>enet_encap/encap.c</tt> and <tt>enet_encap/cpf.c</tt>).
+ */
+public class EnipClient implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EnipClient.class);
+
+    private static final int DEFAULT_MAX_PACKET_SIZE = 500;
+    private static final int MULTIPLE_SERVICE_HEADER_SIZE = 6;
+    private static final int ORIGINATOR_VENDOR_ID = 0xFFFF;
+    private static final int PRIORITY_TIME_TICK = 0x0A;
+    private static final int TIMEOUT_TICKS = 0x0E;
+    private static final int CONNECTION_TIMEOUT_MULTIPLIER = 1;
+
+    private static final CipPath MESSAGE_ROUTER = new CipPath(EnipConstants.CLASS_MESSAGE_ROUTER, 1);
+    private static final CipPath CONNECTION_MANAGER = new CipPath(EnipConstants.CLASS_CONNECTION_MANAGER, 1);
+
+    private interface MessageWriter {
+        void write(ByteBuffer buffer);
+    }
+
+    private final InetSocketAddress address;
+    private final int timeout;
+    private final ByteBuffer txBuffer = ByteBuffer.allocateDirect(EnipConstants.MAX_MESSAGE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer rxBuffer = ByteBuffer.allocateDirect(EnipConstants.MAX_MESSAGE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    private final Random random = new Random();
+
+    private SocketChannel channel;
+    private Selector selector;
+    private SelectionKey key;
+    private int sessionHandle;
+    private long senderContext;
+    private int maxPacketSize = DEFAULT_MAX_PACKET_SIZE;
+
+    private boolean useClass3Connection;
+    private boolean connectionOpen;
+    private int otConnectionId;
+    private int toConnectionId;
+    private int connectionSerial;
+    private int originatorSerial;
+    private int sequenceCount;
+    private long lastConnectedActivity;
+
+    /**
+     * Constructs a client for the given device on the default port.
+     *
+     * @param host host name or address of the target device.
+     */
+    public EnipClient(String host) {
+        this(host, EnipConstants.DEFAULT_PORT, EnipConstants.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructs a client for the given device.
+     *
+     * @param host    host name or address of the target device.
+     * @param port    encapsulation port of the target device.
+     * @param timeout timeout of a single request in milliseconds.
+     */
+    public EnipClient(String host, int port, int timeout) {
+        this.address = new InetSocketAddress(host, port);
+        this.timeout = timeout;
+        this.originatorSerial = random.nextInt();
+    }
+
+    /**
+     * Selects whether requests are sent over a Class 3 connection (true) or
+     * as unconnected messages (false, the default).
+     *
+     * @param useClass3Connection true to use connected explicit messaging.
+     */
+    public synchronized void setUseClass3Connection(boolean useClass3Connection) {
+        if (!useClass3Connection && connectionOpen) {
+            try {
+                forwardClose();
+            }
+            catch (IOException e) {
+                logger.debug("Forward close failed - {}", e.getMessage());
+            }
+        }
+        this.useClass3Connection = useClass3Connection;
+    }
+
+    /**
+     * Sets the maximum size of a Multiple Service Packet request. The target
+     * must be able to answer a packet of this size as well.
+     *
+     * @param maxPacketSize the size in bytes.
+     */
+    public synchronized void setMaxPacketSize(int maxPacketSize) {
+        if (maxPacketSize < 32) {
+            throw new IllegalArgumentException("Packet size must be at least 32 bytes");
+        }
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    /**
+     * Opens the TCP connection and registers a session, unless one is
+     * already registered.
+     *
+     * @throws IOException if the session cannot be registered.
+     */
+    public synchronized void connect() throws IOException {
+        if (channel != null && channel.isOpen()) {
+            return;
+        }
+        try {
+            selector = Selector.open();
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            key = channel.register(selector, SelectionKey.OP_CONNECT);
+            if (!channel.connect(address)) {
+                if (selector.select(timeout) == 0) {
+                    throw new SocketTimeoutException("Timeout connecting to " + address);
+                }
+                selector.selectedKeys().clear();
+                channel.finishConnect();
+            }
+            registerSession();
+        }
+        catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if a session is registered with the target.
+     *
+     * @return true if connected.
+     */
+    public synchronized boolean isConnected() {
+        return channel != null && channel.isOpen() && sessionHandle != 0;
+    }
+
+    /**
+     * Closes the Class 3 connection, unregisters the session and closes the
+     * socket.
+     */
+    @Override
+    public synchronized void close() {
+        if (isConnected()) {
+            try {
+                if (connectionOpen) {
+                    forwardClose();
+                }
+                beginEncapsulation(EnipConstants.COMMAND_UNREGISTER_SESSION);
+                endEncapsulation();
+                writeFully(txBuffer);
+            }
+            catch (IOException e) {
+                logger.debug("Unregister session failed - {}", e.getMessage());
+            }
+        }
+        disconnect();
+    }
+
+    /**
+     * Reads a single attribute.
+     *
+     * @param path path of the attribute.
+     * @return the attribute value.
+     * @throws IOException if the request fails.
+     */
+    public byte[] getAttributeSingle(CipPath path) throws IOException {
+        return invoke(EnipConstants.SERVICE_GET_ATTRIBUTE_SINGLE, path, null).getDataOrThrow();
+    }
+
+    /**
+     * Writes a single attribute.
+     *
+     * @param path  path of the attribute.
+     * @param value the new attribute value.
+     * @throws IOException if the request fails.
+     */
+    public void setAttributeSingle(CipPath path, byte[] value) throws IOException {
+        invoke(EnipConstants.SERVICE_SET_ATTRIBUTE_SINGLE, path, value).getDataOrThrow();
+    }
+
+    /**
+     * Reads all attributes of an instance.
+     *
+     * @param path path of the instance.
+     * @return the concatenated attribute values.
+     * @throws IOException if the request fails.
+     */
+    public byte[] getAttributeAll(CipPath path) throws IOException {
+        return invoke(EnipConstants.SERVICE_GET_ATTRIBUTE_ALL, path, null).getDataOrThrow();
+    }
+
+    /**
+     * Reads the identity object of the target.
+     *
+     * @return the identity of the target device.
+     * @throws IOException if the request fails.
+     */
+    public OpenerIdentity getIdentity() throws IOException {
+        byte[] data = getAttributeAll(new CipPath(EnipConstants.CLASS_IDENTITY, 1));
+        return OpenerIdentity.decode(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Reads many attributes with Multiple Service Packet requests. The paths
+     * are packed into as few requests as {@link #setMaxPacketSize(int)}
+     * allows.
+     *
+     * @param paths paths of the attributes to read.
+     * @return one reply per path, in the order of the paths. A failed read
+     * shows as a reply with a non zero general status.
+     * @throws IOException if a request fails as a whole.
+     */
+    public synchronized List<CipReply> getAttributes(List<CipPath> paths) throws IOException {
+        List<CipReply> replies = new ArrayList<>(paths.size());
+        int start = 0;
+        while (start < paths.size()) {
+            int size = MULTIPLE_SERVICE_HEADER_SIZE + 2;
+            int end = start;
+            while (end < paths.size()) {
+                int next = size + 4 + paths.get(end).getEncodedLength();
+                if (next > maxPacketSize && end > start) {
+                    break;
+                }
+                size = next;
+                end++;
+            }
+            final List<CipPath> batch = paths.subList(start, end);
+            CipReply reply = transact(EnipConstants.SERVICE_MULTIPLE_SERVICE_PACKET, MESSAGE_ROUTER, buffer -> {
+                int base = buffer.position();
+                buffer.putShort((short)batch.size());
+                int offsetPosition = buffer.position();
+                buffer.position(offsetPosition + batch.size() * 2);
+                for (CipPath path : batch) {
+                    buffer.putShort(offsetPosition, (short)(buffer.position() - base));
+                    offsetPosition += 2;
+                    writeRequest(buffer, EnipConstants.SERVICE_GET_ATTRIBUTE_SINGLE, path, null);
+                }
+            });
+
+            // An embedded error is reported as 0x1E, the replies are still there
+            if (!reply.isSuccess() && reply.getGeneralStatus() != EnipConstants.CIP_EMBEDDED_SERVICE_ERROR) {
+                reply.getDataOrThrow();
+            }
+            decodeMultipleServiceReply(reply.getData(), batch.size(), replies);
+            start = end;
+        }
+        return replies;
+    }
+
+    /**
+     * Sends a generic request to the message router of the target.
+     *
+     * @param service the CIP service code.
+     * @param path    the request path.
+     * @param data    the request data, may be null.
+     * @return the reply, which may carry an error status.
+     * @throws IOException if no reply was received.
+     */
+    public CipReply invoke(int service, CipPath path, final byte[] data) throws IOException {
+        return transact(service, path, data == null ? null : buffer -> buffer.put(data));
+    }
+
+    private synchronized CipReply transact(int service, CipPath path, MessageWriter body) throws IOException {
+        connect();
+        try {
+            if (useClass3Connection) {
+                if (connectionOpen && System.currentTimeMillis() - lastConnectedActivity > getConnectionTimeout()) {
+                    logger.debug("Class 3 connection to {} timed out, reopening", address);
+                    connectionOpen = false;
+                }
+                if (!connectionOpen) {
+                    forwardOpen();
+                }
+                try {
+                    return sendConnected(service, path, body);
+                }
+                catch (EnipException e) {
+                    // The target may have dropped the connection, retry once on a new one
+                    logger.debug("Connected request failed - {}, reopening connection", e.getMessage());
+                    connectionOpen = false;
+                    forwardOpen();
+                    return sendConnected(service, path, body);
+                }
+            }
+            return sendUnconnected(service, path, body);
+        }
+        catch (EnipException e) {
+            throw e;
+        }
+        catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    private void registerSession() throws IOException {
+        sessionHandle = 0;
+        beginEncapsulation(EnipConstants.COMMAND_REGISTER_SESSION);
+        txBuffer.putShort((short)EnipConstants.PROTOCOL_VERSION);
+        txBuffer.putShort((short)0);
+        endEncapsulation();
+        exchange();
+        sessionHandle = rxBuffer.getInt(4);
+        logger.debug("Registered session 0x{} with {}", Integer.toHexString(sessionHandle), address);
+    }
+
+    private CipReply sendUnconnected(int service, CipPath path, MessageWriter body) throws IOException {
+        beginEncapsulation(EnipConstants.COMMAND_SEND_RR_DATA);
+        txBuffer.putInt(0);
+        txBuffer.putShort((short)0);
+        txBuffer.putShort((short)2);
+        txBuffer.putShort((short)EnipConstants.ITEM_NULL_ADDRESS);
+        txBuffer.putShort((short)0);
+        txBuffer.putShort((short)EnipConstants.ITEM_UNCONNECTED_DATA);
+        int lengthPosition = txBuffer.position();
+        txBuffer.putShort((short)0);
+        writeRequest(txBuffer, service, path, body);
+        txBuffer.putShort(lengthPosition, (short)(txBuffer.position() - lengthPosition - 2));
+        endEncapsulation();
+        exchange();
+        return readDataItem(EnipConstants.ITEM_UNCONNECTED_DATA);
+    }
+
+    private CipReply sendConnected(int service, CipPath path, MessageWriter body) throws IOException {
+        sequenceCount = (sequenceCount + 1) & 0xFFFF;
+        beginEncapsulation(EnipConstants.COMMAND_SEND_UNIT_DATA);
+        txBuffer.putInt(0);
+        txBuffer.putShort((short)0);
+        txBuffer.putShort((short)2);
+        txBuffer.putShort((short)EnipConstants.ITEM_CONNECTION_ADDRESS);
+        txBuffer.putShort((short)4);
+        txBuffer.putInt(otConnectionId);
+        txBuffer.putShort((short)EnipConstants.ITEM_CONNECTED_DATA);
+        int lengthPosition = txBuffer.position();
+        txBuffer.putShort((short)0);
+        txBuffer.putShort((short)sequenceCount);
+        writeRequest(txBuffer, service, path, body);
+        txBuffer.putShort(lengthPosition, (short)(txBuffer.position() - lengthPosition - 2));
+        endEncapsulation();
+        exchange();
+        CipReply reply = readDataItem(EnipConstants.ITEM_CONNECTED_DATA);
+        lastConnectedActivity = System.currentTimeMillis();
+        return reply;
+    }
+
+    private void forwardOpen() throws IOException {
+        connectionSerial = random.nextInt() & 0xFFFF;
+        final int proposedToConnectionId = random.nextInt();
+        CipReply reply = sendUnconnected(EnipConstants.SERVICE_FORWARD_OPEN, CONNECTION_MANAGER, buffer -> {
+            buffer.put((byte)PRIORITY_TIME_TICK);
+            buffer.put((byte)TIMEOUT_TICKS);
+            buffer.putInt(0);
+            buffer.putInt(proposedToConnectionId);
+            buffer.putShort((short)connectionSerial);
+            buffer.putShort((short)ORIGINATOR_VENDOR_ID);
+            buffer.putInt(originatorSerial);
+            buffer.put((byte)CONNECTION_TIMEOUT_MULTIPLIER);
+            buffer.put((byte)0);
+            buffer.putShort((short)0);
+            buffer.putInt(EnipConstants.DEFAULT_CLASS3_RPI);
+            buffer.putShort((short)EnipConstants.CLASS3_CONNECTION_PARAMETERS);
+            buffer.putInt(EnipConstants.DEFAULT_CLASS3_RPI);
+            buffer.putShort((short)EnipConstants.CLASS3_CONNECTION_PARAMETERS);
+            buffer.put((byte)EnipConstants.TRANSPORT_CLASS3_SERVER);
+            buffer.put((byte)(MESSAGE_ROUTER.getEncodedLength() / 2));
+            MESSAGE_ROUTER.encode(buffer);
+        });
+        ByteBuffer data = ByteBuffer.wrap(reply.getDataOrThrow()).order(ByteOrder.LITTLE_ENDIAN);
+        otConnectionId = data.getInt();
+        toConnectionId = data.getInt();
+        sequenceCount = 0;
+        connectionOpen = true;
+        lastConnectedActivity = System.currentTimeMillis();
+        logger.debug("Opened Class 3 connection 0x{} to {}", Integer.toHexString(otConnectionId), address);
+    }
+
+    private void forwardClose() throws IOException {
+        connectionOpen = false;
+        sendUnconnected(EnipConstants.SERVICE_FORWARD_CLOSE, CONNECTION_MANAGER, buffer -> {
+            buffer.put((byte)PRIORITY_TIME_TICK);
+            buffer.put((byte)TIMEOUT_TICKS);
+            buffer.putShort((short)connectionSerial);
+            buffer.putShort((short)ORIGINATOR_VENDOR_ID);
+            buffer.putInt(originatorSerial);
+            buffer.put((byte)(MESSAGE_ROUTER.getEncodedLength() / 2));
+            buffer.put((byte)0);
+            MESSAGE_ROUTER.encode(buffer);
+        }).getDataOrThrow();
+    }
+
+    private long getConnectionTimeout() {
+        return (EnipConstants.DEFAULT_CLASS3_RPI / 1000L) << (2 + CONNECTION_TIMEOUT_MULTIPLIER);
+    }
+
+    private static void writeRequest(ByteBuffer buffer, int service, CipPath path, MessageWriter body) {
+        buffer.put((byte)service);
+        buffer.put((byte)(path.getEncodedLength() / 2));
+        path.encode(buffer);
+        if (body != null) {
+            body.write(buffer);
+        }
+    }
+
+    private void beginEncapsulation(int command) {
+        txBuffer.clear();
+        txBuffer.putShort((short)command);
+        txBuffer.putShort((short)0);
+        txBuffer.putInt(sessionHandle);
+        txBuffer.putInt(EnipConstants.STATUS_SUCCESS);
+        txBuffer.putLong(++senderContext);
+        txBuffer.putInt(0);
+    }
+
+    private void endEncapsulation() {
+        txBuffer.putShort(2, (short)(txBuffer.position() - EnipConstants.ENCAPSULATION_HEADER_LENGTH));
+        txBuffer.flip();
+    }
+
+    /**
+     * Sends the message in the transmit buffer and reads the reply with the
+     * same sender context. On return the receive buffer is positioned at the
+     * command specific data.
+     */
+    private void exchange() throws IOException {
+        int command = txBuffer.getShort(0) & 0xFFFF;
+        writeFully(txBuffer);
+        while (true) {
+            rxBuffer.clear();
+            rxBuffer.limit(EnipConstants.ENCAPSULATION_HEADER_LENGTH);
+            readFully(rxBuffer);
+            int length = rxBuffer.getShort(2) & 0xFFFF;
+            rxBuffer.limit(EnipConstants.ENCAPSULATION_HEADER_LENGTH + length);
+            readFully(rxBuffer);
+            rxBuffer.position(EnipConstants.ENCAPSULATION_HEADER_LENGTH);
+            if (rxBuffer.getLong(12) != senderContext) {
+                logger.debug("Discarding stale reply with sender context {}", rxBuffer.getLong(12));
+                continue;
+            }
+            int status = rxBuffer.getInt(8);
+            if (status != EnipConstants.STATUS_SUCCESS) {
+                throw new EnipException(String.format("Encapsulation command 0x%04X failed with status 0x%04X", command, status),
+                        status, EnipConstants.CIP_SUCCESS, new int[0]);
+            }
+            return;
+        }
+    }
+
+    private CipReply readDataItem(int itemId) throws IOException {
+        rxBuffer.position(rxBuffer.position() + 6);
+        int itemCount = rxBuffer.getShort() & 0xFFFF;
+        for (int i = 0; i < itemCount; i++) {
+            int type = rxBuffer.getShort() & 0xFFFF;
+            int length = rxBuffer.getShort() & 0xFFFF;
+            if (type == EnipConstants.ITEM_CONNECTION_ADDRESS && length == 4 && rxBuffer.getInt(rxBuffer.position()) != toConnectionId) {
+                throw new EnipException("Reply for unknown connection 0x" + Integer.toHexString(rxBuffer.getInt(rxBuffer.position())));
+            }
+            if (type != itemId) {
+                rxBuffer.position(rxBuffer.position() + length);
+                continue;
+            }
+            if (type == EnipConstants.ITEM_CONNECTED_DATA) {
+                int sequence = rxBuffer.getShort() & 0xFFFF;
+                if (sequence != sequenceCount) {
+                    throw new EnipException("Sequence count mismatch, expected " + sequenceCount + " received " + sequence);
+                }
+                length -= 2;
+            }
+            return decodeReply(rxBuffer, length);
+        }
+        throw new EnipException(String.format("Reply has no data item 0x%04X", itemId));
+    }
+
+    private static CipReply decodeReply(ByteBuffer buffer, int length) {
+        int end = buffer.position() + length;
+        int service = buffer.get() & ~EnipConstants.SERVICE_REPLY_MASK & 0xFF;
+        buffer.get();
+        int generalStatus = buffer.get() & 0xFF;
+        int[] extendedStatus = new int[buffer.get() & 0xFF];
+        for (int i = 0; i < extendedStatus.length; i++) {
+            extendedStatus[i] = buffer.getShort() & 0xFFFF;
+        }
+        byte[] data = new byte[end - buffer.position()];
+        buffer.get(data);
+        return new CipReply(service, generalStatus, extendedStatus, data);
+    }
+
+    private static void decodeMultipleServiceReply(byte[] data, int expected, List<CipReply> replies) throws EnipException {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        int count = buffer.getShort() & 0xFFFF;
+        if (count != expected) {
+            throw new EnipException("Multiple Service Packet reply holds " + count + " replies, expected " + expected);
+        }
+        for (int i = 0; i < count; i++) {
+            int offset = buffer.getShort(2 + i * 2) & 0xFFFF;
+            int next = i + 1 < count ? buffer.getShort(4 + i * 2) & 0xFFFF : data.length;
+            buffer.position(offset);
+            replies.add(decodeReply(buffer, next - offset));
+        }
+    }
+
+    private void writeFully(ByteBuffer src) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (src.hasRemaining()) {
+            if (channel.write(src) == 0) {
+                await(SelectionKey.OP_WRITE, deadline);
+            }
+        }
+    }
+
+    private void readFully(ByteBuffer dst) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (dst.hasRemaining()) {
+            int read = channel.read(dst);
+            if (read < 0) {
+                throw new EOFException("Connection closed by " + address);
+            }
+            if (read == 0) {
+                await(SelectionKey.OP_READ, deadline);
+            }
+        }
+    }
+
+    private void await(int operation, long deadline) throws IOException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+            throw new SocketTimeoutException("Timeout waiting for " + address);
+        }
+        key.interestOps(operation);
+        selector.select(remaining);
+        selector.selectedKeys().clear();
+    }
+
+    private void disconnect() {
+        sessionHandle = 0;
+        connectionOpen = false;
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        }
+        catch (IOException e) {
+            logger.debug("Close failed - {}", e.getMessage());
+        }
+        selector = null;
+        channel = null;
+        key = null;
+    }
+}
@@ -0,0 +1,109 @@
+package com.omnixone.ethernetiplibrary;
+
+/**
+ * Constants of the EtherNet/IP encapsulation layer and of the CIP services
+ * used by the pure-Java client side of the library.
+ *
+ * The values mirror the ones used by the bundled OpENer stack
+ * (<tt>enet_encap/encap.c</tt>, <tt>enet_encap/cpf.h</tt> and
+ * <tt>cip/ciptypes.h</tt>) so both sides stay wire compatible.
+ */
+public interface EnipConstants {
+
+    /**
+     * Default TCP and UDP port of the encapsulation protocol.
+     */
+    int DEFAULT_PORT = 44818;
+
+    /**
+     * Default timeout for encapsulation requests in milliseconds.
+     */
+    int DEFAULT_TIMEOUT = 3000;
+
+    /**
+     * Length of the encapsulation header.
+     */
+    int ENCAPSULATION_HEADER_LENGTH = 24;
+
+    /**
+     * Maximum length of an encapsulation message (header and data).
+     */
+    int MAX_MESSAGE_LENGTH = 65535 + ENCAPSULATION_HEADER_LENGTH;
+
+    /**
+     * Supported encapsulation protocol version.
+     */
+    int PROTOCOL_VERSION = 1;
+
+    /* encapsulation commands */
+    int COMMAND_NOP = 0x0000;
+    int COMMAND_LIST_SERVICES = 0x0004;
+    int COMMAND_LIST_IDENTITY = 0x0063;
+    int COMMAND_LIST_INTERFACES = 0x0064;
+    int COMMAND_REGISTER_SESSION = 0x0065;
+    int COMMAND_UNREGISTER_SESSION = 0x0066;
+    int COMMAND_SEND_RR_DATA = 0x006F;
+    int COMMAND_SEND_UNIT_DATA = 0x0070;
+
+    /* encapsulation status codes */
+    int STATUS_SUCCESS = 0x0000;
+    int STATUS_INVALID_COMMAND = 0x0001;
+    int STATUS_INSUFFICIENT_MEMORY = 0x0002;
+    int STATUS_INCORRECT_DATA = 0x0003;
+    int STATUS_INVALID_SESSION_HANDLE = 0x0064;
+    int STATUS_INVALID_LENGTH = 0x0065;
+    int STATUS_UNSUPPORTED_PROTOCOL = 0x0069;
+
+    /* common packet format item ids */
+    int ITEM_NULL_ADDRESS = 0x0000;
+    int ITEM_LIST_IDENTITY_RESPONSE = 0x000C;
+    int ITEM_CONNECTION_ADDRESS = 0x00A1;
+    int ITEM_CONNECTED_DATA = 0x00B1;
+    int ITEM_UNCONNECTED_DATA = 0x00B2;
+
+    /* CIP services */
+    int SERVICE_GET_ATTRIBUTE_ALL = 0x01;
+    int SERVICE_SET_ATTRIBUTE_ALL = 0x02;
+    int SERVICE_MULTIPLE_SERVICE_PACKET = 0x0A;
+    int SERVICE_GET_ATTRIBUTE_SINGLE = 0x0E;
+    int SERVICE_SET_ATTRIBUTE_SINGLE = 0x10;
+    int SERVICE_FORWARD_CLOSE = 0x4E;
+    int SERVICE_FORWARD_OPEN = 0x54;
+
+    /**
+     * Bit set in the service code of every CIP reply.
+     */
+    int SERVICE_REPLY_MASK = 0x80;
+
+    /* CIP classes */
+    int CLASS_IDENTITY = 0x01;
+    int CLASS_MESSAGE_ROUTER = 0x02;
+    int CLASS_ASSEMBLY = 0x04;
+    int CLASS_CONNECTION_MANAGER = 0x06;
+
+    /* CIP general status codes */
+    int CIP_SUCCESS = 0x00;
+    int CIP_CONNECTION_FAILURE = 0x01;
+    int CIP_PATH_DESTINATION_UNKNOWN = 0x05;
+    int CIP_SERVICE_NOT_SUPPORTED = 0x08;
+    int CIP_ATTRIBUTE_NOT_SUPPORTED = 0x14;
+    int CIP_EMBEDDED_SERVICE_ERROR = 0x1E;
+
+    /**
+     * Transport class and trigger of an explicit messaging Class 3
+     * connection (server, application object trigger).
+     */
+    int TRANSPORT_CLASS3_SERVER = 0xA3;
+
+    /**
+     * Network connection parameters of a Class 3 connection: point to
+     * point, low priority, variable size of up to 500 bytes.
+     */
+    int CLASS3_CONNECTION_PARAMETERS = 0x43F4;
+
+    /**
+     * Default requested packet interval of a Class 3 connection in
+     * microseconds.
+     */
+    int DEFAULT_CLASS3_RPI = 2000000;
+}
@@ -0,0 +1,289 @@
+package com.omnixone.ethernetiplibrary;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ListIdentity discovery of EtherNet/IP devices.
+ *
+ * All requests go out through one non-blocking {@link DatagramChannel} on the
+ * calling thread. Sends are paced to {@link #setPacketsPerSecond(int)} and
+ * replies are drained between sends, so a sweep over a large range finishes
+ * in range size / rate seconds plus the response delay. Each replying device
+ * is reported once to the {@link DiscoveryListener} as soon as its reply
+ * arrives, also when it answers both a broadcast and a unicast request.
+ */
+public class EnipDiscovery implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(EnipDiscovery.class);
+
+    private static final int DEFAULT_PACKETS_PER_SECOND = 20000;
+    private static final int DEFAULT_RESPONSE_DELAY = 500;
+    private static final long MIN_INTERVAL_NANOS = 1000;
+    private static final int MAX_DATAGRAM_SIZE = 1500;
+    private static final int SOCKET_ADDRESS_LENGTH = 16;
+
+    private final int port;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final ByteBuffer request = ByteBuffer.allocateDirect(EnipConstants.ENCAPSULATION_HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer reply = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final Set<Integer> seen = new HashSet<>();
+
+    private int packetsPerSecond = DEFAULT_PACKETS_PER_SECOND;
+    private int responseDelay = DEFAULT_RESPONSE_DELAY;
+
+    /**
+     * Opens a discovery channel for devices on the default port.
+     *
+     * @throws IOException if the channel cannot be opened.
+     */
+    public EnipDiscovery() throws IOException {
+        this(EnipConstants.DEFAULT_PORT);
+    }
+
+    /**
+     * Opens a discovery channel for devices on the given port.
+     *
+     * @param port the UDP encapsulation port of the devices.
+     * @throws IOException if the channel cannot be opened.
+     */
+    public EnipDiscovery(int port) throws IOException {
+        this.port = port;
+        channel = DatagramChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setBroadcast(true);
+        channel.socket().setReceiveBufferSize(1 << 20);
+        channel.bind(null);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+    }
+
+    /**
+     * Sets the rate at which requests are sent. Rates above one million
+     * requests per second are limited to that.
+     *
+     * @param packetsPerSecond the number of requests per second, greater than 0.
+     */
+    public synchronized void setPacketsPerSecond(int packetsPerSecond) {
+        if (packetsPerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        this.packetsPerSecond = packetsPerSecond;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a device may delay its reply.
+     * The value is sent in the request and a scan waits this long after its
+     * last request. Devices use at least 500 ms.
+     *
+     * @param responseDelay the delay in milliseconds.
+     */
+    public synchronized void setResponseDelay(int responseDelay) {
+        this.responseDelay = Math.max(responseDelay, DEFAULT_RESPONSE_DELAY);
+    }
+
+    /**
+     * Forgets the devices reported so far, so that they are reported again
+     * by the next scan.
+     */
+    public synchronized void reset() {
+        seen.clear();
+    }
+
+    /**
+     * Sends one ListIdentity request to a broadcast address and collects the
+     * replies.
+     *
+     * @param broadcastAddress the broadcast address of the subnet.
+     * @param listener         receives every newly discovered device.
+     * @return the number of newly discovered devices.
+     * @throws IOException if the channel fails.
+     */
+    public int broadcast(InetAddress broadcastAddress, DiscoveryListener listener) throws IOException {
+        int address = toInt(broadcastAddress);
+        return sweep(address, address, listener);
+    }
+
+    /**
+     * Sends a unicast ListIdentity request to every host address of a
+     * subnet. The network and broadcast addresses are skipped.
+     *
+     * @param network      any address of the subnet.
+     * @param prefixLength the prefix length of the subnet, 16 for a /16.
+     * @param listener     receives every newly discovered device.
+     * @return the number of newly discovered devices.
+     * @throws IOException if the channel fails.
+     */
+    public int sweep(InetAddress network, int prefixLength, DiscoveryListener listener) throws IOException {
+        if (prefixLength < 0 || prefixLength > 32) {
+            throw new IllegalArgumentException("Invalid prefix length " + prefixLength);
+        }
+        int mask = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+        int first = toInt(network) & mask;
+        int last = first | ~mask;
+        if (prefixLength < 31) {
+            first++;
+            last--;
+        }
+        return sweep(first, last, listener);
+    }
+
+    /**
+     * Sends a unicast ListIdentity request to every address of a range.
+     *
+     * @param first    the first address of the range.
+     * @param last     the last address of the range, inclusive.
+     * @param listener receives every newly discovered device.
+     * @return the number of newly discovered devices.
+     * @throws IOException if the channel fails.
+     */
+    public int sweep(InetAddress first, InetAddress last, DiscoveryListener listener) throws IOException {
+        return sweep(toInt(first), toInt(last), listener);
+    }
+
+    /**
+     * Closes the channel.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            selector.close();
+            channel.close();
+        }
+        catch (IOException e) {
+            logger.debug("Close failed - {}", e.getMessage());
+        }
+    }
+
+    private synchronized int sweep(int first, int last, DiscoveryListener listener) throws IOException {
+        if (Integer.compareUnsigned(first, last) > 0) {
+            throw new IllegalArgumentException("Empty address range");
+        }
+        request.clear();
+        request.putShort((short)EnipConstants.COMMAND_LIST_IDENTITY);
+        request.putShort((short)0);
+        request.putInt(0);
+        request.putInt(EnipConstants.STATUS_SUCCESS);
+        request.putShort((short)responseDelay);
+        request.putShort((short)0);
+        request.putInt(0);
+        request.putInt(0);
+        request.flip();
+
+        long count = (last & 0xFFFFFFFFL) - (first & 0xFFFFFFFFL) + 1;
+        long intervalNanos = Math.max(MIN_INTERVAL_NANOS, TimeUnit.SECONDS.toNanos(1) / packetsPerSecond);
+        long start = System.nanoTime();
+        long sent = 0;
+        int found = 0;
+        while (sent < count) {
+            long due = Math.min(count, (System.nanoTime() - start) / intervalNanos + 1);
+            while (sent < due) {
+                request.rewind();
+                InetSocketAddress target = new InetSocketAddress(toAddress(first + (int)sent), port);
+                if (channel.send(request, target) == 0) {
+                    break;
+                }
+                sent++;
+            }
+            found += receive(listener);
+            if (sent < count) {
+                long wait = TimeUnit.NANOSECONDS.toMillis(start + sent * intervalNanos - System.nanoTime());
+                selector.select(Math.max(1, wait));
+                selector.selectedKeys().clear();
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + responseDelay + 100;
+        for (long remaining = responseDelay + 100; remaining > 0; remaining = deadline - System.currentTimeMillis()) {
+            selector.select(remaining);
+            selector.selectedKeys().clear();
+            found += receive(listener);
+        }
+        logger.debug("Sent {} ListIdentity requests, found {} devices", count, found);
+        return found;
+    }
+
+    private int receive(DiscoveryListener listener) throws IOException {
+        int found = 0;
+        SocketAddress source;
+        while (true) {
+            reply.clear();
+            source = channel.receive(reply);
+            if (source == null) {
+                return found;
+            }
+            reply.flip();
+            InetSocketAddress from = (InetSocketAddress)source;
+            if (!(from.getAddress() instanceof Inet4Address) || !seen.add(toInt(from.getAddress()))) {
+                continue;
+            }
+            OpenerIdentity identity = decode(reply);
+            if (identity == null) {
+                seen.remove(toInt(from.getAddress()));
+                continue;
+            }
+            found++;
+            if (listener != null) {
+                listener.onDeviceDiscovered(from, identity);
+            }
+        }
+    }
+
+    private static OpenerIdentity decode(ByteBuffer buffer) {
+        try {
+            if ((buffer.getShort() & 0xFFFF) != EnipConstants.COMMAND_LIST_IDENTITY) {
+                return null;
+            }
+            buffer.position(8);
+            if (buffer.getInt() != EnipConstants.STATUS_SUCCESS) {
+                return null;
+            }
+            buffer.position(EnipConstants.ENCAPSULATION_HEADER_LENGTH);
+            int itemCount = buffer.getShort() & 0xFFFF;
+            for (int i = 0; i < itemCount; i++) {
+                int type = buffer.getShort() & 0xFFFF;
+                int length = buffer.getShort() & 0xFFFF;
+                if (type != EnipConstants.ITEM_LIST_IDENTITY_RESPONSE) {
+                    buffer.position(buffer.position() + length);
+                    continue;
+                }
+                buffer.limit(Math.min(buffer.limit(), buffer.position() + length));
+                buffer.position(buffer.position() + 2 + SOCKET_ADDRESS_LENGTH);
+                return OpenerIdentity.decode(buffer);
+            }
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            logger.debug("Malformed ListIdentity reply - {}", e.getMessage());
+        }
+        return null;
+    }
+
+    private static int toInt(InetAddress address) {
+        if (!(address instanceof Inet4Address)) {
+            throw new IllegalArgumentException("Only IPv4 addresses are supported: " + address);
+        }
+        byte[] bytes = address.getAddress();
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    private static InetAddress toAddress(int address) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{(byte)(address >>> 24), (byte)(address >>> 16), (byte)(address >>> 8), (byte)address});
+    }
+}
@@ -0,0 +1,55 @@
+package com.omnixone.ethernetiplibrary;
+
+import java.io.IOException;
+
+/**
+ * Signals a failed EtherNet/IP exchange. Either the encapsulation layer
+ * rejected the request (see {@link #getEncapsulationStatus()}) or the CIP
+ * reply carried a non zero general status (see {@link #getGeneralStatus()}).
+ */
+public class EnipException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int encapsulationStatus;
+    private final int generalStatus;
+    private final int[] extendedStatus;
+
+    public EnipException(String message) {
+        this(message, EnipConstants.STATUS_SUCCESS, EnipConstants.CIP_SUCCESS, new int[0]);
+    }
+
+    public EnipException(String message, int encapsulationStatus, int generalStatus, int[] extendedStatus) {
+        super(message);
+        this.encapsulationStatus = encapsulationStatus;
+        this.generalStatus = generalStatus;
+        this.extendedStatus = extendedStatus;
+    }
+
+    /**
+     * Returns the status field of the encapsulation header.
+     *
+     * @return the encapsulation status, 0 if the error is a CIP one.
+     */
+    public int getEncapsulationStatus() {
+        return encapsulationStatus;
+    }
+
+    /**
+     * Returns the CIP general status of the failed reply.
+     *
+     * @return the general status, 0 if the error is an encapsulation one.
+     */
+    public int getGeneralStatus() {
+        return generalStatus;
+    }
+
+    /**
+     * Returns the CIP additional status words of the failed reply.
+     *
+     * @return the additional status words, never null.
+     */
+    public int[] getExtendedStatus() {
+        return extendedStatus.clone();
+    }
+}
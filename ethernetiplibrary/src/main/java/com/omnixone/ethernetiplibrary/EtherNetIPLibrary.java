@@ -1,9 +1,12 @@
 package com.omnixone.ethernetiplibrary;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class EtherNetIPLibrary {
 
-    private static CppDataListener dataListener;
+    private static volatile CppDataListener dataListener;
+    private static final List<CppDataListener> dataListeners = new CopyOnWriteArrayList<>();
     // Load the native library
     static {
         System.loadLibrary("opener-lib");
@@ -20,6 +23,7 @@ public class EtherNetIPLibrary {
 
     public native OpenerIdentity getIdentity();
     public static native void setInputValues(byte[] values);
+    public static native void setInputRange(int assemblyOffset, byte[] values, int offset, int length);
 
     public static native void setAssemblyData(int  _input_assembly_num,
                                               int _output_assembly_num,
@@ -47,8 +51,12 @@ public class EtherNetIPLibrary {
 //        }
 //        System.out.println();
 
-        if (dataListener != null) {
-            dataListener.onCppDataReceived(data); // Notify MainActivity
+        CppDataListener listener = dataListener;
+        if (listener != null) {
+            listener.onCppDataReceived(data); // Notify MainActivity
+        }
+        for (CppDataListener l : dataListeners) {
+            l.onCppDataReceived(data);
         }
     }
 
@@ -56,6 +64,22 @@ public class EtherNetIPLibrary {
         dataListener = listener;
     }
 
+    /**
+     * Adds a listener for output assembly data, notified in addition to the
+     * one set with {@link #setCppDataListener(CppDataListener)}.
+     *
+     * @param listener the listener to add.
+     */
+    public static void addCppDataListener(CppDataListener listener) {
+        if (!dataListeners.contains(listener)) {
+            dataListeners.add(listener);
+        }
+    }
+
+    public static void removeCppDataListener(CppDataListener listener) {
+        dataListeners.remove(listener);
+    }
+
 
     public static void setEthernetAssemblyData(int  input_assembly_num,
                                        int output_assembly_num,
@@ -0,0 +1,388 @@
+package com.omnixone.ethernetiplibrary;
+
+import com.omnixone.modbuslibrary.ModbusException;
+import com.omnixone.modbuslibrary.facade.AbstractModbusMaster;
+import com.omnixone.modbuslibrary.procimg.InputRegister;
+import com.omnixone.modbuslibrary.procimg.Register;
+import com.omnixone.modbuslibrary.procimg.SimpleRegister;
+import com.omnixone.modbuslibrary.util.BitVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bridges Modbus devices to the EtherNet/IP adapter.
+ *
+ * One cycle runs every RPI on a dedicated thread, aligned to a fixed time
+ * grid: all input points are polled into a shadow of the input assembly,
+ * only the byte ranges that changed since the last cycle are published to
+ * the stack, and output points whose bytes changed in the output assembly
+ * since their last write are written to their devices. Any number of output
+ * assembly updates between two cycles coalesce into a single write per
+ * point.
+ *
+ * A cycle that takes longer than the RPI skips the missed slots rather
+ * than queueing up, so the age of published data stays bounded by the
+ * cycle time plus one RPI. The time from the start of a poll to the
+ * publication of its data is measured and available from
+ * {@link #getLastLatencyNanos()}, {@link #getMaxLatencyNanos()} and
+ * {@link #getAverageLatencyNanos()}.
+ */
+public class ModbusBridge implements CppDataListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusBridge.class);
+
+    /**
+     * Changed ranges separated by less unchanged bytes than this are
+     * published with one call.
+     */
+    private static final int MERGE_GAP = 8;
+
+    private final AbstractModbusMaster master;
+    private final long periodNanos;
+    private final List<ModbusPoint> inputPoints = new ArrayList<>();
+    private final List<ModbusPoint> outputPoints = new ArrayList<>();
+
+    private final byte[] inputImage;
+    private final byte[] publishedImage;
+    private final byte[] outputImage;
+    private final byte[] outputSnapshot;
+    private final byte[] writtenOutput;
+    private boolean outputDirty;
+    private boolean inputPublished;
+    private boolean outputWritten;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private final AtomicLong cycles = new AtomicLong();
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile long lastLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private long totalLatencyNanos;
+
+    /**
+     * Creates a bridge.
+     *
+     * @param master     the master used to access the devices; it must be
+     *                   connected before {@link #start()} is called.
+     * @param inputSize  size of the input assembly in bytes.
+     * @param outputSize size of the output assembly in bytes.
+     * @param rpi        cycle time in milliseconds, normally the RPI of the
+     *                   I/O connection.
+     */
+    public ModbusBridge(AbstractModbusMaster master, int inputSize, int outputSize, int rpi) {
+        if (rpi <= 0) {
+            throw new IllegalArgumentException("RPI must be positive");
+        }
+        this.master = master;
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(rpi);
+        inputImage = new byte[inputSize];
+        publishedImage = new byte[inputSize];
+        outputImage = new byte[outputSize];
+        outputSnapshot = new byte[outputSize];
+        writtenOutput = new byte[outputSize];
+    }
+
+    /**
+     * Adds a point to the mapping. Points must be added before the bridge
+     * is started.
+     *
+     * @param point the point to add.
+     */
+    public synchronized void addPoint(ModbusPoint point) {
+        if (running) {
+            throw new IllegalStateException("Bridge is running");
+        }
+        int size = point.isOutput() ? outputImage.length : inputImage.length;
+        if (point.getAssemblyOffset() + point.getByteLength() > size) {
+            throw new IllegalArgumentException("Point does not fit into the assembly: " + point);
+        }
+        (point.isOutput() ? outputPoints : inputPoints).add(point);
+    }
+
+    /**
+     * Starts the cycle thread and adds the bridge as a listener for
+     * output assembly data, next to the application's own listener.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        inputPublished = false;
+        outputWritten = false;
+        EtherNetIPLibrary.addCppDataListener(this);
+        thread = new Thread(this::run, "Modbus-EtherNet/IP Bridge");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the cycle thread and waits for the current cycle to finish.
+     */
+    public void stop() {
+        Thread current;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            EtherNetIPLibrary.removeCppDataListener(this);
+            current = thread;
+            thread = null;
+        }
+        LockSupport.unpark(current);
+        try {
+            current.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void onCppDataReceived(byte[] data) {
+        synchronized (outputImage) {
+            int length = Math.min(data.length, outputImage.length);
+            for (int i = 0; i < length && !outputDirty; i++) {
+                outputDirty = outputImage[i] != data[i];
+            }
+            System.arraycopy(data, 0, outputImage, 0, length);
+        }
+    }
+
+    public long getCycleCount() {
+        return cycles.get();
+    }
+
+    /**
+     * Returns the number of cycles that did not finish within the RPI.
+     *
+     * @return the number of overruns.
+     */
+    public long getOverrunCount() {
+        return overruns.get();
+    }
+
+    /**
+     * Returns the number of failed Modbus reads and writes.
+     *
+     * @return the number of failures.
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the time from the start of the last poll to the publication
+     * of its data to the input assembly.
+     *
+     * @return the latency in nanoseconds.
+     */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos;
+    }
+
+    public synchronized long getAverageLatencyNanos() {
+        long count = cycles.get();
+        return count == 0 ? 0 : totalLatencyNanos / count;
+    }
+
+    /**
+     * Resets cycle, overrun, failure and latency statistics.
+     */
+    public synchronized void resetStatistics() {
+        cycles.set(0);
+        overruns.set(0);
+        failures.set(0);
+        lastLatencyNanos = 0;
+        maxLatencyNanos = 0;
+        totalLatencyNanos = 0;
+    }
+
+    /**
+     * Publishes a changed range of the input assembly. The default
+     * implementation hands it to the OpENer stack.
+     *
+     * @param image  the complete input image.
+     * @param offset the offset of the changed range.
+     * @param length the length of the changed range.
+     */
+    protected void publish(byte[] image, int offset, int length) {
+        EtherNetIPLibrary.setInputRange(offset, image, offset, length);
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (running) {
+            runCycle();
+            next += periodNanos;
+            long now = System.nanoTime();
+            if (now - next > 0) {
+                long missed = (now - next) / periodNanos + 1;
+                overruns.addAndGet(missed);
+                next += missed * periodNanos;
+                logger.debug("Bridge cycle overran by {} periods", missed);
+            }
+            for (long wait = next - now; wait > 0 && running; wait = next - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    private void runCycle() {
+        long start = System.nanoTime();
+        for (ModbusPoint point : inputPoints) {
+            try {
+                read(point);
+            }
+            catch (ModbusException e) {
+                failures.incrementAndGet();
+                logger.debug("Reading {} failed - {}", point, e.getMessage());
+            }
+        }
+        publishChanges();
+        long latency = System.nanoTime() - start;
+
+        synchronized (this) {
+            cycles.incrementAndGet();
+            lastLatencyNanos = latency;
+            totalLatencyNanos += latency;
+            if (latency > maxLatencyNanos) {
+                maxLatencyNanos = latency;
+            }
+        }
+        writeOutputs();
+    }
+
+    private void read(ModbusPoint point) throws ModbusException {
+        int offset = point.getAssemblyOffset();
+        switch (point.getType()) {
+            case HOLDING_REGISTER:
+                copyRegisters(master.readMultipleRegisters(point.getUnitId(), point.getReference(), point.getCount()), offset);
+                break;
+            case INPUT_REGISTER:
+                copyRegisters(master.readInputRegisters(point.getUnitId(), point.getReference(), point.getCount()), offset);
+                break;
+            case COIL:
+                copyBits(master.readCoils(point.getUnitId(), point.getReference(), point.getCount()), point, offset);
+                break;
+            case DISCRETE_INPUT:
+                copyBits(master.readInputDiscretes(point.getUnitId(), point.getReference(), point.getCount()), point, offset);
+                break;
+        }
+    }
+
+    private void copyRegisters(InputRegister[] registers, int offset) {
+        for (InputRegister register : registers) {
+            int value = register.getValue();
+            inputImage[offset++] = (byte)value;
+            inputImage[offset++] = (byte)(value >> 8);
+        }
+    }
+
+    private void copyBits(BitVector bits, ModbusPoint point, int offset) {
+        bits.copyTo(inputImage, offset, Math.min(bits.byteSize(), point.getByteLength()));
+    }
+
+    private void publishChanges() {
+        if (!inputPublished) {
+            publish(inputImage, 0, inputImage.length);
+            System.arraycopy(inputImage, 0, publishedImage, 0, inputImage.length);
+            inputPublished = true;
+            return;
+        }
+        int i = 0;
+        while (i < inputImage.length) {
+            if (inputImage[i] == publishedImage[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            for (int j = end; j < inputImage.length && j - end < MERGE_GAP; j++) {
+                if (inputImage[j] != publishedImage[j]) {
+                    end = j + 1;
+                }
+            }
+            publish(inputImage, start, end - start);
+            System.arraycopy(inputImage, start, publishedImage, start, end - start);
+            i = end;
+        }
+    }
+
+    private void writeOutputs() {
+        synchronized (outputImage) {
+            if (!outputDirty && outputWritten) {
+                return;
+            }
+            System.arraycopy(outputImage, 0, outputSnapshot, 0, outputImage.length);
+            outputDirty = false;
+        }
+        boolean complete = true;
+        for (ModbusPoint point : outputPoints) {
+            int offset = point.getAssemblyOffset();
+            int length = point.getByteLength();
+            if (outputWritten && regionEquals(outputSnapshot, writtenOutput, offset, length)) {
+                continue;
+            }
+            try {
+                write(point);
+                System.arraycopy(outputSnapshot, offset, writtenOutput, offset, length);
+            }
+            catch (ModbusException e) {
+                failures.incrementAndGet();
+                complete = false;
+                logger.debug("Writing {} failed - {}", point, e.getMessage());
+            }
+        }
+        if (!complete) {
+            // Retry the failed points in the next cycle
+            synchronized (outputImage) {
+                outputDirty = true;
+            }
+        }
+        outputWritten = true;
+    }
+
+    private void write(ModbusPoint point) throws ModbusException {
+        int offset = point.getAssemblyOffset();
+        if (point.getType() == ModbusPoint.Type.COIL) {
+            BitVector coils = new BitVector(point.getCount());
+            coils.copyFrom(outputSnapshot, offset, point.getByteLength());
+            master.writeMultipleCoils(point.getUnitId(), point.getReference(), coils);
+        }
+        else {
+            Register[] registers = new Register[point.getCount()];
+            for (int i = 0; i < registers.length; i++) {
+                registers[i] = new SimpleRegister((outputSnapshot[offset + 2 * i] & 0xFF) | (outputSnapshot[offset + 2 * i + 1] & 0xFF) << 8);
+            }
+            master.writeMultipleRegisters(point.getUnitId(), point.getReference(), registers);
+        }
+    }
+
+    private static boolean regionEquals(byte[] a, byte[] b, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,118 @@
+package com.omnixone.ethernetiplibrary;
+
+import com.omnixone.modbuslibrary.Modbus;
+
+/**
+ * Maps a block of Modbus data to a byte offset in an assembly.
+ *
+ * Input points are polled from the device and copied to the input assembly
+ * (device to PLC); output points take their value from the output assembly
+ * and are written to the device (PLC to device). Registers occupy two bytes
+ * each in CIP (little endian) order, coils and discrete inputs are packed
+ * eight to a byte, LSB first.
+ */
+public final class ModbusPoint {
+
+    public enum Type {
+        COIL, DISCRETE_INPUT, HOLDING_REGISTER, INPUT_REGISTER
+    }
+
+    private static final int MAX_READ_REGISTERS = 125;
+    private static final int MAX_WRITE_REGISTERS = 123;
+    private static final int MAX_WRITE_COILS = 1968;
+
+    private final boolean output;
+    private final int unitId;
+    private final Type type;
+    private final int reference;
+    private final int count;
+    private final int assemblyOffset;
+
+    private ModbusPoint(boolean output, int unitId, Type type, int reference, int count, int assemblyOffset) {
+        boolean bits = type == Type.COIL || type == Type.DISCRETE_INPUT;
+        int maxCount = bits ? (output ? MAX_WRITE_COILS : Modbus.MAX_BITS) : (output ? MAX_WRITE_REGISTERS : MAX_READ_REGISTERS);
+        if (count <= 0 || count > maxCount) {
+            throw new IllegalArgumentException("Count must be between 1 and " + maxCount);
+        }
+        if (assemblyOffset < 0) {
+            throw new IllegalArgumentException("Assembly offset must not be negative");
+        }
+        this.output = output;
+        this.unitId = unitId;
+        this.type = type;
+        this.reference = reference;
+        this.count = count;
+        this.assemblyOffset = assemblyOffset;
+    }
+
+    /**
+     * Creates a point that is read from the device and published to the
+     * input assembly.
+     *
+     * @param unitId         unit id of the device.
+     * @param type           the Modbus data type to read.
+     * @param reference      the first Modbus address.
+     * @param count          the number of registers or bits.
+     * @param assemblyOffset the byte offset in the input assembly.
+     * @return the point.
+     */
+    public static ModbusPoint input(int unitId, Type type, int reference, int count, int assemblyOffset) {
+        return new ModbusPoint(false, unitId, type, reference, count, assemblyOffset);
+    }
+
+    /**
+     * Creates a point that is taken from the output assembly and written to
+     * the device whenever its bytes change.
+     *
+     * @param unitId         unit id of the device.
+     * @param type           {@link Type#COIL} or {@link Type#HOLDING_REGISTER}.
+     * @param reference      the first Modbus address.
+     * @param count          the number of registers or coils.
+     * @param assemblyOffset the byte offset in the output assembly.
+     * @return the point.
+     */
+    public static ModbusPoint output(int unitId, Type type, int reference, int count, int assemblyOffset) {
+        if (type != Type.COIL && type != Type.HOLDING_REGISTER) {
+            throw new IllegalArgumentException(type + " cannot be written");
+        }
+        return new ModbusPoint(true, unitId, type, reference, count, assemblyOffset);
+    }
+
+    public boolean isOutput() {
+        return output;
+    }
+
+    public int getUnitId() {
+        return unitId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getReference() {
+        return reference;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getAssemblyOffset() {
+        return assemblyOffset;
+    }
+
+    /**
+     * Returns the number of assembly bytes the point occupies.
+     *
+     * @return the length in bytes.
+     */
+    public int getByteLength() {
+        return type == Type.COIL || type == Type.DISCRETE_INPUT ? (count + 7) / 8 : count * 2;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s unit=%d ref=%d count=%d offset=%d", output ? "output" : "input", type, unitId, reference, count, assemblyOffset);
+    }
+}
@@ -1,5 +1,8 @@
 package com.omnixone.ethernetiplibrary;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class OpenerIdentity {
     public int vendorId;
     public int deviceType;
@@ -8,4 +11,24 @@ public class OpenerIdentity {
     public int minorRevision;
     public int serialNumber;
     public String productName;
+
+    /**
+     * Decodes the identity attributes as they are laid out in a
+     * Get_Attributes_All reply of the identity object and in a ListIdentity
+     * reply item, starting at the vendor id.
+     */
+    static OpenerIdentity decode(ByteBuffer buffer) {
+        OpenerIdentity identity = new OpenerIdentity();
+        identity.vendorId = buffer.getShort() & 0xFFFF;
+        identity.deviceType = buffer.getShort() & 0xFFFF;
+        identity.productCode = buffer.getShort() & 0xFFFF;
+        identity.majorRevision = buffer.get() & 0xFF;
+        identity.minorRevision = buffer.get() & 0xFF;
+        buffer.getShort();
+        identity.serialNumber = buffer.getInt();
+        byte[] name = new byte[Math.min(buffer.get() & 0xFF, buffer.remaining())];
+        buffer.get(name);
+        identity.productName = new String(name, StandardCharsets.US_ASCII);
+        return identity;
+    }
 }
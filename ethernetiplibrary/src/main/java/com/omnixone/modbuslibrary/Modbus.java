@@ -255,6 +255,18 @@ public interface Modbus {
      */
     int MAX_MESSAGE_LENGTH = 256;
 
+    /**
+     * Defines the maximum number of data bytes following the
+     * function code of a request or response (=<tt>252</tt>).
+     */
+    int MAX_PDU_DATA_LENGTH = 252;
+
+    /**
+     * Defines the maximum byte count of a READ FILE RECORD request or
+     * response (=<tt>245</tt>).
+     */
+    int MAX_FILE_RECORD_DATA_LENGTH = 0xF5;
+
     /**
      * Defines the default transaction identifier (=<tt>0</tt>).
      */
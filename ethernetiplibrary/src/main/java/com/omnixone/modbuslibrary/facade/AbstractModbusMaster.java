@@ -98,6 +98,7 @@ public abstract class AbstractModbusMaster {
         transaction.execute();
         BitVector bv = ((ReadCoilsResponse) getAndCheckResponse()).getCoils();
         bv.forceSize(count);
+        releaseResponse();
         return bv;
     }
 
@@ -123,7 +124,9 @@ public abstract class AbstractModbusMaster {
         writeCoilRequest.setCoil(state);
         transaction.setRequest(writeCoilRequest);
         transaction.execute();
-        return ((WriteCoilResponse) getAndCheckResponse()).getCoil();
+        boolean coil = ((WriteCoilResponse) getAndCheckResponse()).getCoil();
+        releaseResponse();
+        return coil;
     }
 
     /**
@@ -149,6 +152,7 @@ public abstract class AbstractModbusMaster {
         writeMultipleCoilsRequest.setCoils(coils);
         transaction.setRequest(writeMultipleCoilsRequest);
         transaction.execute();
+        releaseResponse();
     }
 
     /**
@@ -179,6 +183,7 @@ public abstract class AbstractModbusMaster {
         transaction.execute();
         BitVector bv = ((ReadInputDiscretesResponse)getAndCheckResponse()).getDiscretes();
         bv.forceSize(count);
+        releaseResponse();
         return bv;
     }
 
@@ -207,7 +212,9 @@ public abstract class AbstractModbusMaster {
         readInputRegistersRequest.setWordCount(count);
         transaction.setRequest(readInputRegistersRequest);
         transaction.execute();
-        return ((ReadInputRegistersResponse) getAndCheckResponse()).getRegisters();
+        InputRegister[] registers = ((ReadInputRegistersResponse) getAndCheckResponse()).getRegisters();
+        releaseResponse();
+        return registers;
     }
 
     /**
@@ -235,7 +242,9 @@ public abstract class AbstractModbusMaster {
         readMultipleRegistersRequest.setWordCount(count);
         transaction.setRequest(readMultipleRegistersRequest);
         transaction.execute();
-        return ((ReadMultipleRegistersResponse) getAndCheckResponse()).getRegisters();
+        Register[] registers = ((ReadMultipleRegistersResponse) getAndCheckResponse()).getRegisters();
+        releaseResponse();
+        return registers;
     }
 
     /**
@@ -261,7 +270,9 @@ public abstract class AbstractModbusMaster {
         writeSingleRegisterRequest.setRegister(register);
         transaction.setRequest(writeSingleRegisterRequest);
         transaction.execute();
-        return ((WriteSingleRegisterResponse) getAndCheckResponse()).getRegisterValue();
+        int value = ((WriteSingleRegisterResponse) getAndCheckResponse()).getRegisterValue();
+        releaseResponse();
+        return value;
     }
 
     /**
@@ -287,7 +298,9 @@ public abstract class AbstractModbusMaster {
         writeMultipleRegistersRequest.setRegisters(registers);
         transaction.setRequest(writeMultipleRegistersRequest);
         transaction.execute();
-        return ((WriteMultipleRegistersResponse) transaction.getResponse()).getWordCount();
+        int count = ((WriteMultipleRegistersResponse) transaction.getResponse()).getWordCount();
+        releaseResponse();
+        return count;
     }
 
     /**
@@ -474,6 +487,24 @@ public abstract class AbstractModbusMaster {
         return maskWriteRegister(DEFAULT_UNIT_ID, ref, andMask, orMask);
     }
 
+    /**
+     * Executes a request on the transaction of this master. The response
+     * must be released by the caller once its values have been taken.
+     *
+     * @param request the request, its unit ID must be set.
+     *
+     * @return the response.
+     *
+     * @throws ModbusException if an I/O error, a slave exception or
+     *                         a transaction error occurs.
+     */
+    synchronized ModbusResponse execute(ModbusRequest request) throws ModbusException {
+        checkTransaction();
+        transaction.setRequest(request);
+        transaction.execute();
+        return getAndCheckResponse();
+    }
+
     /**
      * Reads the response from the transaction
      * If there is no response, then it throws an error
@@ -490,6 +521,18 @@ public abstract class AbstractModbusMaster {
         return res;
     }
 
+    /**
+     * Hands the response of the transaction back to the message pool of the
+     * transport once its values have been taken. The values returned by the
+     * facade are decoded into new objects, so they stay valid.
+     */
+    private void releaseResponse() {
+        ModbusResponse res = transaction.getResponse();
+        if (res != null) {
+            res.release();
+        }
+    }
+
     /**
      * Checks to make sure there is a transaction to use
      *
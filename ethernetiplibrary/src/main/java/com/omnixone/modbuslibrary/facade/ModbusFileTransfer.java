@@ -0,0 +1,375 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.facade;
+
+import com.omnixone.modbuslibrary.Modbus;
+import com.omnixone.modbuslibrary.ModbusException;
+import com.omnixone.modbuslibrary.ModbusIOException;
+import com.omnixone.modbuslibrary.msg.ModbusRequest;
+import com.omnixone.modbuslibrary.msg.ModbusResponse;
+import com.omnixone.modbuslibrary.msg.ReadFileRecordRequest;
+import com.omnixone.modbuslibrary.msg.ReadFileRecordResponse;
+import com.omnixone.modbuslibrary.msg.WriteFileRecordRequest;
+import com.omnixone.modbuslibrary.net.UDPMasterMultiplexer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Streams data to and from files of a slave with the READ FILE RECORD and
+ * WRITE FILE RECORD function codes.
+ * <p>
+ * The data is addressed as one sequence of registers starting at record 0 of
+ * a given file number. As in the Modbus specification each record holds one
+ * register, and a file holds {@link #setRecordsPerFile(int) 10000} records,
+ * after which the sequence continues with record 0 of the next file number.
+ * The transfer splits the data into requests carrying as many registers as
+ * fit into a message, using a second record group where a request crosses
+ * into the next file. Registers are streamed high byte first.
+ * <p>
+ * Requests that fail with an I/O error are repeated up to
+ * {@link #setRetries(int)} times. If a transfer fails nevertheless,
+ * {@link #getTransferred()} returns the number of registers transferred in
+ * order before the failure, so the transfer can be resumed at that offset.
+ * <p>
+ * With a {@link UDPMasterMultiplexer} up to {@link #setWindow(int)} requests
+ * are kept outstanding at the same time; with a master they are sent one by
+ * one. A transfer is not thread safe.
+ */
+public class ModbusFileTransfer {
+
+    /**
+     * Default number of records per file
+     */
+    public static final int DEFAULT_RECORDS_PER_FILE = 10000;
+
+    private static final Logger logger = LoggerFactory.getLogger(ModbusFileTransfer.class);
+    private static final int READ_GROUP_OVERHEAD = 2;
+    private static final int WRITE_GROUP_OVERHEAD = 7;
+
+    private final AbstractModbusMaster master;
+    private final UDPMasterMultiplexer multiplexer;
+    private final InetSocketAddress slave;
+    private final int unitId;
+    private int recordsPerFile = DEFAULT_RECORDS_PER_FILE;
+    private int retries = 3;
+    private int window = 8;
+    private volatile long transferred;
+
+    /**
+     * Creates a transfer sending its requests with a master.
+     *
+     * @param master the master, it must be connected.
+     * @param unitId the unit ID of the slave.
+     */
+    public ModbusFileTransfer(AbstractModbusMaster master, int unitId) {
+        this.master = master;
+        this.unitId = unitId;
+        multiplexer = null;
+        slave = null;
+    }
+
+    /**
+     * Creates a transfer pipelining its requests over a multiplexer.
+     *
+     * @param multiplexer the multiplexer, it must be open.
+     * @param slave       the address of the slave.
+     * @param unitId      the unit ID of the slave.
+     */
+    public ModbusFileTransfer(UDPMasterMultiplexer multiplexer, InetSocketAddress slave, int unitId) {
+        this.multiplexer = multiplexer;
+        this.slave = slave;
+        this.unitId = unitId;
+        master = null;
+    }
+
+    /**
+     * Sets the number of records of each file of the slave.
+     *
+     * @param recordsPerFile the number of records, 1 to 10000.
+     */
+    public void setRecordsPerFile(int recordsPerFile) {
+        if (recordsPerFile < 1 || recordsPerFile > DEFAULT_RECORDS_PER_FILE) {
+            throw new IllegalArgumentException("Records per file must be between 1 and " + DEFAULT_RECORDS_PER_FILE);
+        }
+        this.recordsPerFile = recordsPerFile;
+    }
+
+    /**
+     * Sets the number of times a request failing with an I/O error is repeated.
+     *
+     * @param retries the number of retries.
+     */
+    public void setRetries(int retries) {
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * Sets the number of requests outstanding at the same time when
+     * pipelining over a multiplexer.
+     *
+     * @param window the number of requests.
+     */
+    public void setWindow(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        this.window = window;
+    }
+
+    /**
+     * Returns the number of registers the current or last transfer has
+     * completed in order, which is where a failed transfer can be resumed.
+     *
+     * @return the number of registers.
+     */
+    public long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * Reads registers from the slave and writes them to a stream.
+     *
+     * @param fileNumber the file number the sequence of registers starts at.
+     * @param offset     the index of the first register in the sequence.
+     * @param count      the number of registers to read.
+     * @param out        the stream to write to.
+     *
+     * @throws ModbusException if a request fails.
+     * @throws IOException     if writing to the stream fails.
+     */
+    public void read(int fileNumber, long offset, long count, OutputStream out) throws ModbusException, IOException {
+        transferred = 0;
+        byte[] buffer = new byte[Modbus.MAX_PDU_DATA_LENGTH];
+        ArrayDeque<Chunk> pending = new ArrayDeque<Chunk>();
+        long next = offset;
+        long end = offset + count;
+        try {
+            while (next < end || !pending.isEmpty()) {
+                while (next < end && pending.size() < depth()) {
+                    Chunk chunk = plan(fileNumber, next, end - next, false, null, 0);
+                    next += chunk.count;
+                    submit(chunk);
+                    pending.add(chunk);
+                }
+                Chunk chunk = pending.peek();
+                ReadFileRecordResponse response = (ReadFileRecordResponse)complete(chunk);
+                int length = 0;
+                for (int i = 0; i < response.getRecordCount(); i++) {
+                    length += response.getRecord(i).getData(buffer, length);
+                }
+                response.release();
+                if (length != chunk.count * 2) {
+                    throw new ModbusException("Expected %d registers at offset %d, received %d", chunk.count, chunk.offset, length / 2);
+                }
+                out.write(buffer, 0, length);
+                pending.remove();
+                transferred += chunk.count;
+            }
+        }
+        finally {
+            cancel(pending);
+        }
+    }
+
+    /**
+     * Reads a stream up to its end and writes it to registers of the slave.
+     * An odd number of bytes is padded with a zero byte.
+     *
+     * @param fileNumber the file number the sequence of registers starts at.
+     * @param offset     the index of the first register in the sequence.
+     * @param in         the stream to read from.
+     *
+     * @return the number of registers written.
+     *
+     * @throws ModbusException if a request fails.
+     * @throws IOException     if reading from the stream fails.
+     */
+    public long write(int fileNumber, long offset, InputStream in) throws ModbusException, IOException {
+        transferred = 0;
+        byte[] buffer = new byte[Modbus.MAX_PDU_DATA_LENGTH];
+        ArrayDeque<Chunk> pending = new ArrayDeque<Chunk>();
+        long next = offset;
+        boolean eof = false;
+        try {
+            while (!eof || !pending.isEmpty()) {
+                while (!eof && pending.size() < depth()) {
+                    int capacity = plan(fileNumber, next, Long.MAX_VALUE, true, null, 0).count * 2;
+                    int length = readFully(in, buffer, capacity);
+                    eof = length < capacity;
+                    if (length == 0) {
+                        break;
+                    }
+                    if ((length & 1) != 0) {
+                        buffer[length++] = 0;
+                    }
+                    Chunk chunk = plan(fileNumber, next, length / 2, true, buffer, 0);
+                    next += chunk.count;
+                    submit(chunk);
+                    pending.add(chunk);
+                }
+                Chunk chunk = pending.peek();
+                if (chunk == null) {
+                    break;
+                }
+                complete(chunk).release();
+                pending.remove();
+                transferred += chunk.count;
+            }
+        }
+        finally {
+            cancel(pending);
+        }
+        return transferred;
+    }
+
+    private int depth() {
+        return multiplexer == null ? 1 : window;
+    }
+
+    /**
+     * Builds the request for the next registers, with as many registers as
+     * fit into the request and its response.
+     */
+    private Chunk plan(int fileNumber, long offset, long remaining, boolean write, byte[] data, int dataOffset) {
+        ModbusRequest request;
+        ReadFileRecordRequest readRequest = null;
+        WriteFileRecordRequest writeRequest = null;
+        if (write) {
+            request = writeRequest = new WriteFileRecordRequest();
+        }
+        else {
+            request = readRequest = new ReadFileRecordRequest();
+        }
+        request.setUnitID(unitId);
+
+        int overhead = write ? WRITE_GROUP_OVERHEAD : READ_GROUP_OVERHEAD;
+        int budget = write ? Modbus.MAX_PDU_DATA_LENGTH - 1 : Modbus.MAX_FILE_RECORD_DATA_LENGTH;
+        int requestBudget = budget;
+        int count = 0;
+        long position = offset;
+        while (remaining > 0 && budget >= overhead + 2 && requestBudget >= WRITE_GROUP_OVERHEAD) {
+            long file = fileNumber + position / recordsPerFile;
+            int record = (int)(position % recordsPerFile);
+            if (file > 0xFFFF) {
+                if (count == 0) {
+                    throw new IllegalArgumentException("Offset " + position + " is beyond the last file");
+                }
+                break;
+            }
+            int n = (int)Math.min(Math.min(remaining, recordsPerFile - record), (budget - overhead) / 2);
+            if (write) {
+                if (data != null) {
+                    writeRequest.addRequest(new WriteFileRecordRequest.RecordRequest((int)file, record, data, dataOffset + count * 2, n));
+                }
+                requestBudget = budget -= overhead + n * 2;
+            }
+            else {
+                readRequest.addRequest(new ReadFileRecordRequest.RecordRequest((int)file, record, n));
+                budget -= overhead + n * 2;
+                requestBudget -= WRITE_GROUP_OVERHEAD;
+            }
+            count += n;
+            position += n;
+            remaining -= n;
+        }
+        return new Chunk(offset, count, request);
+    }
+
+    private void submit(Chunk chunk) {
+        if (multiplexer != null) {
+            chunk.future = multiplexer.submit(slave, chunk.request);
+        }
+    }
+
+    /**
+     * Waits for the response to a request, repeating the request after I/O
+     * errors.
+     */
+    private ModbusResponse complete(Chunk chunk) throws ModbusException {
+        while (true) {
+            try {
+                if (multiplexer == null) {
+                    return master.execute(chunk.request);
+                }
+                try {
+                    return chunk.future.get();
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof ModbusException) {
+                        throw (ModbusException)e.getCause();
+                    }
+                    throw new ModbusException("Request failed", e.getCause());
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ModbusIOException("Interrupted", e);
+                }
+            }
+            catch (ModbusIOException e) {
+                if (chunk.attempts++ >= retries || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                logger.debug("Repeating file record request at offset {} - {}", chunk.offset, e.getMessage());
+                submit(chunk);
+            }
+        }
+    }
+
+    private static void cancel(ArrayDeque<Chunk> pending) {
+        for (Chunk chunk : pending) {
+            if (chunk.future != null) {
+                chunk.future.cancel(false);
+            }
+        }
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int n = in.read(buffer, total, length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * A request of a transfer and the registers it covers
+     */
+    private static class Chunk {
+        final long offset;
+        final int count;
+        final ModbusRequest request;
+        CompletableFuture<ModbusResponse> future;
+        int attempts;
+
+        Chunk(long offset, int count, ModbusRequest request) {
+            this.offset = offset;
+            this.count = count;
+            this.request = request;
+        }
+    }
+}
@@ -17,6 +17,7 @@ package com.omnixone.modbuslibrary.io;
 
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.ModbusIOException;
+import com.omnixone.modbuslibrary.msg.ModbusMessagePool;
 import com.omnixone.modbuslibrary.msg.ModbusRequest;
 import com.omnixone.modbuslibrary.msg.ModbusResponse;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
@@ -35,6 +36,13 @@ public abstract class AbstractModbusTransport {
 
     protected int timeout = Modbus.DEFAULT_TIMEOUT;
 
+    /**
+     * Pool the received requests and responses are taken from. The
+     * listener releases them once the response is written, the master
+     * facade once the response has been evaluated.
+     */
+    protected final ModbusMessagePool messagePool = new ModbusMessagePool();
+
     /**
      * Set the socket timeout
      *
@@ -44,6 +52,15 @@ public abstract class AbstractModbusTransport {
         timeout = time;
     }
 
+    /**
+     * Returns the pool received messages are taken from
+     *
+     * @return Message pool of this transport
+     */
+    public ModbusMessagePool getMessagePool() {
+        return messagePool;
+    }
+
     /**
      * Closes the raw input and output streams of
      * this <tt>ModbusTransport</tt>.
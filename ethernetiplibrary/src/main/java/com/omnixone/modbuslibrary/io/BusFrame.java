@@ -0,0 +1,144 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.io;
+
+import com.omnixone.modbuslibrary.msg.ModbusMessage;
+import com.omnixone.modbuslibrary.util.ModbusUtil;
+
+/**
+ * Class representing a frame observed on a serial bus by a
+ * {@link RTUBusMonitor}.
+ * <p>
+ * Timestamps are in microseconds on the <tt>System.nanoTime()</tt> clock and
+ * mark the estimated start of the frame on the wire.
+ */
+public final class BusFrame {
+
+    /**
+     * The kind of a frame
+     */
+    public enum Kind {
+        /**
+         * A request from the master
+         */
+        REQUEST,
+        /**
+         * A response from a slave
+         */
+        RESPONSE,
+        /**
+         * Bytes that do not form a frame with a valid CRC
+         */
+        INVALID
+    }
+
+    private final Kind kind;
+    private final byte[] data;
+    private final long timestampMicros;
+    private final long durationMicros;
+    private final ModbusMessage message;
+    private final BusFrame request;
+
+    BusFrame(Kind kind, byte[] data, long timestampMicros, long durationMicros, ModbusMessage message, BusFrame request) {
+        this.kind = kind;
+        this.data = data;
+        this.timestampMicros = timestampMicros;
+        this.durationMicros = durationMicros;
+        this.message = message;
+        this.request = request;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public boolean isRequest() {
+        return kind == Kind.REQUEST;
+    }
+
+    public boolean isResponse() {
+        return kind == Kind.RESPONSE;
+    }
+
+    public boolean isValid() {
+        return kind != Kind.INVALID;
+    }
+
+    /**
+     * Returns the raw bytes of the frame, CRC included. The array must not be
+     * modified.
+     *
+     * @return the frame.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getUnitID() {
+        return data[0] & 0xFF;
+    }
+
+    public int getFunctionCode() {
+        return data.length > 1 ? data[1] & 0xFF : -1;
+    }
+
+    public long getTimestampMicros() {
+        return timestampMicros;
+    }
+
+    /**
+     * Returns the time the frame took on the wire at the baud rate of the bus.
+     *
+     * @return the duration in microseconds.
+     */
+    public long getDurationMicros() {
+        return durationMicros;
+    }
+
+    /**
+     * Returns the decoded message, a <tt>ModbusRequest</tt> or
+     * <tt>ModbusResponse</tt>.
+     *
+     * @return the message, or null if the frame is invalid or could not be decoded.
+     */
+    public ModbusMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the request a response answers.
+     *
+     * @return the request, or null if this is not a response or its request was not seen.
+     */
+    public BusFrame getRequest() {
+        return request;
+    }
+
+    /**
+     * Returns the time between the end of the request and the start of this
+     * response.
+     *
+     * @return the latency in microseconds, or -1 if the request is not known.
+     */
+    public long getLatencyMicros() {
+        return request == null ? -1 : timestampMicros - request.timestampMicros - request.durationMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d %s %s", timestampMicros, kind, ModbusUtil.toHex(data));
+    }
+}
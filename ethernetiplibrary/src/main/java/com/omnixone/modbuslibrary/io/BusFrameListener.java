@@ -0,0 +1,33 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.io;
+
+/**
+ * Interface implemented by receivers of the frames seen by a
+ * {@link RTUBusMonitor}.
+ */
+public interface BusFrameListener {
+
+    /**
+     * Called on the monitor thread for every frame decoded from the bus, in
+     * the order the frames were sent. The listener must return quickly, the
+     * bus is not read while it runs.
+     *
+     * @param frame the frame.
+     */
+    void frameReceived(BusFrame frame);
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.io;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class implementing a <tt>DataInput</tt> that reads big endian values
+ * straight from a <tt>ByteBuffer</tt>, starting at its position.
+ * <p>
+ * Lets the <tt>readData(DataInput)</tt> implementations of the messages
+ * decode from a buffer without copying it into an array first.
+ */
+public class ByteBufferDataInput implements DataInput {
+
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a new <tt>ByteBufferDataInput</tt> reading from the given buffer
+     *
+     * @param buffer the buffer to read from.
+     */
+    public ByteBufferDataInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Sets the buffer to read from
+     *
+     * @param buffer the buffer to read from.
+     */
+    public void reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns the buffer read from
+     *
+     * @return the buffer.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    private void require(int n) throws EOFException {
+        if (buffer.remaining() < n) {
+            throw new EOFException("Buffer underflow reading " + n + " bytes, " + buffer.remaining() + " remaining");
+        }
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        require(len);
+        buffer.get(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        int skipped = Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        require(2);
+        return buffer.getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        require(2);
+        return buffer.getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        require(4);
+        return buffer.getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        require(8);
+        return buffer.getDouble();
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        while (buffer.hasRemaining()) {
+            char c = (char)(buffer.get() & 0xFF);
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                if (buffer.hasRemaining() && buffer.get(buffer.position()) == '\n') {
+                    buffer.get();
+                }
+                break;
+            }
+            line.append(c);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        int length = readUnsignedShort();
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
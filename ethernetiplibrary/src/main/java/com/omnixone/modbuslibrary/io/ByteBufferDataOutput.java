@@ -0,0 +1,152 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.io;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Class implementing a <tt>DataOutput</tt> that writes big endian values
+ * straight into a <tt>ByteBuffer</tt>, starting at its position.
+ * <p>
+ * Lets the <tt>writeData(DataOutput)</tt> implementations of the messages
+ * encode into a buffer without an intermediate array.
+ */
+public class ByteBufferDataOutput implements DataOutput {
+
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a new <tt>ByteBufferDataOutput</tt> writing to the given buffer
+     *
+     * @param buffer the buffer to write to.
+     */
+    public ByteBufferDataOutput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Sets the buffer to write to
+     *
+     * @param buffer the buffer to write to.
+     */
+    public void reset(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns the buffer written to
+     *
+     * @return the buffer.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    private void require(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            throw new IOException("Buffer overflow writing " + n + " bytes", new BufferOverflowException());
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        require(1);
+        buffer.put((byte)b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        require(len);
+        buffer.put(b, off, len);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        require(2);
+        buffer.putShort((short)v);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        require(2);
+        buffer.putChar((char)v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        require(4);
+        buffer.putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        require(8);
+        buffer.putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        require(4);
+        buffer.putFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        require(8);
+        buffer.putDouble(v);
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        require(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte)s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        require(s.length() * 2);
+        for (int i = 0; i < s.length(); i++) {
+            buffer.putChar(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        writeShort(bytes.length);
+        write(bytes);
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Class implementing the timer used for the gaps between serial frames.
+ * <p>
+ * A wait parks the thread with <tt>LockSupport.parkNanos</tt> for the bulk of
+ * the interval and spins only for the remainder, so intervals are kept with
+ * microsecond accuracy without occupying a core for their full length. The
+ * remainder is calibrated from the measured lateness of previous parks and
+ * never exceeds {@link #MAX_SPIN_MICROS}.
+ * <p>
+ * The overshoot of every timed wait, i.e. the time between the requested
+ * deadline and the return, is recorded and available from
+ * {@link #getLastOvershootNanos()}, {@link #getMaxOvershootNanos()} and
+ * {@link #getAverageOvershootNanos()}.
+ * <p>
+ * A wait returns early if the waiting thread is interrupted, leaving the
+ * interrupt status set.
+ */
+public final class FrameTimer {
+
+    /**
+     * Default minimum time spun at the end of a wait
+     */
+    public static final int DEFAULT_SPIN_MICROS = 50;
+
+    /**
+     * Upper bound of the calibrated spin time
+     */
+    public static final int MAX_SPIN_MICROS = 250;
+
+    private static final long MAX_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(MAX_SPIN_MICROS);
+
+    private volatile long spinNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_SPIN_MICROS);
+    private volatile long parkLatencyNanos;
+
+    private volatile long waits;
+    private volatile long lastOvershootNanos;
+    private volatile long maxOvershootNanos;
+    private long totalOvershootNanos;
+
+    /**
+     * Sets the minimum time spun at the end of a wait. The actual time may be
+     * longer if parking the thread has been measured to return later.
+     *
+     * @param micros the spin time in microseconds.
+     */
+    public void setSpinTime(int micros) {
+        if (micros < 0 || micros > MAX_SPIN_MICROS) {
+            throw new IllegalArgumentException("Spin time must be between 0 and " + MAX_SPIN_MICROS + " microseconds");
+        }
+        spinNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    /**
+     * Returns the time a wait currently spins before its deadline.
+     *
+     * @return the spin time in nanoseconds.
+     */
+    public long getSpinNanos() {
+        return Math.min(Math.max(spinNanos, parkLatencyNanos), MAX_SPIN_NANOS);
+    }
+
+    /**
+     * Waits for the given time.
+     *
+     * @param nanos the time to wait in nanoseconds.
+     */
+    public void waitNanos(long nanos) {
+        if (nanos > 0) {
+            waitUntil(System.nanoTime() + nanos);
+        }
+    }
+
+    /**
+     * Waits until <tt>System.nanoTime()</tt> reaches the deadline. Returns
+     * immediately if the deadline has passed.
+     *
+     * @param deadline the deadline as a <tt>System.nanoTime()</tt> value.
+     */
+    public void waitUntil(long deadline) {
+        long now = System.nanoTime();
+        if (deadline - now <= 0) {
+            return;
+        }
+        while (true) {
+            long remaining = deadline - now;
+            if (remaining <= 0) {
+                record(-remaining);
+                return;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            long spin = getSpinNanos();
+            if (remaining > spin) {
+                park(remaining - spin);
+            }
+            now = System.nanoTime();
+        }
+    }
+
+    /**
+     * Waits until the condition is met or the deadline is reached. The
+     * condition is tested at least every <tt>pollNanos</tt> while parked and
+     * continuously while spinning before the deadline, so it should not have
+     * any side effects.
+     *
+     * @param deadline  the deadline as a <tt>System.nanoTime()</tt> value.
+     * @param pollNanos the maximum time between two tests while parked.
+     * @param condition the condition.
+     *
+     * @return true if the condition ended the wait, false if the deadline did.
+     */
+    public boolean waitUntil(long deadline, long pollNanos, BooleanSupplier condition) {
+        while (!condition.getAsBoolean()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            long spin = getSpinNanos();
+            if (remaining > spin) {
+                park(Math.min(remaining - spin, Math.max(pollNanos, 1)));
+            }
+        }
+        return true;
+    }
+
+    public long getWaitCount() {
+        return waits;
+    }
+
+    /**
+     * Returns how late the last timed wait returned.
+     *
+     * @return the overshoot in nanoseconds.
+     */
+    public long getLastOvershootNanos() {
+        return lastOvershootNanos;
+    }
+
+    public long getMaxOvershootNanos() {
+        return maxOvershootNanos;
+    }
+
+    public synchronized long getAverageOvershootNanos() {
+        return waits == 0 ? 0 : totalOvershootNanos / waits;
+    }
+
+    /**
+     * Resets the overshoot statistics. The calibration is kept.
+     */
+    public synchronized void resetStatistics() {
+        waits = 0;
+        lastOvershootNanos = 0;
+        maxOvershootNanos = 0;
+        totalOvershootNanos = 0;
+    }
+
+    /**
+     * Parks for the given time and folds the lateness of the wake up into the
+     * calibration, as a moving average over about eight parks.
+     *
+     * @param nanos the time to park.
+     */
+    private void park(long nanos) {
+        long start = System.nanoTime();
+        LockSupport.parkNanos(nanos);
+        long late = System.nanoTime() - start - nanos;
+        if (late > 0) {
+            long latency = parkLatencyNanos;
+            parkLatencyNanos = latency + (late - latency) / 8;
+        }
+    }
+
+    private synchronized void record(long overshoot) {
+        waits++;
+        lastOvershootNanos = overshoot;
+        totalOvershootNanos += overshoot;
+        if (overshoot > maxOvershootNanos) {
+            maxOvershootNanos = overshoot;
+        }
+    }
+}
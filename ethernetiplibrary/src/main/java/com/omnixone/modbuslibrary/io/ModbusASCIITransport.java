@@ -21,16 +21,25 @@ import com.omnixone.modbuslibrary.msg.ModbusMessage;
 import com.omnixone.modbuslibrary.msg.ModbusRequest;
 import com.omnixone.modbuslibrary.msg.ModbusResponse;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
+import com.omnixone.modbuslibrary.net.AbstractSerialConnection;
 import com.omnixone.modbuslibrary.util.ModbusUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Class that implements the Modbus/ASCII transport
  * flavor.
  *
+ * Frames are converted between binary and ASCII with lookup tables in a
+ * single pass that also computes the LRC, using buffers owned by the
+ * transport. A frame is written with one bulk write, and read with as few
+ * bulk reads as the port allows: once the function code and any byte count
+ * have been decoded, the rest of the frame is requested in one go.
+ *
  * @author Dieter Wimberger
  * @author John Charlton
  * @author Steve O'Hara (4NG)
@@ -40,10 +49,45 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
 
     private static final Logger logger = LoggerFactory.getLogger(ModbusASCIITransport.class);
     private static final String I_O_EXCEPTION_SERIAL_PORT_TIMEOUT = "I/O exception - Serial port timeout";
+
+    private static final byte FRAME_START = ':';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    /**
+     * Characters of the longest frame: colon, two per byte of the message
+     * and the LRC, CR LF
+     */
+    private static final int MAX_FRAME_CHARS = 2 * (Modbus.MAX_MESSAGE_LENGTH + 1) + 3;
+
+    /**
+     * Bytes decoded ahead of a frame to look up its length
+     */
+    private static final int HEADER_LENGTH = 11;
+
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte)-1);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte)i;
+            HEX_VALUES[Character.toLowerCase(HEX_DIGITS[i])] = (byte)i;
+        }
+    }
+
     private final byte[] inBuffer = new byte[Modbus.MAX_MESSAGE_LENGTH];
     private final BytesInputStream byteInputStream = new BytesInputStream(inBuffer);         //to read message from
-    private final BytesOutputStream byteInputOutputStream = new BytesOutputStream(inBuffer);     //to buffer message to
-    private final BytesOutputStream byteOutputStream = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH);      //write frames
+    private final byte[] outBuffer = new byte[Modbus.MAX_MESSAGE_LENGTH];                                //write frames
+    private final ByteBuffer outView = ByteBuffer.wrap(outBuffer);
+    private final byte[] asciiOut = new byte[MAX_FRAME_CHARS];
+    private final byte[] asciiIn = new byte[2 * MAX_FRAME_CHARS];
+    private final byte[] chunk = new byte[asciiIn.length];
+    private final byte[] header = new byte[HEADER_LENGTH];
+    private int inStart;
+    private int inEnd;
 
     /**
      * Constructs a new <tt>MobusASCIITransport</tt> instance.
@@ -55,27 +99,34 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
     @Override
     protected void writeMessageOut(ModbusMessage msg) throws ModbusIOException {
         try {
-            synchronized (byteOutputStream) {
+            synchronized (outView) {
                 //write message to byte out
                 msg.setHeadless();
-                msg.writeTo(byteOutputStream);
-                byte[] buf = byteOutputStream.getBuffer();
-                int len = byteOutputStream.size();
+                outView.clear();
+                int len = msg.writeTo(outView);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Writing: {}", ModbusUtil.toHex(outBuffer, 0, len));
+                }
 
                 //write message
-                writeAsciiByte(FRAME_START);               //FRAMESTART
-                writeAsciiBytes(buf, len);                 //PDU
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Writing: {}", ModbusUtil.toHex(buf, 0, len));
+                int length = encode(outBuffer, len, asciiOut);
+                for (int remaining = length; remaining > 0; ) {
+                    int n = writeBytes(asciiOut, remaining);
+                    if (n <= 0) {
+                        throw new IOException("Write returned " + n);
+                    }
+                    remaining -= n;
+                    if (remaining > 0) {
+                        // The port writes from the start of the buffer
+                        System.arraycopy(asciiOut, n, asciiOut, 0, remaining);
+                    }
                 }
-                writeAsciiByte(calculateLRC(buf, 0, len)); //LRC
-                writeAsciiByte(FRAME_END);                 //FRAMEEND
-                byteOutputStream.reset();
+
                 // clears out the echoed message
                 // for RS485
                 if (echo) {
                     // read back the echoed message
-                    readEcho(len + 3);
+                    readEcho(length);
                 }
             }
         }
@@ -86,45 +137,27 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
 
     @Override
     public ModbusRequest readRequestIn(AbstractModbusListener listener) throws ModbusIOException {
-        boolean done = false;
         ModbusRequest request = null;
-        int in;
 
         try {
-            do {
-                //1. Skip to FRAME_START
-                while ((readAsciiByte()) != FRAME_START) {
-                    // Nothing to do
+            synchronized (inBuffer) {
+                int len;
+                while ((len = readFrame(true)) < 0) {
+                    // Invalid frame, wait for the next one
                 }
+                byteInputStream.reset(inBuffer, len);
 
-                //2. Read to FRAME_END
-                synchronized (inBuffer) {
-                    byteInputOutputStream.reset();
-                    while ((in = readAsciiByte()) != FRAME_END) {
-                        if (in == -1) {
-                            throw new IOException(I_O_EXCEPTION_SERIAL_PORT_TIMEOUT);
-                        }
-                        byteInputOutputStream.writeByte(in);
-                    }
-                    //check LRC
-                    if (inBuffer[byteInputOutputStream.size() - 1] != calculateLRC(inBuffer, 0, byteInputOutputStream.size(), 1)) {
-                        continue;
-                    }
-                    byteInputStream.reset(inBuffer, byteInputOutputStream.size());
-
-                    // Read the unit ID which we're not interested in
-                    byteInputStream.readUnsignedByte();
-
-                    int functionCode = byteInputStream.readUnsignedByte();
-                    //create request
-                    request = ModbusRequest.createModbusRequest(functionCode);
-                    request.setHeadless();
-                    //read message
-                    byteInputStream.reset(inBuffer, byteInputOutputStream.size());
-                    request.readFrom(byteInputStream);
-                }
-                done = true;
-            } while (!done);
+                // Read the unit ID which we're not interested in
+                byteInputStream.readUnsignedByte();
+
+                int functionCode = byteInputStream.readUnsignedByte();
+                //create request
+                request = messagePool.acquireRequest(functionCode);
+                request.setHeadless();
+                //read message
+                byteInputStream.reset(inBuffer, len);
+                request.readFrom(byteInputStream);
+            }
             return request;
         }
         catch (Exception ex) {
@@ -136,53 +169,32 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
 
     @Override
     protected ModbusResponse readResponseIn() throws ModbusIOException {
-        boolean done = false;
         ModbusResponse response = null;
-        int in;
 
         try {
-            do {
-                //1. Skip to FRAME_START
-                while ((in = readAsciiByte()) != FRAME_START) {
-                    if (in == -1) {
-                        throw new IOException(I_O_EXCEPTION_SERIAL_PORT_TIMEOUT);
-                    }
-                }
-                //2. Read to FRAME_END
-                synchronized (inBuffer) {
-                    byteInputOutputStream.reset();
-                    while ((in = readAsciiByte()) != FRAME_END) {
-                        if (in == -1) {
-                            throw new IOException(I_O_EXCEPTION_SERIAL_PORT_TIMEOUT);
-                        }
-                        byteInputOutputStream.writeByte(in);
-                    }
-                    int len = byteInputOutputStream.size();
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Received: {}", ModbusUtil.toHex(inBuffer, 0, len));
-                    }
-                    //check LRC
-                    if (inBuffer[len - 1] != calculateLRC(inBuffer, 0, len, 1)) {
-                        continue;
-                    }
+            synchronized (inBuffer) {
+                // Anything left over was received before the request was sent
+                inStart = inEnd;
 
-                    byteInputStream.reset(inBuffer, byteInputOutputStream.size());
-                    byteInputStream.readUnsignedByte();
-                    // JDC: To check slave unit identifier in a response we need to know
-                    // the slave id in the request.  This is not tracked since slaves
-                    // only respond when a master request is made and there is only one
-                    // master.  We are the only master, so we can assume that this
-                    // response message is from the slave responding to the last request.
-                    in = byteInputStream.readUnsignedByte();
-                    //create request
-                    response = ModbusResponse.createModbusResponse(in);
-                    response.setHeadless();
-                    //read message
-                    byteInputStream.reset(inBuffer, byteInputOutputStream.size());
-                    response.readFrom(byteInputStream);
+                int len;
+                while ((len = readFrame(false)) < 0) {
+                    // Invalid frame, wait for the next one
                 }
-                done = true;
-            } while (!done);
+                byteInputStream.reset(inBuffer, len);
+                byteInputStream.readUnsignedByte();
+                // JDC: To check slave unit identifier in a response we need to know
+                // the slave id in the request.  This is not tracked since slaves
+                // only respond when a master request is made and there is only one
+                // master.  We are the only master, so we can assume that this
+                // response message is from the slave responding to the last request.
+                int functionCode = byteInputStream.readUnsignedByte();
+                //create request
+                response = messagePool.acquireResponse(functionCode);
+                response.setHeadless();
+                //read message
+                byteInputStream.reset(inBuffer, len);
+                response.readFrom(byteInputStream);
+            }
             return response;
         }
         catch (Exception ex) {
@@ -192,32 +204,181 @@ public class ModbusASCIITransport extends ModbusSerialTransport {
     }
 
     /**
-     * Calculates a LRC checksum
+     * Encodes a message as an ASCII frame: colon, message and LRC as hex
+     * digits, CR LF.
      *
-     * @param data   Data to use
-     * @param off    Offset into byte array
-     * @param length Number of bytes to use
-     * @return Checksum
+     * @param data   the message.
+     * @param length the length of the message.
+     * @param frame  the buffer to encode into.
+     * @return the length of the frame.
      */
-    private static int calculateLRC(byte[] data, int off, int length) {
-        return calculateLRC(data, off, length, 0);
+    private static int encode(byte[] data, int length, byte[] frame) {
+        int pos = 0;
+        int lrc = 0;
+        frame[pos++] = FRAME_START;
+        for (int i = 0; i < length; i++) {
+            int b = data[i] & 0xFF;
+            lrc += b;
+            frame[pos++] = HEX_DIGITS[b >> 4];
+            frame[pos++] = HEX_DIGITS[b & 0x0F];
+        }
+        lrc = -lrc & 0xFF;
+        frame[pos++] = HEX_DIGITS[lrc >> 4];
+        frame[pos++] = HEX_DIGITS[lrc & 0x0F];
+        frame[pos++] = CR;
+        frame[pos++] = LF;
+        return pos;
     }
 
     /**
-     * Calculates a LRC checksum
+     * Reads the next frame and decodes it into <tt>inBuffer</tt>.
      *
-     * @param data     Data to use
-     * @param off      Offset into byte array
-     * @param length   Number of bytes to use
-     * @param tailskip Bytes to skip at tail
-     * @return Checksum
+     * @param request true to use the length rules of requests, false for
+     *                those of responses.
+     * @return the length of the message without the LRC, or <tt>-1</tt> if
+     * the frame is malformed or its LRC is wrong.
+     *
+     * @throws IOException if the port times out or fails.
      */
-    private static byte calculateLRC(byte[] data, int off, int length, int tailskip) {
+    private int readFrame(boolean request) throws IOException {
+        //1. Skip to FRAME_START
+        while (true) {
+            while (inStart < inEnd && asciiIn[inStart] != FRAME_START) {
+                inStart++;
+            }
+            if (inStart < inEnd) {
+                break;
+            }
+            fill(1);
+        }
+
+        //2. Read to FRAME_END
+        int end = inStart + 1;
+        while (true) {
+            while (end < inEnd && asciiIn[end] != CR && asciiIn[end] != LF && asciiIn[end] != FRAME_START) {
+                end++;
+            }
+            if (end < inEnd) {
+                break;
+            }
+            if (end - inStart > MAX_FRAME_CHARS) {
+                inStart = end;
+                return -1;
+            }
+            fill(charsNeeded(request));
+        }
+        int start = inStart + 1;
+        int chars = end - start;
+        inStart = end;
+        if (asciiIn[end] == FRAME_START) {
+            // Truncated frame, the next one starts here
+            return -1;
+        }
+
+        //3. Decode and check the LRC
+        int len = chars / 2;
+        if ((chars & 1) != 0 || len < 3 || len > inBuffer.length) {
+            return -1;
+        }
         int lrc = 0;
-        for (int i = off; i < length - tailskip; i++) {
-            lrc += ((int) data[i]) & 0xFF;
+        int invalid = 0;
+        for (int i = 0, j = start; i < len; i++, j += 2) {
+            int hi = HEX_VALUES[asciiIn[j] & 0xFF];
+            int lo = HEX_VALUES[asciiIn[j + 1] & 0xFF];
+            invalid |= hi | lo;
+            int b = (hi << 4) | lo;
+            inBuffer[i] = (byte)b;
+            lrc += b;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Received: {}", ModbusUtil.toHex(inBuffer, 0, len));
+        }
+        if (invalid < 0 || (lrc & 0xFF) != 0) {
+            return -1;
+        }
+        return len - 1;
+    }
+
+    /**
+     * Returns the number of characters still missing from the frame being
+     * read, as far as it can be told from the bytes received so far. A slave
+     * also sees the responses of other slaves, so when reading requests the
+     * shorter of the request and response lengths is used, as long as the
+     * frame has not grown past it.
+     *
+     * @param request true to use the length rules of requests.
+     * @return the number of characters to read, at least 1.
+     */
+    private int charsNeeded(boolean request) {
+        int chars = inEnd - inStart - 1;
+        int decoded = Math.min(chars / 2, HEADER_LENGTH);
+        for (int i = 0, j = inStart + 1; i < decoded; i++, j += 2) {
+            int hi = HEX_VALUES[asciiIn[j] & 0xFF];
+            int lo = HEX_VALUES[asciiIn[j + 1] & 0xFF];
+            if ((hi | lo) < 0) {
+                return 1;
+            }
+            header[i] = (byte)((hi << 4) | lo);
+        }
+
+        int needed = charsNeeded(RTUFrames.responseLength(header, 0, decoded), chars, decoded);
+        if (request) {
+            needed = Math.min(needed, charsNeeded(RTUFrames.requestLength(header, 0, decoded), chars, decoded));
+        }
+        return needed == Integer.MAX_VALUE ? 1 : needed;
+    }
+
+    /**
+     * Returns the number of characters missing from a frame of the given
+     * length.
+     *
+     * @param length  the length from the rules.
+     * @param chars   the number of characters received after the colon.
+     * @param decoded the number of bytes decoded.
+     * @return the number of characters, 1 if the length is unknown, or
+     * <tt>Integer.MAX_VALUE</tt> if the frame is longer already.
+     */
+    private static int charsNeeded(int length, int chars, int decoded) {
+        if (length > 0) {
+            // The rules count a 2 byte CRC, the frame has a 1 byte LRC and CR LF
+            int missing = 2 * (length - 1) + 2 - chars;
+            return missing > 0 ? missing : Integer.MAX_VALUE;
+        }
+        if (length == 0) {
+            // Up to the next byte, and at least the shortest frame
+            return Math.max(Math.max(2 * (decoded + 1) - chars, 2 * (RTUFrames.MIN_LENGTH - 1) + 2 - chars), 1);
+        }
+        return 1;
+    }
+
+    /**
+     * Appends the characters available from the port to the receive
+     * buffer, waiting for at least the given number.
+     *
+     * @param count the number of characters the frame needs.
+     *
+     * @throws IOException if nothing was received before the timeout.
+     */
+    private void fill(int count) throws IOException {
+        if (inStart == inEnd) {
+            inStart = inEnd = 0;
+        }
+        else if (inEnd + count > asciiIn.length) {
+            System.arraycopy(asciiIn, inStart, asciiIn, 0, inEnd - inStart);
+            inEnd -= inStart;
+            inStart = 0;
+        }
+        AbstractSerialConnection port = getCommPort();
+        if (port == null || !port.isOpen()) {
+            throw new IOException("Comm port is not valid or not open");
+        }
+        int wanted = Math.min(Math.max(count, port.bytesAvailable()), asciiIn.length - inEnd);
+        int read = port.readBytes(chunk, wanted);
+        if (read <= 0) {
+            throw new IOException(I_O_EXCEPTION_SERIAL_PORT_TIMEOUT);
         }
-        return (byte) ((-lrc) & 0xff);
+        System.arraycopy(chunk, 0, asciiIn, inEnd, read);
+        inEnd += read;
     }
 
 }
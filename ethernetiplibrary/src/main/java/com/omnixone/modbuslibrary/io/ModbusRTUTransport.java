@@ -18,6 +18,7 @@ package com.omnixone.modbuslibrary.io;
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.ModbusIOException;
 import com.omnixone.modbuslibrary.msg.ModbusMessage;
+import com.omnixone.modbuslibrary.msg.ModbusMessageImpl;
 import com.omnixone.modbuslibrary.msg.ModbusRequest;
 import com.omnixone.modbuslibrary.msg.ModbusResponse;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
@@ -26,7 +27,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class that implements the ModbusRTU transport flavor.
@@ -45,6 +47,9 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
     private final BytesInputStream byteInputStream = new BytesInputStream(inBuffer); // to read message from
     private final BytesOutputStream byteInputOutputStream = new BytesOutputStream(inBuffer); // to buffer message to
     private final BytesOutputStream byteOutputStream = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH); // write frames
+    private final byte[] readBuffer = new byte[Modbus.MAX_MESSAGE_LENGTH + 2]; // scratch for reading frame parts
+    private final byte[] outFrame = new byte[Modbus.MAX_MESSAGE_LENGTH + 2]; // frame being written, CRC included
+    private final ByteBuffer outBuffer = ByteBuffer.wrap(outFrame);
     private byte[] lastRequest = null;
 
     /**
@@ -56,7 +61,7 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
      */
     private void readRequestData(int byteCount, BytesOutputStream out) throws IOException {
         byteCount += 2;
-        byte[] inpBuf = new byte[byteCount];
+        byte[] inpBuf = readBuffer;
         readBytes(inpBuf, byteCount);
         out.write(inpBuf, 0, byteCount);
     }
@@ -69,7 +74,7 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
      */
     private void getRequest(int function, BytesOutputStream out) throws IOException {
         int byteCount;
-        byte[] inpBuf = new byte[256];
+        byte[] inpBuf = readBuffer;
         try {
             if ((function & 0x80) == 0) {
                 switch (function) {
@@ -141,7 +146,7 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
      * @throws IOException If data cannot be read from the port
      */
     private void getResponse(int function, BytesOutputStream out) throws IOException {
-        byte[] inpBuf = new byte[256];
+        byte[] inpBuf = readBuffer;
         try {
             if ((function & 0x80) == 0) {
                 switch (function) {
@@ -301,38 +306,38 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
 
     @Override
     protected void writeMessageOut(ModbusMessage msg) throws ModbusIOException {
-        // Build PDU = [unitId][function][data...]
-        if (!(msg instanceof ModbusResponse)) {
-            throw new ModbusIOException("Expected ModbusResponse");
+        if (!(msg instanceof ModbusMessageImpl)) {
+            throw new ModbusIOException("Unsupported message type %s", msg.getClass().getSimpleName());
         }
-        ModbusResponse res = (ModbusResponse) msg;
 
-        byte[] data = msg.getMessage(); // may be just byteCount+payload
-        int dataLen = (data == null) ? 0 : data.length;
-
-        byte[] pdu = new byte[2 + dataLen];
-        pdu[0] = (byte) res.getUnitID();
-        pdu[1] = (byte) res.getFunctionCode();
-        if (dataLen > 0) System.arraycopy(data, 0, pdu, 2, dataLen);
-
-        // CRC over full PDU
-        int[] crc = ModbusUtil.calculateCRC(pdu, 0, pdu.length); // [lo, hi]
-
-        // Final RTU frame = PDU + CRC
-        byte[] frame = Arrays.copyOf(pdu, pdu.length + 2);
-        frame[frame.length - 2] = (byte) crc[0]; // CRC lo
-        frame[frame.length - 1] = (byte) crc[1]; // CRC hi
+        // Encode frame = [unitId][function][data...][CRC lo][CRC hi] in place
+        int length;
+        try {
+            outBuffer.clear();
+            outBuffer.put((byte)msg.getUnitID());
+            outBuffer.put((byte)msg.getFunctionCode());
+            ((ModbusMessageImpl)msg).writeData(outBuffer);
+            length = outBuffer.position();
+        }
+        catch (IOException | BufferOverflowException ex) {
+            throw new ModbusIOException("Message does not fit into a frame - %s", ex.getMessage());
+        }
+        int[] crc = ModbusUtil.calculateCRC(outFrame, 0, length);
+        outFrame[length++] = (byte)crc[0];
+        outFrame[length++] = (byte)crc[1];
 
         // Write all bytes (handle short writes)
-        int remaining = frame.length;
-        int offset = 0;
+        int remaining = length;
         while (remaining > 0) {
-            int n = getCommPort().writeBytes(frame, remaining);
+            int n = getCommPort().writeBytes(outFrame, remaining);
             if (n <= 0) throw new ModbusIOException("I/O failed to write");
-            offset += n;
             remaining -= n;
-            // small yield if a driver ever returns tiny chunks
-            if (n < 16) ModbusUtil.sleep(1);
+            if (remaining > 0) {
+                // The port writes from the start of the buffer
+                System.arraycopy(outFrame, n, outFrame, 0, remaining);
+                // small yield if a driver ever returns tiny chunks
+                if (n < 16) ModbusUtil.sleep(1);
+            }
         }
 
         // If you use RS-485 echo mode, uncomment:
@@ -359,7 +364,7 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
                         byteInputOutputStream.writeByte(fc);
 
                         // create request to acquire length of message
-                        request = ModbusRequest.createModbusRequest(fc);
+                        request = messagePool.acquireRequest(fc);
                         request.setHeadless();
 
                         /*
@@ -398,8 +403,13 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
                         return request;
 
                     }
+                    else if (skipFrame()) {
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Skipped message not meant for us: {}", ModbusUtil.toHex(byteInputOutputStream.getBuffer(), 0, byteInputOutputStream.size()));
+                        }
+                    }
                     else {
-                        // This message is not for us, read and wait for the 3.5t delay
+                        // The length of this message is not known, read and wait for the 3.5t delay
 
                         // Wait for max 1.5t for data to be available
                         while (true) {
@@ -460,6 +470,50 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
         }
     }
 
+    /**
+     * Reads the rest of a frame addressed to another unit by its length rules.
+     * The frame may be a request or a response, so the bytes are read up to
+     * the end of the shortest candidate still possible until one of them
+     * ends with a valid CRC; nothing after the frame is consumed.
+     *
+     * @return true if the frame was read, false if its length cannot be known
+     * from the bytes read so far
+     * @throws IOException If the port cannot be read
+     */
+    private boolean skipFrame() throws IOException {
+        byteInputOutputStream.writeByte(readByte());
+        int size = 2;
+        while (true) {
+            int requestLength = RTUFrames.requestLength(inBuffer, 0, size);
+            int responseLength = RTUFrames.responseLength(inBuffer, 0, size);
+            if ((requestLength == size && RTUFrames.checkCRC(inBuffer, 0, size))
+                    || (responseLength == size && RTUFrames.checkCRC(inBuffer, 0, size))) {
+                return true;
+            }
+            int needed = Math.min(bytesNeeded(requestLength, size), bytesNeeded(responseLength, size));
+            if (needed == Integer.MAX_VALUE || size + needed > inBuffer.length) {
+                return false;
+            }
+            readBytes(readBuffer, needed);
+            byteInputOutputStream.write(readBuffer, 0, needed);
+            size += needed;
+        }
+    }
+
+    /**
+     * Returns the number of bytes to read to complete or size a candidate frame
+     *
+     * @param length Candidate length from the rules
+     * @param size   Number of bytes read
+     * @return Number of bytes, <tt>Integer.MAX_VALUE</tt> if the candidate is ruled out
+     */
+    private static int bytesNeeded(int length, int size) {
+        if (length == 0) {
+            return 1;
+        }
+        return length > size ? length - size : Integer.MAX_VALUE;
+    }
+
     /**
      * readResponse - Read the bytes for the response from the slave.
      *
@@ -487,7 +541,7 @@ public class ModbusRTUTransport extends ModbusSerialTransport {
                         byteInputOutputStream.writeByte(fc);
 
                         // create response to acquire length of message
-                        response = ModbusResponse.createModbusResponse(fc);
+                        response = messagePool.acquireResponse(fc);
                         response.setHeadless();
 
                         /*
@@ -15,7 +15,6 @@
  */
 package com.omnixone.modbuslibrary.io;
 
-import com.fazecast.jSerialComm.SerialPort;
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.ModbusIOException;
 import com.omnixone.modbuslibrary.msg.ModbusMessage;
@@ -31,6 +30,7 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Abstract base class for serial <tt>ModbusTransport</tt>
@@ -45,24 +45,13 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
 
     private static final Logger logger = LoggerFactory.getLogger(ModbusSerialTransport.class);
 
-    /**
-     * Defines a virtual number for the FRAME START token (COLON).
-     */
-    static final int FRAME_START = 1000;
-    /**
-     * Defines a virtual number for the FRAME_END token (CR LF).
-     */
-    static final int FRAME_END = 2000;
-
-    /**
-     * The number of nanoseconds there is in a millisecond
-     */
-    private static final int NS_IN_A_MS = 1000000;
     private static final String CANNOT_READ_FROM_SERIAL_PORT = "Cannot read from serial port";
     private static final String COMM_PORT_IS_NOT_VALID_OR_NOT_OPEN = "Comm port is not valid or not open";
     private AbstractSerialConnection commPort;
     boolean echo = false;     // require RS-485 echo processing
     private final Set<AbstractSerialTransportListener> listeners = Collections.synchronizedSet(new HashSet<AbstractSerialTransportListener>());
+    private final FrameTimer frameTimer = new FrameTimer();
+    private final byte[] singleByte = new byte[1];
 
     /**
      * Creates a new transaction suitable for the serial port
@@ -126,43 +115,10 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
             writeMessageOut(msg);
             logger.info("[TR] writeMessageOut() completed");
 
-            long startTime = System.nanoTime();
-
-            // Calculate bytes/sec based on serial params
-            int dataBits = (commPort.getNumDataBits() == 0) ? 8 : commPort.getNumDataBits();
-            int stopBits = (commPort.getNumStopBits() == 0) ? 1 : commPort.getNumStopBits();
-            int parityBits = ((commPort.getParity() == SerialPort.NO_PARITY) ? 0 : 1);
-            double bytesPerSec = ((double) commPort.getBaudRate()) / (dataBits + stopBits + parityBits);
-
-            logger.info("[TR] Baud={} DataBits={} StopBits={} ParityBits={} => Bytes/sec={}",
-                    commPort.getBaudRate(), dataBits, stopBits, parityBits, bytesPerSec);
-
-            double delay = 1000000000.0 * msg.getOutputLength() / bytesPerSec;
-            double delayMilliSeconds = Math.floor(delay / 1000000);
-            double delayNanoSeconds = delay % 1000000;
-
-            logger.info("[TR] Calculated TX delay: {} ms + {} ns (total {} ns)",
-                    delayMilliSeconds, delayNanoSeconds, delay);
-
-            try {
-                if (delayMilliSeconds == 0.0) {
-                    logger.info("[TR] Delay < 1ms — using busy-wait loop");
-                    int priority = Thread.currentThread().getPriority();
-                    Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-                    long end = startTime + ((int) (delayNanoSeconds * 1.3));
-                    while (System.nanoTime() < end) {
-                        // busy loop
-                    }
-                    Thread.currentThread().setPriority(priority);
-                } else {
-                    logger.info("[TR] Sleeping {} ms and {} ns for TX drain",
-                            (int) (delayMilliSeconds * 1.7),
-                            (int) (delayNanoSeconds * 1.5));
-                    Thread.sleep((int) (delayMilliSeconds * 1.7), (int) (delayNanoSeconds * 1.5));
-                }
-            } catch (Exception e) {
-                logger.warn("[TR] Delay wait interrupted/failed: {}", e.getMessage(), e);
-            }
+            // Wait for the frame to leave the UART before anything else is done on the bus
+            long drain = getCharIntervalNanos(msg.getOutputLength());
+            logger.info("[TR] Waiting {} ns for TX drain", drain);
+            frameTimer.waitNanos(drain);
         } finally {
             logger.info("[TR] Notifying listeners after write");
             notifyListenersAfterWrite(msg);
@@ -430,13 +386,12 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
      */
     protected int readByte() throws IOException {
         if (commPort != null && commPort.isOpen()) {
-            byte[] buffer = new byte[1];
-            int cnt = commPort.readBytes(buffer, 1);
+            int cnt = commPort.readBytes(singleByte, 1);
             if (cnt != 1) {
                 throw new IOException(CANNOT_READ_FROM_SERIAL_PORT);
             }
             else {
-                return buffer[0] & 0xff;
+                return singleByte[0] & 0xff;
             }
         }
         else {
@@ -481,115 +436,6 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
         }
     }
 
-    /**
-     * Reads an ascii byte from the input stream
-     * It handles the special start and end frame markers
-     *
-     * @return Byte value of the next ASCII couplet
-     *
-     * @throws IOException If a problem with the port
-     */
-    int readAsciiByte() throws IOException {
-        if (commPort != null && commPort.isOpen()) {
-            byte[] buffer = new byte[1];
-            int cnt = commPort.readBytes(buffer, 1);
-            if (cnt != 1) {
-                throw new IOException(CANNOT_READ_FROM_SERIAL_PORT);
-            }
-            else if (buffer[0] == ':') {
-                return FRAME_START;
-            }
-            else if (buffer[0] == '\r' || buffer[0] == '\n') {
-                return FRAME_END;
-            }
-            else {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Read From buffer: {} ({})", buffer[0], String.format("%02X", buffer[0]));
-                }
-                byte firstValue = buffer[0];
-                cnt = commPort.readBytes(buffer, 1);
-                if (cnt != 1) {
-                    throw new IOException(CANNOT_READ_FROM_SERIAL_PORT);
-                }
-                else {
-                    int combinedValue = (Character.digit(firstValue, 16) << 4) + Character.digit(buffer[0], 16);
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Returning combined value of: {}", String.format("%02X", combinedValue));
-                    }
-                    return combinedValue;
-                }
-            }
-        }
-        else {
-            throw new IOException(COMM_PORT_IS_NOT_VALID_OR_NOT_OPEN);
-        }
-    }
-
-    /**
-     * Writes out a byte value as an ascii character
-     * If the value is the special start/end characters, then
-     * allowance is made for these
-     *
-     * @param value Value to write
-     * @return Number of bytes written
-     *
-     * @throws IOException If a problem with the port
-     */
-    final int writeAsciiByte(int value) throws IOException {
-        if (commPort != null && commPort.isOpen()) {
-            byte[] buffer;
-
-            if (value == FRAME_START) {
-                buffer = new byte[]{58};
-                logger.debug("Wrote FRAME_START");
-            }
-            else if (value == FRAME_END) {
-                buffer = new byte[]{13, 10};
-                logger.debug("Wrote FRAME_END");
-            }
-            else {
-                buffer = ModbusUtil.toHex(value);
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Wrote byte {}={}", value, ModbusUtil.toHex(value));
-                }
-            }
-            if (buffer != null) {
-                return commPort.writeBytes(buffer, buffer.length);
-            }
-            else {
-                throw new IOException("Message to send is empty");
-            }
-        }
-        else {
-            throw new IOException(COMM_PORT_IS_NOT_VALID_OR_NOT_OPEN);
-        }
-    }
-
-    /**
-     * Writes an array of bytes out as a stream of ascii characters
-     *
-     * @param buffer       Buffer of bytes to write
-     * @param bytesToWrite Number of characters to write
-     * @return Number of bytes written
-     *
-     * @throws IOException If a problem with the port
-     */
-    int writeAsciiBytes(byte[] buffer, long bytesToWrite) throws IOException {
-        if (commPort != null && commPort.isOpen()) {
-            int cnt = 0;
-            for (int i = 0; i < bytesToWrite; i++) {
-                if (writeAsciiByte(buffer[i]) != 2) {
-                    return cnt;
-                }
-                cnt++;
-            }
-            return cnt;
-        }
-        else {
-            throw new IOException(COMM_PORT_IS_NOT_VALID_OR_NOT_OPEN);
-        }
-    }
-
     /**
      * clearInput - Clear the input if characters are found in the input stream.
      *
@@ -616,6 +462,16 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
         commPort.close();
     }
 
+    /**
+     * Returns the timer used for the gaps between frames, which also holds the
+     * statistics of how precisely the gaps are kept.
+     *
+     * @return the frame timer.
+     */
+    public FrameTimer getFrameTimer() {
+        return frameTimer;
+    }
+
     /**
      * Injects a delay dependent on the baud rate
      */
@@ -634,25 +490,13 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
 
         // If a fixed delay has been set
         if (transDelayMS > 0) {
-            ModbusUtil.sleep(transDelayMS);
+            frameTimer.waitNanos(TimeUnit.MILLISECONDS.toNanos(transDelayMS));
         }
-        else {
+        else if (lastTransactionTimestamp != 0) {
             // Make use we have a gap of 3.5 characters between adjacent requests
             // We have to do the calculations here because it is possible that the caller may have changed
             // the connection characteristics if they provided the connection instance
-            int delay = getInterFrameDelay() / 1000;
-
-            // How long since the last message we received
-            long gapSinceLastMessage = (System.nanoTime() - lastTransactionTimestamp) / NS_IN_A_MS;
-            if (delay > gapSinceLastMessage) {
-                long sleepTime = delay - gapSinceLastMessage;
-
-                ModbusUtil.sleep(sleepTime);
-
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Waited between frames for {} ms", sleepTime);
-                }
-            }
+            frameTimer.waitUntil(lastTransactionTimestamp + TimeUnit.MICROSECONDS.toNanos(getInterFrameDelay()));
         }
     }
 
@@ -666,7 +510,7 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
             return 1750;
         }
         else {
-            return Math.max(getCharInterval(Modbus.INTER_MESSAGE_GAP), Modbus.MINIMUM_TRANSMIT_DELAY);
+            return (int)Math.max(getCharIntervalMicro(Modbus.INTER_MESSAGE_GAP), TimeUnit.MILLISECONDS.toMicros(Modbus.MINIMUM_TRANSMIT_DELAY));
         }
     }
 
@@ -703,27 +547,35 @@ public abstract class ModbusSerialTransport extends AbstractModbusTransport {
      * @return microseconds
      */
     long getCharIntervalMicro(double chars) {
-        // Make use we have a gap of 3.5 characters between adjacent requests
+        return getCharIntervalNanos(chars) / 1000;
+    }
+
+    /**
+     * Calculates the time needed to transmit a number of characters, including
+     * start, parity and stop bits.
+     *
+     * @param chars Number of characters
+     * @return nanoseconds
+     */
+    long getCharIntervalNanos(double chars) {
         // We have to do the calculations here because it is possible that the caller may have changed
         // the connection characteristics if they provided the connection instance
-        return (long) chars * NS_IN_A_MS * (1 + commPort.getNumDataBits() + commPort.getNumStopBits() + (commPort.getParity() == AbstractSerialConnection.NO_PARITY ? 0 : 1)) / commPort.getBaudRate();
+        int dataBits = commPort.getNumDataBits() == 0 ? 8 : commPort.getNumDataBits();
+        int stopBits = commPort.getNumStopBits() == 0 ? 1 : commPort.getNumStopBits();
+        int parityBits = commPort.getParity() == AbstractSerialConnection.NO_PARITY ? 0 : 1;
+        return (long)(chars * TimeUnit.SECONDS.toNanos(1) * (1 + dataBits + stopBits + parityBits) / commPort.getBaudRate());
     }
 
     /**
-     * Spins until the timeout or the condition is met.
+     * Waits until bytes are available or the timeout has passed, testing the
+     * port about once per character time.
      * This method will repeatedly poll the available bytes, so it should not have any side effects.
      *
      * @param waitTimeMicroSec The time to wait for the condition to be true in microseconds
-     * @return true if the condition ended the spin, false if the tim
+     * @return true if the condition ended the wait, false if the timeout did
      */
     boolean spinUntilBytesAvailable(long waitTimeMicroSec) {
-        long start = System.nanoTime();
-        while (availableBytes() < 1) {
-            long delta = System.nanoTime() - start;
-            if (delta > waitTimeMicroSec * 1000) {
-                return false;
-            }
-        }
-        return true;
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(waitTimeMicroSec);
+        return frameTimer.waitUntil(deadline, getCharIntervalNanos(1), () -> availableBytes() > 0);
     }
 }
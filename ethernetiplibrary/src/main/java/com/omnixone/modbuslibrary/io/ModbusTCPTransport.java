@@ -17,7 +17,8 @@ package com.omnixone.modbuslibrary.io;
 
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.ModbusIOException;
-import com.omnixone.modbuslibrary.msg.ModbusMessage;
+import com.omnixone.modbuslibrary.msg.ModbusMessageImpl;
+import com.omnixone.modbuslibrary.msg.ModbusMessageView;
 import com.omnixone.modbuslibrary.msg.ModbusRequest;
 import com.omnixone.modbuslibrary.msg.ModbusResponse;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
@@ -30,6 +31,7 @@ import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 
 /**
  * Class that implements the Modbus transport flavor.
@@ -45,8 +47,11 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
     // instance attributes
     private DataInputStream dataInputStream; // input stream
     private DataOutputStream dataOutputStream; // output stream
-    private final BytesInputStream byteInputStream = new BytesInputStream(Modbus.MAX_MESSAGE_LENGTH + 6);
-    private final BytesOutputStream byteOutputStream = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH + 6); // write frames
+    private final byte[] inputArray = new byte[Modbus.MAX_MESSAGE_LENGTH + 6];
+    private final ByteBuffer inputBuffer = ByteBuffer.wrap(inputArray);
+    private final byte[] outputArray = new byte[Modbus.MAX_MESSAGE_LENGTH + 8]; // write frames, CRC for RTU over TCP
+    private final ByteBuffer outputBuffer = ByteBuffer.wrap(outputArray);
+    private final ModbusMessageView view = new ModbusMessageView();
     protected Socket socket = null;
     protected TCPMasterConnection master = null;
     private boolean headless = false; // Some TCP implementations are.
@@ -177,43 +182,14 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
         
         ModbusRequest req;
         try {
-            byteInputStream.reset();
-
-            synchronized (byteInputStream) {
-                byte[] buffer = byteInputStream.getBuffer();
-
+            synchronized (inputBuffer) {
                 if (!headless) {
-                    dataInputStream.readFully(buffer, 0, 6);
-
-                    // The transaction ID must be treated as an unsigned short in
-                    // order for validation to work correctly.
-
-                    int transaction = ModbusUtil.registerToShort(buffer, 0) & 0x0000FFFF;
-                    int protocol = ModbusUtil.registerToShort(buffer, 2);
-                    int count = ModbusUtil.registerToShort(buffer, 4);
-
-                    dataInputStream.readFully(buffer, 6, count);
-
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("Read: {}", ModbusUtil.toHex(buffer, 0, count + 6));
-                    }
-
-                    byteInputStream.reset(buffer, (6 + count));
-                    byteInputStream.skip(6);
-
-                    int unit = byteInputStream.readByte();
-                    int functionCode = byteInputStream.readUnsignedByte();
-
-                    byteInputStream.reset();
-                    req = ModbusRequest.createModbusRequest(functionCode);
-                    req.setUnitID(unit);
+                    int count = readFrame();
+                    req = messagePool.acquireRequest(view.wrap(inputBuffer, 0, false).getFunctionCode());
                     req.setHeadless(false);
-
-                    req.setTransactionID(transaction);
-                    req.setProtocolID(protocol);
-                    req.setDataLength(count);
-
-                    req.readFrom(byteInputStream);
+                    inputBuffer.clear();
+                    inputBuffer.limit(6 + count);
+                    req.readFrom(inputBuffer);
                 }
                 else {
 
@@ -222,7 +198,7 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
                     int unit = dataInputStream.readByte();
                     int function = dataInputStream.readByte();
 
-                    req = ModbusRequest.createModbusRequest(function);
+                    req = messagePool.acquireRequest(function);
                     req.setUnitID(unit);
                     req.setHeadless(true);
                     req.readData(dataInputStream);
@@ -259,44 +235,14 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
         try {
             ModbusResponse response;
 
-            synchronized (byteInputStream) {
-                // use same buffer
-                byte[] buffer = byteInputStream.getBuffer();
+            synchronized (inputBuffer) {
                 logger.debug("Reading response...");
                 if (!headless) {
-                    // All Modbus TCP transactions start with 6 bytes. Get them.
-                    dataInputStream.readFully(buffer, 0, 6);
-
-                    /*
-                     * The transaction ID is the first word (offset 0) in the
-                     * data that was just read. It will be echoed back to the
-                     * requester.
-                     *
-                     * The protocol ID is the second word (offset 2) in the
-                     * data. It should always be 0, but I don't check.
-                     *
-                     * The length of the payload is the third word (offset 4) in
-                     * the data that was just read. That's what I need in order
-                     * to read the rest of the response.
-                     */
-                    int transaction = ModbusUtil.registerToShort(buffer, 0) & 0x0000FFFF;
-                    int protocol = ModbusUtil.registerToShort(buffer, 2);
-                    int count = ModbusUtil.registerToShort(buffer, 4);
-
-                    dataInputStream.readFully(buffer, 6, count);
-                    byteInputStream.reset(buffer, (6 + count));
-                    byteInputStream.reset();
-                    byteInputStream.skip(7);
-                    int function = byteInputStream.readUnsignedByte();
-                    response = ModbusResponse.createModbusResponse(function);
-
-                    // Rewind the input buffer, then read the data into the
-                    // response.
-                    byteInputStream.reset();
-                    response.readFrom(byteInputStream);
-
-                    response.setTransactionID(transaction);
-                    response.setProtocolID(protocol);
+                    int count = readFrame();
+                    response = messagePool.acquireResponse(view.wrap(inputBuffer, 0, false).getFunctionCode());
+                    inputBuffer.clear();
+                    inputBuffer.limit(6 + count);
+                    response.readFrom(inputBuffer);
                 }
                 else {
                     // This is a headless response. It has the same format as a
@@ -304,7 +250,7 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
                     int unit = dataInputStream.readByte();
                     int function = dataInputStream.readByte();
 
-                    response = ModbusResponse.createModbusResponse(function);
+                    response = messagePool.acquireResponse(function);
                     response.setUnitID(unit);
                     response.setHeadless();
                     response.readData(dataInputStream);
@@ -330,6 +276,28 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
         }
     }
 
+    /**
+     * Reads a complete MBAP frame into the input buffer.
+     *
+     * @return the length of the frame following the header.
+     *
+     * @throws IOException if the frame cannot be read or is too long.
+     */
+    private int readFrame() throws IOException {
+        // All Modbus TCP transactions start with 6 bytes, the last word
+        // of which is the length of the rest of the frame.
+        dataInputStream.readFully(inputArray, 0, 6);
+        int count = (inputArray[4] & 0xFF) << 8 | (inputArray[5] & 0xFF);
+        if (count > inputArray.length - 6) {
+            throw new IOException("Invalid frame length " + count);
+        }
+        dataInputStream.readFully(inputArray, 6, count);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Read: {}", ModbusUtil.toHex(inputArray, 0, count + 6));
+        }
+        return count;
+    }
+
     /**
      * Prepares the input and output streams of this <tt>ModbusTCPTransport</tt>
      * instance based on the given socket.
@@ -370,39 +338,39 @@ public class ModbusTCPTransport extends AbstractModbusTransport {
      *                           written properly to the raw output stream of
      *                           this <tt>ModbusTransport</tt>.
      */
-    void writeMessage(ModbusMessage msg, boolean useRtuOverTcp) throws ModbusIOException {
+    void writeMessage(ModbusMessageImpl msg, boolean useRtuOverTcp) throws ModbusIOException {
         lastActivityTimestamp = System.nanoTime();
         
         try {
             if (logger.isDebugEnabled()) {
                 logger.debug("Sending: {}", msg.getHexMessage());
             }
-            byte[] message = msg.getMessage();
-
-            byteOutputStream.reset();
+            outputBuffer.clear();
             if (!headless) {
-                byteOutputStream.writeShort(msg.getTransactionID());
-                byteOutputStream.writeShort(msg.getProtocolID());
-                byteOutputStream.writeShort((message != null ? message.length : 0) + 2);
+                outputBuffer.putShort((short)msg.getTransactionID());
+                outputBuffer.putShort((short)msg.getProtocolID());
+                outputBuffer.putShort((short)0);
             }
-            byteOutputStream.writeByte(msg.getUnitID());
-            byteOutputStream.writeByte(msg.getFunctionCode());
-            if (message != null && message.length > 0) {
-                byteOutputStream.write(message);
+            outputBuffer.put((byte)msg.getUnitID());
+            outputBuffer.put((byte)msg.getFunctionCode());
+            msg.writeData(outputBuffer);
+            int len = outputBuffer.position();
+            if (!headless) {
+                outputBuffer.putShort(4, (short)(len - 6));
             }
 
             // Add CRC for RTU over TCP
             if (useRtuOverTcp) {
-                int len = byteOutputStream.size();
-                int[] crc = ModbusUtil.calculateCRC(byteOutputStream.getBuffer(), 0, len);
-                byteOutputStream.writeByte(crc[0]);
-                byteOutputStream.writeByte(crc[1]);
+                int[] crc = ModbusUtil.calculateCRC(outputArray, 0, len);
+                outputBuffer.put((byte)crc[0]);
+                outputBuffer.put((byte)crc[1]);
+                len += 2;
             }
 
-            dataOutputStream.write(byteOutputStream.toByteArray());
+            dataOutputStream.write(outputArray, 0, len);
             dataOutputStream.flush();
             if (logger.isDebugEnabled()) {
-                logger.debug("Successfully sent: {}", ModbusUtil.toHex(byteOutputStream.toByteArray()));
+                logger.debug("Successfully sent: {}", ModbusUtil.toHex(outputArray, 0, len));
             }
             // write more sophisticated exception handling
         }
@@ -18,6 +18,7 @@ package com.omnixone.modbuslibrary.io;
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.ModbusIOException;
 import com.omnixone.modbuslibrary.msg.ModbusMessage;
+import com.omnixone.modbuslibrary.msg.ModbusMessageView;
 import com.omnixone.modbuslibrary.msg.ModbusRequest;
 import com.omnixone.modbuslibrary.msg.ModbusResponse;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
@@ -27,7 +28,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * Class that implements the Modbus UDP transport flavor.
@@ -42,8 +43,11 @@ public class ModbusUDPTransport extends AbstractModbusTransport {
 
     //instance attributes
     private final AbstractUDPTerminal terminal;
-    private final BytesOutputStream byteOutputStream = new BytesOutputStream(Modbus.MAX_MESSAGE_LENGTH);
-    private final BytesInputStream byteInputStream = new BytesInputStream(Modbus.MAX_MESSAGE_LENGTH);
+    private final byte[] receiveBuffer = new byte[Modbus.MAX_MESSAGE_LENGTH + 6];
+    private final ByteBuffer receiveView = ByteBuffer.wrap(receiveBuffer);
+    private final byte[] sendBuffer = new byte[Modbus.MAX_MESSAGE_LENGTH + 6];
+    private final ByteBuffer sendView = ByteBuffer.wrap(sendBuffer);
+    private final ModbusMessageView view = new ModbusMessageView();
 
     /**
      * Constructs a new <tt>ModbusTransport</tt> instance,
@@ -90,16 +94,16 @@ public class ModbusUDPTransport extends AbstractModbusTransport {
     public ModbusRequest readRequest(AbstractModbusListener listener) throws ModbusIOException {
         try {
             ModbusRequest req;
-            synchronized (byteInputStream) {
-                byteInputStream.reset(terminal.receiveMessage());
-                byteInputStream.skip(7);
-                int functionCode = byteInputStream.readUnsignedByte();
-                byteInputStream.reset();
-                req = ModbusRequest.createModbusRequest(functionCode);
-                req.readFrom(byteInputStream);
+            synchronized (receiveView) {
+                receiveDatagram();
+                req = messagePool.acquireRequest(view.getFunctionCode());
+                req.readFrom(receiveView);
             }
             return req;
         }
+        catch (ModbusIOException ex) {
+            throw ex;
+        }
         catch (Exception ex) {
             throw new ModbusIOException("I/O exception - failed to read", ex);
         }
@@ -110,13 +114,10 @@ public class ModbusUDPTransport extends AbstractModbusTransport {
 
         try {
             ModbusResponse res;
-            synchronized (byteInputStream) {
-                byteInputStream.reset(terminal.receiveMessage());
-                byteInputStream.skip(7);
-                int functionCode = byteInputStream.readUnsignedByte();
-                byteInputStream.reset();
-                res = ModbusResponse.createModbusResponse(functionCode);
-                res.readFrom(byteInputStream);
+            synchronized (receiveView) {
+                receiveDatagram();
+                res = messagePool.acquireResponse(view.getFunctionCode());
+                res.readFrom(receiveView);
             }
             return res;
         }
@@ -129,6 +130,22 @@ public class ModbusUDPTransport extends AbstractModbusTransport {
         }
     }
 
+    /**
+     * Receives the next datagram into the receive buffer and wraps the view
+     * around it
+     *
+     * @throws Exception If the terminal fails or the datagram is too short
+     */
+    private void receiveDatagram() throws Exception {
+        int length = terminal.receiveMessage(receiveBuffer);
+        if (length < 8) {
+            throw new IOException("Datagram too short: " + length + " bytes");
+        }
+        receiveView.clear();
+        receiveView.limit(length);
+        view.wrap(receiveView, 0, false);
+    }
+
     /**
      * Writes the request/response message to the port
      * @param msg Message to write
@@ -136,13 +153,10 @@ public class ModbusUDPTransport extends AbstractModbusTransport {
      */
     private void writeMessage(ModbusMessage msg) throws ModbusIOException {
         try {
-            synchronized (byteOutputStream) {
-                int len = msg.getOutputLength();
-                byteOutputStream.reset();
-                msg.writeTo(byteOutputStream);
-                byte[] data = byteOutputStream.getBuffer();
-                data = Arrays.copyOf(data, len);
-                terminal.sendMessage(data);
+            synchronized (sendView) {
+                sendView.clear();
+                int len = msg.writeTo(sendView);
+                terminal.sendMessage(sendBuffer, len);
             }
         }
         catch (Exception ex) {
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.io;
+
+import com.omnixone.modbuslibrary.msg.ModbusMessageImpl;
+import com.omnixone.modbuslibrary.msg.ModbusRequest;
+import com.omnixone.modbuslibrary.msg.ModbusResponse;
+import com.omnixone.modbuslibrary.net.AbstractSerialConnection;
+import com.omnixone.modbuslibrary.util.ModbusUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passive monitor decoding all Modbus RTU traffic on a serial bus.
+ * <p>
+ * The monitor only reads from its connection, which must not be used by a
+ * master or slave at the same time. Frames are delimited by their length
+ * rules and CRC rather than by the silent interval between them, so the
+ * monitor works with adapters that deliver bytes in bursts and report no
+ * reliable number of available bytes. Every read asks for at least as many
+ * bytes as the shortest frame still possible needs, which keeps the number of
+ * reads per frame small. The CRC of a frame without a length rule is carried
+ * forward as its bytes arrive, and the search for a frame behind garbage
+ * resumes where it stopped, so every byte is examined a bounded number of
+ * times.
+ * <p>
+ * A frame is classified as a response if it completes a request seen before
+ * it for the same unit and function, otherwise as a request. Responses are
+ * linked to their request. Bytes that do not form a frame with a valid CRC
+ * are reported as one {@link BusFrame.Kind#INVALID} frame once the monitor
+ * has resynchronised or the bus has been idle for the read timeout of the
+ * connection.
+ */
+public class RTUBusMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RTUBusMonitor.class);
+
+    private final AbstractSerialConnection connection;
+    private final BusFrameListener listener;
+    private final byte[] buffer = new byte[2 * RTUFrames.MAX_LENGTH];
+    private final byte[] chunk = new byte[buffer.length];
+    private final byte[] garbage = new byte[RTUFrames.MAX_LENGTH];
+    private int start;
+    private int end;
+    private int garbageLength;
+    private long garbageTimestamp;
+    private BusFrame pending;
+    private long charNanos;
+    private long lastEnd;
+
+    // Scan state of the frame at start, offsets relative to start
+    private final int[] scanCRC = new int[2];
+    private int scanCRCLength;
+    private int scanLength;
+    private int scanMatch;
+    private int searchOffset;
+
+    private Thread thread;
+    private volatile boolean running;
+
+    private volatile long frames;
+    private volatile long invalidBytes;
+    private volatile long unanswered;
+
+    /**
+     * Creates a monitor for the given connection
+     *
+     * @param connection Connection to read from
+     * @param listener   Listener receiving the frames
+     */
+    public RTUBusMonitor(AbstractSerialConnection connection, BusFrameListener listener) {
+        this.connection = connection;
+        this.listener = listener;
+        resetScan();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns the number of valid frames seen
+     *
+     * @return Number of frames
+     */
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of bytes that did not belong to a valid frame
+     *
+     * @return Number of bytes
+     */
+    public long getInvalidByteCount() {
+        return invalidBytes;
+    }
+
+    /**
+     * Returns the number of unicast requests no response was seen for
+     *
+     * @return Number of requests
+     */
+    public long getUnansweredCount() {
+        return unanswered;
+    }
+
+    /**
+     * Opens the connection if needed and starts the monitor thread
+     *
+     * @throws IOException If the connection cannot be opened
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        if (!connection.isOpen()) {
+            connection.open();
+        }
+        start = 0;
+        end = 0;
+        garbageLength = 0;
+        pending = null;
+        lastEnd = 0;
+        resetScan();
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "Modbus RTU Bus Monitor " + connection.getPortName());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops the monitor thread. Waits for at most the read timeout of the
+     * connection. The connection is left open.
+     */
+    public void stop() {
+        Thread current;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            current = thread;
+            thread = null;
+        }
+        try {
+            current.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The read loop
+     */
+    private void loop() {
+        try {
+            while (running) {
+                charNanos = characterNanos();
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                }
+                int wanted = Math.min(Math.max(bytesNeeded(), connection.bytesAvailable()), buffer.length - end);
+                int count = connection.readBytes(chunk, wanted);
+                long now = System.nanoTime();
+                if (count < 0) {
+                    throw new IOException("Cannot read from serial port");
+                }
+                if (count == 0) {
+                    idle(now);
+                }
+                else {
+                    received(chunk, count, now);
+                }
+            }
+        }
+        catch (Exception e) {
+            if (running) {
+                logger.error("Modbus RTU bus monitor failed", e);
+            }
+        }
+        finally {
+            running = false;
+        }
+    }
+
+    /**
+     * Adds bytes read from the port to the buffer and decodes all frames
+     * completed by them.
+     *
+     * @param data  Bytes read
+     * @param count Number of bytes read
+     * @param now   Time the bytes were read
+     */
+    void received(byte[] data, int count, long now) {
+        System.arraycopy(data, 0, buffer, end, count);
+        end += count;
+        while (end - start >= RTUFrames.MIN_LENGTH) {
+            int available = end - start;
+            int requestLength = candidate(RTUFrames.requestLength(buffer, start, available), available);
+            int responseLength = candidate(RTUFrames.responseLength(buffer, start, available), available);
+            boolean requestValid = requestLength > 0 && requestLength <= available && RTUFrames.checkCRC(buffer, start, requestLength);
+            boolean responseValid = responseLength > 0 && responseLength <= available && RTUFrames.checkCRC(buffer, start, responseLength);
+            if (requestValid || responseValid) {
+                boolean response = responseValid && (!requestValid || answersPending(buffer, start));
+                frame(response, response ? responseLength : requestLength, now);
+            }
+            else if (incomplete(requestLength, available) || incomplete(responseLength, available)) {
+                // A head without length rules may be garbage in front of a frame
+                int next = RTUFrames.requestLength(buffer, start, available) == -1
+                        && RTUFrames.responseLength(buffer, start, available) == -1 ? findFrame(start + 1) : -1;
+                if (next < 0) {
+                    return;
+                }
+                discard(next - start, now);
+            }
+            else {
+                // Not a frame start, resynchronise on the next byte
+                discard(1, now);
+            }
+        }
+    }
+
+    /**
+     * Moves bytes at the start of the buffer to the invalid frame
+     *
+     * @param count Number of bytes
+     * @param now   Time the last byte in the buffer was read
+     */
+    private void discard(int count, long now) {
+        if (garbageLength == 0) {
+            garbageTimestamp = timestamp(now, start);
+        }
+        int length = Math.min(count, garbage.length - garbageLength);
+        System.arraycopy(buffer, start, garbage, garbageLength, length);
+        garbageLength += length;
+        invalidBytes += count;
+        start += count;
+        int offset = searchOffset - count;
+        resetScan();
+        searchOffset = Math.max(offset, 0);
+    }
+
+    /**
+     * Forgets the scan state when the frame start moves
+     */
+    private void resetScan() {
+        scanCRC[0] = 0xFF;
+        scanCRC[1] = 0xFF;
+        scanCRCLength = 0;
+        scanLength = RTUFrames.MIN_LENGTH - 1;
+        scanMatch = 0;
+        searchOffset = 0;
+    }
+
+    /**
+     * Searches the buffer for a complete frame with a length rule and a valid
+     * CRC. Offsets found not to start a frame are not searched again; the
+     * search resumes at the first offset that may still be completed.
+     *
+     * @param from Offset to start searching at
+     * @return Offset of the frame, -1 if there is none
+     */
+    private int findFrame(int from) {
+        boolean rejected = true;
+        for (int i = Math.max(from, start + searchOffset); end - i >= RTUFrames.MIN_LENGTH; i++) {
+            int available = end - i;
+            int requestLength = RTUFrames.requestLength(buffer, i, available);
+            int responseLength = RTUFrames.responseLength(buffer, i, available);
+            if ((requestLength > 0 && requestLength <= available && RTUFrames.checkCRC(buffer, i, requestLength))
+                    || (responseLength > 0 && responseLength <= available && RTUFrames.checkCRC(buffer, i, responseLength))) {
+                return i;
+            }
+            rejected &= !incomplete(requestLength, available) && !incomplete(responseLength, available);
+            if (rejected) {
+                searchOffset = i + 1 - start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Called when a read returned nothing. Whatever is in the buffer after a
+     * silent read timeout cannot be completed anymore.
+     *
+     * @param now Time of the timeout
+     */
+    void idle(long now) {
+        if (end > start) {
+            discard(end - start, now);
+        }
+        flushGarbage();
+        if (pending != null) {
+            unanswered++;
+            pending = null;
+        }
+    }
+
+    /**
+     * Returns the smallest number of bytes that can complete a frame
+     *
+     * @return Number of bytes, at least 1
+     */
+    int bytesNeeded() {
+        int available = end - start;
+        if (available < RTUFrames.MIN_LENGTH) {
+            return RTUFrames.MIN_LENGTH - available;
+        }
+        int needed = Integer.MAX_VALUE;
+        for (int length : new int[]{RTUFrames.requestLength(buffer, start, available), RTUFrames.responseLength(buffer, start, available)}) {
+            if (length > available) {
+                needed = Math.min(needed, length - available);
+            }
+        }
+        return needed == Integer.MAX_VALUE ? 1 : needed;
+    }
+
+    /**
+     * Resolves a length without a rule by searching for the first position a
+     * CRC matches at. The CRC is carried forward from the previous call, so
+     * each byte is added to it once.
+     *
+     * @param length    Length from the rules
+     * @param available Number of bytes in the buffer
+     * @return Frame length, 0 if unknown yet, -1 if impossible
+     */
+    private int candidate(int length, int available) {
+        if (length != -1) {
+            return length;
+        }
+        int limit = Math.min(available, RTUFrames.MAX_LENGTH);
+        while (scanMatch == 0 && scanLength < limit) {
+            int i = ++scanLength;
+            ModbusUtil.updateCRC(scanCRC, buffer, start + scanCRCLength, start + i - 2);
+            scanCRCLength = i - 2;
+            if ((buffer[start + i - 2] & 0xFF) == scanCRC[0] && (buffer[start + i - 1] & 0xFF) == scanCRC[1]) {
+                scanMatch = i;
+            }
+        }
+        if (scanMatch > 0) {
+            return scanMatch;
+        }
+        return available < RTUFrames.MAX_LENGTH ? 0 : -1;
+    }
+
+    private static boolean incomplete(int length, int available) {
+        return length == 0 || (length > available && length <= RTUFrames.MAX_LENGTH);
+    }
+
+    /**
+     * Tests if a frame is the response to the last request
+     *
+     * @param data   Buffer holding the frame
+     * @param offset Offset of the unit ID
+     * @return True if unit and function match the pending request
+     */
+    private boolean answersPending(byte[] data, int offset) {
+        return pending != null && (data[offset] & 0xFF) == pending.getUnitID() && (data[offset + 1] & 0x7F) == pending.getFunctionCode();
+    }
+
+    /**
+     * Takes a frame off the buffer and delivers it
+     *
+     * @param response True if the frame is a response
+     * @param length   Frame length
+     * @param now      Time the last byte in the buffer was read
+     */
+    private void frame(boolean response, int length, long now) {
+        flushGarbage();
+        byte[] data = Arrays.copyOfRange(buffer, start, start + length);
+        long timestamp = timestamp(now, start);
+        start += length;
+        resetScan();
+        lastEnd = timestamp + duration(length);
+        frames++;
+        BusFrame frame;
+        if (response) {
+            BusFrame request = answersPending(data, 0) ? pending : null;
+            if (request != null) {
+                pending = null;
+            }
+            frame = new BusFrame(BusFrame.Kind.RESPONSE, data, timestamp, duration(length), decode(ModbusResponse.createModbusResponse(data[1] & 0xFF), data), request);
+        }
+        else {
+            if (pending != null) {
+                unanswered++;
+            }
+            frame = new BusFrame(BusFrame.Kind.REQUEST, data, timestamp, duration(length), decode(ModbusRequest.createModbusRequest(data[1] & 0xFF), data), null);
+            // Broadcasts are not answered
+            pending = data[0] == 0 ? null : frame;
+        }
+        deliver(frame);
+    }
+
+    private void flushGarbage() {
+        if (garbageLength > 0) {
+            byte[] data = Arrays.copyOf(garbage, garbageLength);
+            garbageLength = 0;
+            deliver(new BusFrame(BusFrame.Kind.INVALID, data, garbageTimestamp, duration(data.length), null, null));
+        }
+    }
+
+    private void deliver(BusFrame frame) {
+        try {
+            listener.frameReceived(frame);
+        }
+        catch (RuntimeException e) {
+            logger.error("Bus frame listener failed", e);
+        }
+    }
+
+    private static <T extends ModbusMessageImpl> T decode(T message, byte[] data) {
+        message.setHeadless();
+        try {
+            message.readFrom(ByteBuffer.wrap(data, 0, data.length - 2));
+            return message;
+        }
+        catch (IOException | RuntimeException e) {
+            logger.debug("Cannot decode frame - {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Estimates the time the byte at the given offset started on the wire,
+     * from the time the last byte in the buffer was read. Bytes delivered in
+     * bursts would be estimated too early, so the estimate is never before the
+     * end of the previous frame.
+     *
+     * @param now    Time the last byte was read
+     * @param offset Offset of the byte in the buffer
+     * @return Timestamp in microseconds
+     */
+    private long timestamp(long now, int offset) {
+        long timestamp = TimeUnit.NANOSECONDS.toMicros(now - (end - offset) * charNanos);
+        return lastEnd != 0 && timestamp < lastEnd ? lastEnd : timestamp;
+    }
+
+    private long duration(int length) {
+        return TimeUnit.NANOSECONDS.toMicros(length * charNanos);
+    }
+
+    private long characterNanos() {
+        int baudRate = connection.getBaudRate();
+        if (baudRate <= 0) {
+            return 0;
+        }
+        int dataBits = connection.getNumDataBits() == 0 ? 8 : connection.getNumDataBits();
+        int stopBits = connection.getNumStopBits() == 0 ? 1 : connection.getNumStopBits();
+        int parityBits = connection.getParity() == AbstractSerialConnection.NO_PARITY ? 0 : 1;
+        return TimeUnit.SECONDS.toNanos(1) * (1 + dataBits + stopBits + parityBits) / baudRate;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.io;
+
+import com.omnixone.modbuslibrary.Modbus;
+import com.omnixone.modbuslibrary.util.ModbusUtil;
+
+/**
+ * Length rules of Modbus RTU frames, used to find the end of a frame without
+ * relying on the silent interval after it.
+ * <p>
+ * The methods return the length of the frame starting at <tt>start</tt>,
+ * unit ID and CRC included, <tt>0</tt> if more bytes are needed to know the
+ * length, or <tt>-1</tt> if the function code has no length rule.
+ */
+final class RTUFrames {
+
+    /**
+     * Length of the shortest possible frame
+     */
+    static final int MIN_LENGTH = 4;
+
+    /**
+     * Length of the longest possible frame
+     */
+    static final int MAX_LENGTH = 256;
+
+    private RTUFrames() {
+    }
+
+    /**
+     * Returns the length of a request frame
+     *
+     * @param buf       Buffer holding the frame
+     * @param start     Offset of the unit ID
+     * @param available Number of bytes of the frame in the buffer
+     * @return Frame length, 0 if unknown yet, -1 if there is no rule
+     */
+    static int requestLength(byte[] buf, int start, int available) {
+        if (available < 2) {
+            return 0;
+        }
+        switch (buf[start + 1] & 0xFF) {
+            case Modbus.READ_COILS:
+            case Modbus.READ_INPUT_DISCRETES:
+            case Modbus.READ_MULTIPLE_REGISTERS:
+            case Modbus.READ_INPUT_REGISTERS:
+            case Modbus.WRITE_COIL:
+            case Modbus.WRITE_SINGLE_REGISTER:
+            case Modbus.READ_SERIAL_DIAGNOSTICS:
+                return 8;
+            case Modbus.READ_EXCEPTION_STATUS:
+            case Modbus.READ_COMM_EVENT_COUNTER:
+            case Modbus.READ_COMM_EVENT_LOG:
+            case Modbus.REPORT_SLAVE_ID:
+                return 4;
+            case Modbus.WRITE_MULTIPLE_COILS:
+            case Modbus.WRITE_MULTIPLE_REGISTERS:
+                return available < 7 ? 0 : 9 + (buf[start + 6] & 0xFF);
+            case Modbus.READ_FILE_RECORD:
+            case Modbus.WRITE_FILE_RECORD:
+                return available < 3 ? 0 : 5 + (buf[start + 2] & 0xFF);
+            case Modbus.MASK_WRITE_REGISTER:
+                return 10;
+            case Modbus.READ_WRITE_MULTIPLE:
+                return available < 11 ? 0 : 13 + (buf[start + 10] & 0xFF);
+            case Modbus.READ_FIFO_QUEUE:
+                return 6;
+            case Modbus.READ_MEI:
+                return 7;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Returns the length of a response frame
+     *
+     * @param buf       Buffer holding the frame
+     * @param start     Offset of the unit ID
+     * @param available Number of bytes of the frame in the buffer
+     * @return Frame length, 0 if unknown yet, -1 if there is no rule
+     */
+    static int responseLength(byte[] buf, int start, int available) {
+        if (available < 2) {
+            return 0;
+        }
+        int function = buf[start + 1] & 0xFF;
+        if ((function & 0x80) != 0) {
+            return 5;
+        }
+        switch (function) {
+            case Modbus.READ_COILS:
+            case Modbus.READ_INPUT_DISCRETES:
+            case Modbus.READ_MULTIPLE_REGISTERS:
+            case Modbus.READ_INPUT_REGISTERS:
+            case Modbus.READ_COMM_EVENT_LOG:
+            case Modbus.REPORT_SLAVE_ID:
+            case Modbus.READ_FILE_RECORD:
+            case Modbus.WRITE_FILE_RECORD:
+            case Modbus.READ_WRITE_MULTIPLE:
+                return available < 3 ? 0 : 5 + (buf[start + 2] & 0xFF);
+            case Modbus.WRITE_COIL:
+            case Modbus.WRITE_SINGLE_REGISTER:
+            case Modbus.READ_SERIAL_DIAGNOSTICS:
+            case Modbus.READ_COMM_EVENT_COUNTER:
+            case Modbus.WRITE_MULTIPLE_COILS:
+            case Modbus.WRITE_MULTIPLE_REGISTERS:
+                return 8;
+            case Modbus.READ_EXCEPTION_STATUS:
+                return 5;
+            case Modbus.MASK_WRITE_REGISTER:
+                return 10;
+            case Modbus.READ_FIFO_QUEUE:
+                return available < 4 ? 0 : 6 + ModbusUtil.makeWord(buf[start + 2], buf[start + 3]);
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Tests if a frame ends with its correct CRC
+     *
+     * @param buf    Buffer holding the frame
+     * @param start  Offset of the unit ID
+     * @param length Frame length, CRC included
+     * @return True if the CRC matches
+     */
+    static boolean checkCRC(byte[] buf, int start, int length) {
+        int[] crc = ModbusUtil.calculateCRC(buf, start, start + length - 2);
+        return (buf[start + length - 2] & 0xFF) == crc[0] && (buf[start + length - 1] & 0xFF) == crc[1];
+    }
+}
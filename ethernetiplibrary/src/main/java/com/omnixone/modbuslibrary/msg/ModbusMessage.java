@@ -18,6 +18,7 @@ package com.omnixone.modbuslibrary.msg;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Interface defining a ModbusMessage.
@@ -150,5 +151,29 @@ public interface ModbusMessage {
      */
     void readFrom(DataInput din) throws IOException;
 
+    /**
+     * Writes this message to the given <tt>ByteBuffer</tt>, starting at its
+     * position. The length field of the header is derived from the bytes
+     * actually written.
+     *
+     * @param buffer the <tt>ByteBuffer</tt> to write to.
+     *
+     * @return the number of bytes written.
+     *
+     * @throws IOException if the message does not fit into the buffer.
+     */
+    int writeTo(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Reads this message from the given <tt>ByteBuffer</tt>, starting at its
+     * position.
+     *
+     * @param buffer the <tt>ByteBuffer</tt> to read from.
+     *
+     * @throws IOException if the buffer ends before the message or the data
+     *                     is invalid.
+     */
+    void readFrom(ByteBuffer buffer) throws IOException;
+
 
 }
@@ -16,11 +16,17 @@
 package com.omnixone.modbuslibrary.msg;
 
 import com.omnixone.modbuslibrary.Modbus;
+import com.omnixone.modbuslibrary.io.ByteBufferDataInput;
+import com.omnixone.modbuslibrary.io.ByteBufferDataOutput;
 import com.omnixone.modbuslibrary.util.ModbusUtil;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Abstract class implementing a <tt>ModbusMessage</tt>. This class provides
@@ -39,6 +45,12 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
     private int unitID = Modbus.DEFAULT_UNIT_ID;
     private int functionCode;
     private boolean headless = false; // flag for header-less (serial)
+    private ByteBufferDataInput bufferInput;
+    private ByteBufferDataOutput bufferOutput;
+    private ModbusMessagePool pool;
+    private int poolKey;
+    private boolean pooledRequest;
+    private boolean released;
 
     @Override
     public boolean isHeadless() {
@@ -50,8 +62,76 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
         headless = true;
     }
 
+    /**
+     * Resets the header of this message to its defaults, so that a recycled
+     * message looks like a newly constructed one.
+     * <p>
+     * The function code and the data length of messages with fixed length
+     * data are kept. Subclasses whose data is not completely replaced by
+     * <tt>readData</tt> or their setters override this method, calling it
+     * first.
+     */
+    public void reset() {
+        transactionID = Modbus.DEFAULT_TRANSACTION_ID;
+        protocolID = Modbus.DEFAULT_PROTOCOL_ID;
+        unitID = Modbus.DEFAULT_UNIT_ID;
+        headless = false;
+    }
+
+    /**
+     * Hands this message back to the {@link ModbusMessagePool} it was taken
+     * from. The message must not be used afterwards. Does nothing for a
+     * message that was not taken from a pool.
+     *
+     * @throws IllegalStateException if the message was already released.
+     */
+    public void release() {
+        if (pool == null) {
+            return;
+        }
+        if (released) {
+            throw new IllegalStateException(getClass().getSimpleName() + " released twice");
+        }
+        released = true;
+        pool.recycle(this, poolKey, pooledRequest);
+    }
+
+    /**
+     * Marks this message as handed out by the given pool.
+     *
+     * @param pool    the pool.
+     * @param key     the function code the message is pooled under.
+     * @param request true if the message is pooled as a request.
+     */
+    void attach(ModbusMessagePool pool, int key, boolean request) {
+        this.pool = pool;
+        poolKey = key;
+        pooledRequest = request;
+        released = false;
+    }
+
+    /**
+     * Returns the pool this message was taken from.
+     *
+     * @return the pool, or null.
+     */
+    ModbusMessagePool getPool() {
+        return pool;
+    }
+
+    /**
+     * Throws if this message is used after its release while
+     * {@link ModbusMessagePool#setDebug(boolean)} is enabled.
+     */
+    final void checkNotReleased() {
+        if (released && ModbusMessagePool.isDebug()) {
+            throw new IllegalStateException(getClass().getSimpleName() + " used after release");
+        }
+    }
+
     @Override
     public int getTransactionID() {
+        checkNotReleased();
         return transactionID & 0x0000FFFF;
     }
 
@@ -65,6 +145,7 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
      * @param tid the transaction identifier as <tt>int</tt>.
      */
     public void setTransactionID(int tid) {
+        checkNotReleased();
         transactionID = tid & 0x0000FFFF;
     }
 
@@ -116,6 +197,7 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
 
     @Override
     public int getUnitID() {
+        checkNotReleased();
         return unitID;
     }
 
@@ -127,6 +209,7 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
      * @param num the unit identifier number to be set.
      */
     public void setUnitID(int num) {
+        checkNotReleased();
         unitID = num;
     }
 
@@ -175,6 +258,7 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
 
     @Override
     public void writeTo(DataOutput dout) throws IOException {
+        checkNotReleased();
 
         if (!isHeadless()) {
             dout.writeShort(getTransactionID());
@@ -189,6 +273,7 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
 
     @Override
     public void readFrom(DataInput din) throws IOException {
+        checkNotReleased();
         if (!isHeadless()) {
             setTransactionID(din.readUnsignedShort());
             setProtocolID(din.readUnsignedShort());
@@ -199,6 +284,95 @@ public abstract class ModbusMessageImpl implements ModbusMessage {
         readData(din);
     }
 
+    @Override
+    public int writeTo(ByteBuffer buffer) throws IOException {
+        checkNotReleased();
+        int start = buffer.position();
+        try {
+            if (!isHeadless()) {
+                buffer.putShort((short)getTransactionID());
+                buffer.putShort((short)getProtocolID());
+                buffer.putShort((short)0);
+            }
+            buffer.put((byte)getUnitID());
+            buffer.put((byte)getFunctionCode());
+            writeData(buffer);
+        }
+        catch (BufferOverflowException ex) {
+            throw new IOException("Buffer too small for message", ex);
+        }
+        int length = buffer.position() - start;
+        if (!isHeadless()) {
+            buffer.putShort(start + 4, (short)(length - 6));
+        }
+        return length;
+    }
+
+    @Override
+    public void readFrom(ByteBuffer buffer) throws IOException {
+        checkNotReleased();
+        try {
+            if (!isHeadless()) {
+                setTransactionID(buffer.getShort() & 0xFFFF);
+                setProtocolID(buffer.getShort() & 0xFFFF);
+                dataLength = buffer.getShort() & 0xFFFF;
+            }
+            setUnitID(buffer.get() & 0xFF);
+            setFunctionCode(buffer.get() & 0xFF);
+            readData(buffer);
+        }
+        catch (BufferUnderflowException ex) {
+            throw new EOFException("Buffer ends within message");
+        }
+    }
+
+    /**
+     * Writes the subclass specific data to the given <tt>ByteBuffer</tt>.
+     * <p>
+     * The default implementation adapts the buffer to
+     * {@link #writeData(DataOutput)}; frequently used messages override it to
+     * write the buffer directly and may then throw a
+     * <tt>BufferOverflowException</tt>, which {@link #writeTo(ByteBuffer)}
+     * turns into an <tt>IOException</tt>.
+     *
+     * @param buffer the <tt>ByteBuffer</tt> to be written to.
+     *
+     * @throws IOException if the data does not fit into the buffer.
+     */
+    public void writeData(ByteBuffer buffer) throws IOException {
+        if (bufferOutput == null) {
+            bufferOutput = new ByteBufferDataOutput(buffer);
+        }
+        else {
+            bufferOutput.reset(buffer);
+        }
+        writeData(bufferOutput);
+    }
+
+    /**
+     * Reads the subclass specific data from the given <tt>ByteBuffer</tt>.
+     * <p>
+     * The default implementation adapts the buffer to
+     * {@link #readData(DataInput)}; frequently used messages override it to
+     * read the buffer directly and may then throw a
+     * <tt>BufferUnderflowException</tt>, which {@link #readFrom(ByteBuffer)}
+     * turns into an <tt>EOFException</tt>.
+     *
+     * @param buffer the <tt>ByteBuffer</tt> to read from.
+     *
+     * @throws IOException if the buffer ends before the data or the data is
+     *                     invalid.
+     */
+    public void readData(ByteBuffer buffer) throws IOException {
+        if (bufferInput == null) {
+            bufferInput = new ByteBufferDataInput(buffer);
+        }
+        else {
+            bufferInput.reset(buffer);
+        }
+        readData(bufferInput);
+    }
+
     /**
      * Writes the subclass specific data to the given DataOutput.
      *
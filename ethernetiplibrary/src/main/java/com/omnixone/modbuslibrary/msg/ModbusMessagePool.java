@@ -0,0 +1,189 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.msg;
+
+/**
+ * Class implementing a pool of recyclable request and response messages.
+ * <p>
+ * Messages are taken from the pool by function code and handed back with
+ * {@link ModbusMessageImpl#release()} once they are no longer used. A
+ * released message is {@link ModbusMessageImpl#reset() reset} and kept
+ * for the next message with the same function code, so a slave or master
+ * exchanging the same kinds of messages over and over stops creating new
+ * message objects after the first few frames. Messages that are never
+ * released are simply garbage collected.
+ * <p>
+ * A pool is not thread safe. Each transport owns one, which makes it a pool
+ * per connection, and {@link #local()} returns one per thread for code
+ * outside of the transports. A message must be released on the thread
+ * owning its pool, and must not be touched after it has been released.
+ * With {@link #setDebug(boolean)} enabled, header access, encoding and
+ * decoding of a released message throw an <tt>IllegalStateException</tt>.
+ */
+public final class ModbusMessagePool {
+
+    /**
+     * Default number of idle messages kept per function code
+     */
+    public static final int DEFAULT_CAPACITY = 4;
+
+    private static final ThreadLocal<ModbusMessagePool> LOCAL = new ThreadLocal<ModbusMessagePool>() {
+        @Override
+        protected ModbusMessagePool initialValue() {
+            return new ModbusMessagePool();
+        }
+    };
+
+    private static volatile boolean debug;
+
+    private final int capacity;
+    private final ModbusMessageImpl[][] requests = new ModbusMessageImpl[256][];
+    private final ModbusMessageImpl[][] responses = new ModbusMessageImpl[256][];
+    private final int[] idleRequests = new int[256];
+    private final int[] idleResponses = new int[256];
+    private long created;
+    private long recycled;
+
+    /**
+     * Constructs a pool keeping up to {@link #DEFAULT_CAPACITY} idle messages
+     * per function code.
+     */
+    public ModbusMessagePool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a pool keeping up to the given number of idle messages per
+     * function code.
+     *
+     * @param capacity the number of idle messages per function code.
+     */
+    public ModbusMessagePool(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the pool of the calling thread.
+     *
+     * @return the pool of the thread.
+     */
+    public static ModbusMessagePool local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Enables or disables the detection of released messages being used.
+     *
+     * @param enabled true to check every header access, encoding and decoding.
+     */
+    public static void setDebug(boolean enabled) {
+        debug = enabled;
+    }
+
+    public static boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Returns a request for the given function code, recycled if possible.
+     * The request has default header values; the data must be set or read
+     * before it is used.
+     *
+     * @param functionCode the function code of the request.
+     *
+     * @return the request.
+     */
+    public ModbusRequest acquireRequest(int functionCode) {
+        int fc = functionCode & 0xFF;
+        ModbusRequest request = (ModbusRequest)take(requests, idleRequests, fc);
+        if (request == null) {
+            request = ModbusRequest.createModbusRequest(functionCode);
+            created++;
+        }
+        request.attach(this, fc, true);
+        return request;
+    }
+
+    /**
+     * Returns a response for the given function code, recycled if possible.
+     * The response has default header values; the data must be set or read
+     * before it is used.
+     *
+     * @param functionCode the function code of the response.
+     *
+     * @return the response.
+     */
+    public ModbusResponse acquireResponse(int functionCode) {
+        int fc = functionCode & 0xFF;
+        ModbusResponse response = (ModbusResponse)take(responses, idleResponses, fc);
+        if (response == null) {
+            response = ModbusResponse.createModbusResponse(functionCode);
+            created++;
+        }
+        response.attach(this, fc, false);
+        return response;
+    }
+
+    /**
+     * Returns the number of messages the pool had to create.
+     *
+     * @return the number of created messages.
+     */
+    public long getCreatedCount() {
+        return created;
+    }
+
+    /**
+     * Returns the number of messages handed out again after a release.
+     *
+     * @return the number of recycled messages.
+     */
+    public long getRecycledCount() {
+        return recycled;
+    }
+
+    /**
+     * Takes back a released message. Called by {@link ModbusMessageImpl#release()}.
+     *
+     * @param message the message.
+     * @param key     the function code the message was acquired with.
+     * @param request true if the message was acquired as a request.
+     */
+    void recycle(ModbusMessageImpl message, int key, boolean request) {
+        message.reset();
+        ModbusMessageImpl[][] pool = request ? requests : responses;
+        int[] idle = request ? idleRequests : idleResponses;
+        if (pool[key] == null) {
+            pool[key] = new ModbusMessageImpl[capacity];
+        }
+        if (idle[key] < capacity) {
+            pool[key][idle[key]++] = message;
+        }
+    }
+
+    private ModbusMessageImpl take(ModbusMessageImpl[][] pool, int[] idle, int key) {
+        if (idle[key] == 0) {
+            return null;
+        }
+        ModbusMessageImpl message = pool[key][--idle[key]];
+        pool[key][idle[key]] = null;
+        recycled++;
+        return message;
+    }
+}
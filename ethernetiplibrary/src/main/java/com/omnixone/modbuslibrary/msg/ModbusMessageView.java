@@ -0,0 +1,218 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.msg;
+
+import com.omnixone.modbuslibrary.Modbus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class implementing a read only view of an encoded Modbus message.
+ * <p>
+ * The view decodes the fields of a message in a <tt>ByteBuffer</tt> on
+ * access, without copying the message or creating any objects. A single
+ * instance is meant to be rewrapped for every message, e.g. to route a frame
+ * by unit and function code before decoding it, or to pick single registers
+ * out of a response.
+ * <p>
+ * The data accessors follow the layout of the standard read and write
+ * messages: {@link #getReference()} and {@link #getCount()} are the first two
+ * words of the data of a request, {@link #getByteCount()} is the first byte
+ * of the data of a read response. Buffers are read in big endian order,
+ * the default of a <tt>ByteBuffer</tt>.
+ */
+public class ModbusMessageView {
+
+    private ByteBuffer buffer;
+    private int offset;
+    private boolean headless;
+
+    /**
+     * Wraps the message starting at the given offset of the buffer.
+     *
+     * @param buffer   the buffer holding the message.
+     * @param offset   the offset of the first byte of the message.
+     * @param headless true if the message has no MBAP header.
+     *
+     * @return this view.
+     */
+    public ModbusMessageView wrap(ByteBuffer buffer, int offset, boolean headless) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.headless = headless;
+        return this;
+    }
+
+    /**
+     * Wraps the message held in the given array.
+     *
+     * @param message  the array holding the message.
+     * @param offset   the offset of the first byte of the message.
+     * @param headless true if the message has no MBAP header.
+     *
+     * @return this view.
+     */
+    public ModbusMessageView wrap(byte[] message, int offset, boolean headless) {
+        if (buffer == null || !buffer.hasArray() || buffer.array() != message) {
+            buffer = ByteBuffer.wrap(message);
+        }
+        return wrap(buffer, offset, headless);
+    }
+
+    public boolean isHeadless() {
+        return headless;
+    }
+
+    /**
+     * Returns the transaction identifier, 0 for a headless message.
+     *
+     * @return the transaction identifier.
+     */
+    public int getTransactionID() {
+        return headless ? 0 : buffer.getShort(offset) & 0xFFFF;
+    }
+
+    /**
+     * Returns the protocol identifier, 0 for a headless message.
+     *
+     * @return the protocol identifier.
+     */
+    public int getProtocolID() {
+        return headless ? 0 : buffer.getShort(offset + 2) & 0xFFFF;
+    }
+
+    /**
+     * Returns the length field of the MBAP header, the number of bytes
+     * following it. For a headless message it is unknown and -1 is returned.
+     *
+     * @return the length, or -1.
+     */
+    public int getLength() {
+        return headless ? -1 : buffer.getShort(offset + 4) & 0xFFFF;
+    }
+
+    public int getUnitID() {
+        return buffer.get(pduOffset()) & 0xFF;
+    }
+
+    /**
+     * Returns the function code, including the exception flag.
+     *
+     * @return the function code.
+     */
+    public int getFunctionCode() {
+        return buffer.get(pduOffset() + 1) & 0xFF;
+    }
+
+    /**
+     * Tests if the message is an exception response.
+     *
+     * @return true if the exception flag of the function code is set.
+     */
+    public boolean isException() {
+        return getFunctionCode() >= Modbus.EXCEPTION_OFFSET;
+    }
+
+    public int getExceptionCode() {
+        return getDataByte(0);
+    }
+
+    /**
+     * Returns the starting reference of a request.
+     *
+     * @return the reference.
+     */
+    public int getReference() {
+        return getDataWord(0);
+    }
+
+    /**
+     * Returns the second word of the data, the number of registers or bits
+     * of a request.
+     *
+     * @return the count.
+     */
+    public int getCount() {
+        return getDataWord(2);
+    }
+
+    /**
+     * Returns the byte count of a read response.
+     *
+     * @return the byte count.
+     */
+    public int getByteCount() {
+        return getDataByte(0);
+    }
+
+    /**
+     * Returns a register of a read registers response.
+     *
+     * @param index the index of the register.
+     *
+     * @return the unsigned register value.
+     *
+     * @throws IndexOutOfBoundsException if the response holds no such register.
+     */
+    public int getRegister(int index) {
+        if (index < 0 || index >= getByteCount() / 2) {
+            throw new IndexOutOfBoundsException("Register " + index + " of " + getByteCount() / 2);
+        }
+        return getDataWord(1 + index * 2);
+    }
+
+    /**
+     * Returns a bit of a read coils or read discretes response.
+     *
+     * @param index the index of the bit.
+     *
+     * @return the state of the bit.
+     *
+     * @throws IndexOutOfBoundsException if the response holds no such bit.
+     */
+    public boolean getCoil(int index) {
+        if (index < 0 || index >= getByteCount() * 8) {
+            throw new IndexOutOfBoundsException("Bit " + index + " of " + getByteCount() * 8);
+        }
+        return (getDataByte(1 + index / 8) & (1 << (index % 8))) != 0;
+    }
+
+    /**
+     * Returns a byte of the data following the function code.
+     *
+     * @param index the index in the data.
+     *
+     * @return the unsigned byte.
+     */
+    public int getDataByte(int index) {
+        return buffer.get(pduOffset() + 2 + index) & 0xFF;
+    }
+
+    /**
+     * Returns a big endian word of the data following the function code.
+     *
+     * @param index the byte index in the data.
+     *
+     * @return the unsigned word.
+     */
+    public int getDataWord(int index) {
+        return buffer.getShort(pduOffset() + 2 + index) & 0xFFFF;
+    }
+
+    private int pduOffset() {
+        return headless ? offset : offset + 6;
+    }
+}
@@ -149,7 +149,28 @@ public abstract class ModbusRequest extends ModbusMessageImpl {
      * @return a ModbusResponse instance representing the exception response.
      */
     public ModbusResponse createExceptionResponse(int code) {
-        return updateResponseWithHeader(new ExceptionResponse(getFunctionCode(), code), true);
+        ModbusMessagePool pool = getPool();
+        if (pool == null) {
+            return updateResponseWithHeader(new ExceptionResponse(getFunctionCode(), code), true);
+        }
+        ExceptionResponse response = (ExceptionResponse)pool.acquireResponse(getFunctionCode() | Modbus.EXCEPTION_OFFSET);
+        response.setExceptionCode(code);
+        return updateResponseWithHeader(response, true);
+    }
+
+    /**
+     * Returns an empty response for the function code of this request. If
+     * the request was taken from a {@link ModbusMessagePool}, the response
+     * is taken from the same pool.
+     *
+     * @return the response.
+     */
+    ModbusResponse newResponse() {
+        ModbusMessagePool pool = getPool();
+        if (pool == null) {
+            return ModbusResponse.createModbusResponse(getFunctionCode());
+        }
+        return pool.acquireResponse(getFunctionCode());
     }
 
     /**
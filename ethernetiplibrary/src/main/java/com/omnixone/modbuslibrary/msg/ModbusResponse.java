@@ -141,6 +141,12 @@ public abstract class ModbusResponse extends ModbusMessageImpl {
         }
     }
 
+    @Override
+    public void reset() {
+        super.reset();
+        auxiliaryType = AuxiliaryMessageTypes.NONE;
+    }
+
     /**
      * Returns the auxiliary type of this response message
      * Useful for adding extra information to the message that can be used by downstream processing
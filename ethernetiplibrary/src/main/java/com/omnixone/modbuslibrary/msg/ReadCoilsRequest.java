@@ -20,10 +20,12 @@ import com.omnixone.modbuslibrary.net.AbstractModbusListener;
 import com.omnixone.modbuslibrary.procimg.DigitalOut;
 import com.omnixone.modbuslibrary.procimg.IllegalAddressException;
 import com.omnixone.modbuslibrary.procimg.ProcessImage;
+import com.omnixone.modbuslibrary.util.BitVector;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>ReadCoilsRequest</tt>. The implementation directly
@@ -74,7 +76,9 @@ public class ReadCoilsRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse getResponse() {
-        return updateResponseWithHeader(new ReadCoilsResponse(bitCount));
+        ReadCoilsResponse response = (ReadCoilsResponse)newResponse();
+        response.setBitCount(bitCount);
+        return updateResponseWithHeader(response);
     }
 
     @Override
@@ -94,9 +98,15 @@ public class ReadCoilsRequest extends ModbusRequest {
         }
         response = getResponse();
 
-        // Populate the discrete values from the process image.
-        for (int i = 0; i < douts.length; i++) {
-            ((ReadCoilsResponse)response).setCoilStatus(i, douts[i].isSet());
+        // Populate the discrete values from the process image, 64 at a time.
+        BitVector coils = ((ReadCoilsResponse)response).getCoils();
+        for (int i = 0; i < douts.length; i += 64) {
+            int n = Math.min(64, douts.length - i);
+            long bits = 0;
+            for (int j = n - 1; j >= 0; j--) {
+                bits = bits << 1 | (douts[i + j].isSet() ? 1 : 0);
+            }
+            coils.setBits(i, bits, n);
         }
 
         return response;
@@ -163,6 +173,18 @@ public class ReadCoilsRequest extends ModbusRequest {
         bitCount = din.readUnsignedShort();
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.putShort((short)bitCount);
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        reference = buffer.getShort() & 0xFFFF;
+        bitCount = buffer.getShort() & 0xFFFF;
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result = new byte[4];
@@ -21,6 +21,7 @@ import com.omnixone.modbuslibrary.util.BitVector;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>ReadCoilsResponse</tt>.
@@ -84,6 +85,24 @@ public class ReadCoilsResponse extends ModbusResponse {
         }
     }
 
+    /**
+     * setBitCount -- set the number of coils and clear them all.
+     *
+     * The bit vector is reused if it has the same number of bytes.
+     *
+     * @param count number of coils
+     */
+    public void setBitCount(int count) {
+        if (coils != null && coils.byteSize() == (count + 7) / 8) {
+            coils.clear();
+            coils.forceSize(count);
+        }
+        else {
+            coils = new BitVector(count);
+        }
+        setDataLength(coils.byteSize() + 1);
+    }
+
     /**
      * getCoils -- get the coils bit vector.
      *
@@ -157,13 +176,27 @@ public class ReadCoilsResponse extends ModbusResponse {
         setDataLength(count + 1);
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.put((byte)coils.byteSize());
+        coils.writeBytes(buffer, coils.byteSize());
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        int count = buffer.get() & 0xFF;
+        coils = new BitVector(count * 8);
+        coils.readBytes(buffer, count);
+        setDataLength(count + 1);
+    }
+
     @Override
     public byte[] getMessage() {
         int len = 1 + coils.byteSize();
         byte[] result = new byte[len];
 
         result[0] = (byte)coils.byteSize();
-        System.arraycopy(coils.getBytes(), 0, result, 1, coils.byteSize());
+        coils.copyTo(result, 1);
 
         return result;
     }
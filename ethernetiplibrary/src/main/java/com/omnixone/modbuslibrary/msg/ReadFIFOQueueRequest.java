@@ -17,6 +17,7 @@ package com.omnixone.modbuslibrary.msg;
 
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
+import com.omnixone.modbuslibrary.procimg.FIFO;
 import com.omnixone.modbuslibrary.procimg.IllegalAddressException;
 import com.omnixone.modbuslibrary.procimg.InputRegister;
 import com.omnixone.modbuslibrary.procimg.ProcessImage;
@@ -68,7 +69,7 @@ public class ReadFIFOQueueRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse getResponse() {
-        return updateResponseWithHeader(new ReadFIFOQueueResponse());
+        return updateResponseWithHeader(newResponse());
     }
 
     @Override
@@ -79,6 +80,20 @@ public class ReadFIFOQueueRequest extends ModbusRequest {
         // Get the process image.
         ProcessImage procimg = listener.getProcessImage(getUnitID());
 
+        // A FIFO at the address is served from a snapshot of its ring
+        FIFO fifo;
+        try {
+            fifo = procimg.getFIFOByAddress(reference);
+        }
+        catch (IllegalAddressException e) {
+            fifo = null;
+        }
+        if (fifo != null) {
+            response = (ReadFIFOQueueResponse)getResponse();
+            response.setRegisters(fifo);
+            return response;
+        }
+
         try {
             // Get the FIFO queue location and read the count of available
             // registers.
@@ -16,16 +16,19 @@
 package com.omnixone.modbuslibrary.msg;
 
 import com.omnixone.modbuslibrary.Modbus;
+import com.omnixone.modbuslibrary.procimg.FIFO;
 import com.omnixone.modbuslibrary.procimg.InputRegister;
-import com.omnixone.modbuslibrary.procimg.SimpleInputRegister;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>ReadFIFOQueueResponse</tt>.
+ * <p>
+ * The values are held in a fixed array, so a recycled response carries a
+ * FIFO snapshot without allocating.
  *
  * @author Julie Haugh (jfh@ghgande.com)
  * @author Steve O'Hara (4NG)
@@ -35,7 +38,7 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
 
     // Message fields.
     private int count;
-    private InputRegister[] registers;
+    private final short[] values = new short[FIFO.CAPACITY];
 
     /**
      * Constructs a new <tt>ReadFIFOQueueResponse</tt> instance.
@@ -46,9 +49,8 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
         setFunctionCode(Modbus.READ_FIFO_QUEUE);
 
         count = 0;
-        registers = new InputRegister[0];
 
-        setDataLength(7);
+        setDataLength(4);
     }
 
     /**
@@ -66,20 +68,21 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
      * @param ref Register
      */
     public synchronized void setWordCount(int ref) {
-        if (ref < 0 || ref > 31) {
+        if (ref < 0 || ref > FIFO.CAPACITY) {
             throw new IllegalArgumentException();
         }
         count = ref;
+        setDataLength(4 + count * 2);
     }
 
     public synchronized int[] getRegisters() {
-        int[] values = new int[count];
+        int[] result = new int[count];
 
         for (int i = 0; i < count; i++) {
-            values[i] = getRegister(i);
+            result[i] = getRegister(i);
         }
 
-        return values;
+        return result;
     }
 
     /**
@@ -89,21 +92,37 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
      */
     public synchronized void setRegisters(InputRegister[] regs) {
         if (regs == null) {
-            registers = null;
             count = 0;
+            setDataLength(4);
             return;
         }
 
-        registers = Arrays.copyOf(regs, regs.length);
-        if (regs.length > 31) {
+        if (regs.length > FIFO.CAPACITY) {
             throw new IllegalArgumentException();
         }
 
+        for (int i = 0; i < regs.length; i++) {
+            values[i] = (short)regs[i].getValue();
+        }
         count = regs.length;
+        setDataLength(4 + count * 2);
+    }
+
+    /**
+     * setRegisters -- set the values to a snapshot of a FIFO.
+     *
+     * @param fifo the FIFO to copy
+     */
+    public synchronized void setRegisters(FIFO fifo) {
+        count = fifo.copyTo(values, 0);
+        setDataLength(4 + count * 2);
     }
 
     public int getRegister(int index) {
-        return registers[index].getValue();
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException(index + " >= " + count);
+        }
+        return values[index] & 0xFFFF;
     }
 
     /**
@@ -112,7 +131,11 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
      */
     @Override
     public void writeData(DataOutput dout) throws IOException {
-        dout.write(getMessage());
+        dout.writeShort(count * 2 + 2);
+        dout.writeShort(count);
+        for (int i = 0; i < count; i++) {
+            dout.writeShort(values[i]);
+        }
     }
 
     /**
@@ -132,12 +155,40 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
 
         // The first register is the number of registers which
         // follow.  Save that as count, not as a register.
-        count = din.readUnsignedShort();
-        registers = new InputRegister[count];
+        int n = din.readUnsignedShort();
+        if (n > FIFO.CAPACITY) {
+            throw new IOException("FIFO count " + n + " exceeds " + FIFO.CAPACITY);
+        }
 
+        for (int i = 0; i < n; i++) {
+            values[i] = din.readShort();
+        }
+        count = n;
+        setDataLength(4 + count * 2);
+    }
+
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)(count * 2 + 2));
+        buffer.putShort((short)count);
         for (int i = 0; i < count; i++) {
-            registers[i] = new SimpleInputRegister(din.readShort());
+            buffer.putShort(values[i]);
+        }
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) throws IOException {
+        buffer.getShort();
+        int n = buffer.getShort() & 0xFFFF;
+        if (n > FIFO.CAPACITY) {
+            throw new IOException("FIFO count " + n + " exceeds " + FIFO.CAPACITY);
+        }
+
+        for (int i = 0; i < n; i++) {
+            values[i] = buffer.getShort();
         }
+        count = n;
+        setDataLength(4 + count * 2);
     }
 
     /**
@@ -155,9 +206,8 @@ public class ReadFIFOQueueResponse extends ModbusResponse {
         result[3] = (byte)(count & 0xFF);
 
         for (int i = 0; i < count; i++) {
-            byte[] value = registers[i].toBytes();
-            result[i * 2 + 4] = value[0];
-            result[i * 2 + 5] = value[1];
+            result[i * 2 + 4] = (byte)(values[i] >> 8);
+            result[i * 2 + 5] = (byte)values[i];
         }
         return result;
     }
@@ -18,8 +18,9 @@ package com.omnixone.modbuslibrary.msg;
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.msg.ReadFileRecordResponse.RecordResponse;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
-import com.omnixone.modbuslibrary.procimg.*;
-import com.omnixone.modbuslibrary.procimg.Record;
+import com.omnixone.modbuslibrary.procimg.File;
+import com.omnixone.modbuslibrary.procimg.IllegalAddressException;
+import com.omnixone.modbuslibrary.procimg.ProcessImage;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -87,12 +88,28 @@ public class ReadFileRecordRequest extends ModbusRequest {
         return records[index];
     }
 
+    /**
+     * getResponseSize -- return the size of the data of the response to
+     * this request.
+     *
+     * @return size in bytes of the response data.
+     */
+    public int getResponseSize() {
+        int size = 1;
+        for (int i = 0; i < getRequestCount(); i++) {
+            size += 2 + records[i].getWordCount() * 2;
+        }
+        return size;
+    }
+
     /**
      * addRequest -- add a new record request.
+     * The request and its response must both fit into a message.
      * @param request Record request to add
      */
     public void addRequest(RecordRequest request) {
-        if (request.getRequestSize() + getRequestSize() > 248) {
+        if (1 + 7 * (getRequestCount() + 1) > Modbus.MAX_PDU_DATA_LENGTH
+                || getResponseSize() - 1 + 2 + request.getWordCount() * 2 > Modbus.MAX_FILE_RECORD_DATA_LENGTH) {
             throw new IllegalArgumentException();
         }
 
@@ -107,7 +124,7 @@ public class ReadFileRecordRequest extends ModbusRequest {
         }
         records[records.length - 1] = request;
 
-        setDataLength(getRequestSize());
+        setDataLength(1 + 7 * records.length);
     }
 
     @Override
@@ -136,23 +153,10 @@ public class ReadFileRecordRequest extends ModbusRequest {
                     return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
                 }
 
-                Record record = file.getRecord(recordRequest.getRecordNumber());
                 int registers = recordRequest.getWordCount();
-                if (record == null && registers != 0) {
-                    return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                }
-
-                short[] data = new short[registers];
-                for (int j = 0; j < registers; j++) {
-                    Register register = record.getRegister(j);
-                    if (register == null) {
-                        return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                    }
-
-                    data[j] = register.toShort();
-                }
-                RecordResponse recordResponse = new RecordResponse(data);
-                response.addResponse(recordResponse);
+                byte[] data = new byte[registers * 2];
+                file.readRegisters(recordRequest.getRecordNumber(), registers, data, 0);
+                response.addResponse(new RecordResponse(data, 0, registers));
             }
         }
         catch (IllegalAddressException e) {
@@ -196,6 +200,7 @@ public class ReadFileRecordRequest extends ModbusRequest {
 
             records[i] = new RecordRequest(file, record, count);
         }
+        setDataLength(1 + 7 * recordCount);
     }
 
     /**
@@ -100,6 +100,8 @@ public class ReadFileRecordResponse extends ModbusResponse {
             System.arraycopy(old, 0, records, 0, old.length);
         }
         records[records.length - 1] = response;
+
+        setDataLength(getByteCount());
     }
 
     @Override
@@ -119,6 +121,7 @@ public class ReadFileRecordResponse extends ModbusResponse {
     public void readData(DataInput din) throws IOException {
         int byteCount = (din.readUnsignedByte() & 0xFF);
 
+        records = null;
         int remainder = byteCount;
         while (remainder > 0) {
             int length = din.readUnsignedByte();
@@ -152,7 +155,7 @@ public class ReadFileRecordResponse extends ModbusResponse {
 
         for (RecordResponse record : records) {
             record.getResponse(result, offset);
-            offset += record.getWordCount() * 2;
+            offset += record.getResponseSize();
         }
         return result;
     }
@@ -172,10 +175,36 @@ public class ReadFileRecordResponse extends ModbusResponse {
             }
         }
 
+        /**
+         * Constructs a record response from register bytes, high byte first.
+         *
+         * @param data   buffer holding the registers.
+         * @param offset offset of the first register in the buffer.
+         * @param count  number of registers.
+         */
+        public RecordResponse(byte[] data, int offset, int count) {
+            wordCount = count;
+            this.data = new byte[count * 2];
+            System.arraycopy(data, offset, this.data, 0, this.data.length);
+        }
+
         public int getWordCount() {
             return wordCount;
         }
 
+        /**
+         * getData -- copy the registers of this record, high byte first.
+         *
+         * @param dest   buffer to copy to.
+         * @param offset offset in the buffer.
+         *
+         * @return the number of bytes copied.
+         */
+        public int getData(byte[] dest, int offset) {
+            System.arraycopy(data, 0, dest, offset, data.length);
+            return data.length;
+        }
+
         public SimpleRegister getRegister(int register) {
             if (register < 0 || register >= wordCount) {
                 throw new IndexOutOfBoundsException("0 <= " + register + " < " + wordCount);
@@ -20,10 +20,12 @@ import com.omnixone.modbuslibrary.net.AbstractModbusListener;
 import com.omnixone.modbuslibrary.procimg.DigitalIn;
 import com.omnixone.modbuslibrary.procimg.IllegalAddressException;
 import com.omnixone.modbuslibrary.procimg.ProcessImage;
+import com.omnixone.modbuslibrary.util.BitVector;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>ReadInputDiscretesRequest</tt>. The implementation
@@ -76,7 +78,9 @@ public class ReadInputDiscretesRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse getResponse() {
-        return updateResponseWithHeader(new ReadInputDiscretesResponse(getBitCount()));
+        ReadInputDiscretesResponse response = (ReadInputDiscretesResponse)newResponse();
+        response.setBitCount(getBitCount());
+        return updateResponseWithHeader(response);
     }
 
     @Override
@@ -95,9 +99,15 @@ public class ReadInputDiscretesRequest extends ModbusRequest {
         }
         response = (ReadInputDiscretesResponse)getResponse();
 
-        // Populate the discrete values from the process image.
-        for (int i = 0; i < dins.length; i++) {
-            response.setDiscreteStatus(i, dins[i].isSet());
+        // Populate the discrete values from the process image, 64 at a time.
+        BitVector discretes = response.getDiscretes();
+        for (int i = 0; i < dins.length; i += 64) {
+            int n = Math.min(64, dins.length - i);
+            long bits = 0;
+            for (int j = n - 1; j >= 0; j--) {
+                bits = bits << 1 | (dins[i + j].isSet() ? 1 : 0);
+            }
+            discretes.setBits(i, bits, n);
         }
 
         return response;
@@ -158,6 +168,18 @@ public class ReadInputDiscretesRequest extends ModbusRequest {
         bitCount = din.readUnsignedShort();
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.putShort((short)bitCount);
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        reference = buffer.getShort() & 0xFFFF;
+        bitCount = buffer.getShort() & 0xFFFF;
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result = new byte[4];
@@ -21,6 +21,7 @@ import com.omnixone.modbuslibrary.util.BitVector;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>ReadInputDiscretesResponse</tt>.
@@ -80,7 +81,13 @@ public class ReadInputDiscretesResponse extends ModbusResponse {
      */
     public void setBitCount(int count) {
         bitCount = count;
-        discretes = new BitVector(count);
+        if (discretes != null && discretes.byteSize() == (count + 7) / 8) {
+            discretes.clear();
+            discretes.forceSize(count);
+        }
+        else {
+            discretes = new BitVector(count);
+        }
         //set correct length, without counting unitid and fc
         setDataLength(discretes.byteSize() + 1);
     }
@@ -152,6 +159,21 @@ public class ReadInputDiscretesResponse extends ModbusResponse {
         setDataLength(count + 1);
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.put((byte)discretes.byteSize());
+        discretes.writeBytes(buffer, discretes.byteSize());
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        int count = buffer.get() & 0xFF;
+        discretes = new BitVector(count * 8);
+        discretes.readBytes(buffer, count);
+        bitCount = discretes.size();
+        setDataLength(count + 1);
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result;
@@ -159,7 +181,7 @@ public class ReadInputDiscretesResponse extends ModbusResponse {
 
         result = new byte[len];
         result[0] = (byte)discretes.byteSize();
-        System.arraycopy(discretes.getBytes(), 0, result, 1, discretes.byteSize());
+        discretes.copyTo(result, 1);
 
         return result;
     }
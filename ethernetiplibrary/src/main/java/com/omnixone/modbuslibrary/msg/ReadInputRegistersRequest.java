@@ -18,12 +18,12 @@ package com.omnixone.modbuslibrary.msg;
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
 import com.omnixone.modbuslibrary.procimg.IllegalAddressException;
-import com.omnixone.modbuslibrary.procimg.InputRegister;
 import com.omnixone.modbuslibrary.procimg.ProcessImage;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>ReadInputRegistersRequest</tt>. The implementation
@@ -72,27 +72,25 @@ public class ReadInputRegistersRequest extends ModbusRequest {
 
     @Override
     public ReadInputRegistersResponse getResponse() {
-        ReadInputRegistersResponse response = (ReadInputRegistersResponse)updateResponseWithHeader(new ReadInputRegistersResponse());
+        ReadInputRegistersResponse response = (ReadInputRegistersResponse)updateResponseWithHeader(newResponse());
         response.setWordCount(getWordCount());
         return response;
     }
 
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
-        ReadInputRegistersResponse response;
-        InputRegister[] inpregs;
+        ReadInputRegistersResponse response = getResponse();
+        int[] values = response.valueBuffer(getWordCount());
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
-        // 2. get input registers range
+        // 2. take a consistent snapshot of the input registers range straight into the response
         try {
-            inpregs = procimg.getInputRegisterRange(getReference(), getWordCount());
+            procimg.readInputRegisters(getReference(), values, 0, getWordCount());
         }
         catch (IllegalAddressException iaex) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
-        response = getResponse();
-        response.setRegisters(inpregs);
 
         return response;
     }
@@ -154,6 +152,18 @@ public class ReadInputRegistersRequest extends ModbusRequest {
         wordCount = din.readUnsignedShort();
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.putShort((short)wordCount);
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        reference = buffer.getShort() & 0xFFFF;
+        wordCount = buffer.getShort() & 0xFFFF;
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result = new byte[4];
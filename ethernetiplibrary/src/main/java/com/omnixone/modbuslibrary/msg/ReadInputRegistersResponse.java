@@ -22,6 +22,7 @@ import com.omnixone.modbuslibrary.procimg.SimpleInputRegister;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -38,6 +39,7 @@ public class ReadInputRegistersResponse extends ModbusResponse {
     // instance attributes
     private int byteCount;
     private InputRegister[] registers;
+    private int[] values;
 
     /**
      * Constructs a new <tt>ReadInputRegistersResponse</tt> instance.
@@ -109,7 +111,7 @@ public class ReadInputRegistersResponse extends ModbusResponse {
             throw new IndexOutOfBoundsException(index + " >= " + getWordCount());
         }
 
-        return registers[index];
+        return registers()[index];
     }
 
     /**
@@ -133,7 +135,7 @@ public class ReadInputRegistersResponse extends ModbusResponse {
      * @return a <tt>InputRegister[]</tt> instance.
      */
     public synchronized InputRegister[] getRegisters() {
-        InputRegister[] dest = new InputRegister[registers.length];
+        InputRegister[] dest = new InputRegister[registers().length];
         System.arraycopy(registers, 0, dest, 0, dest.length);
         return dest;
     }
@@ -148,10 +150,47 @@ public class ReadInputRegistersResponse extends ModbusResponse {
         byteCount = registers == null ? 0 : (registers.length * 2);
     }
 
+    /**
+     * Returns a buffer for the values of the given number of registers, to
+     * be filled by the slave creating this response. The response is encoded
+     * from the buffer, and <tt>InputRegister</tt> instances are only created if
+     * the registers are asked for. The buffer is kept for the next use of a
+     * recycled response.
+     *
+     * @param count the number of registers.
+     * @return the buffer, at least <tt>count</tt> long.
+     */
+    synchronized int[] valueBuffer(int count) {
+        if (values == null || values.length < count) {
+            values = new int[count];
+        }
+        registers = null;
+        byteCount = count * 2;
+        setDataLength(byteCount + 1);
+        return values;
+    }
+
+    private synchronized InputRegister[] registers() {
+        if (registers == null && values != null) {
+            InputRegister[] regs = new InputRegister[getWordCount()];
+            for (int k = 0; k < regs.length; k++) {
+                regs[k] = new SimpleInputRegister(values[k]);
+            }
+            registers = regs;
+        }
+        return registers;
+    }
+
     @Override
     public void writeData(DataOutput dout) throws IOException {
         dout.writeByte(byteCount);
 
+        if (registers == null && values != null) {
+            for (int k = 0; k < getWordCount(); k++) {
+                dout.writeShort(values[k]);
+            }
+            return;
+        }
         for (int k = 0; k < getWordCount(); k++) {
             dout.write(registers[k].toBytes());
         }
@@ -170,8 +209,36 @@ public class ReadInputRegistersResponse extends ModbusResponse {
         setDataLength(byteCount);
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.put((byte)byteCount);
+        if (registers == null && values != null) {
+            for (int k = 0; k < getWordCount(); k++) {
+                buffer.putShort((short)values[k]);
+            }
+            return;
+        }
+        for (int k = 0; k < getWordCount(); k++) {
+            buffer.putShort((short)registers[k].getValue());
+        }
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        byteCount = buffer.get() & 0xFF;
+
+        InputRegister[] values = new InputRegister[getWordCount()];
+        for (int k = 0; k < values.length; k++) {
+            values[k] = new SimpleInputRegister(buffer.get(), buffer.get());
+        }
+        registers = values;
+
+        setDataLength(byteCount);
+    }
+
     @Override
     public byte[] getMessage() {
+        InputRegister[] registers = registers();
         byte[] result = new byte[registers.length * 2 + 1];
         result[0] = (byte)(registers.length * 2);
 
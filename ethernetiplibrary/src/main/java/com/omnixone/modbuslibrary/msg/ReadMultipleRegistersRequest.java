@@ -19,11 +19,11 @@ import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
 import com.omnixone.modbuslibrary.procimg.IllegalAddressException;
 import com.omnixone.modbuslibrary.procimg.ProcessImage;
-import com.omnixone.modbuslibrary.procimg.Register;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>ReadMultipleRegistersRequest</tt>. The
@@ -72,25 +72,23 @@ public class ReadMultipleRegistersRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse getResponse() {
-        return updateResponseWithHeader(new ReadMultipleRegistersResponse());
+        return updateResponseWithHeader(newResponse());
     }
 
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
-        ReadMultipleRegistersResponse response;
-        Register[] regs;
+        ReadMultipleRegistersResponse response = (ReadMultipleRegistersResponse)getResponse();
+        int[] values = response.valueBuffer(getWordCount());
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
-        // 2. get input registers range
+        // 2. take a consistent snapshot of the registers range straight into the response
         try {
-            regs = procimg.getRegisterRange(getReference(), getWordCount());
+            procimg.readRegisters(getReference(), values, 0, getWordCount());
         }
         catch (IllegalAddressException e) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
-        response = (ReadMultipleRegistersResponse)getResponse();
-        response.setRegisters(regs);
 
         return response;
     }
@@ -152,6 +150,18 @@ public class ReadMultipleRegistersRequest extends ModbusRequest {
         wordCount = din.readUnsignedShort();
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.putShort((short)wordCount);
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        reference = buffer.getShort() & 0xFFFF;
+        wordCount = buffer.getShort() & 0xFFFF;
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result = new byte[4];
@@ -22,6 +22,7 @@ import com.omnixone.modbuslibrary.procimg.SimpleRegister;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -39,6 +40,7 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
     // instance attributes
     private int byteCount;
     private Register[] registers;
+    private int[] values;
 
     /**
      * Constructs a new <tt>ReadMultipleRegistersResponse</tt> instance.
@@ -94,7 +96,7 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
      * @throws IndexOutOfBoundsException if the index is out of bounds.
      */
     public Register getRegister(int index) {
-        if (registers == null) {
+        if (registers() == null) {
             throw new IndexOutOfBoundsException("No registers defined!");
         }
 
@@ -106,7 +108,7 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
             throw new IndexOutOfBoundsException(index + " > " + getWordCount());
         }
 
-        return registers[index];
+        return registers()[index];
     }
 
     /**
@@ -130,7 +132,7 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
      * @return a <tt>Register[]</tt> instance.
      */
     public synchronized Register[] getRegisters() {
-        Register[] dest = new Register[registers.length];
+        Register[] dest = new Register[registers().length];
         System.arraycopy(registers, 0, dest, 0, dest.length);
         return dest;
     }
@@ -145,10 +147,47 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
         setDataLength(byteCount + 1);
     }
 
+    /**
+     * Returns a buffer for the values of the given number of registers, to
+     * be filled by the slave creating this response. The response is encoded
+     * from the buffer, and <tt>Register</tt> instances are only created if
+     * the registers are asked for. The buffer is kept for the next use of a
+     * recycled response.
+     *
+     * @param count the number of registers.
+     * @return the buffer, at least <tt>count</tt> long.
+     */
+    synchronized int[] valueBuffer(int count) {
+        if (values == null || values.length < count) {
+            values = new int[count];
+        }
+        registers = null;
+        byteCount = count * 2;
+        setDataLength(byteCount + 1);
+        return values;
+    }
+
+    private synchronized Register[] registers() {
+        if (registers == null && values != null) {
+            Register[] regs = new Register[getWordCount()];
+            for (int k = 0; k < regs.length; k++) {
+                regs[k] = new SimpleRegister(values[k]);
+            }
+            registers = regs;
+        }
+        return registers;
+    }
+
     @Override
     public void writeData(DataOutput dout) throws IOException {
         dout.writeByte(byteCount);
 
+        if (registers == null && values != null) {
+            for (int k = 0; k < getWordCount(); k++) {
+                dout.writeShort(values[k]);
+            }
+            return;
+        }
         for (int k = 0; k < getWordCount(); k++) {
             dout.write(registers[k].toBytes());
         }
@@ -167,6 +206,33 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
         setDataLength(byteCount + 1);
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.put((byte)byteCount);
+        if (registers == null && values != null) {
+            for (int k = 0; k < getWordCount(); k++) {
+                buffer.putShort((short)values[k]);
+            }
+            return;
+        }
+        for (int k = 0; k < getWordCount(); k++) {
+            buffer.putShort((short)registers[k].getValue());
+        }
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        byteCount = buffer.get() & 0xFF;
+
+        Register[] values = new Register[getWordCount()];
+        for (int k = 0; k < values.length; k++) {
+            values[k] = new SimpleRegister(buffer.get(), buffer.get());
+        }
+        registers = values;
+
+        setDataLength(byteCount + 1);
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result;
@@ -176,7 +242,7 @@ public class ReadMultipleRegistersResponse extends ModbusResponse {
         int offset = 0;
         result[offset++] = (byte)byteCount;
 
-        for (Register register : registers) {
+        for (Register register : registers()) {
             byte[] data = register.toBytes();
 
             result[offset++] = data[0];
@@ -101,34 +101,26 @@ public class ReadWriteMultipleRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
-        ReadWriteMultipleResponse response;
-        InputRegister[] readRegs;
-        Register[] writeRegs;
+        ReadWriteMultipleResponse response = (ReadWriteMultipleResponse)getResponse();
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
 
         // 2. get input registers range
         try {
-            // First the write
-            writeRegs = procimg.getRegisterRange(getWriteReference(), getWriteWordCount());
-            for (int i = 0; i < writeRegs.length; i++) {
-                writeRegs[i].setValue(getRegister(i).getValue());
+            // First the write, as one update
+            int[] values = new int[getWriteWordCount()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = getRegister(i).getValue();
             }
+            procimg.writeRegisters(getWriteReference(), values, 0, values.length);
 
-            // And then the read
-            readRegs = procimg.getRegisterRange(getReadReference(), getReadWordCount());
-            InputRegister[] dummy = new InputRegister[readRegs.length];
-            for (int i = 0; i < readRegs.length; i++) {
-                dummy[i] = new SimpleInputRegister(readRegs[i].getValue());
-            }
-            readRegs = dummy;
+            // And then a consistent snapshot for the read, straight into the response
+            procimg.readRegisters(getReadReference(), response.valueBuffer(getReadWordCount()), 0, getReadWordCount());
         }
         catch (IllegalAddressException e) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
-        response = (ReadWriteMultipleResponse)getResponse();
-        response.setRegisters(readRegs);
 
         return response;
     }
@@ -18,6 +18,7 @@ package com.omnixone.modbuslibrary.msg;
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.procimg.InputRegister;
 import com.omnixone.modbuslibrary.procimg.Register;
+import com.omnixone.modbuslibrary.procimg.SimpleInputRegister;
 import com.omnixone.modbuslibrary.procimg.SimpleRegister;
 
 import java.io.DataInput;
@@ -36,6 +37,7 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
 
     private int byteCount;
     private InputRegister[] registers;
+    private int[] values;
 
     /**
      * Constructs a new <tt>ReadWriteMultipleResponse</tt> instance.
@@ -107,7 +109,7 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
      * @throws IndexOutOfBoundsException if the index is out of bounds.
      */
     public InputRegister getRegister(int index) {
-        if (registers == null) {
+        if (registers() == null) {
             throw new IndexOutOfBoundsException("No registers defined!");
         }
 
@@ -119,7 +121,7 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
             throw new IndexOutOfBoundsException(index + " > " + getWordCount());
         }
 
-        return registers[index];
+        return registers()[index];
     }
 
     /**
@@ -143,7 +145,7 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
      * @return a <tt>InputRegister[]</tt> instance.
      */
     public synchronized InputRegister[] getRegisters() {
-        InputRegister[] dest = new InputRegister[registers.length];
+        InputRegister[] dest = new InputRegister[registers().length];
         System.arraycopy(registers, 0, dest, 0, dest.length);
         return dest;
     }
@@ -159,10 +161,47 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
         this.registers = Arrays.copyOf(registers, registers.length);
     }
 
+    /**
+     * Returns a buffer for the values of the given number of registers, to
+     * be filled by the slave creating this response. The response is encoded
+     * from the buffer, and <tt>InputRegister</tt> instances are only created if
+     * the registers are asked for. The buffer is kept for the next use of a
+     * recycled response.
+     *
+     * @param count the number of registers.
+     * @return the buffer, at least <tt>count</tt> long.
+     */
+    synchronized int[] valueBuffer(int count) {
+        if (values == null || values.length < count) {
+            values = new int[count];
+        }
+        registers = null;
+        byteCount = count * 2;
+        setDataLength(byteCount + 1);
+        return values;
+    }
+
+    private synchronized InputRegister[] registers() {
+        if (registers == null && values != null) {
+            InputRegister[] regs = new InputRegister[getWordCount()];
+            for (int k = 0; k < regs.length; k++) {
+                regs[k] = new SimpleInputRegister(values[k]);
+            }
+            registers = regs;
+        }
+        return registers;
+    }
+
     @Override
     public void writeData(DataOutput dout) throws IOException {
         dout.writeByte(byteCount);
 
+        if (registers == null && values != null) {
+            for (int k = 0; k < getWordCount(); k++) {
+                dout.writeShort(values[k]);
+            }
+            return;
+        }
         for (int k = 0; k < getWordCount(); k++) {
             dout.write(registers[k].toBytes());
         }
@@ -190,7 +229,7 @@ public class ReadWriteMultipleResponse extends ModbusResponse {
         int offset = 0;
         result[offset++] = (byte)byteCount;
 
-        for (InputRegister register : registers) {
+        for (InputRegister register : registers()) {
             byte[] data = register.toBytes();
 
             result[offset++] = data[0];
@@ -24,6 +24,7 @@ import com.omnixone.modbuslibrary.procimg.ProcessImage;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>WriteCoilRequest</tt>. The implementation directly
@@ -69,7 +70,7 @@ public class WriteCoilRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse getResponse() {
-        return updateResponseWithHeader(new WriteCoilResponse());
+        return updateResponseWithHeader(newResponse());
     }
 
     @Override
@@ -162,6 +163,21 @@ public class WriteCoilRequest extends ModbusRequest {
         din.readByte();
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.put(coil ? Modbus.COIL_ON_BYTES : Modbus.COIL_OFF_BYTES, 0, 2);
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        reference = buffer.getShort() & 0xFFFF;
+        coil = buffer.get() == Modbus.COIL_ON;
+
+        // discard the next byte.
+        buffer.get();
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result = new byte[4];
@@ -20,6 +20,7 @@ import com.omnixone.modbuslibrary.Modbus;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>WriteCoilResponse</tt>. The implementation directly
@@ -116,6 +117,21 @@ public class WriteCoilResponse extends ModbusResponse {
         setDataLength(4);
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.put(coil ? Modbus.COIL_ON_BYTES : Modbus.COIL_OFF_BYTES, 0, 2);
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        setReference(buffer.getShort() & 0xFFFF);
+        setCoil(buffer.get() == Modbus.COIL_ON);
+        buffer.get();
+
+        setDataLength(4);
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result = new byte[4];
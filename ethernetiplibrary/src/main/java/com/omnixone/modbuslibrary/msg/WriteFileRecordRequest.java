@@ -18,8 +18,10 @@ package com.omnixone.modbuslibrary.msg;
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.msg.WriteFileRecordResponse.RecordResponse;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
-import com.omnixone.modbuslibrary.procimg.*;
-import com.omnixone.modbuslibrary.procimg.Record;
+import com.omnixone.modbuslibrary.procimg.File;
+import com.omnixone.modbuslibrary.procimg.IllegalAddressException;
+import com.omnixone.modbuslibrary.procimg.ProcessImage;
+import com.omnixone.modbuslibrary.procimg.SimpleRegister;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -94,7 +96,7 @@ public class WriteFileRecordRequest extends ModbusRequest {
      * @param request Request record
      */
     public void addRequest(RecordRequest request) {
-        if (request.getRequestSize() + getRequestSize() > 248) {
+        if (request.getRequestSize() + getRequestSize() > Modbus.MAX_PDU_DATA_LENGTH) {
             throw new IllegalArgumentException();
         }
 
@@ -138,24 +140,11 @@ public class WriteFileRecordRequest extends ModbusRequest {
                     return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
                 }
 
-                Record record = file.getRecord(recordRequest.getRecordNumber());
                 int registers = recordRequest.getWordCount();
-                if (record == null && registers != 0) {
-                    return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                }
-
-                short[] data = new short[registers];
-                for (int j = 0; j < registers; j++) {
-                    Register register = record.getRegister(j);
-                    if (register == null) {
-                        return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
-                    }
-
-                    register.setValue(recordRequest.getRegister(j).getValue());
-                    data[j] = recordRequest.getRegister(j).toShort();
-                }
-                RecordResponse recordResponse = new RecordResponse(file.getFileNumber(), record == null ? 0 : record.getRecordNumber(), data);
-                response.addResponse(recordResponse);
+                byte[] data = new byte[registers * 2];
+                recordRequest.getData(data, 0);
+                file.writeRegisters(recordRequest.getRecordNumber(), registers, data, 0);
+                response.addResponse(new RecordResponse(file.getFileNumber(), recordRequest.getRecordNumber(), data, 0, registers));
             }
         }
         catch (IllegalAddressException e) {
@@ -216,6 +205,7 @@ public class WriteFileRecordRequest extends ModbusRequest {
             records = dummy;
             records[records.length - 1] = new RecordRequest(file, record, registers);
         }
+        setDataLength(getRequestSize());
     }
 
     /**
@@ -255,6 +245,23 @@ public class WriteFileRecordRequest extends ModbusRequest {
             }
         }
 
+        /**
+         * Constructs a record request from register bytes, high byte first.
+         *
+         * @param file   file number.
+         * @param record record number.
+         * @param values buffer holding the registers.
+         * @param offset offset of the first register in the buffer.
+         * @param count  number of registers.
+         */
+        public RecordRequest(int file, int record, byte[] values, int offset, int count) {
+            fileNumber = file;
+            recordNumber = record;
+            wordCount = count;
+            data = new byte[count * 2];
+            System.arraycopy(values, offset, data, 0, data.length);
+        }
+
         public int getFileNumber() {
             return fileNumber;
         }
@@ -267,6 +274,19 @@ public class WriteFileRecordRequest extends ModbusRequest {
             return wordCount;
         }
 
+        /**
+         * getData -- copy the registers to be written, high byte first.
+         *
+         * @param dest   buffer to copy to.
+         * @param offset offset in the buffer.
+         *
+         * @return the number of bytes copied.
+         */
+        public int getData(byte[] dest, int offset) {
+            System.arraycopy(data, 0, dest, offset, data.length);
+            return data.length;
+        }
+
         public SimpleRegister getRegister(int register) {
             if (register < 0 || register >= wordCount) {
                 throw new IllegalAddressException("0 <= " + register + " < " + wordCount);
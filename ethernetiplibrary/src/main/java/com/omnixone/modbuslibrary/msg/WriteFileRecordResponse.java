@@ -88,7 +88,7 @@ public class WriteFileRecordResponse extends ModbusResponse {
      * @param response Add record response
      */
     public void addResponse(RecordResponse response) {
-        if (response.getResponseSize() + getResponseSize() > 248) {
+        if (response.getResponseSize() + getResponseSize() > Modbus.MAX_PDU_DATA_LENGTH) {
             throw new IllegalArgumentException();
         }
 
@@ -185,6 +185,23 @@ public class WriteFileRecordResponse extends ModbusResponse {
             }
         }
 
+        /**
+         * Constructs a record response from register bytes, high byte first.
+         *
+         * @param file   file number.
+         * @param record record number.
+         * @param values buffer holding the registers.
+         * @param offset offset of the first register in the buffer.
+         * @param count  number of registers.
+         */
+        public RecordResponse(int file, int record, byte[] values, int offset, int count) {
+            fileNumber = file;
+            recordNumber = record;
+            wordCount = count;
+            data = new byte[count * 2];
+            System.arraycopy(values, offset, data, 0, data.length);
+        }
+
         public int getFileNumber() {
             return fileNumber;
         }
@@ -17,7 +17,6 @@ package com.omnixone.modbuslibrary.msg;
 
 import com.omnixone.modbuslibrary.Modbus;
 import com.omnixone.modbuslibrary.net.AbstractModbusListener;
-import com.omnixone.modbuslibrary.procimg.DigitalOut;
 import com.omnixone.modbuslibrary.procimg.IllegalAddressException;
 import com.omnixone.modbuslibrary.procimg.ProcessImage;
 import com.omnixone.modbuslibrary.util.BitVector;
@@ -25,6 +24,7 @@ import com.omnixone.modbuslibrary.util.BitVector;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>WriteMultipleCoilsRequest</tt>. The implementation
@@ -100,23 +100,18 @@ public class WriteMultipleCoilsRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse getResponse() {
-        return updateResponseWithHeader(new WriteMultipleCoilsResponse());
+        return updateResponseWithHeader(newResponse());
     }
 
     @Override
     public ModbusResponse createResponse(AbstractModbusListener listener) {
         WriteMultipleCoilsResponse response;
-        DigitalOut[] douts;
 
         // 1. get process image
         ProcessImage procimg = listener.getProcessImage(getUnitID());
-        // 2. get coil range
+        // 2. set the coil range as one update
         try {
-            douts = procimg.getDigitalOutRange(reference, coils.size());
-            // 3. set coils
-            for (int i = 0; i < douts.length; i++) {
-                douts[i].set(coils.getBit(i));
-            }
+            procimg.writeCoils(reference, coils);
         }
         catch (IllegalAddressException iaex) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
@@ -244,6 +239,29 @@ public class WriteMultipleCoilsRequest extends ModbusRequest {
         setDataLength(coilBytes + 5);
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.putShort((short)coils.size());
+
+        buffer.put((byte)coils.byteSize());
+        coils.writeBytes(buffer, coils.byteSize());
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        reference = buffer.getShort() & 0xFFFF;
+        int bitcount = buffer.getShort() & 0xFFFF;
+        int coilBytes = buffer.get() & 0xFF;
+
+        coils = new BitVector(coilBytes * 8);
+        coils.readBytes(buffer, coilBytes);
+        coils.forceSize(Math.min(bitcount, coilBytes * 8));
+
+        // update data length
+        setDataLength(coilBytes + 5);
+    }
+
     @Override
     public byte[] getMessage() {
         int len = coils.byteSize() + 5;
@@ -257,7 +275,7 @@ public class WriteMultipleCoilsRequest extends ModbusRequest {
 
         result[4] = (byte)coils.byteSize();
 
-        System.arraycopy(coils.getBytes(), 0, result, 5, coils.byteSize());
+        coils.copyTo(result, 5);
 
         return result;
     }
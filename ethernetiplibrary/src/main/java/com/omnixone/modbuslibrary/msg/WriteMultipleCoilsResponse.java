@@ -18,6 +18,7 @@ package com.omnixone.modbuslibrary.msg;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>WriteMultipleCoilsResponse</tt>. The implementation
@@ -124,6 +125,18 @@ public class WriteMultipleCoilsResponse extends ModbusResponse {
         bitCount = din.readUnsignedShort();
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.putShort((short)bitCount);
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        reference = buffer.getShort() & 0xFFFF;
+        bitCount = buffer.getShort() & 0xFFFF;
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] results = new byte[4];
@@ -26,6 +26,7 @@ import com.omnixone.modbuslibrary.procimg.SimpleRegister;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -42,6 +43,8 @@ import java.util.Arrays;
 public class WriteMultipleRegistersRequest extends ModbusRequest {
     private int reference;
     private Register[] registers;
+    private byte[] data;
+    private int dataCount;
     private NonWordDataHandler nonWordDataHandler = null;
 
     /**
@@ -70,7 +73,7 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse getResponse() {
-        return updateResponseWithHeader(new WriteMultipleRegistersResponse());
+        return updateResponseWithHeader(newResponse());
     }
 
     /**
@@ -97,17 +100,22 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
         WriteMultipleRegistersResponse response;
 
         if (nonWordDataHandler == null) {
-            Register[] regs;
             // 1. get process image
             ProcessImage procimg = listener.getProcessImage(getUnitID());
-            // 2. get registers
-            try {
-                regs = procimg.getRegisterRange(getReference(), getWordCount());
-                // 3. set Register values
-                for (int i = 0; i < regs.length; i++) {
-                    regs[i].setValue(this.getRegister(i).getValue());
+            // 2. set the register values as one update, straight from the request bytes
+            int count = getWordCount();
+            byte[] values = data;
+            if (registers != null || values == null) {
+                values = new byte[count * 2];
+                for (int i = 0; i < count; i++) {
+                    int value = registers[i].getValue();
+                    values[2 * i] = (byte)(value >> 8);
+                    values[2 * i + 1] = (byte)value;
                 }
             }
+            try {
+                procimg.writeRegisters(getReference(), values, 0, count);
+            }
             catch (IllegalAddressException iaex) {
                 return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
             }
@@ -161,7 +169,7 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
      * @return the registers to be written as <tt>Register[]</tt>.
      */
     public synchronized Register[] getRegisters() {
-        Register[] dest = new Register[registers.length];
+        Register[] dest = new Register[registers().length];
         System.arraycopy(registers, 0, dest, 0, dest.length);
         return dest;
     }
@@ -174,6 +182,8 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
      * @param registers the registers to be written as <tt>Register[]</tt>.
      */
     public synchronized void setRegisters(Register[] registers) {
+        data = null;
+        dataCount = 0;
         if (registers == null) {
             this.registers = null;
             setDataLength(5);
@@ -201,7 +211,7 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
             throw new IndexOutOfBoundsException(index + " > " + getWordCount());
         }
 
-        return registers[index];
+        return registers()[index];
     }
 
     /**
@@ -236,7 +246,7 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
      */
     public int getWordCount() {
         if (registers == null) {
-            return 0;
+            return data == null ? 0 : dataCount;
         }
 
         return registers.length;
@@ -262,6 +272,32 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
         nonWordDataHandler = dhandler;
     }
 
+    /**
+     * Keeps the register bytes read from a request, so a slave writes them to
+     * its process image as they are. <tt>Register</tt> instances are only
+     * created if the registers are asked for.
+     *
+     * @param bytes the register bytes, two per register.
+     * @param count the number of registers.
+     */
+    private void setData(byte[] bytes, int count) {
+        registers = null;
+        data = bytes;
+        dataCount = count;
+        setDataLength(5 + count * 2);
+    }
+
+    private synchronized Register[] registers() {
+        if (registers == null && data != null) {
+            Register[] regs = new Register[dataCount];
+            for (int i = 0; i < regs.length; i++) {
+                regs[i] = new SimpleRegister(data[2 * i], data[2 * i + 1]);
+            }
+            registers = regs;
+        }
+        return registers;
+    }
+
     @Override
     public void writeData(DataOutput output) throws IOException {
         output.write(getMessage());
@@ -274,16 +310,12 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
         int byteCount = input.readUnsignedByte();
 
         if (nonWordDataHandler == null) {
+            if (byteCount < registerCount * 2) {
+                throw new IOException("Byte count " + byteCount + " too small for " + registerCount + " registers");
+            }
             byte[] buffer = new byte[byteCount];
             input.readFully(buffer, 0, byteCount);
-
-            int offset = 0;
-            registers = new Register[registerCount];
-
-            for (int register = 0; register < registerCount; register++) {
-                registers[register] = new SimpleRegister(buffer[offset], buffer[offset + 1]);
-                offset += 2;
-            }
+            setData(buffer, registerCount);
         }
         else {
             nonWordDataHandler.readData(input, reference, registerCount);
@@ -291,15 +323,47 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
     }
 
     @Override
-    public byte[] getMessage() {
-        int len = 5;
+    public void writeData(ByteBuffer buffer) throws IOException {
+        if (nonWordDataHandler != null) {
+            super.writeData(buffer);
+            return;
+        }
+        int registerCount = getWordCount();
+        buffer.putShort((short)reference);
+        buffer.putShort((short)registerCount);
+        buffer.put((byte)(registerCount * 2));
+        if (registers == null && data != null) {
+            buffer.put(data, 0, registerCount * 2);
+            return;
+        }
+        for (int i = 0; i < registerCount; i++) {
+            buffer.putShort((short)registers[i].getValue());
+        }
+    }
 
-        if (registers != null) {
-            len += registers.length * 2;
+    @Override
+    public void readData(ByteBuffer buffer) throws IOException {
+        if (nonWordDataHandler != null) {
+            super.readData(buffer);
+            return;
+        }
+        reference = buffer.getShort() & 0xFFFF;
+        int registerCount = buffer.getShort() & 0xFFFF;
+        int byteCount = buffer.get() & 0xFF;
+        if (byteCount < registerCount * 2) {
+            throw new IOException("Byte count " + byteCount + " too small for " + registerCount + " registers");
         }
 
-        byte[] result = new byte[len];
-        int registerCount = registers != null ? registers.length : 0;
+        byte[] bytes = new byte[registerCount * 2];
+        buffer.get(bytes);
+        buffer.position(buffer.position() + byteCount - registerCount * 2);
+        setData(bytes, registerCount);
+    }
+
+    @Override
+    public byte[] getMessage() {
+        int registerCount = getWordCount();
+        byte[] result = new byte[5 + registerCount * 2];
 
         result[0] = (byte)((reference >> 8) & 0xff);
         result[1] = (byte)(reference & 0xff);
@@ -309,7 +373,10 @@ public class WriteMultipleRegistersRequest extends ModbusRequest {
 
         int offset = 5;
 
-        if (nonWordDataHandler == null) {
+        if (nonWordDataHandler == null && registers == null && data != null) {
+            System.arraycopy(data, 0, result, offset, registerCount * 2);
+        }
+        else if (nonWordDataHandler == null) {
             for (int i = 0; i < registerCount; i++) {
                 byte[] bytes = registers[i].toBytes();
                 result[offset++] = bytes[0];
@@ -20,6 +20,7 @@ import com.omnixone.modbuslibrary.Modbus;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>WriteMultipleRegistersResponse</tt>. The
@@ -127,6 +128,20 @@ public class WriteMultipleRegistersResponse extends ModbusResponse {
         setDataLength(4);
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.putShort((short)wordCount);
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        setReference(buffer.getShort() & 0xFFFF);
+        setWordCount(buffer.getShort() & 0xFFFF);
+
+        setDataLength(4);
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result = new byte[4];
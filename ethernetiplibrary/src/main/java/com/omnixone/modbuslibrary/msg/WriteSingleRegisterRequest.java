@@ -25,6 +25,7 @@ import com.omnixone.modbuslibrary.procimg.SimpleRegister;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>WriteSingleRegisterRequest</tt>. The implementation
@@ -70,7 +71,7 @@ public class WriteSingleRegisterRequest extends ModbusRequest {
 
     @Override
     public ModbusResponse getResponse() {
-        return updateResponseWithHeader(new WriteSingleRegisterResponse());
+        return updateResponseWithHeader(newResponse());
     }
 
     @Override
@@ -85,12 +86,15 @@ public class WriteSingleRegisterRequest extends ModbusRequest {
             reg = procimg.getRegister(reference);
 
             // 3. set Register
-            reg.setValue(register.toBytes());
+            reg.setValue(register.getValue());
         }
         catch (IllegalAddressException iaex) {
             return createExceptionResponse(Modbus.ILLEGAL_ADDRESS_EXCEPTION);
         }
-        return updateResponseWithHeader(new WriteSingleRegisterResponse(this.getReference(), reg.getValue()));
+        WriteSingleRegisterResponse response = (WriteSingleRegisterResponse)getResponse();
+        response.setReference(getReference());
+        response.setRegisterValue(reg.getValue());
+        return response;
     }
 
     /**
@@ -145,6 +149,18 @@ public class WriteSingleRegisterRequest extends ModbusRequest {
         register = new SimpleRegister(din.readByte(), din.readByte());
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.putShort((short)register.getValue());
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        reference = buffer.getShort() & 0xFFFF;
+        register = new SimpleRegister(buffer.get(), buffer.get());
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result = new byte[4];
@@ -20,6 +20,7 @@ import com.omnixone.modbuslibrary.Modbus;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * Class implementing a <tt>WriteSingleRegisterResponse</tt>.
@@ -81,7 +82,7 @@ public class WriteSingleRegisterResponse
      *
      * @param value the returned register value.
      */
-    private void setRegisterValue(int value) {
+    void setRegisterValue(int value) {
         registerValue = value;
     }
 
@@ -103,7 +104,7 @@ public class WriteSingleRegisterResponse
      *
      * @param ref the reference of the written register.
      */
-    private void setReference(int ref) {
+    void setReference(int ref) {
         reference = ref;
     }
 
@@ -120,6 +121,20 @@ public class WriteSingleRegisterResponse
         setDataLength(4);
     }
 
+    @Override
+    public void writeData(ByteBuffer buffer) {
+        buffer.putShort((short)reference);
+        buffer.putShort((short)registerValue);
+    }
+
+    @Override
+    public void readData(ByteBuffer buffer) {
+        setReference(buffer.getShort() & 0xFFFF);
+        setRegisterValue(buffer.getShort() & 0xFFFF);
+
+        setDataLength(4);
+    }
+
     @Override
     public byte[] getMessage() {
         byte[] result = new byte[4];
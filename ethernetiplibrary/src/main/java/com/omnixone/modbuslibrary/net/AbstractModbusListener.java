@@ -40,11 +40,12 @@ public abstract class AbstractModbusListener implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractModbusListener.class);
     protected int port = Modbus.DEFAULT_PORT;
-    protected boolean listening;
+    protected volatile boolean listening;
     protected InetAddress address;
     protected String error;
     protected int timeout = Modbus.DEFAULT_TIMEOUT;
     protected String threadName;
+    private volatile ModbusSlave slave;
 
     /**
      * Stop the listener thread for this <tt>ModbusListener</tt> instance.
@@ -163,7 +164,9 @@ public abstract class AbstractModbusListener implements Runnable {
             throw new ModbusIOException("Request for transport %s is invalid (null)", transport.getClass().getSimpleName());
         }
 
-        logger.info("[HR] Request HEX: {}", request.getHexMessage());
+        if (logger.isInfoEnabled()) {
+            logger.info("[HR] Request HEX: {}", request.getHexMessage());
+        }
 
         ModbusResponse response;
 
@@ -194,21 +197,31 @@ public abstract class AbstractModbusListener implements Runnable {
         logger.info("[HR] Sending response via transport.writeResponse()");
         transport.writeResponse(response);
         logger.info("[HR] transport.writeResponse() completed");
+
+        // Both messages go back to the pool of the transport
+        response.release();
+        request.release();
     }
 
 
     /**
-     * Returns the related process image for this listener and Unit Id
+     * Returns the related process image for this listener and Unit Id.
+     * The slave owning the listener is looked up once and remembered, so
+     * the lookup per request does not lock.
      *
      * @param unitId Unit ID
      * @return Process image associated with this listener and Unit ID
      */
     public ProcessImage getProcessImage(int unitId) {
-        ModbusSlave slave = ModbusSlaveFactory.getSlave(this);
-        if (slave != null) {
-            return slave.getProcessImage(unitId);
+        ModbusSlave owner = slave;
+        if (owner == null) {
+            owner = ModbusSlaveFactory.getSlave(this);
+            if (owner == null) {
+                return null;
+            }
+            slave = owner;
         }
-        return null;
+        return owner.getProcessImage(unitId);
     }
 
     /**
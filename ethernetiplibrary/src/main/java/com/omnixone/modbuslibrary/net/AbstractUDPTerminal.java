@@ -20,6 +20,7 @@ import com.omnixone.modbuslibrary.io.ModbusUDPTransport;
 
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.util.Arrays;
 
 /**
  * Interface defining a <tt>UDPTerminal</tt>.
@@ -32,7 +33,7 @@ public abstract class AbstractUDPTerminal {
 
     protected InetAddress address;
     protected ModbusUDPTransport transport;
-    protected boolean active;
+    protected volatile boolean active;
     protected int port = Modbus.DEFAULT_PORT;
     protected int timeout = Modbus.DEFAULT_TIMEOUT;
     protected DatagramSocket socket;
@@ -120,4 +121,35 @@ public abstract class AbstractUDPTerminal {
      */
     public abstract byte[] receiveMessage() throws Exception;
 
+    /**
+     * Sends the first <tt>length</tt> bytes of the given buffer.
+     * The default implementation copies them into a new array for
+     * {@link #sendMessage(byte[])}.
+     *
+     * @param msg    the buffer holding the message.
+     * @param length the length of the message.
+     *
+     * @throws Exception if sending the message fails.
+     */
+    public void sendMessage(byte[] msg, int length) throws Exception {
+        sendMessage(length == msg.length ? msg : Arrays.copyOf(msg, length));
+    }
+
+    /**
+     * Receives a message into the given buffer.
+     * The default implementation copies the result of {@link #receiveMessage()}.
+     *
+     * @param buffer the buffer to receive into.
+     *
+     * @return the length of the message.
+     *
+     * @throws Exception if receiving a message fails.
+     */
+    public int receiveMessage(byte[] buffer) throws Exception {
+        byte[] message = receiveMessage();
+        int length = Math.min(message.length, buffer.length);
+        System.arraycopy(message, 0, buffer, 0, length);
+        return length;
+    }
+
 }
\ No newline at end of file
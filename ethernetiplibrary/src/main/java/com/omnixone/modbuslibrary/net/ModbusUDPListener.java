@@ -22,9 +22,15 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Class that implements a ModbusUDPListener.<br>
+ * <p>
+ * Requests are read, executed and answered on the listener thread. Setting
+ * a worker count greater than one starts additional threads that serve the
+ * same socket, so that bursts from many masters are handled in parallel.
  *
  * @author Dieter Wimberger
  * @author Julie Haugh
@@ -35,6 +41,10 @@ public class ModbusUDPListener extends AbstractModbusListener {
 
     private static final Logger logger = LoggerFactory.getLogger(ModbusUDPListener.class);
     private UDPSlaveTerminal terminal;
+    private final List<Thread> workerThreads = new ArrayList<Thread>();
+    private int workerCount = 1;
+    private int receiveBufferSize = UDPSlaveTerminal.DEFAULT_BUFFER_SIZE;
+    private int sendBufferSize = UDPSlaveTerminal.DEFAULT_BUFFER_SIZE;
 
     /**
      * Create a new <tt>ModbusUDPListener</tt> instance listening to the given
@@ -68,6 +78,45 @@ public class ModbusUDPListener extends AbstractModbusListener {
         }
     }
 
+    /**
+     * Sets the number of threads serving requests, including the listener
+     * thread itself. Takes effect when the listener is started.
+     *
+     * @param workerCount Number of threads &gt; 0
+     */
+    public void setWorkerCount(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+    }
+
+    /**
+     * Returns the number of threads serving requests
+     *
+     * @return Number of threads
+     */
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Sets the size of the socket receive buffer. A larger buffer absorbs
+     * bursts of requests. Takes effect when the listener is started.
+     *
+     * @param receiveBufferSize Buffer size in bytes
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Sets the size of the socket send buffer. Takes effect when the listener
+     * is started.
+     *
+     * @param sendBufferSize Buffer size in bytes
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+    }
+
     /**
      * Starts this <tt>ModbusUDPListener</tt>.
      */
@@ -90,27 +139,28 @@ public class ModbusUDPListener extends AbstractModbusListener {
             }
             terminal.setTimeout(timeout);
             terminal.setPort(port);
+            terminal.setReceiveBufferSize(receiveBufferSize);
+            terminal.setSendBufferSize(sendBufferSize);
             terminal.activate();
             transport = new ModbusUDPTransport(terminal);
+
+            // The workers loop while listening, so it must be set before they start
+            listening = true;
+            startWorkers();
         }
 
         // Catch any fatal errors and set the listening flag to false to indicate an error
         catch (Exception e) {
             error = String.format("Cannot start UDP listener on port %d - %s", port, e.getMessage());
             listening = false;
+            if (terminal != null) {
+                terminal.deactivate();
+            }
             return;
         }
 
-        listening = true;
         try {
-            while (listening) {
-                handleRequest(transport, this);
-            }
-        }
-        catch (ModbusIOException ex1) {
-            if (!ex1.isEOF()) {
-                logger.error("Exception occurred before EOF while handling request", ex1);
-            }
+            serve(terminal, transport);
         }
         finally {
             try {
@@ -125,7 +175,66 @@ public class ModbusUDPListener extends AbstractModbusListener {
 
     @Override
     public void stop() {
-        terminal.deactivate();
         listening = false;
+        if (terminal != null) {
+            terminal.deactivate();
+        }
+        synchronized (workerThreads) {
+            for (Thread thread : workerThreads) {
+                try {
+                    thread.join();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            workerThreads.clear();
+        }
+    }
+
+    /**
+     * Starts the additional worker threads sharing the terminal's socket
+     *
+     * @throws Exception If a worker terminal cannot be activated
+     */
+    private void startWorkers() throws Exception {
+        synchronized (workerThreads) {
+            for (int i = 1; i < workerCount; i++) {
+                final UDPSlaveTerminal worker = new UDPSlaveTerminal(terminal);
+                worker.activate();
+                final ModbusUDPTransport workerTransport = worker.getTransport();
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(worker, workerTransport);
+                    }
+                }, String.format("%s #%d", threadName, i));
+                thread.setDaemon(true);
+                thread.start();
+                workerThreads.add(thread);
+            }
+        }
+    }
+
+    /**
+     * Handles requests until the listener is stopped. A malformed request
+     * is discarded and does not stop the terminal.
+     *
+     * @param terminal  Terminal the requests arrive on
+     * @param transport Transport of the terminal
+     */
+    private void serve(UDPSlaveTerminal terminal, ModbusUDPTransport transport) {
+        while (listening && terminal.isActive()) {
+            try {
+                handleRequest(transport, this);
+            }
+            catch (ModbusIOException ex) {
+                if (ex.isEOF() || !terminal.isActive()) {
+                    break;
+                }
+                logger.debug("Discarding request - {}", ex.getMessage());
+            }
+        }
     }
 }
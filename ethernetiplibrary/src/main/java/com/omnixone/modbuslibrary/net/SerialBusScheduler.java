@@ -0,0 +1,352 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.net;
+
+import com.omnixone.modbuslibrary.Modbus;
+import com.omnixone.modbuslibrary.ModbusException;
+import com.omnixone.modbuslibrary.ModbusIOException;
+import com.omnixone.modbuslibrary.io.ModbusSerialTransaction;
+import com.omnixone.modbuslibrary.msg.ModbusRequest;
+import com.omnixone.modbuslibrary.msg.ModbusResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Modbus serial master that shares one serial connection between any number
+ * of callers.
+ * <p>
+ * All I/O is done by one thread started with {@link #open()}. Requests can be
+ * submitted from any thread with {@link #submit(ModbusRequest, int, int)} and
+ * are executed back to back, separated only by the inter-frame gap of the
+ * connection, in order of priority and in submission order within the same
+ * priority. An urgent write therefore waits for at most the transaction on
+ * the bus, not for everything queued before it. A request whose deadline has
+ * passed by the time it would be sent fails without being sent.
+ * <p>
+ * The returned future is completed on the I/O thread, so callbacks attached
+ * to it must not block. An exception response of the slave fails the future
+ * with a <tt>ModbusSlaveException</tt>, an I/O error after all retries or an
+ * expired deadline with a <tt>ModbusIOException</tt>.
+ */
+public class SerialBusScheduler {
+
+    /**
+     * Priority of requests submitted without one. Requests with a higher
+     * priority are executed first.
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private static final Logger logger = LoggerFactory.getLogger(SerialBusScheduler.class);
+
+    private final AbstractSerialConnection connection;
+    private final PriorityBlockingQueue<PendingRequest> queue = new PriorityBlockingQueue<PendingRequest>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final PendingRequest stop = new PendingRequest(null, Integer.MAX_VALUE, Long.MIN_VALUE, 0);
+
+    private Thread thread;
+    private volatile boolean running;
+    private int retries = Modbus.DEFAULT_RETRIES;
+
+    private volatile long executed;
+    private volatile long expired;
+    private volatile long openedAt;
+    private volatile long busyNanos;
+
+    /**
+     * Creates a scheduler for the given connection. The connection must not
+     * be used by anything else while the scheduler is open.
+     *
+     * @param connection the serial connection to schedule.
+     */
+    public SerialBusScheduler(AbstractSerialConnection connection) {
+        this.connection = connection;
+    }
+
+    public AbstractSerialConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Sets the number of times a request is sent before it fails. Takes
+     * effect on opening.
+     *
+     * @param retries Number of tries
+     */
+    public synchronized void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Tests if the scheduler is open
+     *
+     * @return True if open
+     */
+    public boolean isOpen() {
+        return running;
+    }
+
+    /**
+     * Returns the number of requests waiting to be executed
+     *
+     * @return Number of queued requests
+     */
+    public int getQueueLength() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of requests executed, successfully or not
+     *
+     * @return Number of executed requests
+     */
+    public long getExecutedCount() {
+        return executed;
+    }
+
+    /**
+     * Returns the number of requests failed because their deadline had passed
+     *
+     * @return Number of expired requests
+     */
+    public long getExpiredCount() {
+        return expired;
+    }
+
+    /**
+     * Returns the share of the time since opening that the bus was busy with
+     * transactions, including the gaps between them.
+     *
+     * @return Utilisation between 0 and 1
+     */
+    public double getUtilisation() {
+        long elapsed = System.nanoTime() - openedAt;
+        return running && elapsed > 0 ? Math.min(1.0, (double)busyNanos / elapsed) : 0;
+    }
+
+    /**
+     * Opens the connection if needed and starts the I/O thread
+     *
+     * @throws IOException If the connection cannot be opened
+     */
+    public synchronized void open() throws IOException {
+        if (running) {
+            return;
+        }
+        if (!connection.isOpen()) {
+            connection.open();
+        }
+        final ModbusSerialTransaction transaction = (ModbusSerialTransaction)connection.getModbusTransport().createTransaction();
+
+        // The transport keeps the inter-frame gap, nothing else is waited for
+        transaction.setTransDelayMS(0);
+        transaction.setRetries(retries);
+        queue.remove(stop);
+        executed = 0;
+        expired = 0;
+        busyNanos = 0;
+        openedAt = System.nanoTime();
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop(transaction);
+            }
+        }, "Modbus Serial Scheduler " + connection.getPortName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the I/O thread after the transaction on the bus has finished.
+     * Requests still queued fail with a <tt>ModbusIOException</tt>. The
+     * connection is left open.
+     */
+    public void close() {
+        Thread current;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            current = thread;
+            thread = null;
+        }
+        queue.add(stop);
+        try {
+            current.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Submits a request with the default priority and no deadline
+     *
+     * @param request Request to send, must not be modified until the future completes
+     * @return Future completed with the response
+     */
+    public CompletableFuture<ModbusResponse> submit(ModbusRequest request) {
+        return submit(request, DEFAULT_PRIORITY, 0);
+    }
+
+    /**
+     * Submits a request. The response handed to the future is owned by the
+     * caller and must not be released.
+     *
+     * @param request  Request to send, must not be modified until the future completes
+     * @param priority Priority of the request, higher priorities are executed first
+     * @param deadline Time in milliseconds from now after which the request must
+     *                 not be sent anymore, 0 for no deadline
+     * @return Future completed with the response
+     */
+    public CompletableFuture<ModbusResponse> submit(ModbusRequest request, int priority, int deadline) {
+        long expiry = deadline > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadline) : 0;
+        PendingRequest pending = new PendingRequest(request, priority, sequence.getAndIncrement(), expiry);
+        if (!running) {
+            pending.future.completeExceptionally(new ModbusIOException("Scheduler is not open"));
+            return pending.future;
+        }
+        queue.add(pending);
+        if (!running && queue.remove(pending)) {
+            // Closed while submitting, the I/O thread may not see the request
+            pending.future.completeExceptionally(new ModbusIOException("Scheduler is not open"));
+        }
+        return pending.future;
+    }
+
+    /**
+     * Submits a request and waits for its response
+     *
+     * @param request  Request to send
+     * @param priority Priority of the request, higher priorities are executed first
+     * @param deadline Time in milliseconds from now after which the request must
+     *                 not be sent anymore, 0 for no deadline
+     * @return The response
+     * @throws ModbusException If the request failed or the waiting thread was interrupted
+     */
+    public ModbusResponse execute(ModbusRequest request, int priority, int deadline) throws ModbusException {
+        CompletableFuture<ModbusResponse> future = submit(request, priority, deadline);
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new ModbusIOException("Interrupted while waiting for the response");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof ModbusException) {
+                throw (ModbusException)e.getCause();
+            }
+            throw new ModbusException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * The I/O loop
+     *
+     * @param transaction Transaction used for all requests
+     */
+    private void loop(ModbusSerialTransaction transaction) {
+        try {
+            while (true) {
+                PendingRequest pending = queue.take();
+                if (pending == stop) {
+                    break;
+                }
+                if (pending.future.isDone()) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                if (pending.expiry != 0 && start - pending.expiry > 0) {
+                    expired++;
+                    pending.future.completeExceptionally(new ModbusIOException("Deadline of request %s passed before it was sent",
+                            pending.request.getHexMessage()));
+                    continue;
+                }
+                try {
+                    transaction.setRequest(pending.request);
+                    transaction.execute();
+                    pending.future.complete(transaction.getResponse());
+                }
+                catch (ModbusException e) {
+                    logger.debug("Request {} failed - {}", pending.request.getHexMessage(), e.getMessage());
+                    pending.future.completeExceptionally(e);
+                }
+                catch (RuntimeException e) {
+                    logger.error("Request {} failed", pending.request.getHexMessage(), e);
+                    pending.future.completeExceptionally(e);
+                }
+                executed++;
+                busyNanos += System.nanoTime() - start;
+            }
+        }
+        catch (InterruptedException e) {
+            logger.debug("Modbus serial scheduler interrupted");
+        }
+        finally {
+            running = false;
+            List<PendingRequest> remaining = new ArrayList<PendingRequest>();
+            queue.drainTo(remaining);
+            ModbusIOException closed = new ModbusIOException("Scheduler closed");
+            for (PendingRequest pending : remaining) {
+                if (pending != stop) {
+                    pending.future.completeExceptionally(closed);
+                }
+            }
+        }
+    }
+
+    /**
+     * A submitted request, ordered by priority and then by submission
+     */
+    private static class PendingRequest implements Comparable<PendingRequest> {
+        final CompletableFuture<ModbusResponse> future = new CompletableFuture<ModbusResponse>();
+        final ModbusRequest request;
+        final int priority;
+        final long sequence;
+        final long expiry;
+
+        PendingRequest(ModbusRequest request, int priority, long sequence, long expiry) {
+            this.request = request;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.expiry = expiry;
+        }
+
+        @Override
+        public int compareTo(PendingRequest other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
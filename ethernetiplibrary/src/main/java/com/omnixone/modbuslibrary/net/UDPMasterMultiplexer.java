@@ -0,0 +1,557 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.net;
+
+import com.omnixone.modbuslibrary.Modbus;
+import com.omnixone.modbuslibrary.ModbusException;
+import com.omnixone.modbuslibrary.ModbusIOException;
+import com.omnixone.modbuslibrary.ModbusSlaveException;
+import com.omnixone.modbuslibrary.io.BytesInputStream;
+import com.omnixone.modbuslibrary.io.BytesOutputStream;
+import com.omnixone.modbuslibrary.msg.ExceptionResponse;
+import com.omnixone.modbuslibrary.msg.ModbusRequest;
+import com.omnixone.modbuslibrary.msg.ModbusResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Modbus/UDP master that keeps many requests to many slaves outstanding on
+ * a single socket.
+ * <p>
+ * All I/O is done by one thread started with {@link #open()}. Requests can be
+ * submitted from any thread with {@link #submit(InetSocketAddress, ModbusRequest)};
+ * the returned future is completed on the I/O thread, so callbacks attached
+ * to it must not block. Responses are matched to their request by the source
+ * address of the datagram and the transaction ID, which the multiplexer
+ * assigns. A request that is not answered within its timeout is retransmitted
+ * with the same transaction ID up to the configured number of retries, then
+ * its future fails with a <tt>ModbusIOException</tt>. Deadlines are kept in a
+ * hashed timer wheel, so thousands of outstanding requests cost no more than
+ * a few.
+ * <p>
+ * At most {@link #setMaxOutstanding(int)} requests are on the wire at the
+ * same time; further requests wait in submission order.
+ */
+public class UDPMasterMultiplexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(UDPMasterMultiplexer.class);
+    private static final int MAX_DATAGRAM_SIZE = Modbus.MAX_MESSAGE_LENGTH + 6;
+    private static final int WHEEL_SLOTS = 512;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final ConcurrentLinkedQueue<PendingRequest> submissions = new ConcurrentLinkedQueue<PendingRequest>();
+    private final ArrayDeque<PendingRequest> waiting = new ArrayDeque<PendingRequest>();
+    private final Map<TransactionKey, PendingRequest> outstanding = new HashMap<TransactionKey, PendingRequest>();
+    private final TransactionKey probe = new TransactionKey(null, 0);
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private final byte[] frame = new byte[MAX_DATAGRAM_SIZE];
+    private final BytesInputStream input = new BytesInputStream(MAX_DATAGRAM_SIZE);
+    private final BytesOutputStream output = new BytesOutputStream(MAX_DATAGRAM_SIZE);
+    private TimerWheel wheel;
+
+    private DatagramChannel channel;
+    private Selector selector;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile int outstandingCount;
+
+    private int timeout = Modbus.DEFAULT_TIMEOUT;
+    private int retries = Modbus.DEFAULT_RETRIES;
+    private int maxOutstanding = 1024;
+    private int receiveBufferSize = 256 * 1024;
+    private int nextTransactionId = Modbus.DEFAULT_TRANSACTION_ID;
+
+    /**
+     * Sets the default time in milliseconds to wait for a response before
+     * the request is retransmitted
+     *
+     * @param timeout Timeout in milliseconds
+     */
+    public synchronized void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the default response timeout
+     *
+     * @return Timeout in milliseconds
+     */
+    public synchronized int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the default number of retransmissions of an unanswered request
+     *
+     * @param retries Number of retries
+     */
+    public synchronized void setRetries(int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Returns the default number of retransmissions
+     *
+     * @return Number of retries
+     */
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Sets the maximum number of requests waiting for a response. Must be
+     * set before the multiplexer is opened.
+     *
+     * @param maxOutstanding Number of requests &gt; 0 and &lt;= <tt>Modbus.MAX_TRANSACTION_ID</tt>
+     */
+    public synchronized void setMaxOutstanding(int maxOutstanding) {
+        if (maxOutstanding <= 0 || maxOutstanding > Modbus.MAX_TRANSACTION_ID) {
+            throw new IllegalArgumentException("Invalid number of outstanding requests " + maxOutstanding);
+        }
+        this.maxOutstanding = maxOutstanding;
+    }
+
+    /**
+     * Sets the size of the socket receive buffer. Must be set before the
+     * multiplexer is opened.
+     *
+     * @param receiveBufferSize Buffer size in bytes
+     */
+    public synchronized void setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Returns the number of requests currently waiting for a response
+     *
+     * @return Number of requests
+     */
+    public int getOutstandingCount() {
+        return outstandingCount;
+    }
+
+    /**
+     * Tests if the multiplexer is open
+     *
+     * @return True if open
+     */
+    public boolean isOpen() {
+        return running;
+    }
+
+    /**
+     * Opens the socket and starts the I/O thread
+     *
+     * @throws IOException If the socket cannot be opened
+     */
+    public synchronized void open() throws IOException {
+        if (running) {
+            return;
+        }
+        channel = DatagramChannel.open();
+        channel.socket().setReceiveBufferSize(receiveBufferSize);
+        channel.bind(null);
+        channel.configureBlocking(false);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        wheel = new TimerWheel(System.nanoTime());
+        running = true;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        }, "Modbus UDP Multiplexer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the I/O thread and closes the socket. Requests not answered yet
+     * fail with a <tt>ModbusIOException</tt>.
+     */
+    public void close() {
+        Thread current;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            current = thread;
+            thread = null;
+        }
+        selector.wakeup();
+        try {
+            current.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Submits a request using the default timeout and retries
+     *
+     * @param slave   Address of the slave
+     * @param request Request to send, must not be modified until the future completes
+     * @return Future completed with the response
+     */
+    public CompletableFuture<ModbusResponse> submit(InetSocketAddress slave, ModbusRequest request) {
+        int requestTimeout;
+        int requestRetries;
+        synchronized (this) {
+            requestTimeout = timeout;
+            requestRetries = retries;
+        }
+        return submit(slave, request, requestTimeout, requestRetries);
+    }
+
+    /**
+     * Submits a request. The request's transaction ID is overwritten.
+     * An exception response of the slave fails the future with a
+     * <tt>ModbusSlaveException</tt>.
+     *
+     * @param slave   Address of the slave
+     * @param request Request to send, must not be modified until the future completes
+     * @param timeout Time in milliseconds to wait for a response to each transmission
+     * @param retries Number of retransmissions
+     * @return Future completed with the response
+     */
+    public CompletableFuture<ModbusResponse> submit(InetSocketAddress slave, ModbusRequest request, int timeout, int retries) {
+        if (slave.isUnresolved()) {
+            throw new IllegalArgumentException("Unresolved slave address " + slave);
+        }
+        PendingRequest pending = new PendingRequest(slave, request, TimeUnit.MILLISECONDS.toNanos(timeout), retries);
+        if (!running) {
+            pending.future.completeExceptionally(new ModbusIOException("Multiplexer is not open"));
+            return pending.future;
+        }
+        submissions.add(pending);
+        selector.wakeup();
+        if (!running && submissions.remove(pending)) {
+            // Closed while submitting, the I/O thread may not see the request
+            pending.future.completeExceptionally(new ModbusIOException("Multiplexer is not open"));
+        }
+        return pending.future;
+    }
+
+    /**
+     * The I/O loop
+     */
+    private void loop() {
+        try {
+            while (running) {
+                selector.select(wheel.isEmpty() ? 0 : TimeUnit.NANOSECONDS.toMillis(TICK_NANOS));
+                selector.selectedKeys().clear();
+                receive();
+                PendingRequest pending;
+                while ((pending = submissions.poll()) != null) {
+                    waiting.add(pending);
+                }
+                sendWaiting();
+                expire(System.nanoTime());
+            }
+        }
+        catch (Exception e) {
+            logger.error("Modbus UDP multiplexer failed", e);
+        }
+        finally {
+            running = false;
+            ModbusIOException closed = new ModbusIOException("Multiplexer closed");
+            for (PendingRequest pending : outstanding.values()) {
+                pending.future.completeExceptionally(closed);
+            }
+            outstanding.clear();
+            outstandingCount = 0;
+            waiting.addAll(submissions);
+            submissions.clear();
+            for (PendingRequest pending : waiting) {
+                pending.future.completeExceptionally(closed);
+            }
+            waiting.clear();
+            try {
+                selector.close();
+                channel.close();
+            }
+            catch (IOException e) {
+                logger.debug("Close failed - {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Sends waiting requests while there is room for more outstanding ones
+     *
+     * @throws IOException If the socket fails
+     */
+    private void sendWaiting() throws IOException {
+        PendingRequest pending;
+        while (outstanding.size() < maxOutstanding && (pending = waiting.poll()) != null) {
+            if (pending.future.isDone()) {
+                continue;
+            }
+            pending.key = new TransactionKey(pending.slave, allocateTransactionId(pending.slave));
+            try {
+                pending.request.setTransactionID(pending.key.transactionId);
+                output.reset();
+                pending.request.writeTo(output);
+                pending.frame = Arrays.copyOf(output.getBuffer(), pending.request.getOutputLength());
+            }
+            catch (IOException e) {
+                pending.future.completeExceptionally(new ModbusIOException("Cannot encode request", e));
+                continue;
+            }
+            outstanding.put(pending.key, pending);
+            outstandingCount = outstanding.size();
+            transmit(pending, System.nanoTime());
+        }
+    }
+
+    /**
+     * Returns a transaction ID not in use for the given slave
+     *
+     * @param slave Address of the slave
+     * @return Transaction ID
+     */
+    private int allocateTransactionId(SocketAddress slave) {
+        while (true) {
+            nextTransactionId = nextTransactionId >= Modbus.MAX_TRANSACTION_ID ? 1 : nextTransactionId + 1;
+            probe.set(slave, nextTransactionId);
+            if (!outstanding.containsKey(probe)) {
+                return nextTransactionId;
+            }
+        }
+    }
+
+    /**
+     * Sends a request and schedules its retransmission
+     *
+     * @param pending Request to send
+     * @param now     Current time in nanoseconds
+     * @throws IOException If the socket fails
+     */
+    private void transmit(PendingRequest pending, long now) throws IOException {
+        sendBuffer.clear();
+        sendBuffer.put(pending.frame);
+        sendBuffer.flip();
+        if (channel.send(sendBuffer, pending.slave) == 0) {
+            logger.debug("Send buffer full - request {} to {} will be retransmitted", pending.key.transactionId, pending.slave);
+        }
+        pending.transmissions++;
+        pending.deadline = now + pending.timeoutNanos;
+        wheel.schedule(pending);
+    }
+
+    /**
+     * Reads all received datagrams and completes the matching requests
+     *
+     * @throws IOException If the socket fails
+     */
+    private void receive() throws IOException {
+        SocketAddress source;
+        while (true) {
+            receiveBuffer.clear();
+            source = channel.receive(receiveBuffer);
+            if (source == null) {
+                return;
+            }
+            receiveBuffer.flip();
+            int length = receiveBuffer.remaining();
+            if (length < 8) {
+                continue;
+            }
+            probe.set(source, receiveBuffer.getShort(0) & 0xFFFF);
+            PendingRequest pending = outstanding.remove(probe);
+            if (pending == null) {
+                logger.debug("Discarding unexpected response {} from {}", probe.transactionId, source);
+                continue;
+            }
+            outstandingCount = outstanding.size();
+            pending.completed = true;
+            receiveBuffer.get(frame, 0, length);
+            try {
+                input.reset(frame, length);
+                ModbusResponse response = ModbusResponse.createModbusResponse(frame[7] & 0xFF);
+                response.readFrom(input);
+                if (response instanceof ExceptionResponse) {
+                    pending.future.completeExceptionally(new ModbusSlaveException(((ExceptionResponse)response).getExceptionCode()));
+                }
+                else if (response.getFunctionCode() != pending.request.getFunctionCode()) {
+                    pending.future.completeExceptionally(new ModbusException("Response function code %d does not match request %d",
+                            response.getFunctionCode(), pending.request.getFunctionCode()));
+                }
+                else {
+                    pending.future.complete(response);
+                }
+            }
+            catch (Exception e) {
+                pending.future.completeExceptionally(new ModbusIOException("Cannot decode response", e));
+            }
+        }
+    }
+
+    /**
+     * Retransmits or fails the requests whose deadline has passed
+     *
+     * @param now Current time in nanoseconds
+     * @throws IOException If the socket fails
+     */
+    private void expire(long now) throws IOException {
+        List<PendingRequest> expired = wheel.expire(now);
+        for (PendingRequest pending : expired) {
+            if (pending.transmissions <= pending.retries && !pending.future.isDone()) {
+                logger.debug("Retransmitting request {} to {}", pending.key.transactionId, pending.slave);
+                transmit(pending, now);
+            }
+            else {
+                pending.completed = true;
+                outstanding.remove(pending.key);
+                outstandingCount = outstanding.size();
+                pending.future.completeExceptionally(new ModbusIOException("No response from %s after %d transmissions",
+                        pending.slave, pending.transmissions));
+            }
+        }
+        if (!expired.isEmpty()) {
+            sendWaiting();
+        }
+    }
+
+    /**
+     * A submitted request
+     */
+    private static class PendingRequest {
+        final CompletableFuture<ModbusResponse> future = new CompletableFuture<ModbusResponse>();
+        final InetSocketAddress slave;
+        final ModbusRequest request;
+        final long timeoutNanos;
+        final int retries;
+        TransactionKey key;
+        byte[] frame;
+        int transmissions;
+        long deadline;
+        boolean completed;
+
+        PendingRequest(InetSocketAddress slave, ModbusRequest request, long timeoutNanos, int retries) {
+            this.slave = slave;
+            this.request = request;
+            this.timeoutNanos = timeoutNanos;
+            this.retries = retries;
+        }
+    }
+
+    /**
+     * Slave address and transaction ID identifying an outstanding request
+     */
+    private static class TransactionKey {
+        SocketAddress slave;
+        int transactionId;
+
+        TransactionKey(SocketAddress slave, int transactionId) {
+            set(slave, transactionId);
+        }
+
+        void set(SocketAddress slave, int transactionId) {
+            this.slave = slave;
+            this.transactionId = transactionId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TransactionKey)) {
+                return false;
+            }
+            TransactionKey other = (TransactionKey)o;
+            return transactionId == other.transactionId && slave.equals(other.slave);
+        }
+
+        @Override
+        public int hashCode() {
+            return slave.hashCode() * 31 + transactionId;
+        }
+    }
+
+    /**
+     * Hashed timer wheel holding the retransmission deadlines. Entries of
+     * completed requests are dropped when their slot comes up, entries with
+     * a deadline more than one revolution ahead are put back.
+     */
+    private static class TimerWheel {
+        private final List<ArrayDeque<PendingRequest>> slots = new ArrayList<ArrayDeque<PendingRequest>>(WHEEL_SLOTS);
+        private final List<PendingRequest> expired = new ArrayList<PendingRequest>();
+        private long currentTick;
+        private int size;
+
+        TimerWheel(long now) {
+            for (int i = 0; i < WHEEL_SLOTS; i++) {
+                slots.add(new ArrayDeque<PendingRequest>());
+            }
+            currentTick = Math.floorDiv(now, TICK_NANOS);
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void schedule(PendingRequest pending) {
+            long tick = Math.max(Math.floorDiv(pending.deadline, TICK_NANOS), currentTick + 1);
+            slots.get((int)Math.floorMod(tick, (long)WHEEL_SLOTS)).add(pending);
+            size++;
+        }
+
+        List<PendingRequest> expire(long now) {
+            expired.clear();
+            long nowTick = Math.floorDiv(now, TICK_NANOS);
+            long ticks = Math.min(nowTick - currentTick, WHEEL_SLOTS);
+            for (long i = 0; i < ticks; i++) {
+                currentTick++;
+                ArrayDeque<PendingRequest> slot = slots.get((int)Math.floorMod(currentTick, (long)WHEEL_SLOTS));
+                for (int n = slot.size(); n > 0; n--) {
+                    PendingRequest pending = slot.poll();
+                    size--;
+                    if (pending.completed) {
+                        continue;
+                    }
+                    if (pending.deadline <= now) {
+                        expired.add(pending);
+                    }
+                    else {
+                        schedule(pending);
+                    }
+                }
+            }
+            currentTick = Math.max(currentTick, nowTick);
+            return expired;
+        }
+    }
+}
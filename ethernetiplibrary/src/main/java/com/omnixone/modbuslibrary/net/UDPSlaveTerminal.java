@@ -15,32 +15,62 @@
  */
 package com.omnixone.modbuslibrary.net;
 
+import com.omnixone.modbuslibrary.Modbus;
+import com.omnixone.modbuslibrary.ModbusIOException;
 import com.omnixone.modbuslibrary.io.ModbusUDPTransport;
-import com.omnixone.modbuslibrary.util.ModbusUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
+import java.io.IOException;
 import java.net.InetAddress;
-import java.util.Hashtable;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Class implementing a <tt>UDPSlaveTerminal</tt>.
  *
+ * The terminal owns a non-blocking <tt>DatagramChannel</tt>. Requests are
+ * received and answered on the thread calling {@link #receiveMessage(byte[])}
+ * and {@link #sendMessage(byte[], int)}, which is the listener thread; there
+ * are no helper threads or queues in between. Each terminal has its own
+ * direct receive and send buffer, so no memory is allocated per datagram.
+ *
+ * To spread the load of many masters over several threads, worker terminals
+ * can be created with {@link #UDPSlaveTerminal(UDPSlaveTerminal)}. They share
+ * the channel of their parent and each have their own selector, buffers and
+ * transport.
+ *
  * @author Dieter Wimberger
  * @author Steve O'Hara (4NG)
  * @version 2.0 (March 2016)
  */
 class UDPSlaveTerminal extends AbstractUDPTerminal {
 
+    /**
+     * Default size of the kernel send and receive buffers
+     */
+    static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
     private static final Logger logger = LoggerFactory.getLogger(UDPSlaveTerminal.class);
-    protected Hashtable<Integer, DatagramPacket> requests = new Hashtable<Integer, DatagramPacket>(342);
-    private final LinkedBlockingQueue<byte[]> sendQueue = new LinkedBlockingQueue<byte[]>();
-    private final LinkedBlockingQueue<byte[]> receiveQueue = new LinkedBlockingQueue<byte[]>();
-    private PacketSender packetSender;
-    private PacketReceiver packetReceiver;
+    private static final int MAX_DATAGRAM_SIZE = Modbus.MAX_MESSAGE_LENGTH + 6;
+
+    private final UDPSlaveTerminal parent;
+    private final List<UDPSlaveTerminal> workers = new CopyOnWriteArrayList<UDPSlaveTerminal>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private DatagramChannel channel;
+    private Selector selector;
+    private SocketAddress requester;
+    private int receiveBufferSize = DEFAULT_BUFFER_SIZE;
+    private int sendBufferSize = DEFAULT_BUFFER_SIZE;
 
     /**
      * Creates a slave terminal on the specified adapter address
@@ -50,39 +80,74 @@ class UDPSlaveTerminal extends AbstractUDPTerminal {
      */
     protected UDPSlaveTerminal(InetAddress localaddress) {
         address = localaddress;
+        parent = null;
+    }
+
+    /**
+     * Creates a worker terminal that serves requests arriving on the channel
+     * of the given terminal. The parent must be active before the worker is
+     * activated and deactivates its workers when it is deactivated.
+     *
+     * @param parent Terminal owning the channel
+     */
+    protected UDPSlaveTerminal(UDPSlaveTerminal parent) {
+        this.parent = parent;
+        address = parent.getAddress();
+        port = parent.getPort();
+        timeout = parent.timeout;
+    }
+
+    /**
+     * Sets the size of the kernel receive buffer. Takes effect on activation.
+     *
+     * @param size Buffer size in bytes
+     */
+    synchronized void setReceiveBufferSize(int size) {
+        receiveBufferSize = size;
+    }
+
+    /**
+     * Sets the size of the kernel send buffer. Takes effect on activation.
+     *
+     * @param size Buffer size in bytes
+     */
+    synchronized void setSendBufferSize(int size) {
+        sendBufferSize = size;
     }
 
     @Override
     public synchronized void activate() throws Exception {
         if (!isActive()) {
             logger.debug("UDPSlaveTerminal.activate()");
-            if (address != null && port != -1) {
-                socket = new DatagramSocket(port, address);
+            if (parent == null) {
+                channel = DatagramChannel.open();
+                channel.socket().setReceiveBufferSize(receiveBufferSize);
+                channel.socket().setSendBufferSize(sendBufferSize);
+                if (address != null && port != -1) {
+                    channel.bind(new InetSocketAddress(address, port));
+                }
+                else {
+                    channel.bind(null);
+                    port = channel.socket().getLocalPort();
+                    address = channel.socket().getLocalAddress();
+                }
+                channel.configureBlocking(false);
+                logger.debug("UDPSlaveTerminal::receiveBufferSize={} sendBufferSize={}",
+                        channel.socket().getReceiveBufferSize(), channel.socket().getSendBufferSize());
             }
             else {
-                socket = new DatagramSocket();
-                port = socket.getLocalPort();
-                address = socket.getLocalAddress();
+                if (!parent.isActive()) {
+                    throw new IllegalStateException("Parent terminal is not active");
+                }
+                channel = parent.channel;
+                parent.workers.add(this);
             }
+            socket = channel.socket();
             logger.debug("UDPSlaveTerminal::haveSocket():{}", socket);
             logger.debug("UDPSlaveTerminal::addr=:{}:port={}", address, port);
 
-            socket.setReceiveBufferSize(1024);
-            socket.setSendBufferSize(1024);
-
-            // Never timeout the receive
-            socket.setSoTimeout(0);
-
-            // Start a sender
-            packetSender = new PacketSender(socket);
-            new Thread(packetSender).start();
-            logger.debug("UDPSlaveTerminal::sender started()");
-
-            // Start a receiver
-
-            packetReceiver = new PacketReceiver(socket);
-            new Thread(packetReceiver).start();
-            logger.debug("UDPSlaveTerminal::receiver started()");
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
 
             // Create a transport to use
 
@@ -97,14 +162,22 @@ class UDPSlaveTerminal extends AbstractUDPTerminal {
     public synchronized void deactivate() {
         try {
             if (active) {
-                // Stop receiver - this will stop and close the socket
-                packetReceiver.stop();
-
-                // Stop sender gracefully
-                packetSender.stop();
+                active = false;
+                if (parent == null) {
+                    for (UDPSlaveTerminal worker : workers) {
+                        worker.deactivate();
+                    }
+                }
+                else {
+                    parent.workers.remove(this);
+                }
 
+                // Closing the selector wakes up a thread waiting for requests
+                selector.close();
+                if (parent == null) {
+                    channel.close();
+                }
                 transport = null;
-                active = false;
             }
         }
         catch (Exception ex) {
@@ -114,139 +187,75 @@ class UDPSlaveTerminal extends AbstractUDPTerminal {
 
     @Override
     public void sendMessage(byte[] msg) throws Exception {
-        sendQueue.add(msg);
-    }
-
-    @Override
-    public byte[] receiveMessage() throws Exception {
-        return receiveQueue.take();
+        sendMessage(msg, msg.length);
     }
 
     /**
-     * The background thread that is responsible for sending messages in response to requests
+     * Sends a response to the source of the last received request.
+     *
+     * @param msg    the buffer holding the message.
+     * @param length the length of the message.
+     *
+     * @throws Exception if sending the message fails.
      */
-    class PacketSender implements Runnable {
-
-        private boolean running;
-        private boolean closed;
-        private Thread thread;
-        private final DatagramSocket socket;
-
-        /**
-         * Constructs a sender with th socket
-         *
-         * @param socket Socket to use
-         */
-        public PacketSender(DatagramSocket socket) {
-            running = true;
-            this.socket = socket;
-        }
-
-        /**
-         * Stops the sender
-         */
-        public void stop() {
-            running = false;
-            thread.interrupt();
-            while (!closed) {
-                ModbusUtil.sleep(100);
-            }
+    @Override
+    public void sendMessage(byte[] msg, int length) throws Exception {
+        if (requester == null) {
+            logger.debug("No request to respond to");
+            return;
         }
-
-        /**
-         * Thread loop that sends messages
-         */
-        @Override
-        public void run() {
-            closed = false;
-            thread = Thread.currentThread();
-            do {
-                try {
-                    // Pickup the message and corresponding request
-                    byte[] message = sendQueue.take();
-                    DatagramPacket req = requests.remove(ModbusUtil.registersToInt(message));
-
-                    // Create new Package with corresponding address and port
-                    if (req != null) {
-                        DatagramPacket res = new DatagramPacket(message, message.length, req.getAddress(), req.getPort());
-                        socket.send(res);
-                        logger.debug("Sent package from queue");
-                    }
-                }
-                catch (Exception ex) {
-                    // Ignore the error if we are no longer listening
-
-                    if (running) {
-                        logger.error("Problem reading UDP socket", ex);
-                    }
-                }
-            } while (running);
-            closed = true;
+        sendBuffer.clear();
+        sendBuffer.put(msg, 0, length);
+        sendBuffer.flip();
+        if (channel.send(sendBuffer, requester) == 0) {
+            logger.debug("Send buffer full - response to {} dropped", requester);
         }
+    }
 
+    @Override
+    public byte[] receiveMessage() throws Exception {
+        byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+        return Arrays.copyOf(buffer, receiveMessage(buffer));
     }
 
     /**
-     * The background thread that receives messages and adds them to the process list
-     * for further analysis
+     * Waits for the next request and copies it into the given buffer.
+     * The source of the request is remembered for the response.
+     *
+     * @param buffer the buffer to receive into.
+     *
+     * @return the length of the request.
+     *
+     * @throws Exception if receiving fails, a <tt>ModbusIOException</tt>
+     *                   flagged as EOF if the terminal was deactivated.
      */
-    class PacketReceiver implements Runnable {
-
-        private boolean running;
-        private boolean closed;
-        private final DatagramSocket socket;
-
-        /**
-         * A receiver thread for reception of UDP messages
-         *
-         * @param socket Socket to use
-         */
-        public PacketReceiver(DatagramSocket socket) {
-            running = true;
-            this.socket = socket;
-        }
-
-        /**
-         * Stops the thread
-         */
-        public void stop() {
-            running = false;
-            socket.close();
-            while (!closed) {
-                ModbusUtil.sleep(100);
+    @Override
+    public int receiveMessage(byte[] buffer) throws Exception {
+        while (true) {
+            if (!active) {
+                throw new ModbusIOException("Terminal deactivated", true);
             }
-        }
-
-        /**
-         * Background thread for reading UDP messages
-         */
-        @Override
-        public void run() {
-            closed = false;
-            do {
-                try {
-                    // 1. Prepare buffer and receive package
-                    byte[] buffer = new byte[256];// max size
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-
-                    // 2. Extract TID and remember request
-                    Integer tid = ModbusUtil.registersToInt(buffer);
-                    requests.put(tid, packet);
-
-                    // 3. place the data buffer in the queue
-                    receiveQueue.put(buffer);
-                    logger.debug("Received package to queue");
+            try {
+                receiveBuffer.clear();
+                SocketAddress source = channel.receive(receiveBuffer);
+                if (source != null) {
+                    requester = source;
+                    receiveBuffer.flip();
+                    int length = Math.min(receiveBuffer.remaining(), buffer.length);
+                    receiveBuffer.get(buffer, 0, length);
+                    return length;
                 }
-                catch (Exception ex) {
-                    // Ignore the error if we are no longer listening
 
-                    if (running) {
-                        logger.error("Problem reading UDP socket", ex);
-                    }
+                // Nothing left, or another worker took the datagram
+                selector.select();
+                selector.selectedKeys().clear();
+            }
+            catch (IOException | ClosedSelectorException ex) {
+                if (!active) {
+                    throw new ModbusIOException("Terminal deactivated", true);
                 }
-            } while (running);
-            closed = true;
+                throw ex;
+            }
         }
     }
 }
@@ -0,0 +1,761 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.procimg;
+
+import com.omnixone.modbuslibrary.util.BitVector;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class implementing a process image that publishes the updates of a control
+ * cycle all at once.
+ * <p>
+ * The image holds its coils, discrete inputs, input registers and holding
+ * registers in two buffers. The application thread writes a cycle into the
+ * back buffer with the <tt>set...</tt> methods, without any locking, and then
+ * calls {@link #commit()}, which makes the back buffer the front buffer with
+ * a single pointer swap. Request handlers only ever read the front buffer,
+ * so range reads see one complete cycle and never block the application.
+ * <p>
+ * The back buffer is owned by one application thread. After a commit it
+ * holds the same data as the new front buffer, so a cycle only needs to set
+ * the points that changed.
+ * <p>
+ * Writes from Modbus masters, through the <tt>Register</tt> and
+ * <tt>DigitalOut</tt> instances of the image or through
+ * {@link #writeRegisters(int, int[], int, int)}, are applied to the front
+ * buffer at once and carried over into the back buffer by the next commit,
+ * overriding what the application set for the same points in that cycle.
+ * Only these writes are reported to a {@link ProcessImageChangeBus}.
+ * <p>
+ * The points are fixed when the image is created; they cannot be replaced,
+ * added or removed. Files and FIFOs are held as in <tt>SimpleProcessImage</tt>.
+ */
+public class DoubleBufferedProcessImage extends SimpleProcessImage {
+
+    private final int coilCount;
+    private final int discreteInputCount;
+    private final int inputRegisterCount;
+    private final int registerCount;
+
+    private volatile Buffer front;
+    private Buffer back;
+
+    private final Object pendingLock = new Object();
+    private final BitVector pendingCoils;
+    private final BitVector pendingCoilValues;
+    private final BitVector pendingRegisters;
+    private final short[] pendingRegisterValues;
+
+    private final DigitalOut[] coilViews;
+    private final DigitalIn[] discreteInputViews;
+    private final InputRegister[] inputRegisterViews;
+    private final Register[] registerViews;
+
+    /**
+     * Constructs a new <tt>DoubleBufferedProcessImage</tt> with all points
+     * cleared.
+     *
+     * @param coils          the number of coils.
+     * @param discreteInputs the number of discrete inputs.
+     * @param inputRegisters the number of input registers.
+     * @param registers      the number of holding registers.
+     */
+    public DoubleBufferedProcessImage(int coils, int discreteInputs, int inputRegisters, int registers) {
+        this(coils, discreteInputs, inputRegisters, registers, 0);
+    }
+
+    /**
+     * Constructs a new <tt>DoubleBufferedProcessImage</tt> with all points
+     * cleared.
+     *
+     * @param coils          the number of coils.
+     * @param discreteInputs the number of discrete inputs.
+     * @param inputRegisters the number of input registers.
+     * @param registers      the number of holding registers.
+     * @param unit           the unit ID of the image.
+     */
+    public DoubleBufferedProcessImage(int coils, int discreteInputs, int inputRegisters, int registers, int unit) {
+        super(unit);
+        if (coils < 0 || coils > 65536 || discreteInputs < 0 || discreteInputs > 65536
+                || inputRegisters < 0 || inputRegisters > 65536 || registers < 0 || registers > 65536) {
+            throw new IllegalArgumentException("Invalid process image size");
+        }
+        coilCount = coils;
+        discreteInputCount = discreteInputs;
+        inputRegisterCount = inputRegisters;
+        registerCount = registers;
+        front = new Buffer();
+        back = new Buffer();
+        pendingCoils = new BitVector(coils);
+        pendingCoilValues = new BitVector(coils);
+        pendingRegisters = new BitVector(registers);
+        pendingRegisterValues = new short[registers];
+        coilViews = new DigitalOut[coils];
+        discreteInputViews = new DigitalIn[discreteInputs];
+        inputRegisterViews = new InputRegister[inputRegisters];
+        registerViews = new Register[registers];
+    }
+
+    /**
+     * Sets a coil in the back buffer.
+     *
+     * @param ref the coil address.
+     * @param b   true to set the coil.
+     */
+    public void setCoil(int ref, boolean b) {
+        checkRange(ref, coilCount);
+        back.coils.setBit(ref, b);
+    }
+
+    /**
+     * Returns the state of a coil in the back buffer.
+     *
+     * @param ref the coil address.
+     *
+     * @return true if the coil is set.
+     */
+    public boolean isCoilSet(int ref) {
+        checkRange(ref, coilCount);
+        return back.coils.getBit(ref);
+    }
+
+    /**
+     * Sets a discrete input in the back buffer.
+     *
+     * @param ref the input address.
+     * @param b   true to set the input.
+     */
+    public void setDiscreteInput(int ref, boolean b) {
+        checkRange(ref, discreteInputCount);
+        back.discreteInputs.setBit(ref, b);
+    }
+
+    /**
+     * Returns the state of a discrete input in the back buffer.
+     *
+     * @param ref the input address.
+     *
+     * @return true if the input is set.
+     */
+    public boolean isDiscreteInputSet(int ref) {
+        checkRange(ref, discreteInputCount);
+        return back.discreteInputs.getBit(ref);
+    }
+
+    /**
+     * Sets an input register in the back buffer.
+     *
+     * @param ref   the register address.
+     * @param value the value, only the low 16 bits are used.
+     */
+    public void setInputRegisterValue(int ref, int value) {
+        checkRange(ref, inputRegisterCount);
+        back.inputRegisters[ref] = (short)value;
+    }
+
+    /**
+     * Sets a range of input registers in the back buffer.
+     *
+     * @param ref    the address of the first register.
+     * @param values the array holding the values, only the low 16 bits are used.
+     * @param index  the index of the first value in the array.
+     * @param count  the number of registers.
+     */
+    public void setInputRegisterValues(int ref, int[] values, int index, int count) {
+        checkRange(ref, count, inputRegisterCount);
+        for (int i = 0; i < count; i++) {
+            back.inputRegisters[ref + i] = (short)values[index + i];
+        }
+    }
+
+    /**
+     * Returns the value of an input register in the back buffer.
+     *
+     * @param ref the register address.
+     *
+     * @return the unsigned value.
+     */
+    public int getInputRegisterValue(int ref) {
+        checkRange(ref, inputRegisterCount);
+        return back.inputRegisters[ref] & 0xFFFF;
+    }
+
+    /**
+     * Sets a holding register in the back buffer.
+     *
+     * @param ref   the register address.
+     * @param value the value, only the low 16 bits are used.
+     */
+    public void setRegisterValue(int ref, int value) {
+        checkRange(ref, registerCount);
+        back.registers[ref] = (short)value;
+    }
+
+    /**
+     * Sets a range of holding registers in the back buffer.
+     *
+     * @param ref    the address of the first register.
+     * @param values the array holding the values, only the low 16 bits are used.
+     * @param index  the index of the first value in the array.
+     * @param count  the number of registers.
+     */
+    public void setRegisterValues(int ref, int[] values, int index, int count) {
+        checkRange(ref, count, registerCount);
+        for (int i = 0; i < count; i++) {
+            back.registers[ref + i] = (short)values[index + i];
+        }
+    }
+
+    /**
+     * Returns the value of a holding register in the back buffer.
+     *
+     * @param ref the register address.
+     *
+     * @return the unsigned value.
+     */
+    public int getRegisterValue(int ref) {
+        checkRange(ref, registerCount);
+        return back.registers[ref] & 0xFFFF;
+    }
+
+    /**
+     * Publishes the back buffer to request handlers and continues with a copy
+     * of it as the new back buffer. Must be called on the thread owning the
+     * back buffer. Waits for requests still reading the previous front
+     * buffer, which take no longer than copying a range of points.
+     */
+    public void commit() {
+        Buffer published = back;
+        Buffer previous;
+        synchronized (pendingLock) {
+            for (int i = pendingCoils.nextSetBit(0); i >= 0; i = pendingCoils.nextSetBit(i + 1)) {
+                published.coils.setBit(i, pendingCoilValues.getBit(i));
+            }
+            for (int i = pendingRegisters.nextSetBit(0); i >= 0; i = pendingRegisters.nextSetBit(i + 1)) {
+                published.registers[i] = pendingRegisterValues[i];
+            }
+            pendingCoils.clear();
+            pendingRegisters.clear();
+            previous = front;
+            front = published;
+        }
+        while (previous.readers.get() != 0) {
+            Thread.yield();
+        }
+
+        // Master writes to the new front buffer from now on are pending again
+        previous.copyFrom(published);
+        back = previous;
+    }
+
+    @Override
+    public void readInputRegisters(int ref, int[] values, int index, int count) {
+        checkRange(ref, count, inputRegisterCount);
+        Buffer buffer = acquire();
+        try {
+            for (int i = 0; i < count; i++) {
+                values[index + i] = buffer.inputRegisters[ref + i] & 0xFFFF;
+            }
+        }
+        finally {
+            buffer.readers.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void writeInputRegisters(int ref, int[] values, int index, int count) {
+        throw new UnsupportedOperationException("Input registers are set in the back buffer");
+    }
+
+    @Override
+    public void readRegisters(int ref, int[] values, int index, int count) {
+        checkRange(ref, count, registerCount);
+        Buffer buffer = acquire();
+        try {
+            for (int i = 0; i < count; i++) {
+                values[index + i] = buffer.registers[ref + i] & 0xFFFF;
+            }
+        }
+        finally {
+            buffer.readers.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void writeRegisters(int ref, int[] values, int index, int count) {
+        checkRange(ref, count, registerCount);
+        synchronized (pendingLock) {
+            Buffer buffer = front;
+            for (int i = 0; i < count; i++) {
+                short value = (short)values[index + i];
+                buffer.registers[ref + i] = value;
+                pendingRegisterValues[ref + i] = value;
+            }
+            pendingRegisters.set(ref, ref + count);
+        }
+        registersChanged(ref, count);
+    }
+
+    @Override
+    public void writeRegisters(int ref, byte[] src, int index, int count) {
+        checkRange(ref, count, registerCount);
+        synchronized (pendingLock) {
+            Buffer buffer = front;
+            for (int i = 0; i < count; i++) {
+                short value = (short)((src[index + 2 * i] & 0xFF) << 8 | (src[index + 2 * i + 1] & 0xFF));
+                buffer.registers[ref + i] = value;
+                pendingRegisterValues[ref + i] = value;
+            }
+            pendingRegisters.set(ref, ref + count);
+        }
+        registersChanged(ref, count);
+    }
+
+    @Override
+    public void writeCoils(int ref, BitVector coils) {
+        int count = coils.size();
+        checkRange(ref, count, coilCount);
+        if (count == 0) {
+            return;
+        }
+        synchronized (pendingLock) {
+            front.coils.copyFrom(coils, 0, ref, count);
+            pendingCoilValues.copyFrom(coils, 0, ref, count);
+            pendingCoils.set(ref, ref + count);
+        }
+        coilsChanged(ref, count);
+    }
+
+    @Override
+    public DigitalOut[] getDigitalOutRange(int ref, int count) {
+        checkRange(ref, count, coilCount);
+        DigitalOut[] douts = new DigitalOut[count];
+        Buffer buffer = acquire();
+        try {
+            for (int i = 0; i < count; i++) {
+                douts[i] = new CoilSnapshot(ref + i, buffer.coils.getBit(ref + i));
+            }
+        }
+        finally {
+            buffer.readers.decrementAndGet();
+        }
+        return douts;
+    }
+
+    @Override
+    public DigitalOut getDigitalOut(int ref) throws IllegalAddressException {
+        checkRange(ref, coilCount);
+        DigitalOut view = coilViews[ref];
+        if (view == null) {
+            view = new BufferedCoil(ref);
+            coilViews[ref] = view;
+        }
+        return view;
+    }
+
+    @Override
+    public int getDigitalOutCount() {
+        return coilCount;
+    }
+
+    @Override
+    public DigitalIn[] getDigitalInRange(int ref, int count) {
+        checkRange(ref, count, discreteInputCount);
+        DigitalIn[] dins = new DigitalIn[count];
+        Buffer buffer = acquire();
+        try {
+            for (int i = 0; i < count; i++) {
+                dins[i] = new SimpleDigitalIn(buffer.discreteInputs.getBit(ref + i));
+            }
+        }
+        finally {
+            buffer.readers.decrementAndGet();
+        }
+        return dins;
+    }
+
+    @Override
+    public DigitalIn getDigitalIn(int ref) throws IllegalAddressException {
+        checkRange(ref, discreteInputCount);
+        DigitalIn view = discreteInputViews[ref];
+        if (view == null) {
+            view = new BufferedDiscreteInput(ref);
+            discreteInputViews[ref] = view;
+        }
+        return view;
+    }
+
+    @Override
+    public int getDigitalInCount() {
+        return discreteInputCount;
+    }
+
+    @Override
+    public InputRegister[] getInputRegisterRange(int ref, int count) {
+        checkRange(ref, count, inputRegisterCount);
+        InputRegister[] iregs = new InputRegister[count];
+        for (int i = 0; i < count; i++) {
+            iregs[i] = getInputRegister(ref + i);
+        }
+        return iregs;
+    }
+
+    @Override
+    public InputRegister getInputRegister(int ref) throws IllegalAddressException {
+        checkRange(ref, inputRegisterCount);
+        InputRegister view = inputRegisterViews[ref];
+        if (view == null) {
+            view = new BufferedInputRegister(ref);
+            inputRegisterViews[ref] = view;
+        }
+        return view;
+    }
+
+    @Override
+    public int getInputRegisterCount() {
+        return inputRegisterCount;
+    }
+
+    @Override
+    public Register[] getRegisterRange(int ref, int count) {
+        checkRange(ref, count, registerCount);
+        Register[] regs = new Register[count];
+        for (int i = 0; i < count; i++) {
+            regs[i] = getRegister(ref + i);
+        }
+        return regs;
+    }
+
+    @Override
+    public Register getRegister(int ref) throws IllegalAddressException {
+        checkRange(ref, registerCount);
+        Register view = registerViews[ref];
+        if (view == null) {
+            view = new BufferedRegister(ref);
+            registerViews[ref] = view;
+        }
+        return view;
+    }
+
+    @Override
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    @Override
+    public void setDigitalOut(int ref, DigitalOut out) {
+        throw new UnsupportedOperationException("The coils of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void addDigitalOut(DigitalOut out) {
+        throw new UnsupportedOperationException("The coils of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void addDigitalOut(int ref, DigitalOut dout) {
+        throw new UnsupportedOperationException("The coils of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void removeDigitalOut(DigitalOut out) {
+        throw new UnsupportedOperationException("The coils of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void setDigitalIn(int ref, DigitalIn di) {
+        throw new UnsupportedOperationException("The discrete inputs of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void addDigitalIn(DigitalIn di) {
+        throw new UnsupportedOperationException("The discrete inputs of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void addDigitalIn(int ref, DigitalIn di) {
+        throw new UnsupportedOperationException("The discrete inputs of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void removeDigitalIn(DigitalIn di) {
+        throw new UnsupportedOperationException("The discrete inputs of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void setInputRegister(int ref, InputRegister reg) {
+        throw new UnsupportedOperationException("The input registers of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void addInputRegister(InputRegister reg) {
+        throw new UnsupportedOperationException("The input registers of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void addInputRegister(int ref, InputRegister reg) {
+        throw new UnsupportedOperationException("The input registers of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void removeInputRegister(InputRegister reg) {
+        throw new UnsupportedOperationException("The input registers of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void setRegister(int ref, Register reg) {
+        throw new UnsupportedOperationException("The registers of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void addRegister(Register reg) {
+        throw new UnsupportedOperationException("The registers of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void addRegister(int ref, Register reg) {
+        throw new UnsupportedOperationException("The registers of a DoubleBufferedProcessImage are fixed");
+    }
+
+    @Override
+    public void removeRegister(Register reg) {
+        throw new UnsupportedOperationException("The registers of a DoubleBufferedProcessImage are fixed");
+    }
+
+    /**
+     * Returns the front buffer, counted as read until its readers are
+     * decremented again. A buffer replaced while it is being acquired is
+     * not used.
+     *
+     * @return the front buffer.
+     */
+    private Buffer acquire() {
+        while (true) {
+            Buffer buffer = front;
+            buffer.readers.incrementAndGet();
+            if (buffer == front) {
+                return buffer;
+            }
+            buffer.readers.decrementAndGet();
+        }
+    }
+
+    private void writeRegister(int ref, int value) {
+        synchronized (pendingLock) {
+            front.registers[ref] = (short)value;
+            pendingRegisterValues[ref] = (short)value;
+            pendingRegisters.setBit(ref, true);
+        }
+        registersChanged(ref, 1);
+    }
+
+    private void writeCoil(int ref, boolean b) {
+        synchronized (pendingLock) {
+            front.coils.setBit(ref, b);
+            pendingCoilValues.setBit(ref, b);
+            pendingCoils.setBit(ref, true);
+        }
+        coilsChanged(ref, 1);
+    }
+
+    private static void checkRange(int ref, int count) {
+        if (ref < 0 || ref >= count) {
+            throw new IllegalAddressException();
+        }
+    }
+
+    private static void checkRange(int ref, int count, int size) {
+        if (ref < 0 || count < 0 || ref + count > size) {
+            throw new IllegalAddressException();
+        }
+    }
+
+    /**
+     * One complete set of points
+     */
+    private class Buffer {
+        final BitVector coils = new BitVector(coilCount);
+        final BitVector discreteInputs = new BitVector(discreteInputCount);
+        final short[] inputRegisters = new short[inputRegisterCount];
+        final short[] registers = new short[registerCount];
+        final AtomicInteger readers = new AtomicInteger();
+
+        void copyFrom(Buffer src) {
+            if (coilCount > 0) {
+                coils.copyFrom(src.coils, 0, 0, coilCount);
+            }
+            if (discreteInputCount > 0) {
+                discreteInputs.copyFrom(src.discreteInputs, 0, 0, discreteInputCount);
+            }
+            System.arraycopy(src.inputRegisters, 0, inputRegisters, 0, inputRegisterCount);
+            System.arraycopy(src.registers, 0, registers, 0, registerCount);
+        }
+    }
+
+    /**
+     * A coil of the front buffer
+     */
+    private class BufferedCoil implements DigitalOut {
+        private final int ref;
+
+        BufferedCoil(int ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public boolean isSet() {
+            return front.coils.getBit(ref);
+        }
+
+        @Override
+        public void set(boolean b) {
+            writeCoil(ref, b);
+        }
+    }
+
+    /**
+     * A coil as it was in the front buffer when a range was read. Setting it
+     * writes through to the image.
+     */
+    private class CoilSnapshot extends BufferedCoil {
+        private volatile boolean set;
+
+        CoilSnapshot(int ref, boolean set) {
+            super(ref);
+            this.set = set;
+        }
+
+        @Override
+        public boolean isSet() {
+            return set;
+        }
+
+        @Override
+        public void set(boolean b) {
+            super.set(b);
+            set = b;
+        }
+    }
+
+    /**
+     * A discrete input of the front buffer
+     */
+    private class BufferedDiscreteInput implements DigitalIn {
+        private final int ref;
+
+        BufferedDiscreteInput(int ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public boolean isSet() {
+            return front.discreteInputs.getBit(ref);
+        }
+    }
+
+    /**
+     * An input register of the front buffer
+     */
+    private class BufferedInputRegister implements InputRegister {
+        private final int ref;
+
+        BufferedInputRegister(int ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public int getValue() {
+            return front.inputRegisters[ref] & 0xFFFF;
+        }
+
+        @Override
+        public int toUnsignedShort() {
+            return getValue();
+        }
+
+        @Override
+        public short toShort() {
+            return front.inputRegisters[ref];
+        }
+
+        @Override
+        public byte[] toBytes() {
+            int value = getValue();
+            return new byte[]{(byte)(value >> 8), (byte)value};
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getValue());
+        }
+    }
+
+    /**
+     * A holding register of the front buffer
+     */
+    private class BufferedRegister implements Register {
+        private final int ref;
+
+        BufferedRegister(int ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public int getValue() {
+            return front.registers[ref] & 0xFFFF;
+        }
+
+        @Override
+        public int toUnsignedShort() {
+            return getValue();
+        }
+
+        @Override
+        public short toShort() {
+            return front.registers[ref];
+        }
+
+        @Override
+        public byte[] toBytes() {
+            int value = getValue();
+            return new byte[]{(byte)(value >> 8), (byte)value};
+        }
+
+        @Override
+        public void setValue(int v) {
+            writeRegister(ref, v);
+        }
+
+        @Override
+        public void setValue(short s) {
+            setValue((int)s);
+        }
+
+        @Override
+        public void setValue(byte[] bytes) {
+            if (bytes.length < 2) {
+                throw new IllegalArgumentException();
+            }
+            setValue((bytes[0] & 0xFF) << 8 | (bytes[1] & 0xFF));
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getValue());
+        }
+    }
+}
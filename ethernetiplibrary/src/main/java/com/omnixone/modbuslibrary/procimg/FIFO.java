@@ -15,7 +15,8 @@
  */
 package com.omnixone.modbuslibrary.procimg;
 
-import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * @author Julie
@@ -23,53 +24,103 @@ import java.util.Vector;
  *         FIFO -- an abstraction of a Modbus FIFO, as supported by the
  *         READ FIFO command.
  *
- *         The FIFO class is only intended to be used for testing purposes and does
- *         not reflect the actual behavior of a FIFO in a real Modbus device.  In an
- *         actual Modbus device, the FIFO is mapped within a fixed address.
+ *         The FIFO keeps the last 31 values pushed, the most a READ FIFO
+ *         response can carry, in a fixed ring. Any number of threads may push
+ *         without locking and without allocating, and readers take snapshots
+ *         without blocking producers. A FIFO added to a
+ *         <tt>SimpleProcessImage</tt> answers READ FIFO requests for its
+ *         address.
  * @author Steve O'Hara (4NG)
  * @version 2.0 (March 2016)
  */
 public class FIFO {
 
+    /**
+     * Maximum number of values held by a FIFO
+     */
+    public static final int CAPACITY = 31;
+
+    private static final int SLOTS = 32;
+
     private final int address;
-    private int registerCount;
-    private final Vector<Register> registers;
+
+    /**
+     * Each slot holds the sequence number of its push plus one in the upper
+     * 48 bits and the value in the lower 16 bits, so a value and the push
+     * it belongs to are always read together.
+     */
+    private final AtomicLongArray slots = new AtomicLongArray(SLOTS);
+    private final AtomicLong pushed = new AtomicLong();
+    private volatile long base;
 
     public FIFO(int address) {
         this.address = address;
-        registerCount = 0;
-        registers = new Vector<Register>();
     }
 
-    public synchronized int getRegisterCount() {
-        return registerCount;
+    public int getRegisterCount() {
+        return (int)Math.min(CAPACITY, pushed.get() - base);
     }
 
-    public synchronized Register[] getRegisters() {
-        Register[] result = new Register[registerCount + 1];
+    public Register[] getRegisters() {
+        short[] values = new short[CAPACITY];
+        int count = copyTo(values, 0);
+        Register[] result = new Register[count + 1];
 
-        result[0] = new SimpleRegister(registerCount);
-        for (int i = 0; i < registerCount; i++) {
-            result[i + 1] = registers.get(i);
+        result[0] = new SimpleRegister(count);
+        for (int i = 0; i < count; i++) {
+            result[i + 1] = new SimpleRegister(values[i] & 0xFFFF);
         }
 
         return result;
     }
 
-    public synchronized void pushRegister(Register register) {
-        if (registerCount == 31) {
-            registers.remove(0);
-        }
-        else {
-            registerCount++;
+    /**
+     * Copies the values of the FIFO, oldest first. Pushes still in progress
+     * on other threads are not included.
+     *
+     * @param dest   the array receiving up to {@link #CAPACITY} values.
+     * @param offset the index of the first value in the array.
+     *
+     * @return the number of values copied.
+     */
+    public int copyTo(short[] dest, int offset) {
+        long end = pushed.get();
+        long start = Math.max(base, end - CAPACITY);
+        int count = 0;
+        for (long seq = start; seq < end; seq++) {
+            long entry = slots.get((int)seq & (SLOTS - 1));
+            if (entry >>> 16 == seq + 1) {
+                dest[offset + count++] = (short)entry;
+            }
         }
+        return count;
+    }
 
-        registers.add(new SimpleRegister(register.getValue()));
+    public void pushRegister(Register register) {
+        push(register.getValue());
+    }
+
+    /**
+     * Appends a value, dropping the oldest value if the FIFO is full.
+     *
+     * @param value the value, only the low 16 bits are used.
+     */
+    public void push(int value) {
+        long seq = pushed.getAndIncrement();
+        int index = (int)seq & (SLOTS - 1);
+        long entry = (seq + 1) << 16 | (value & 0xFFFF);
+        while (true) {
+            long current = slots.get(index);
+
+            // A producer that stalled for a full lap must not overwrite a newer value
+            if (current >>> 16 > seq + 1 || slots.compareAndSet(index, current, entry)) {
+                return;
+            }
+        }
     }
 
-    public synchronized void resetRegisters() {
-        registers.removeAllElements();
-        registerCount = 0;
+    public void resetRegisters() {
+        base = pushed.get();
     }
 
     public int getAddress() {
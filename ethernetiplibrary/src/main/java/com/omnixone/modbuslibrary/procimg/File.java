@@ -27,12 +27,11 @@ public class File {
 
     private final int fileNumber;
     private final int recordCount;
-    private final Record[] records;
+    private Record[] records;
 
     public File(int fileNumber, int records) {
         this.fileNumber = fileNumber;
         recordCount = records;
-        this.records = new Record[records];
     }
 
     public int getFileNumber() {
@@ -48,7 +47,7 @@ public class File {
             throw new IllegalAddressException();
         }
 
-        return records[i];
+        return records == null ? null : records[i];
     }
 
     public File setRecord(int i, Record record) {
@@ -56,8 +55,64 @@ public class File {
             throw new IllegalAddressException();
         }
 
+        if (records == null) {
+            records = new Record[recordCount];
+        }
         records[i] = record;
 
         return this;
     }
+
+    /**
+     * Reads registers of a record into a buffer, high byte first, as
+     * requested by READ FILE RECORD.
+     *
+     * @param record the record number.
+     * @param count  the number of registers.
+     * @param dest   the buffer to read into.
+     * @param offset the offset in the buffer.
+     *
+     * @throws IllegalAddressException if the registers do not exist.
+     */
+    public void readRegisters(int record, int count, byte[] dest, int offset) {
+        Record rec = getRecord(record);
+        if (rec == null && count != 0) {
+            throw new IllegalAddressException();
+        }
+        for (int i = 0; i < count; i++) {
+            Register register = rec.getRegister(i);
+            if (register == null) {
+                throw new IllegalAddressException();
+            }
+            int value = register.getValue();
+            dest[offset++] = (byte)(value >> 8);
+            dest[offset++] = (byte)value;
+        }
+    }
+
+    /**
+     * Writes registers of a record from a buffer, high byte first, as
+     * requested by WRITE FILE RECORD.
+     *
+     * @param record the record number.
+     * @param count  the number of registers.
+     * @param src    the buffer holding the values.
+     * @param offset the offset in the buffer.
+     *
+     * @throws IllegalAddressException if the registers do not exist.
+     */
+    public void writeRegisters(int record, int count, byte[] src, int offset) {
+        Record rec = getRecord(record);
+        if (rec == null && count != 0) {
+            throw new IllegalAddressException();
+        }
+        for (int i = 0; i < count; i++) {
+            if (rec.getRegister(i) == null) {
+                throw new IllegalAddressException();
+            }
+        }
+        for (int i = 0; i < count; i++, offset += 2) {
+            rec.getRegister(i).setValue((src[offset] & 0xFF) << 8 | (src[offset + 1] & 0xFF));
+        }
+    }
 }
@@ -0,0 +1,634 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.procimg;
+
+import com.omnixone.modbuslibrary.util.BitVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Class implementing a process image whose coils, holding registers and
+ * files live in a memory mapped file, so the state of a slave survives a
+ * restart.
+ * <p>
+ * The layout is fixed when the image is opened. Coils are numbered
+ * <tt>0</tt> to <tt>coils - 1</tt>, holding registers <tt>0</tt> to
+ * <tt>registers - 1</tt>, and files <tt>0</tt> to <tt>files - 1</tt>, each
+ * a {@link RegisterFile} of <tt>recordsPerFile</tt> registers. The coils and
+ * registers handed out by the image are views of the mapped region; they
+ * cannot be replaced, added or removed. Discrete inputs, input registers and
+ * FIFOs are held in memory as in <tt>SimpleProcessImage</tt>.
+ * <p>
+ * Writes go to the page cache and are written to disk by the operating
+ * system, also if the process dies. {@link #force()} or
+ * {@link #setForceInterval(long)} write them to the device, which protects
+ * them against a loss of power. {@link #close()} stores a checksum of the
+ * data and marks the file as closed cleanly.
+ * <p>
+ * Opening an existing file with the same layout restores its data without
+ * copying. The checksum is verified if the file was closed cleanly; a file
+ * that fails the check or has a different layout is cleared, and
+ * {@link #isRestored()} returns false.
+ */
+public class MappedProcessImage extends SimpleProcessImage {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedProcessImage.class);
+
+    private static final int MAGIC = 0x4D425049;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int COILS = 8;
+    private static final int REGISTERS = 12;
+    private static final int FILES = 16;
+    private static final int RECORDS_PER_FILE = 20;
+    private static final int FLAGS = 24;
+    private static final int CHECKSUM = 28;
+    private static final int FLAG_CLEAN = 1;
+
+    private final MappedByteBuffer mapped;
+    private final int coilCount;
+    private final int registerCount;
+    private final int registerOffset;
+    private final int dataSize;
+    private final DigitalOut[] coilViews;
+    private final Register[] registerViews;
+    private final RegisterFile[] mappedFiles;
+    private final Object coilLock = new Object();
+    private final boolean restored;
+    private volatile boolean closed;
+    private Thread forceThread;
+    private long forceIntervalNanos;
+
+    /**
+     * Opens or creates a process image in the given file.
+     *
+     * @param path           the file holding the image.
+     * @param coils          the number of coils.
+     * @param registers      the number of holding registers.
+     * @param files          the number of files.
+     * @param recordsPerFile the number of registers of each file.
+     *
+     * @throws IOException if the file cannot be mapped.
+     */
+    public MappedProcessImage(Path path, int coils, int registers, int files, int recordsPerFile) throws IOException {
+        this(path, coils, registers, files, recordsPerFile, 0);
+    }
+
+    /**
+     * Opens or creates a process image in the given file.
+     *
+     * @param path           the file holding the image.
+     * @param coils          the number of coils.
+     * @param registers      the number of holding registers.
+     * @param files          the number of files.
+     * @param recordsPerFile the number of registers of each file.
+     * @param unit           the unit ID of the image.
+     *
+     * @throws IOException if the file cannot be mapped.
+     */
+    public MappedProcessImage(Path path, int coils, int registers, int files, int recordsPerFile, int unit) throws IOException {
+        super(unit);
+        if (coils < 0 || coils > 65536 || registers < 0 || registers > 65536 || files < 0 || files > 10000 || recordsPerFile < 0 || recordsPerFile > 10000) {
+            throw new IllegalArgumentException("Invalid process image layout");
+        }
+        coilCount = coils;
+        registerCount = registers;
+
+        // Registers are aligned to even offsets
+        registerOffset = HEADER_SIZE + ((coils + 15) / 16) * 2;
+        int fileOffset = registerOffset + registers * 2;
+        dataSize = fileOffset - HEADER_SIZE + files * recordsPerFile * 2;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long existing = channel.size();
+
+            // The mapping stays valid after the channel is closed
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + dataSize);
+            restored = existing >= HEADER_SIZE + dataSize && restore(path, files, recordsPerFile);
+
+            // Drop the tail of an image that had a larger layout
+            if (existing > HEADER_SIZE + dataSize) {
+                channel.truncate(HEADER_SIZE + dataSize);
+            }
+        }
+        if (!restored) {
+            clearData();
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, VERSION);
+            mapped.putInt(COILS, coils);
+            mapped.putInt(REGISTERS, registers);
+            mapped.putInt(FILES, files);
+            mapped.putInt(RECORDS_PER_FILE, recordsPerFile);
+        }
+
+        // Until it is closed, the image may change at any time
+        mapped.putInt(FLAGS, 0);
+        mapped.putInt(CHECKSUM, 0);
+        mapped.force();
+
+        coilViews = new DigitalOut[coils];
+        registerViews = new Register[registers];
+        mappedFiles = new RegisterFile[files];
+        for (int i = 0; i < files; i++) {
+            ByteBuffer region = mapped.duplicate();
+            region.position(fileOffset + i * recordsPerFile * 2);
+            region.limit(region.position() + recordsPerFile * 2);
+            mappedFiles[i] = new MappedFile(i, region.slice().asShortBuffer());
+        }
+    }
+
+    /**
+     * Tests if the data was restored from the file when the image was opened.
+     *
+     * @return true if the data was restored, false if the image was cleared.
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    /**
+     * Returns the state of a coil.
+     *
+     * @param ref the coil address.
+     *
+     * @return true if the coil is set.
+     */
+    public boolean isCoilSet(int ref) {
+        checkRange(ref, coilCount);
+        return (mapped.get(HEADER_SIZE + (ref >>> 3)) & (1 << (ref & 7))) != 0;
+    }
+
+    /**
+     * Sets the state of a coil.
+     *
+     * @param ref the coil address.
+     * @param b   true to set the coil.
+     */
+    public void setCoil(int ref, boolean b) {
+        checkRange(ref, coilCount);
+        checkOpen();
+        int index = HEADER_SIZE + (ref >>> 3);
+        int mask = 1 << (ref & 7);
+        synchronized (coilLock) {
+            byte value = mapped.get(index);
+            mapped.put(index, (byte)(b ? value | mask : value & ~mask));
+        }
+        coilsChanged(ref, 1);
+    }
+
+    /**
+     * Returns the value of a holding register.
+     *
+     * @param ref the register address.
+     *
+     * @return the unsigned value.
+     */
+    public int getRegisterValue(int ref) {
+        checkRange(ref, registerCount);
+        return mapped.getShort(registerOffset + ref * 2) & 0xFFFF;
+    }
+
+    /**
+     * Sets the value of a holding register.
+     *
+     * @param ref   the register address.
+     * @param value the value, only the low 16 bits are used.
+     */
+    public void setRegisterValue(int ref, int value) {
+        checkRange(ref, registerCount);
+        checkOpen();
+        mapped.putShort(registerOffset + ref * 2, (short)value);
+        registersChanged(ref, 1);
+    }
+
+    /**
+     * Writes all changes to the storage device.
+     */
+    public void force() {
+        mapped.force();
+    }
+
+    /**
+     * Starts or stops writing changes to the storage device periodically
+     * on a background thread.
+     *
+     * @param millis the interval in milliseconds, 0 to stop.
+     */
+    public synchronized void setForceInterval(long millis) {
+        checkOpen();
+        forceIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+        if (forceIntervalNanos > 0 && forceThread == null) {
+            forceThread = new Thread(this::runForce, "Modbus process image sync");
+            forceThread.setDaemon(true);
+            forceThread.start();
+        }
+        else if (forceIntervalNanos == 0 && forceThread != null) {
+            LockSupport.unpark(forceThread);
+            forceThread = null;
+        }
+    }
+
+    /**
+     * Stops periodic writing, stores the checksum of the data and marks the
+     * file as closed cleanly. The image must not be changed afterwards.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (forceThread != null) {
+                LockSupport.unpark(forceThread);
+                forceThread = null;
+            }
+        }
+        synchronized (coilLock) {
+            mapped.putInt(CHECKSUM, checksum());
+            mapped.putInt(FLAGS, FLAG_CLEAN);
+            mapped.force();
+        }
+    }
+
+    @Override
+    protected void checkRegisterRange(int ref, int count) {
+        if (ref < 0 || count < 0 || ref + count > registerCount) {
+            throw new IllegalAddressException();
+        }
+    }
+
+    @Override
+    protected void checkDigitalOutRange(int ref, int count) {
+        if (ref < 0 || count < 0 || ref + count > coilCount) {
+            throw new IllegalAddressException();
+        }
+    }
+
+    @Override
+    protected void storeRegisters(int ref, byte[] src, int index, int count) {
+        checkOpen();
+
+        // The mapped registers are held in Modbus byte order
+        ByteBuffer region = mapped.duplicate();
+        region.position(registerOffset + ref * 2);
+        region.put(src, index, count * 2);
+    }
+
+    @Override
+    protected void storeCoils(int ref, BitVector coils) {
+        checkOpen();
+        int count = coils.size();
+        synchronized (coilLock) {
+            for (int bit = 0; bit < count; ) {
+                int dest = ref + bit;
+                int shift = dest & 7;
+                int n = Math.min(8 - shift, count - bit);
+                int mask = ((1 << n) - 1) << shift;
+                int bits = (int)coils.getBits(bit, n) << shift;
+                int index = HEADER_SIZE + (dest >>> 3);
+                mapped.put(index, (byte)((mapped.get(index) & ~mask) | (bits & mask)));
+                bit += n;
+            }
+        }
+    }
+
+    @Override
+    public DigitalOut[] getDigitalOutRange(int ref, int count) {
+        if (ref < 0 || count < 0 || ref + count > coilCount) {
+            throw new IllegalAddressException();
+        }
+        DigitalOut[] douts = new DigitalOut[count];
+        for (int i = 0; i < count; i++) {
+            douts[i] = getDigitalOut(ref + i);
+        }
+        return douts;
+    }
+
+    @Override
+    public DigitalOut getDigitalOut(int ref) throws IllegalAddressException {
+        checkRange(ref, coilCount);
+        DigitalOut view = coilViews[ref];
+        if (view == null) {
+            view = new MappedCoil(ref);
+            coilViews[ref] = view;
+        }
+        return view;
+    }
+
+    @Override
+    public int getDigitalOutCount() {
+        return coilCount;
+    }
+
+    @Override
+    public Register[] getRegisterRange(int ref, int count) {
+        if (ref < 0 || count < 0 || ref + count > registerCount) {
+            throw new IllegalAddressException();
+        }
+        Register[] regs = new Register[count];
+        for (int i = 0; i < count; i++) {
+            regs[i] = getRegister(ref + i);
+        }
+        return regs;
+    }
+
+    @Override
+    public Register getRegister(int ref) throws IllegalAddressException {
+        checkRange(ref, registerCount);
+        Register view = registerViews[ref];
+        if (view == null) {
+            view = new MappedRegister(ref);
+            registerViews[ref] = view;
+        }
+        return view;
+    }
+
+    @Override
+    public int getRegisterCount() {
+        return registerCount;
+    }
+
+    @Override
+    public File getFile(int ref) {
+        checkRange(ref, mappedFiles.length);
+        return mappedFiles[ref];
+    }
+
+    @Override
+    public File getFileByNumber(int ref) {
+        return getFile(ref);
+    }
+
+    @Override
+    public int getFileCount() {
+        return mappedFiles.length;
+    }
+
+    @Override
+    public void setDigitalOut(int ref, DigitalOut out) {
+        throw new UnsupportedOperationException("The coils of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void addDigitalOut(DigitalOut out) {
+        throw new UnsupportedOperationException("The coils of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void addDigitalOut(int ref, DigitalOut dout) {
+        throw new UnsupportedOperationException("The coils of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void removeDigitalOut(DigitalOut out) {
+        throw new UnsupportedOperationException("The coils of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void setRegister(int ref, Register reg) {
+        throw new UnsupportedOperationException("The registers of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void addRegister(Register reg) {
+        throw new UnsupportedOperationException("The registers of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void addRegister(int ref, Register reg) {
+        throw new UnsupportedOperationException("The registers of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void removeRegister(Register reg) {
+        throw new UnsupportedOperationException("The registers of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void setFile(int ref, File file) {
+        throw new UnsupportedOperationException("The files of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void addFile(File file) {
+        throw new UnsupportedOperationException("The files of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void addFile(int ref, File file) {
+        throw new UnsupportedOperationException("The files of a MappedProcessImage are fixed");
+    }
+
+    @Override
+    public void removeFile(File file) {
+        throw new UnsupportedOperationException("The files of a MappedProcessImage are fixed");
+    }
+
+    /**
+     * Checks the header of an existing file.
+     *
+     * @return true if the data can be used.
+     */
+    private boolean restore(Path path, int files, int recordsPerFile) {
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                || mapped.getInt(COILS) != coilCount || mapped.getInt(REGISTERS) != registerCount
+                || mapped.getInt(FILES) != files || mapped.getInt(RECORDS_PER_FILE) != recordsPerFile) {
+            logger.warn("Process image {} has a different layout - clearing it", path);
+            return false;
+        }
+        if ((mapped.getInt(FLAGS) & FLAG_CLEAN) == 0) {
+            logger.warn("Process image {} was not closed cleanly - restoring it unverified", path);
+            return true;
+        }
+        if (mapped.getInt(CHECKSUM) != checksum()) {
+            logger.error("Process image {} is corrupt - clearing it", path);
+            return false;
+        }
+        logger.debug("Process image {} restored", path);
+        return true;
+    }
+
+    private int checksum() {
+        ByteBuffer data = mapped.duplicate();
+        data.position(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int)crc.getValue();
+    }
+
+    private void clearData() {
+        byte[] zeros = new byte[4096];
+        ByteBuffer data = mapped.duplicate();
+        data.position(HEADER_SIZE);
+        while (data.hasRemaining()) {
+            data.put(zeros, 0, Math.min(zeros.length, data.remaining()));
+        }
+    }
+
+    private void runForce() {
+        long next = System.nanoTime();
+        while (true) {
+            long interval;
+            synchronized (this) {
+                if (forceThread != Thread.currentThread()) {
+                    return;
+                }
+                interval = forceIntervalNanos;
+            }
+            next += interval;
+            for (long wait = next - System.nanoTime(); wait > 0; wait = next - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+                synchronized (this) {
+                    if (forceThread != Thread.currentThread()) {
+                        return;
+                    }
+                }
+            }
+            try {
+                mapped.force();
+            }
+            catch (Exception ex) {
+                logger.error("Cannot write process image", ex);
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Process image is closed");
+        }
+    }
+
+    private static void checkRange(int ref, int count) {
+        if (ref < 0 || ref >= count) {
+            throw new IllegalAddressException();
+        }
+    }
+
+    /**
+     * A coil of the mapped region
+     */
+    private class MappedCoil implements DigitalOut {
+        private final int ref;
+
+        MappedCoil(int ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public boolean isSet() {
+            return isCoilSet(ref);
+        }
+
+        @Override
+        public void set(boolean b) {
+            setCoil(ref, b);
+        }
+    }
+
+    /**
+     * A holding register of the mapped region
+     */
+    private class MappedRegister implements Register {
+        private final int ref;
+
+        MappedRegister(int ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public int getValue() {
+            return getRegisterValue(ref);
+        }
+
+        @Override
+        public int toUnsignedShort() {
+            return getRegisterValue(ref);
+        }
+
+        @Override
+        public short toShort() {
+            return (short)getRegisterValue(ref);
+        }
+
+        @Override
+        public byte[] toBytes() {
+            int value = getRegisterValue(ref);
+            return new byte[]{(byte)(value >> 8), (byte)value};
+        }
+
+        @Override
+        public void setValue(int v) {
+            setRegisterValue(ref, v);
+        }
+
+        @Override
+        public void setValue(short s) {
+            setRegisterValue(ref, s);
+        }
+
+        @Override
+        public void setValue(byte[] bytes) {
+            if (bytes.length < 2) {
+                throw new IllegalArgumentException();
+            }
+            setRegisterValue(ref, (bytes[0] & 0xFF) << 8 | (bytes[1] & 0xFF));
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getRegisterValue(ref));
+        }
+    }
+
+    /**
+     * A file of the mapped region, rejecting writes once the image is closed
+     */
+    private class MappedFile extends RegisterFile {
+
+        MappedFile(int fileNumber, java.nio.ShortBuffer registers) {
+            super(fileNumber, registers);
+        }
+
+        @Override
+        public void setRegister(int ref, int value) {
+            checkOpen();
+            super.setRegister(ref, value);
+        }
+
+        @Override
+        public void writeRegisters(int record, int count, byte[] src, int offset) {
+            checkOpen();
+            super.writeRegisters(record, count, src, offset);
+        }
+
+        @Override
+        public File setRecord(int i, Record record) {
+            checkOpen();
+            return super.setRecord(i, record);
+        }
+    }
+}
@@ -17,20 +17,30 @@ package com.omnixone.modbuslibrary.procimg;
 
 import com.omnixone.modbuslibrary.util.Observable;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * Class implementing an observable digital output.
+ * <p>
+ * Observers are called on the writing thread for every write. A
+ * {@link ProcessImageChangeBus} delivers coalesced changes on its own thread
+ * instead.
  *
  * @author Dieter Wimberger
  * @author Steve O'Hara (4NG)
  * @version 2.0 (March 2016)
  */
-public class ObservableDigitalOut extends Observable implements DigitalOut {
+public class ObservableDigitalOut extends Observable implements DigitalOut, Versioned {
+
+    private static final AtomicLongFieldUpdater<ObservableDigitalOut> VERSION = AtomicLongFieldUpdater.newUpdater(ObservableDigitalOut.class, "version");
 
     /**
      * A boolean holding the state of this digital out.
      */
     protected boolean set;
 
+    private volatile long version;
+
     /**
      * Determine if the digital output is set.
      *
@@ -41,6 +51,11 @@ public class ObservableDigitalOut extends Observable implements DigitalOut {
         return set;
     }
 
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
     /**
      * Set or clear the digital output.  Will notify any registered
      * observers.
@@ -48,6 +63,7 @@ public class ObservableDigitalOut extends Observable implements DigitalOut {
     @Override
     public void set(boolean b) {
         set = b;
+        VERSION.incrementAndGet(this);
         notifyObservers("value");
     }
 }
@@ -19,12 +19,16 @@ import com.omnixone.modbuslibrary.util.Observable;
 
 /**
  * Class implementing an observable register.
+ * <p>
+ * Observers are called on the writing thread for every write. A
+ * {@link ProcessImageChangeBus} delivers coalesced changes on its own thread
+ * instead.
  *
  * @author Dieter Wimberger
  * @author Steve O'Hara (4NG)
  * @version 2.0 (March 2016)
  */
-public class ObservableRegister extends Observable implements Register {
+public class ObservableRegister extends Observable implements Register, Versioned {
 
     private static final String VALUE = "value";
 
@@ -33,6 +37,8 @@ public class ObservableRegister extends Observable implements Register {
      */
     protected short register;
 
+    private volatile long version;
+
     @Override
     public synchronized int getValue() {
         return register & 0xFFFF;
@@ -53,9 +59,15 @@ public class ObservableRegister extends Observable implements Register {
         return new byte[]{(byte)(register >> 8), (byte)(register & 0xFF)};
     }
 
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
     @Override
     public synchronized void setValue(short s) {
         register = s;
+        version++;
         notifyObservers(VALUE);
     }
 
@@ -66,6 +78,7 @@ public class ObservableRegister extends Observable implements Register {
         }
         else {
             register = (short)(((short)(bytes[0] << 8)) | (((short)(bytes[1])) & 0xFF));
+            version++;
             notifyObservers(VALUE);
         }
     }
@@ -73,6 +86,7 @@ public class ObservableRegister extends Observable implements Register {
     @Override
     public synchronized void setValue(int v) {
         register = (short)v;
+        version++;
         notifyObservers(VALUE);
     }
 }
\ No newline at end of file
@@ -15,6 +15,8 @@
  */
 package com.omnixone.modbuslibrary.procimg;
 
+import com.omnixone.modbuslibrary.util.BitVector;
+
 /**
  * Interface defining a process image in an object oriented manner.
  * <p>
@@ -158,6 +160,115 @@ public interface ProcessImage {
      */
     int getRegisterCount();
 
+    /**
+     * Copies the values of a range of <tt>InputRegister</tt> instances.
+     * <p>
+     * Implementations that support concurrent updates return a consistent
+     * snapshot, so values spanning several registers are never torn. The
+     * default implementation reads the registers one after the other.
+     *
+     * @param offset the start offset.
+     * @param values the array receiving the unsigned register values.
+     * @param index  the index of the first value in the array.
+     * @param count  the number of registers.
+     *
+     * @throws IllegalAddressException if the range from offset to offset+count is non existant.
+     */
+    default void readInputRegisters(int offset, int[] values, int index, int count) throws IllegalAddressException {
+        InputRegister[] regs = getInputRegisterRange(offset, count);
+        for (int i = 0; i < count; i++) {
+            values[index + i] = regs[i].toUnsignedShort();
+        }
+    }
+
+    /**
+     * Copies the values of a range of <tt>Register</tt> instances.
+     * <p>
+     * Implementations that support concurrent updates return a consistent
+     * snapshot, so values spanning several registers are never torn. The
+     * default implementation reads the registers one after the other.
+     *
+     * @param offset the start offset.
+     * @param values the array receiving the unsigned register values.
+     * @param index  the index of the first value in the array.
+     * @param count  the number of registers.
+     *
+     * @throws IllegalAddressException if the range from offset to offset+count is non existant.
+     */
+    default void readRegisters(int offset, int[] values, int index, int count) throws IllegalAddressException {
+        Register[] regs = getRegisterRange(offset, count);
+        for (int i = 0; i < count; i++) {
+            values[index + i] = regs[i].toUnsignedShort();
+        }
+    }
+
+    /**
+     * Sets the values of a range of <tt>Register</tt> instances.
+     * <p>
+     * Implementations that support concurrent updates make the new values
+     * visible to {@link #readRegisters(int, int[], int, int)} all at once.
+     * The default implementation writes the registers one after the other.
+     *
+     * @param offset the start offset.
+     * @param values the array holding the values, only the low 16 bits are used.
+     * @param index  the index of the first value in the array.
+     * @param count  the number of registers.
+     *
+     * @throws IllegalAddressException if the range from offset to offset+count is non existant.
+     */
+    default void writeRegisters(int offset, int[] values, int index, int count) throws IllegalAddressException {
+        Register[] regs = getRegisterRange(offset, count);
+        for (int i = 0; i < count; i++) {
+            regs[i].setValue(values[index + i]);
+        }
+    }
+
+    /**
+     * Sets the values of a range of <tt>Register</tt> instances from
+     * register bytes in Modbus (big endian) order, as received in a write
+     * request.
+     * <p>
+     * Implementations holding their registers in memory apply the range as
+     * one copy. The default implementation writes the registers one after
+     * the other.
+     *
+     * @param offset the start offset.
+     * @param src    the array holding two bytes per register.
+     * @param index  the index of the first byte in the array.
+     * @param count  the number of registers.
+     *
+     * @throws IllegalAddressException if the range from offset to offset+count is non existant.
+     */
+    default void writeRegisters(int offset, byte[] src, int index, int count) throws IllegalAddressException {
+        Register[] regs = getRegisterRange(offset, count);
+        for (int i = 0; i < count; i++) {
+            regs[i].setValue((src[index + 2 * i] & 0xFF) << 8 | (src[index + 2 * i + 1] & 0xFF));
+        }
+    }
+
+    /**
+     * Sets the states of a range of <tt>DigitalOut</tt> instances, one for
+     * each bit of the given vector.
+     * <p>
+     * Implementations holding their coils in memory apply the range as one
+     * copy. The default implementation sets the coils one after the other.
+     *
+     * @param offset the start offset.
+     * @param coils  the states of the coils.
+     *
+     * @throws IllegalAddressException if the range from offset to offset+count is non existant.
+     */
+    default void writeCoils(int offset, BitVector coils) throws IllegalAddressException {
+        DigitalOut[] douts = getDigitalOutRange(offset, coils.size());
+        for (int i = 0; i < douts.length; i += 64) {
+            int n = Math.min(64, douts.length - i);
+            long bits = coils.getBits(i, n);
+            for (int j = 0; j < n; j++, bits >>>= 1) {
+                douts[i + j].set((bits & 1) != 0);
+            }
+        }
+    }
+
     /**
      * Returns the <tt>File</tt> instance at the given reference.
      * <p>
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.procimg;
+
+/**
+ * Class describing a contiguous range of coils or holding registers that
+ * changed, with the values before and after the change. Coil values are
+ * <tt>0</tt> or <tt>1</tt>.
+ * <p>
+ * The range may contain points that were written with their previous value;
+ * {@link #isChanged(int)} tells them apart.
+ */
+public final class ProcessImageChange {
+
+    /**
+     * Kind of points a change refers to
+     */
+    public enum Type {
+        COIL, HOLDING_REGISTER
+    }
+
+    private final Type type;
+    private final int reference;
+    private final int[] oldValues;
+    private final int[] newValues;
+
+    ProcessImageChange(Type type, int reference, int[] oldValues, int[] newValues) {
+        this.type = type;
+        this.reference = reference;
+        this.oldValues = oldValues;
+        this.newValues = newValues;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the address of the first point of the range.
+     *
+     * @return the address.
+     */
+    public int getReference() {
+        return reference;
+    }
+
+    public int getCount() {
+        return newValues.length;
+    }
+
+    /**
+     * Returns the value a point had at the previous notification.
+     *
+     * @param index the index of the point in the range.
+     *
+     * @return the old value.
+     */
+    public int getOldValue(int index) {
+        return oldValues[index];
+    }
+
+    /**
+     * Returns the value of a point when the change was collected.
+     *
+     * @param index the index of the point in the range.
+     *
+     * @return the new value.
+     */
+    public int getNewValue(int index) {
+        return newValues[index];
+    }
+
+    /**
+     * Tests if the value of a point differs from the previous notification.
+     *
+     * @param index the index of the point in the range.
+     *
+     * @return true if the value changed.
+     */
+    public boolean isChanged(int index) {
+        return oldValues[index] != newValues[index];
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + reference + ".." + (reference + newValues.length - 1);
+    }
+}
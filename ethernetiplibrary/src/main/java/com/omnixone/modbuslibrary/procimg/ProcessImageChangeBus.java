@@ -0,0 +1,413 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.procimg;
+
+import com.omnixone.modbuslibrary.util.BitVector;
+import com.omnixone.modbuslibrary.util.Observable;
+import com.omnixone.modbuslibrary.util.Observer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Class delivering the changes of the coils and holding registers of a
+ * process image to listeners on a dispatcher thread.
+ * <p>
+ * Writing a point only marks its address in a dirty bitmap. The dispatcher
+ * waits for the writes of a request to settle, then delivers one
+ * {@link ProcessImageChange} per contiguous range of dirty points, holding
+ * the values of the previous notification and the current values. Several
+ * writes to a point between two notifications coalesce into one, and slow
+ * listeners delay later notifications rather than Modbus requests.
+ * <p>
+ * When started, the bus observes the <tt>ObservableRegister</tt> and
+ * <tt>ObservableDigitalOut</tt> instances of the image; their callbacks
+ * do nothing but mark the point. A <tt>SimpleProcessImage</tt> and its
+ * subclasses also mark the ranges of their bulk writes, with one call per
+ * write. Changes of other points, or of points added later, are posted with
+ * {@link #coilsChanged(int, int)} and {@link #registersChanged(int, int)}.
+ * The bitmaps grow to cover points added after construction; the first
+ * notification of such a point reports 0 as its previous value.
+ */
+public class ProcessImageChangeBus {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessImageChangeBus.class);
+
+    /**
+     * Default time the dispatcher lets writes settle before collecting them
+     */
+    public static final long DEFAULT_SETTLE_MICROS = 500;
+
+    private static final int MAX_POINTS = 65536;
+
+    private final ProcessImage image;
+    private int coilCount;
+    private int registerCount;
+    private BitVector dirtyCoils;
+    private BitVector dirtyRegisters;
+
+    // Owned by the dispatcher thread, or by start() while it is not running
+    private BitVector collectedCoils = new BitVector(0);
+    private BitVector collectedRegisters = new BitVector(0);
+    private BitVector coilShadow = new BitVector(0);
+    private int[] registerShadow = new int[0];
+    private final List<ProcessImageChangeListener> listeners = new CopyOnWriteArrayList<ProcessImageChangeListener>();
+    private final List<Observable> observed = new ArrayList<Observable>();
+    private final List<Observer> observers = new ArrayList<Observer>();
+    private final Object lifecycleLock = new Object();
+    private boolean dirty;
+    private volatile long settleNanos = TimeUnit.MICROSECONDS.toNanos(DEFAULT_SETTLE_MICROS);
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * Constructs a bus for the coils and holding registers the image has now.
+     *
+     * @param image the process image.
+     */
+    public ProcessImageChangeBus(ProcessImage image) {
+        this.image = image;
+        coilCount = image.getDigitalOutCount();
+        registerCount = image.getRegisterCount();
+        dirtyCoils = new BitVector(coilCount);
+        dirtyRegisters = new BitVector(registerCount);
+    }
+
+    public void addListener(ProcessImageChangeListener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(ProcessImageChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets the time the dispatcher waits after the first write before it
+     * collects the changes, so the writes of one request are delivered
+     * together.
+     *
+     * @param micros the time in microseconds, 0 to collect at once.
+     */
+    public void setSettleTime(long micros) {
+        settleNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, micros));
+    }
+
+    /**
+     * Takes the current values as the reference for the first notification,
+     * observes the observable points of the image and starts the dispatcher
+     * thread. Holes in the address ranges of the image are skipped.
+     */
+    public void start() {
+        synchronized (lifecycleLock) {
+            if (running) {
+                return;
+            }
+            int coils;
+            int registers;
+            synchronized (this) {
+                dirtyCoils.clear();
+                dirtyRegisters.clear();
+                dirty = false;
+                coils = coilCount;
+                registers = registerCount;
+            }
+            ensureCapacity(coils, registers);
+
+            // Points are observed without holding the bus, as writers hold their point while marking it
+            try {
+                for (int i = 0; i < coils; i++) {
+                    DigitalOut coil;
+                    try {
+                        coil = image.getDigitalOut(i);
+                    }
+                    catch (IllegalAddressException e) {
+                        continue;
+                    }
+                    if (coil instanceof Observable) {
+                        final int ref = i;
+                        observe((Observable)coil, (o, arg) -> coilsChanged(ref, 1));
+                    }
+                    coilShadow.setBit(i, coil.isSet());
+                }
+                for (int i = 0; i < registers; i++) {
+                    Register register;
+                    try {
+                        register = image.getRegister(i);
+                    }
+                    catch (IllegalAddressException e) {
+                        continue;
+                    }
+                    if (register instanceof Observable) {
+                        final int ref = i;
+                        observe((Observable)register, (o, arg) -> registersChanged(ref, 1));
+                    }
+                    registerShadow[i] = register.toUnsignedShort();
+                }
+            }
+            catch (RuntimeException e) {
+                unobserve();
+                throw e;
+            }
+
+            synchronized (this) {
+                running = true;
+            }
+            if (image instanceof SimpleProcessImage) {
+                ((SimpleProcessImage)image).setChangeBus(this);
+            }
+            thread = new Thread(this::run, "Modbus process image change bus");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops observing the image and stops the dispatcher thread. Pending
+     * changes are not delivered.
+     */
+    public void stop() {
+        synchronized (lifecycleLock) {
+            if (!running) {
+                return;
+            }
+            synchronized (this) {
+                running = false;
+                notifyAll();
+            }
+            if (image instanceof SimpleProcessImage) {
+                ((SimpleProcessImage)image).setChangeBus(null);
+            }
+            unobserve();
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Marks a range of coils as changed. Points beyond the Modbus address
+     * range are ignored, as this is called after the write was applied.
+     *
+     * @param ref   the address of the first coil.
+     * @param count the number of coils.
+     */
+    public synchronized void coilsChanged(int ref, int count) {
+        if (ref < 0 || count <= 0 || ref >= MAX_POINTS) {
+            return;
+        }
+        int end = ref + Math.min(count, MAX_POINTS - ref);
+        if (end > coilCount) {
+            dirtyCoils = grow(dirtyCoils, end);
+            coilCount = end;
+        }
+        dirtyCoils.set(ref, end);
+        wake();
+    }
+
+    /**
+     * Marks a range of holding registers as changed. Points beyond the
+     * Modbus address range are ignored, as this is called after the write
+     * was applied.
+     *
+     * @param ref   the address of the first register.
+     * @param count the number of registers.
+     */
+    public synchronized void registersChanged(int ref, int count) {
+        if (ref < 0 || count <= 0 || ref >= MAX_POINTS) {
+            return;
+        }
+        int end = ref + Math.min(count, MAX_POINTS - ref);
+        if (end > registerCount) {
+            dirtyRegisters = grow(dirtyRegisters, end);
+            registerCount = end;
+        }
+        dirtyRegisters.set(ref, end);
+        wake();
+    }
+
+    private static BitVector grow(BitVector bits, int size) {
+        BitVector grown = new BitVector(size);
+        grown.copyFrom(bits, 0, 0, bits.size());
+        return grown;
+    }
+
+    private void ensureCapacity(int coils, int registers) {
+        if (collectedCoils.size() < coils) {
+            collectedCoils = new BitVector(coils);
+            coilShadow = grow(coilShadow, coils);
+        }
+        if (collectedRegisters.size() < registers) {
+            collectedRegisters = new BitVector(registers);
+            registerShadow = Arrays.copyOf(registerShadow, registers);
+        }
+    }
+
+    private void observe(Observable observable, Observer observer) {
+        observable.addObserver(observer);
+        observed.add(observable);
+        observers.add(observer);
+    }
+
+    private void unobserve() {
+        for (int i = 0; i < observed.size(); i++) {
+            observed.get(i).removeObserver(observers.get(i));
+        }
+        observed.clear();
+        observers.clear();
+    }
+
+    private void wake() {
+        if (!dirty) {
+            dirty = true;
+            notifyAll();
+        }
+    }
+
+    private void run() {
+        List<ProcessImageChange> changes = new ArrayList<ProcessImageChange>();
+        while (true) {
+            synchronized (this) {
+                while (running && !dirty) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+            }
+
+            // Let the request that caused the first mark finish its writes
+            long settle = settleNanos;
+            if (settle > 0) {
+                LockSupport.parkNanos(settle);
+            }
+            synchronized (this) {
+                if (!running) {
+                    return;
+                }
+                ensureCapacity(coilCount, registerCount);
+                if (coilCount > 0) {
+                    collectedCoils.copyFrom(dirtyCoils, 0, 0, coilCount);
+                    dirtyCoils.clear();
+                }
+                if (registerCount > 0) {
+                    collectedRegisters.copyFrom(dirtyRegisters, 0, 0, registerCount);
+                    dirtyRegisters.clear();
+                }
+                dirty = false;
+            }
+
+            // Points are read without holding the bus, as writers hold their point while marking it
+            collectCoils(changes);
+            collectRegisters(changes);
+            for (ProcessImageChange change : changes) {
+                for (ProcessImageChangeListener listener : listeners) {
+                    try {
+                        listener.processImageChanged(change);
+                    }
+                    catch (Exception ex) {
+                        logger.error("Process image change listener failed for {}", change, ex);
+                    }
+                }
+            }
+            changes.clear();
+        }
+    }
+
+    private void collectCoils(List<ProcessImageChange> changes) {
+        for (int start = collectedCoils.nextSetBit(0); start >= 0; start = collectedCoils.nextSetBit(start)) {
+            int end = collectedCoils.nextClearBit(start);
+            if (end < 0) {
+                end = collectedCoils.size();
+            }
+            int[] oldValues = new int[end - start];
+            int[] newValues = new int[end - start];
+            boolean changed = false;
+            for (int i = 0; i < oldValues.length; i++) {
+                oldValues[i] = coilShadow.getBit(start + i) ? 1 : 0;
+                newValues[i] = isCoilSet(start + i, oldValues[i] != 0) ? 1 : 0;
+                coilShadow.setBit(start + i, newValues[i] != 0);
+                changed |= oldValues[i] != newValues[i];
+            }
+            if (changed) {
+                changes.add(new ProcessImageChange(ProcessImageChange.Type.COIL, start, oldValues, newValues));
+            }
+            start = end;
+        }
+    }
+
+    private void collectRegisters(List<ProcessImageChange> changes) {
+        for (int start = collectedRegisters.nextSetBit(0); start >= 0; start = collectedRegisters.nextSetBit(start)) {
+            int end = collectedRegisters.nextClearBit(start);
+            if (end < 0) {
+                end = collectedRegisters.size();
+            }
+            int[] oldValues = new int[end - start];
+            int[] newValues = new int[end - start];
+            System.arraycopy(registerShadow, start, oldValues, 0, oldValues.length);
+            try {
+                image.readRegisters(start, newValues, 0, newValues.length);
+            }
+            catch (IllegalAddressException e) {
+                // The range spans a hole, read the legal registers one by one
+                for (int i = 0; i < newValues.length; i++) {
+                    try {
+                        newValues[i] = image.getRegister(start + i).toUnsignedShort();
+                    }
+                    catch (IllegalAddressException hole) {
+                        newValues[i] = oldValues[i];
+                    }
+                }
+            }
+            System.arraycopy(newValues, 0, registerShadow, start, newValues.length);
+            if (!Arrays.equals(oldValues, newValues)) {
+                changes.add(new ProcessImageChange(ProcessImageChange.Type.HOLDING_REGISTER, start, oldValues, newValues));
+            }
+            start = end;
+        }
+    }
+
+    private boolean isCoilSet(int ref, boolean fallback) {
+        try {
+            return image.getDigitalOut(ref).isSet();
+        }
+        catch (IllegalAddressException e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.procimg;
+
+/**
+ * Interface for receiving the changes delivered by a
+ * {@link ProcessImageChangeBus}.
+ */
+public interface ProcessImageChangeListener {
+
+    /**
+     * Called on the dispatcher thread of the bus for each range of points
+     * that changed since the previous notification.
+     *
+     * @param change the changed range.
+     */
+    void processImageChanged(ProcessImageChange change);
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.procimg;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class implementing a <tt>File</tt> that stores its registers in a
+ * compact buffer instead of <tt>Record</tt> and <tt>Register</tt> objects.
+ * <p>
+ * As in the Modbus specification, every record holds one register and the
+ * record number is the address of the first register to read or write, so a
+ * request may cover any range of consecutive registers. The registers are
+ * held in a <tt>short[]</tt> or in a memory mapped file, which keeps large
+ * files such as logs or recipe sets on disk and shares them with other
+ * processes. The bytes of a mapped file are the registers, high byte first.
+ * <p>
+ * Reads and writes of register ranges are atomic with respect to each other.
+ * The record returned by {@link #getRecord(int)} is a view of the registers
+ * from the record number to the end of the file, and {@link #setRecord(int, Record)}
+ * copies the values of a record into the registers.
+ */
+public class RegisterFile extends File {
+
+    private final ShortBuffer registers;
+    private final MappedByteBuffer mapped;
+
+    /**
+     * Constructs a file of the given number of registers, all zero.
+     *
+     * @param fileNumber the file number.
+     * @param records    the number of registers.
+     */
+    public RegisterFile(int fileNumber, int records) {
+        this(fileNumber, new short[records]);
+    }
+
+    /**
+     * Constructs a file holding its registers in the given array. Changes
+     * of the array are visible to masters reading the file.
+     *
+     * @param fileNumber the file number.
+     * @param registers  the registers.
+     */
+    public RegisterFile(int fileNumber, short[] registers) {
+        super(fileNumber, registers.length);
+        this.registers = ShortBuffer.wrap(registers);
+        mapped = null;
+    }
+
+    /**
+     * Constructs a file holding its registers in a region of a buffer owned
+     * by a process image.
+     *
+     * @param fileNumber the file number.
+     * @param registers  the registers.
+     */
+    RegisterFile(int fileNumber, ShortBuffer registers) {
+        super(fileNumber, registers.capacity());
+        this.registers = registers;
+        mapped = null;
+    }
+
+    private RegisterFile(int fileNumber, int records, MappedByteBuffer mapped) {
+        super(fileNumber, records);
+        this.mapped = mapped;
+        registers = mapped.asShortBuffer();
+    }
+
+    /**
+     * Creates a file mapping its registers to a file on disk. The file is
+     * created or extended as needed.
+     *
+     * @param fileNumber the file number.
+     * @param path       the file holding the registers.
+     * @param records    the number of registers.
+     *
+     * @return the file.
+     *
+     * @throws IOException if the file cannot be mapped.
+     */
+    public static RegisterFile map(int fileNumber, Path path, int records) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return new RegisterFile(fileNumber, records, channel.map(FileChannel.MapMode.READ_WRITE, 0, records * 2L));
+        }
+    }
+
+    /**
+     * Returns the value of a register.
+     *
+     * @param ref the register address.
+     *
+     * @return the unsigned value.
+     */
+    public synchronized int getRegister(int ref) {
+        checkRange(ref, 1);
+        return registers.get(ref) & 0xFFFF;
+    }
+
+    /**
+     * Sets the value of a register.
+     *
+     * @param ref   the register address.
+     * @param value the value, only the low 16 bits are used.
+     */
+    public synchronized void setRegister(int ref, int value) {
+        checkRange(ref, 1);
+        registers.put(ref, (short)value);
+    }
+
+    /**
+     * Writes changes of a memory mapped file to disk. Does nothing for
+     * files held in memory.
+     */
+    public void force() {
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    @Override
+    public Record getRecord(int i) {
+        checkRange(i, 1);
+        return new RecordView(i);
+    }
+
+    @Override
+    public synchronized File setRecord(int i, Record record) {
+        checkRange(i, record.getRegisterCount());
+        for (int j = 0; j < record.getRegisterCount(); j++) {
+            Register register = record.getRegister(j);
+            if (register != null) {
+                registers.put(i + j, (short)register.getValue());
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void readRegisters(int record, int count, byte[] dest, int offset) {
+        checkRange(record, count);
+        for (int i = record; i < record + count; i++) {
+            short value = registers.get(i);
+            dest[offset++] = (byte)(value >> 8);
+            dest[offset++] = (byte)value;
+        }
+    }
+
+    @Override
+    public synchronized void writeRegisters(int record, int count, byte[] src, int offset) {
+        checkRange(record, count);
+        for (int i = record; i < record + count; i++, offset += 2) {
+            registers.put(i, (short)((src[offset] << 8) | (src[offset + 1] & 0xFF)));
+        }
+    }
+
+    private void checkRange(int ref, int count) {
+        if (ref < 0 || count < 0 || ref + count > getRecordCount()) {
+            throw new IllegalAddressException();
+        }
+    }
+
+    /**
+     * Record backed by the registers of the file
+     */
+    private class RecordView extends Record {
+        private final int start;
+
+        RecordView(int start) {
+            super(start, 0);
+            this.start = start;
+        }
+
+        @Override
+        public int getRegisterCount() {
+            return getRecordCount() - start;
+        }
+
+        @Override
+        public Register getRegister(int register) {
+            if (register < 0 || register >= getRegisterCount()) {
+                throw new IllegalAddressException();
+            }
+            return new FileRegister(start + register);
+        }
+
+        @Override
+        public Record setRegister(int ref, Register register) {
+            if (ref < 0 || ref >= getRegisterCount()) {
+                throw new IllegalAddressException();
+            }
+            RegisterFile.this.setRegister(start + ref, register.getValue());
+            return this;
+        }
+    }
+
+    /**
+     * Register backed by the file
+     */
+    private class FileRegister implements Register {
+        private final int ref;
+
+        FileRegister(int ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public int getValue() {
+            return getRegister(ref);
+        }
+
+        @Override
+        public int toUnsignedShort() {
+            return getRegister(ref);
+        }
+
+        @Override
+        public short toShort() {
+            return (short)getRegister(ref);
+        }
+
+        @Override
+        public byte[] toBytes() {
+            int value = getRegister(ref);
+            return new byte[]{(byte)(value >> 8), (byte)value};
+        }
+
+        @Override
+        public void setValue(int v) {
+            setRegister(ref, v);
+        }
+
+        @Override
+        public void setValue(short s) {
+            setRegister(ref, s);
+        }
+
+        @Override
+        public void setValue(byte[] bytes) {
+            if (bytes.length < 2) {
+                throw new IllegalArgumentException();
+            }
+            setRegister(ref, (bytes[0] & 0xFF) << 8 | (bytes[1] & 0xFF));
+        }
+    }
+}
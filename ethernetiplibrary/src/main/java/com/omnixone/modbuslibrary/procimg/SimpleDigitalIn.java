@@ -15,6 +15,8 @@
  */
 package com.omnixone.modbuslibrary.procimg;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * Class implementing a simple <tt>DigitalIn</tt>.
  *
@@ -22,13 +24,17 @@ package com.omnixone.modbuslibrary.procimg;
  * @author Steve O'Hara (4NG)
  * @version 2.0 (March 2016)
  */
-public class SimpleDigitalIn implements DigitalIn {
+public class SimpleDigitalIn implements DigitalIn, Versioned {
+
+    private static final AtomicLongFieldUpdater<SimpleDigitalIn> VERSION = AtomicLongFieldUpdater.newUpdater(SimpleDigitalIn.class, "version");
 
     /**
      * Field for the digital in state.
      */
     protected boolean set = false;
 
+    private volatile long version;
+
     /**
      * Constructs a new <tt>SimpleDigitalIn</tt> instance.
      */
@@ -50,6 +56,11 @@ public class SimpleDigitalIn implements DigitalIn {
         return set;
     }
 
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
     /**
      * Sets the state of this <tt>SimpleDigitalIn</tt>.
      * This method should only be used from master/device
@@ -59,6 +70,7 @@ public class SimpleDigitalIn implements DigitalIn {
      */
     public void set(boolean b) {
         set = b;
+        VERSION.incrementAndGet(this);
     }
 
 }
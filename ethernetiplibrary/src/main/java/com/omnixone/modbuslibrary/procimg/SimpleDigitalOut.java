@@ -15,6 +15,8 @@
  */
 package com.omnixone.modbuslibrary.procimg;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * Class implementing a simple <tt>DigitalOut</tt>.
  *
@@ -22,13 +24,17 @@ package com.omnixone.modbuslibrary.procimg;
  * @author Steve O'Hara (4NG)
  * @version 2.0 (March 2016)
  */
-public class SimpleDigitalOut implements DigitalOut {
+public class SimpleDigitalOut implements DigitalOut, Versioned {
+
+    private static final AtomicLongFieldUpdater<SimpleDigitalOut> VERSION = AtomicLongFieldUpdater.newUpdater(SimpleDigitalOut.class, "version");
 
     /**
      * Field for the digital out state.
      */
     protected boolean set;
 
+    private volatile long version;
+
     /**
      * Constructs a new <tt>SimpleDigitalOut</tt> instance.
      * It's state will be invalid.
@@ -51,9 +57,15 @@ public class SimpleDigitalOut implements DigitalOut {
         return set;
     }
 
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
     @Override
     public void set(boolean b) {
         set = b;
+        VERSION.incrementAndGet(this);
     }
 
 }
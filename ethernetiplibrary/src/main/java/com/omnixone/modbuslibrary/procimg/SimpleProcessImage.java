@@ -15,7 +15,10 @@
  */
 package com.omnixone.modbuslibrary.procimg;
 
+import com.omnixone.modbuslibrary.util.BitVector;
+
 import java.util.Vector;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Class implementing a simple process image to be able to run unit tests or
@@ -26,6 +29,19 @@ import java.util.Vector;
  * objects. Holes may be created by adding a object with a reference after the
  * last object reference of that type.
  *
+ * <p>
+ * Range reads and writes of registers through
+ * {@link #readRegisters(int, int[], int, int)},
+ * {@link #writeRegisters(int, int[], int, int)} and their input register
+ * counterparts are consistent with each other: a reader sees either all or
+ * none of the values of a range write. Readers use an optimistic read of a
+ * <tt>StampedLock</tt> and retry once if a write intervened, so they do not
+ * block writers or each other. Only if writes keep intervening does a reader
+ * fall back to the read lock, which then holds writers back for the length
+ * of one range copy. Values spanning several registers, like floats or
+ * 32 bit counters, must be updated with a range write; setting the
+ * registers one by one can still be observed half done.
+ *
  * @author Dieter Wimberger
  * @author Julie Added support for files of records.
  * @author Steve O'Hara (4NG)
@@ -43,6 +59,16 @@ public class SimpleProcessImage implements ProcessImageImplementation {
     protected boolean locked = false;
     protected int unitID = 0;
 
+    /**
+     * Number of optimistic attempts of a range read before it takes the read lock
+     */
+    private static final int OPTIMISTIC_READS = 2;
+
+    private final StampedLock inputRegisterLock = new StampedLock();
+    private final StampedLock registerLock = new StampedLock();
+    private volatile ProcessImageChangeBus changeBus;
+    private volatile FIFO[][] fifoIndex = new FIFO[256][];
+
     /**
      * Constructs a new <tt>SimpleProcessImage</tt> instance.
      */
@@ -232,6 +258,230 @@ public class SimpleProcessImage implements ProcessImageImplementation {
         return registers.size();
     }
 
+    @Override
+    public void readInputRegisters(int ref, int[] values, int index, int count) {
+        if (ref < 0 || count < 0 || ref + count > getInputRegisterCount()) {
+            throw new IllegalAddressException();
+        }
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            long stamp = inputRegisterLock.tryOptimisticRead();
+            if (stamp != 0) {
+                for (int i = 0; i < count; i++) {
+                    values[index + i] = getInputRegister(ref + i).toUnsignedShort();
+                }
+                if (inputRegisterLock.validate(stamp)) {
+                    return;
+                }
+            }
+        }
+        long stamp = inputRegisterLock.readLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                values[index + i] = getInputRegister(ref + i).toUnsignedShort();
+            }
+        }
+        finally {
+            inputRegisterLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Sets the values of a range of input registers, visible to
+     * {@link #readInputRegisters(int, int[], int, int)} all at once. The
+     * input registers of the range must be writable <tt>Register</tt>
+     * instances, like <tt>SimpleInputRegister</tt>.
+     *
+     * @param ref    the start offset.
+     * @param values the array holding the values, only the low 16 bits are used.
+     * @param index  the index of the first value in the array.
+     * @param count  the number of registers.
+     *
+     * @throws IllegalAddressException if the range from offset to offset+count is non existant.
+     */
+    public void writeInputRegisters(int ref, int[] values, int index, int count) {
+        InputRegister[] regs = getInputRegisterRange(ref, count);
+        for (InputRegister reg : regs) {
+            if (!(reg instanceof Register)) {
+                throw new IllegalArgumentException("Input register is read only");
+            }
+        }
+        long stamp = inputRegisterLock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                ((Register)regs[i]).setValue(values[index + i]);
+            }
+        }
+        finally {
+            inputRegisterLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void readRegisters(int ref, int[] values, int index, int count) {
+        if (ref < 0 || count < 0 || ref + count > getRegisterCount()) {
+            throw new IllegalAddressException();
+        }
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            long stamp = registerLock.tryOptimisticRead();
+            if (stamp != 0) {
+                for (int i = 0; i < count; i++) {
+                    values[index + i] = getRegister(ref + i).toUnsignedShort();
+                }
+                if (registerLock.validate(stamp)) {
+                    return;
+                }
+            }
+        }
+        long stamp = registerLock.readLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                values[index + i] = getRegister(ref + i).toUnsignedShort();
+            }
+        }
+        finally {
+            registerLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void writeRegisters(int ref, int[] values, int index, int count) {
+        Register[] regs = getRegisterRange(ref, count);
+        long stamp = registerLock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                regs[i].setValue(values[index + i]);
+            }
+        }
+        finally {
+            registerLock.unlockWrite(stamp);
+        }
+        registersChanged(ref, count);
+    }
+
+    @Override
+    public void writeRegisters(int ref, byte[] src, int index, int count) {
+        checkRegisterRange(ref, count);
+        long stamp = registerLock.writeLock();
+        try {
+            storeRegisters(ref, src, index, count);
+        }
+        finally {
+            registerLock.unlockWrite(stamp);
+        }
+        registersChanged(ref, count);
+    }
+
+    @Override
+    public void writeCoils(int ref, BitVector coils) {
+        checkDigitalOutRange(ref, coils.size());
+        storeCoils(ref, coils);
+        coilsChanged(ref, coils.size());
+    }
+
+    /**
+     * Checks that every holding register of a range exists, so that a range
+     * write is applied either completely or not at all.
+     *
+     * @param ref   the start offset.
+     * @param count the number of registers.
+     *
+     * @throws IllegalAddressException if the range is out of bounds or has a hole.
+     */
+    protected void checkRegisterRange(int ref, int count) {
+        if (ref < 0 || count < 0 || ref + count > getRegisterCount()) {
+            throw new IllegalAddressException();
+        }
+        for (int i = 0; i < count; i++) {
+            getRegister(ref + i);
+        }
+    }
+
+    /**
+     * Checks that every coil of a range exists, so that a range write is
+     * applied either completely or not at all.
+     *
+     * @param ref   the start offset.
+     * @param count the number of coils.
+     *
+     * @throws IllegalAddressException if the range is out of bounds or has a hole.
+     */
+    protected void checkDigitalOutRange(int ref, int count) {
+        if (ref < 0 || count < 0 || ref + count > getDigitalOutCount()) {
+            throw new IllegalAddressException();
+        }
+        for (int i = 0; i < count; i++) {
+            getDigitalOut(ref + i);
+        }
+    }
+
+    /**
+     * Copies register bytes into the registers of a range that has been
+     * checked already. Called by {@link #writeRegisters(int, byte[], int, int)}
+     * while range reads are held off; images holding their registers in
+     * memory override it with a bulk copy.
+     *
+     * @param ref   the start offset.
+     * @param src   the array holding two bytes per register.
+     * @param index the index of the first byte in the array.
+     * @param count the number of registers.
+     */
+    protected void storeRegisters(int ref, byte[] src, int index, int count) {
+        for (int i = 0; i < count; i++) {
+            getRegister(ref + i).setValue((src[index + 2 * i] & 0xFF) << 8 | (src[index + 2 * i + 1] & 0xFF));
+        }
+    }
+
+    /**
+     * Sets the coils of a range that has been checked already. Called by
+     * {@link #writeCoils(int, BitVector)}; images holding their coils in
+     * memory override it with a bulk copy.
+     *
+     * @param ref   the start offset.
+     * @param coils the states of the coils.
+     */
+    protected void storeCoils(int ref, BitVector coils) {
+        int count = coils.size();
+        for (int i = 0; i < count; i += 64) {
+            int n = Math.min(64, count - i);
+            long bits = coils.getBits(i, n);
+            for (int j = 0; j < n; j++, bits >>>= 1) {
+                getDigitalOut(ref + i + j).set((bits & 1) != 0);
+            }
+        }
+    }
+
+    /**
+     * Reports a write of a range of coils to the change bus observing the
+     * image, if any.
+     *
+     * @param ref   the address of the first coil.
+     * @param count the number of coils.
+     */
+    protected void coilsChanged(int ref, int count) {
+        ProcessImageChangeBus bus = changeBus;
+        if (bus != null) {
+            bus.coilsChanged(ref, count);
+        }
+    }
+
+    /**
+     * Reports a write of a range of holding registers to the change bus
+     * observing the image, if any.
+     *
+     * @param ref   the address of the first register.
+     * @param count the number of registers.
+     */
+    protected void registersChanged(int ref, int count) {
+        ProcessImageChangeBus bus = changeBus;
+        if (bus != null) {
+            bus.registersChanged(ref, count);
+        }
+    }
+
+    void setChangeBus(ProcessImageChangeBus bus) {
+        changeBus = bus;
+    }
+
     @Override
     public File getFile(int fileNumber) {
         try {
@@ -286,13 +536,11 @@ public class SimpleProcessImage implements ProcessImageImplementation {
 
     @Override
     public FIFO getFIFOByAddress(int ref) {
-        for (FIFO fifo : fifos) {
-            if (fifo.getAddress() == ref) {
-                return fifo;
-            }
+        if (ref < 0 || ref >= 65536) {
+            return null;
         }
-
-        return null;
+        FIFO[] page = fifoIndex[ref >>> 8];
+        return page == null ? null : page[ref & 0xFF];
     }
 
     @Override
@@ -551,6 +799,7 @@ public class SimpleProcessImage implements ProcessImageImplementation {
                 }
 
                 fifos.setElementAt(fifo, fifoNumber);
+                indexFIFOs();
             }
             catch (IndexOutOfBoundsException ex) {
                 throw new IllegalAddressException();
@@ -562,6 +811,7 @@ public class SimpleProcessImage implements ProcessImageImplementation {
     public void addFIFO(FIFO fifo) {
         if (!isLocked()) {
             fifos.add(fifo);
+            indexFIFOs();
         }
     }
 
@@ -573,12 +823,11 @@ public class SimpleProcessImage implements ProcessImageImplementation {
 
         if (!isLocked()) {
             synchronized (fifos) {
-                if (ref < fifos.size()) {
-                    fifos.setElementAt(newFIFO, ref);
-                    return;
+                if (ref >= fifos.size()) {
+                    fifos.setSize(ref + 1);
                 }
-                fifos.setSize(ref + 1);
                 fifos.setElementAt(newFIFO, ref);
+                indexFIFOs();
             }
         }
     }
@@ -587,7 +836,30 @@ public class SimpleProcessImage implements ProcessImageImplementation {
     public void removeFIFO(FIFO oldFIFO) {
         if (!isLocked()) {
             fifos.removeElement(oldFIFO);
+            indexFIFOs();
+        }
+    }
+
+    /**
+     * Rebuilds the table used to find FIFOs by address. The first FIFO with
+     * an address wins, as it did when the FIFOs were searched.
+     */
+    private void indexFIFOs() {
+        FIFO[][] index = new FIFO[256][];
+        synchronized (fifos) {
+            for (int i = fifos.size() - 1; i >= 0; i--) {
+                FIFO fifo = fifos.elementAt(i);
+                if (fifo == null || fifo.getAddress() < 0 || fifo.getAddress() >= 65536) {
+                    continue;
+                }
+                int address = fifo.getAddress();
+                if (index[address >>> 8] == null) {
+                    index[address >>> 8] = new FIFO[256];
+                }
+                index[address >>> 8][address & 0xFF] = fifo;
+            }
         }
+        fifoIndex = index;
     }
 
 }
@@ -0,0 +1,664 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.procimg;
+
+import com.omnixone.modbuslibrary.util.BitVector;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Class implementing a process image for sparse address spaces.
+ * <p>
+ * Coils, discrete inputs, input registers and holding registers are made
+ * legal in ranges anywhere in the 65536 addresses of their table, for
+ * example with {@link #addRegisters(int, int)}. Their values are held in
+ * pages of {@value #PAGE_SIZE} points that are allocated when a range first
+ * touches them, together with a bitmap of the legal addresses of the page.
+ * Addresses outside the ranges cost nothing and raise an
+ * <tt>IllegalAddressException</tt> like the holes of a
+ * <tt>SimpleProcessImage</tt>, so a gateway can host many sparse units.
+ * <p>
+ * The <tt>get...Count()</tt> methods return the address after the highest
+ * legal address of the table. Points are made legal before the image is
+ * served; they cannot be replaced or removed. Range reads and writes of
+ * registers are consistent with each other as in <tt>SimpleProcessImage</tt>.
+ * Files and FIFOs are held as in <tt>SimpleProcessImage</tt>.
+ */
+public class SparseProcessImage extends SimpleProcessImage {
+
+    /**
+     * Number of points per page
+     */
+    public static final int PAGE_SIZE = 256;
+
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int PAGES = 65536 / PAGE_SIZE;
+    private static final int OPTIMISTIC_READS = 2;
+
+    private final BitPage[] coilPages = new BitPage[PAGES];
+    private final BitPage[] discreteInputPages = new BitPage[PAGES];
+    private final RegisterPage[] inputRegisterPages = new RegisterPage[PAGES];
+    private final RegisterPage[] registerPages = new RegisterPage[PAGES];
+    private volatile int coilLimit;
+    private volatile int discreteInputLimit;
+    private volatile int inputRegisterLimit;
+    private volatile int registerLimit;
+    private final StampedLock inputRegisterLock = new StampedLock();
+    private final StampedLock registerLock = new StampedLock();
+
+    /**
+     * Constructs a new <tt>SparseProcessImage</tt> without any legal address.
+     */
+    public SparseProcessImage() {
+    }
+
+    /**
+     * Constructs a new <tt>SparseProcessImage</tt> without any legal address.
+     *
+     * @param unit Unit ID of this image
+     */
+    public SparseProcessImage(int unit) {
+        super(unit);
+    }
+
+    /**
+     * Makes a range of coils legal. Coils that are legal already keep
+     * their state, new coils are cleared.
+     *
+     * @param ref   the address of the first coil.
+     * @param count the number of coils.
+     */
+    public synchronized void addCoils(int ref, int count) {
+        checkNewRange(ref, count);
+        for (int i = ref; i < ref + count; i++) {
+            BitPage page = coilPages[i >>> PAGE_SHIFT];
+            if (page == null) {
+                page = new BitPage();
+                coilPages[i >>> PAGE_SHIFT] = page;
+            }
+            page.legal[(i & PAGE_MASK) >>> 5] |= 1 << i;
+        }
+        coilLimit = Math.max(coilLimit, ref + count);
+    }
+
+    /**
+     * Makes a range of discrete inputs legal. Inputs that are legal already
+     * keep their state, new inputs are cleared.
+     *
+     * @param ref   the address of the first input.
+     * @param count the number of inputs.
+     */
+    public synchronized void addDiscreteInputs(int ref, int count) {
+        checkNewRange(ref, count);
+        for (int i = ref; i < ref + count; i++) {
+            BitPage page = discreteInputPages[i >>> PAGE_SHIFT];
+            if (page == null) {
+                page = new BitPage();
+                discreteInputPages[i >>> PAGE_SHIFT] = page;
+            }
+            page.legal[(i & PAGE_MASK) >>> 5] |= 1 << i;
+        }
+        discreteInputLimit = Math.max(discreteInputLimit, ref + count);
+    }
+
+    /**
+     * Makes a range of input registers legal. Registers that are legal
+     * already keep their value, new registers are zero.
+     *
+     * @param ref   the address of the first register.
+     * @param count the number of registers.
+     */
+    public synchronized void addInputRegisters(int ref, int count) {
+        checkNewRange(ref, count);
+        for (int i = ref; i < ref + count; i++) {
+            RegisterPage page = inputRegisterPages[i >>> PAGE_SHIFT];
+            if (page == null) {
+                page = new RegisterPage();
+                inputRegisterPages[i >>> PAGE_SHIFT] = page;
+            }
+            page.legal[(i & PAGE_MASK) >>> 5] |= 1 << i;
+        }
+        inputRegisterLimit = Math.max(inputRegisterLimit, ref + count);
+    }
+
+    /**
+     * Makes a range of holding registers legal. Registers that are legal
+     * already keep their value, new registers are zero.
+     *
+     * @param ref   the address of the first register.
+     * @param count the number of registers.
+     */
+    public synchronized void addRegisters(int ref, int count) {
+        checkNewRange(ref, count);
+        for (int i = ref; i < ref + count; i++) {
+            RegisterPage page = registerPages[i >>> PAGE_SHIFT];
+            if (page == null) {
+                page = new RegisterPage();
+                registerPages[i >>> PAGE_SHIFT] = page;
+            }
+            page.legal[(i & PAGE_MASK) >>> 5] |= 1 << i;
+        }
+        registerLimit = Math.max(registerLimit, ref + count);
+    }
+
+    public boolean isCoilSet(int ref) {
+        return getBit(coilPages, coilLimit, ref);
+    }
+
+    public void setCoil(int ref, boolean b) {
+        setBit(coilPages, coilLimit, ref, b);
+        coilsChanged(ref, 1);
+    }
+
+    public boolean isDiscreteInputSet(int ref) {
+        return getBit(discreteInputPages, discreteInputLimit, ref);
+    }
+
+    public void setDiscreteInput(int ref, boolean b) {
+        setBit(discreteInputPages, discreteInputLimit, ref, b);
+    }
+
+    /**
+     * Returns the value of an input register.
+     *
+     * @param ref the register address.
+     *
+     * @return the unsigned value.
+     */
+    public int getInputRegisterValue(int ref) {
+        checkLegal(inputRegisterPages, inputRegisterLimit, ref, 1);
+        return inputRegisterPages[ref >>> PAGE_SHIFT].values[ref & PAGE_MASK] & 0xFFFF;
+    }
+
+    /**
+     * Sets the value of an input register.
+     *
+     * @param ref   the register address.
+     * @param value the value, only the low 16 bits are used.
+     */
+    public void setInputRegisterValue(int ref, int value) {
+        checkLegal(inputRegisterPages, inputRegisterLimit, ref, 1);
+        inputRegisterPages[ref >>> PAGE_SHIFT].values[ref & PAGE_MASK] = (short)value;
+    }
+
+    /**
+     * Returns the value of a holding register.
+     *
+     * @param ref the register address.
+     *
+     * @return the unsigned value.
+     */
+    public int getRegisterValue(int ref) {
+        checkLegal(registerPages, registerLimit, ref, 1);
+        return registerPages[ref >>> PAGE_SHIFT].values[ref & PAGE_MASK] & 0xFFFF;
+    }
+
+    /**
+     * Sets the value of a holding register.
+     *
+     * @param ref   the register address.
+     * @param value the value, only the low 16 bits are used.
+     */
+    public void setRegisterValue(int ref, int value) {
+        checkLegal(registerPages, registerLimit, ref, 1);
+        registerPages[ref >>> PAGE_SHIFT].values[ref & PAGE_MASK] = (short)value;
+        registersChanged(ref, 1);
+    }
+
+    @Override
+    public void readInputRegisters(int ref, int[] values, int index, int count) {
+        checkLegal(inputRegisterPages, inputRegisterLimit, ref, count);
+        readValues(inputRegisterPages, inputRegisterLock, ref, values, index, count);
+    }
+
+    @Override
+    public void writeInputRegisters(int ref, int[] values, int index, int count) {
+        checkLegal(inputRegisterPages, inputRegisterLimit, ref, count);
+        long stamp = inputRegisterLock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                inputRegisterPages[(ref + i) >>> PAGE_SHIFT].values[(ref + i) & PAGE_MASK] = (short)values[index + i];
+            }
+        }
+        finally {
+            inputRegisterLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void readRegisters(int ref, int[] values, int index, int count) {
+        checkLegal(registerPages, registerLimit, ref, count);
+        readValues(registerPages, registerLock, ref, values, index, count);
+    }
+
+    @Override
+    public void writeRegisters(int ref, int[] values, int index, int count) {
+        checkLegal(registerPages, registerLimit, ref, count);
+        long stamp = registerLock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                registerPages[(ref + i) >>> PAGE_SHIFT].values[(ref + i) & PAGE_MASK] = (short)values[index + i];
+            }
+        }
+        finally {
+            registerLock.unlockWrite(stamp);
+        }
+        registersChanged(ref, count);
+    }
+
+    @Override
+    public void writeRegisters(int ref, byte[] src, int index, int count) {
+        checkLegal(registerPages, registerLimit, ref, count);
+        long stamp = registerLock.writeLock();
+        try {
+            for (int i = 0; i < count; i++) {
+                registerPages[(ref + i) >>> PAGE_SHIFT].values[(ref + i) & PAGE_MASK] =
+                        (short)((src[index + 2 * i] & 0xFF) << 8 | (src[index + 2 * i + 1] & 0xFF));
+            }
+        }
+        finally {
+            registerLock.unlockWrite(stamp);
+        }
+        registersChanged(ref, count);
+    }
+
+    @Override
+    public void writeCoils(int ref, BitVector coils) {
+        int count = coils.size();
+        checkLegal(coilPages, coilLimit, ref, count);
+        for (int i = 0; i < count; ) {
+            int dest = ref + i;
+            BitPage page = coilPages[dest >>> PAGE_SHIFT];
+            int word = (dest & PAGE_MASK) >>> 5;
+            int shift = dest & 31;
+            int n = Math.min(32 - shift, count - i);
+            int mask = (int)((1L << n) - 1) << shift;
+            int bits = (int)coils.getBits(i, n) << shift;
+            synchronized (page) {
+                page.values[word] = (page.values[word] & ~mask) | (bits & mask);
+            }
+            i += n;
+        }
+        coilsChanged(ref, count);
+    }
+
+    @Override
+    public DigitalOut[] getDigitalOutRange(int ref, int count) {
+        checkLegal(coilPages, coilLimit, ref, count);
+        DigitalOut[] douts = new DigitalOut[count];
+        for (int i = 0; i < count; i++) {
+            douts[i] = new SparseCoil(ref + i);
+        }
+        return douts;
+    }
+
+    @Override
+    public DigitalOut getDigitalOut(int ref) throws IllegalAddressException {
+        checkLegal(coilPages, coilLimit, ref, 1);
+        return new SparseCoil(ref);
+    }
+
+    @Override
+    public int getDigitalOutCount() {
+        return coilLimit;
+    }
+
+    @Override
+    public DigitalIn[] getDigitalInRange(int ref, int count) {
+        checkLegal(discreteInputPages, discreteInputLimit, ref, count);
+        DigitalIn[] dins = new DigitalIn[count];
+        for (int i = 0; i < count; i++) {
+            dins[i] = new SparseDiscreteInput(ref + i);
+        }
+        return dins;
+    }
+
+    @Override
+    public DigitalIn getDigitalIn(int ref) throws IllegalAddressException {
+        checkLegal(discreteInputPages, discreteInputLimit, ref, 1);
+        return new SparseDiscreteInput(ref);
+    }
+
+    @Override
+    public int getDigitalInCount() {
+        return discreteInputLimit;
+    }
+
+    @Override
+    public InputRegister[] getInputRegisterRange(int ref, int count) {
+        checkLegal(inputRegisterPages, inputRegisterLimit, ref, count);
+        InputRegister[] iregs = new InputRegister[count];
+        for (int i = 0; i < count; i++) {
+            iregs[i] = new SparseRegister(inputRegisterPages, ref + i, false);
+        }
+        return iregs;
+    }
+
+    @Override
+    public InputRegister getInputRegister(int ref) throws IllegalAddressException {
+        checkLegal(inputRegisterPages, inputRegisterLimit, ref, 1);
+        return new SparseRegister(inputRegisterPages, ref, false);
+    }
+
+    @Override
+    public int getInputRegisterCount() {
+        return inputRegisterLimit;
+    }
+
+    @Override
+    public Register[] getRegisterRange(int ref, int count) {
+        checkLegal(registerPages, registerLimit, ref, count);
+        Register[] regs = new Register[count];
+        for (int i = 0; i < count; i++) {
+            regs[i] = new SparseRegister(registerPages, ref + i, true);
+        }
+        return regs;
+    }
+
+    @Override
+    public Register getRegister(int ref) throws IllegalAddressException {
+        checkLegal(registerPages, registerLimit, ref, 1);
+        return new SparseRegister(registerPages, ref, true);
+    }
+
+    @Override
+    public int getRegisterCount() {
+        return registerLimit;
+    }
+
+    @Override
+    public void setDigitalOut(int ref, DigitalOut out) {
+        throw new UnsupportedOperationException("Use addCoils to make coils legal");
+    }
+
+    @Override
+    public void addDigitalOut(DigitalOut out) {
+        throw new UnsupportedOperationException("Use addCoils to make coils legal");
+    }
+
+    @Override
+    public void addDigitalOut(int ref, DigitalOut dout) {
+        throw new UnsupportedOperationException("Use addCoils to make coils legal");
+    }
+
+    @Override
+    public void removeDigitalOut(DigitalOut out) {
+        throw new UnsupportedOperationException("The coils of a SparseProcessImage cannot be removed");
+    }
+
+    @Override
+    public void setDigitalIn(int ref, DigitalIn di) {
+        throw new UnsupportedOperationException("Use addDiscreteInputs to make discrete inputs legal");
+    }
+
+    @Override
+    public void addDigitalIn(DigitalIn di) {
+        throw new UnsupportedOperationException("Use addDiscreteInputs to make discrete inputs legal");
+    }
+
+    @Override
+    public void addDigitalIn(int ref, DigitalIn di) {
+        throw new UnsupportedOperationException("Use addDiscreteInputs to make discrete inputs legal");
+    }
+
+    @Override
+    public void removeDigitalIn(DigitalIn di) {
+        throw new UnsupportedOperationException("The discrete inputs of a SparseProcessImage cannot be removed");
+    }
+
+    @Override
+    public void setInputRegister(int ref, InputRegister reg) {
+        throw new UnsupportedOperationException("Use addInputRegisters to make input registers legal");
+    }
+
+    @Override
+    public void addInputRegister(InputRegister reg) {
+        throw new UnsupportedOperationException("Use addInputRegisters to make input registers legal");
+    }
+
+    @Override
+    public void addInputRegister(int ref, InputRegister reg) {
+        throw new UnsupportedOperationException("Use addInputRegisters to make input registers legal");
+    }
+
+    @Override
+    public void removeInputRegister(InputRegister reg) {
+        throw new UnsupportedOperationException("The input registers of a SparseProcessImage cannot be removed");
+    }
+
+    @Override
+    public void setRegister(int ref, Register reg) {
+        throw new UnsupportedOperationException("Use addRegisters to make registers legal");
+    }
+
+    @Override
+    public void addRegister(Register reg) {
+        throw new UnsupportedOperationException("Use addRegisters to make registers legal");
+    }
+
+    @Override
+    public void addRegister(int ref, Register reg) {
+        throw new UnsupportedOperationException("Use addRegisters to make registers legal");
+    }
+
+    @Override
+    public void removeRegister(Register reg) {
+        throw new UnsupportedOperationException("The registers of a SparseProcessImage cannot be removed");
+    }
+
+    private static void readValues(RegisterPage[] pages, StampedLock lock, int ref, int[] values, int index, int count) {
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                copyValues(pages, ref, values, index, count);
+                if (lock.validate(stamp)) {
+                    return;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            copyValues(pages, ref, values, index, count);
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private static void copyValues(RegisterPage[] pages, int ref, int[] values, int index, int count) {
+        int end = ref + count;
+        while (ref < end) {
+            short[] page = pages[ref >>> PAGE_SHIFT].values;
+            int n = Math.min(PAGE_SIZE - (ref & PAGE_MASK), end - ref);
+            for (int i = 0, offset = ref & PAGE_MASK; i < n; i++) {
+                values[index++] = page[offset + i] & 0xFFFF;
+            }
+            ref += n;
+        }
+    }
+
+    private static boolean getBit(BitPage[] pages, int limit, int ref) {
+        checkLegal(pages, limit, ref, 1);
+        return (pages[ref >>> PAGE_SHIFT].values[(ref & PAGE_MASK) >>> 5] & 1 << ref) != 0;
+    }
+
+    private static void setBit(BitPage[] pages, int limit, int ref, boolean b) {
+        checkLegal(pages, limit, ref, 1);
+        BitPage page = pages[ref >>> PAGE_SHIFT];
+        int word = (ref & PAGE_MASK) >>> 5;
+        synchronized (page) {
+            if (b) {
+                page.values[word] |= 1 << ref;
+            }
+            else {
+                page.values[word] &= ~(1 << ref);
+            }
+        }
+    }
+
+    /**
+     * Checks that all addresses of a range are legal. The limit is read
+     * first, which makes the pages added before it was set visible.
+     */
+    private static void checkLegal(Page[] pages, int limit, int ref, int count) {
+        if (ref < 0 || count < 0 || ref + count > limit) {
+            throw new IllegalAddressException();
+        }
+        int end = ref + count;
+        while (ref < end) {
+            Page page = pages[ref >>> PAGE_SHIFT];
+            if (page == null) {
+                throw new IllegalAddressException();
+            }
+            int shift = ref & 31;
+            int n = Math.min(32 - shift, end - ref);
+            int mask = (int)((1L << n) - 1) << shift;
+            if ((page.legal[(ref & PAGE_MASK) >>> 5] & mask) != mask) {
+                throw new IllegalAddressException();
+            }
+            ref += n;
+        }
+    }
+
+    private static void checkNewRange(int ref, int count) {
+        if (ref < 0 || count < 0 || ref + count > 65536) {
+            throw new IllegalArgumentException("Invalid address range " + ref + " count " + count);
+        }
+    }
+
+    /**
+     * A page with its bitmap of legal addresses
+     */
+    private static class Page {
+        final int[] legal = new int[PAGE_SIZE / 32];
+    }
+
+    /**
+     * A page of coils or discrete inputs
+     */
+    private static final class BitPage extends Page {
+        final int[] values = new int[PAGE_SIZE / 32];
+    }
+
+    /**
+     * A page of registers
+     */
+    private static final class RegisterPage extends Page {
+        final short[] values = new short[PAGE_SIZE];
+    }
+
+    /**
+     * A coil of the image
+     */
+    private class SparseCoil implements DigitalOut {
+        private final int ref;
+
+        SparseCoil(int ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public boolean isSet() {
+            return isCoilSet(ref);
+        }
+
+        @Override
+        public void set(boolean b) {
+            setCoil(ref, b);
+        }
+    }
+
+    /**
+     * A discrete input of the image
+     */
+    private class SparseDiscreteInput implements DigitalIn {
+        private final int ref;
+
+        SparseDiscreteInput(int ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public boolean isSet() {
+            return isDiscreteInputSet(ref);
+        }
+    }
+
+    /**
+     * An input or holding register of the image
+     */
+    private class SparseRegister implements Register {
+        private final short[] values;
+        private final int offset;
+        private final int ref;
+        private final boolean holding;
+
+        SparseRegister(RegisterPage[] pages, int ref, boolean holding) {
+            values = pages[ref >>> PAGE_SHIFT].values;
+            offset = ref & PAGE_MASK;
+            this.ref = ref;
+            this.holding = holding;
+        }
+
+        @Override
+        public int getValue() {
+            return values[offset] & 0xFFFF;
+        }
+
+        @Override
+        public int toUnsignedShort() {
+            return values[offset] & 0xFFFF;
+        }
+
+        @Override
+        public short toShort() {
+            return values[offset];
+        }
+
+        @Override
+        public byte[] toBytes() {
+            short value = values[offset];
+            return new byte[]{(byte)(value >> 8), (byte)value};
+        }
+
+        @Override
+        public void setValue(int v) {
+            values[offset] = (short)v;
+            if (holding) {
+                registersChanged(ref, 1);
+            }
+        }
+
+        @Override
+        public void setValue(short s) {
+            setValue((int)s);
+        }
+
+        @Override
+        public void setValue(byte[] bytes) {
+            if (bytes.length < 2) {
+                throw new IllegalArgumentException();
+            }
+            setValue((bytes[0] & 0xFF) << 8 | (bytes[1] & 0xFF));
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(getValue());
+        }
+    }
+}
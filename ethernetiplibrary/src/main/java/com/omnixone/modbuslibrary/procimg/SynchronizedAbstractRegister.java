@@ -24,7 +24,7 @@ package com.omnixone.modbuslibrary.procimg;
  */
 public abstract class
 
-SynchronizedAbstractRegister implements Register {
+SynchronizedAbstractRegister implements Register, Versioned {
 
     /**
      * The word (<tt>byte[2]</tt>) holding the state of this register.
@@ -34,6 +34,8 @@ SynchronizedAbstractRegister implements Register {
      */
     protected byte[] register = new byte[2];
 
+    private volatile long version;
+
     @Override
     public synchronized int getValue() {
         if (register == null) {
@@ -64,6 +66,11 @@ SynchronizedAbstractRegister implements Register {
         return dest;
     }
 
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
     @Override
     public synchronized void setValue(short s) {
         if (register == null) {
@@ -72,6 +79,7 @@ SynchronizedAbstractRegister implements Register {
 
         register[0] = (byte)(0xff & (s >> 8));
         register[1] = (byte)(0xff & s);
+        version++;
     }
 
     @Override
@@ -86,6 +94,7 @@ SynchronizedAbstractRegister implements Register {
 
             register[0] = bytes[0];
             register[1] = bytes[1];
+            version++;
         }
     }
 
@@ -97,6 +106,7 @@ SynchronizedAbstractRegister implements Register {
 
         register[0] = (byte)(0xff & (v >> 8));
         register[1] = (byte)(0xff & v);
+        version++;
     }
 
 }
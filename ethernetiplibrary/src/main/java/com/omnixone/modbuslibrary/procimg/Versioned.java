@@ -0,0 +1,37 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.procimg;
+
+/**
+ * Interface implemented by process image points that count their writes.
+ * <p>
+ * The version of a point changes with every write to it, so a value derived
+ * from the point stays valid for as long as its version does not change.
+ * Versions only ever grow. {@link VirtualRegister} uses them to avoid
+ * computing its value again when none of its inputs were written.
+ */
+public interface Versioned {
+
+    /**
+     * Returns the current version of the point. The version is updated after
+     * the new value has been stored, so a reader that sees a version also
+     * sees the value written with it.
+     *
+     * @return the version.
+     */
+    long getVersion();
+
+}
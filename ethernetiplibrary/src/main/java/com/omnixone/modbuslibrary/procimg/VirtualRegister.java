@@ -0,0 +1,210 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.procimg;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Class implementing a read-only register whose value is computed from other
+ * points of the process image, e.g. a scaled reading or a status word packed
+ * from several bits.
+ * <p>
+ * The value is computed lazily when the register is read, and only if one of
+ * the {@link Versioned} dependencies has been written since the last
+ * computation. A register that is never polled costs nothing, and a register
+ * polled at a high rate is computed at most once per change of its inputs.
+ * Concurrent readers of a stale value compute it only once between them.
+ * <p>
+ * A virtual register without dependencies is computed on every read, which
+ * is also what the factories fall back to when one of the sources does not
+ * implement {@link Versioned}. Virtual registers are themselves versioned and
+ * can be used as dependencies of other virtual registers.
+ * <p>
+ * Writes from a master are answered with an illegal address exception.
+ */
+public class VirtualRegister implements Register, Versioned {
+
+    private final IntSupplier function;
+    private final Versioned[] dependencies;
+    private final AtomicLong reads;
+
+    private volatile Snapshot snapshot;
+
+    /**
+     * Constructs a register that computes its value on every read.
+     *
+     * @param function the function computing the value, only the lower 16 bits
+     *                 are used.
+     */
+    public VirtualRegister(IntSupplier function) {
+        this.function = function;
+        this.dependencies = null;
+        this.reads = new AtomicLong();
+    }
+
+    /**
+     * Constructs a register that computes its value when one of the given
+     * points has been written.
+     *
+     * @param function     the function computing the value, only the lower 16
+     *                     bits are used.
+     * @param dependencies all points read by the function.
+     */
+    public VirtualRegister(IntSupplier function, Versioned... dependencies) {
+        if (dependencies.length == 0) {
+            throw new IllegalArgumentException("At least one dependency is required");
+        }
+        this.function = function;
+        this.dependencies = dependencies.clone();
+        this.reads = null;
+    }
+
+    /**
+     * Creates a register holding <tt>round(value * factor + offset)</tt> of the
+     * unsigned value of the source, e.g. to present a raw reading in
+     * engineering units.
+     *
+     * @param source the source register.
+     * @param factor the factor.
+     * @param offset the offset added after scaling.
+     *
+     * @return the virtual register.
+     */
+    public static VirtualRegister scaled(final InputRegister source, final double factor, final double offset) {
+        IntSupplier function = () -> (int)Math.round(source.getValue() * factor + offset);
+        return source instanceof Versioned ? new VirtualRegister(function, (Versioned)source) : new VirtualRegister(function);
+    }
+
+    /**
+     * Creates a register packing up to 16 bits, the first bit being the least
+     * significant bit of the value.
+     *
+     * @param bits the bits to pack.
+     *
+     * @return the virtual register.
+     */
+    public static VirtualRegister packed(final DigitalIn... bits) {
+        if (bits.length == 0 || bits.length > 16) {
+            throw new IllegalArgumentException("Between 1 and 16 bits can be packed");
+        }
+        final DigitalIn[] sources = bits.clone();
+        IntSupplier function = () -> {
+            int value = 0;
+            for (int i = 0; i < sources.length; i++) {
+                if (sources[i].isSet()) {
+                    value |= 1 << i;
+                }
+            }
+            return value;
+        };
+        Versioned[] dependencies = new Versioned[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            if (!(sources[i] instanceof Versioned)) {
+                return new VirtualRegister(function);
+            }
+            dependencies[i] = (Versioned)sources[i];
+        }
+        return new VirtualRegister(function, dependencies);
+    }
+
+    /**
+     * Returns the sum of the versions of the dependencies, which changes
+     * whenever one of them is written. Without dependencies, every call
+     * returns a new version.
+     *
+     * @return the version.
+     */
+    @Override
+    public long getVersion() {
+        if (dependencies == null) {
+            return reads.incrementAndGet();
+        }
+        long stamp = 0;
+        for (Versioned dependency : dependencies) {
+            stamp += dependency.getVersion();
+        }
+        return stamp;
+    }
+
+    @Override
+    public int getValue() {
+        if (dependencies == null) {
+            return function.getAsInt() & 0xFFFF;
+        }
+        long stamp = getVersion();
+        Snapshot current = snapshot;
+        if (current != null && current.stamp == stamp) {
+            return current.value;
+        }
+        synchronized (this) {
+            stamp = getVersion();
+            current = snapshot;
+            if (current == null || current.stamp != stamp) {
+                // The stamp is taken before the function reads the inputs, so a
+                // write racing with the computation leaves a stale stamp behind
+                // and the next read computes again
+                current = new Snapshot(stamp, function.getAsInt() & 0xFFFF);
+                snapshot = current;
+            }
+            return current.value;
+        }
+    }
+
+    @Override
+    public int toUnsignedShort() {
+        return getValue();
+    }
+
+    @Override
+    public short toShort() {
+        return (short)getValue();
+    }
+
+    @Override
+    public byte[] toBytes() {
+        int value = getValue();
+        return new byte[]{(byte)(value >> 8), (byte)value};
+    }
+
+    @Override
+    public void setValue(int v) {
+        throw new IllegalAddressException("Virtual register is read only");
+    }
+
+    @Override
+    public void setValue(short s) {
+        throw new IllegalAddressException("Virtual register is read only");
+    }
+
+    @Override
+    public void setValue(byte[] bytes) {
+        throw new IllegalAddressException("Virtual register is read only");
+    }
+
+    /**
+     * A computed value and the stamp of the dependencies it was computed for
+     */
+    private static final class Snapshot {
+        final long stamp;
+        final int value;
+
+        Snapshot(long stamp, int value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+}
@@ -49,6 +49,12 @@ public class ModbusSlave {
 
     private final Map<Integer, ProcessImage> processImages = new HashMap<Integer, ProcessImage>();
 
+    /**
+     * Images of the unit IDs 0-255 indexed by unit ID, replaced on every change
+     * so the listener can look up each incoming frame without locking
+     */
+    private volatile ProcessImage[] unitImages = new ProcessImage[256];
+
 
     // NEW: Android/Custom serial-connection constructor
     protected ModbusSlave(com.omnixone.modbuslibrary.net.AbstractSerialConnection serialConnection)
@@ -187,7 +193,12 @@ public class ModbusSlave {
      * @return Process image
      */
     public ProcessImage getProcessImage(int unitId) {
-        return processImages.get(unitId);
+        if (unitId >= 0 && unitId < 256) {
+            return unitImages[unitId];
+        }
+        synchronized (processImages) {
+            return processImages.get(unitId);
+        }
     }
 
     /**
@@ -197,7 +208,11 @@ public class ModbusSlave {
      * @return Process image
      */
     public ProcessImage removeProcessImage(int unitId) {
-        return processImages.remove(unitId);
+        synchronized (processImages) {
+            ProcessImage image = processImages.remove(unitId);
+            indexUnits();
+            return image;
+        }
     }
 
     /**
@@ -208,7 +223,25 @@ public class ModbusSlave {
      * @return Process image
      */
     public ProcessImage addProcessImage(int unitId, ProcessImage processImage) {
-        return processImages.put(unitId, processImage);
+        synchronized (processImages) {
+            ProcessImage image = processImages.put(unitId, processImage);
+            indexUnits();
+            return image;
+        }
+    }
+
+    /**
+     * Rebuilds the unit ID table from the map of images. Called with the map locked.
+     */
+    private void indexUnits() {
+        ProcessImage[] images = new ProcessImage[256];
+        for (Map.Entry<Integer, ProcessImage> entry : processImages.entrySet()) {
+            int unitId = entry.getKey();
+            if (unitId >= 0 && unitId < images.length) {
+                images[unitId] = entry.getValue();
+            }
+        }
+        unitImages = images;
     }
 
     /**
@@ -15,14 +15,22 @@
  */
 package com.omnixone.modbuslibrary.util;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Class that implements a collection for
- * bits, storing them packed into bytes.
+ * bits, storing them packed into 64 bit words.
  * Per default the access operations will index from
  * the LSB (rightmost) bit.
+ * <p>
+ * Bit <tt>i</tt> is bit <tt>i % 8</tt> of byte <tt>i / 8</tt> of the
+ * byte representation, which is the packing Modbus uses on the wire.
+ * The range, search and copy operations work on whole words and always use
+ * this order, regardless of {@link #toggleAccess(boolean)}, which only
+ * affects {@link #getBit(int)} and {@link #setBit(int, boolean)}.
+ * <p>
+ * A <tt>BitVector</tt> is not thread safe.
  *
  * @author Dieter Wimberger
  * @author Steve O'Hara (4NG)
@@ -30,12 +38,12 @@ import org.slf4j.LoggerFactory;
  */
 public class BitVector {
 
-    private static final Logger logger = LoggerFactory.getLogger(BitVector.class);
     private static final int[] ODD_OFFSETS = {-1, -3, -5, -7};
     private static final int[] STRAIGHT_OFFSETS = {7, 5, 3, 1};
-    //instance attributes
+
     private int size;
-    private final byte[] data;
+    private final int byteCount;
+    private final long[] words;
     private boolean msbAccess = false;
 
     /**
@@ -50,14 +58,9 @@ public class BitVector {
         //store bits
         this.size = size;
 
-        //calculate size in bytes
-        if ((size % 8) > 0) {
-            size = (size / 8) + 1;
-        }
-        else {
-            size = (size / 8);
-        }
-        data = new byte[size];
+        //calculate size in bytes and words
+        byteCount = (size + 7) / 8;
+        words = new long[(byteCount + 7) / 8];
     }
 
     /**
@@ -124,31 +127,32 @@ public class BitVector {
     }
 
     /**
-     * Returns the <tt>byte[]</tt> which is used to store
+     * Returns a copy of the bytes storing
      * the bits of this <tt>BitVector</tt>.
      * <p>
+     * Use {@link #copyTo(byte[], int)} to avoid the allocation.
      *
-     * @return the <tt>byte[]</tt> used to store the bits.
+     * @return a new <tt>byte[]</tt> holding the bits.
      */
-    public final synchronized byte[] getBytes() {
-        byte[] dest = new byte[data.length];
-        System.arraycopy(data, 0, dest, 0, dest.length);
+    public final byte[] getBytes() {
+        byte[] dest = new byte[byteCount];
+        copyTo(dest, 0);
         return dest;
     }
 
     /**
-     * Sets the <tt>byte[]</tt> which stores
+     * Sets the bytes which store
      * the bits of this <tt>BitVector</tt>.
      * <p>
      *
      * @param data a <tt>byte[]</tt>.
      */
-    public synchronized void setBytes(byte[] data) {
-        System.arraycopy(data, 0, this.data, 0, data.length);
+    public void setBytes(byte[] data) {
+        copyFrom(data, 0, data.length);
     }
 
     /**
-     * Sets the <tt>byte[]</tt> which stores
+     * Sets the bytes which store
      * the bits of this <tt>BitVector</tt>.
      * <p>
      *
@@ -156,10 +160,401 @@ public class BitVector {
      * @param size Size to set the bit vector to
      */
     public void setBytes(byte[] data, int size) {
-        System.arraycopy(data, 0, this.data, 0, data.length);
+        copyFrom(data, 0, data.length);
         this.size = size;
     }
 
+    /**
+     * Copies the bytes storing the bits of this <tt>BitVector</tt> into the
+     * given array.
+     *
+     * @param dest   the array to copy to.
+     * @param offset the offset in the array.
+     *
+     * @return the number of bytes copied, {@link #byteSize()}.
+     */
+    public int copyTo(byte[] dest, int offset) {
+        copyTo(dest, offset, byteCount);
+        return byteCount;
+    }
+
+    /**
+     * Copies the first <tt>length</tt> bytes storing the bits of this
+     * <tt>BitVector</tt> into the given array.
+     *
+     * @param dest   the array to copy to.
+     * @param offset the offset in the array.
+     * @param length the number of bytes to copy.
+     *
+     * @throws IndexOutOfBoundsException if this <tt>BitVector</tt> has less
+     *                                   than <tt>length</tt> bytes.
+     */
+    public void copyTo(byte[] dest, int offset, int length) {
+        if (length > byteCount) {
+            throw new IndexOutOfBoundsException(length + " > " + byteCount + " bytes");
+        }
+        if (offset < 0 || offset + length > dest.length) {
+            throw new IndexOutOfBoundsException("Destination too small for " + length + " bytes");
+        }
+        int full = length / 8;
+        for (int w = 0; w < full; w++) {
+            long word = words[w];
+            for (int k = 0; k < 8; k++) {
+                dest[offset++] = (byte)word;
+                word >>>= 8;
+            }
+        }
+        for (int k = full * 8; k < length; k++) {
+            dest[offset++] = getByte(k);
+        }
+    }
+
+    /**
+     * Sets the first <tt>length</tt> bytes storing the bits of this
+     * <tt>BitVector</tt> from the given array.
+     *
+     * @param src    the array to copy from.
+     * @param offset the offset in the array.
+     * @param length the number of bytes to copy.
+     *
+     * @throws IndexOutOfBoundsException if this <tt>BitVector</tt> has less
+     *                                   than <tt>length</tt> bytes.
+     */
+    public void copyFrom(byte[] src, int offset, int length) {
+        if (length > byteCount) {
+            throw new IndexOutOfBoundsException(length + " > " + byteCount + " bytes");
+        }
+        int full = length / 8;
+        for (int w = 0; w < full; w++) {
+            long word = 0;
+            for (int k = 7; k >= 0; k--) {
+                word = word << 8 | (src[offset + k] & 0xFFL);
+            }
+            words[w] = word;
+            offset += 8;
+        }
+        for (int k = full * 8; k < length; k++) {
+            setByte(k, src[offset++]);
+        }
+    }
+
+    /**
+     * Copies a range of bits from another <tt>BitVector</tt>, 64 bits at a
+     * time. The source may be this <tt>BitVector</tt>, also with overlapping
+     * ranges.
+     *
+     * @param src      the <tt>BitVector</tt> to copy from.
+     * @param srcIndex the index of the first bit to copy.
+     * @param index    the index of the first bit to set.
+     * @param count    the number of bits to copy.
+     *
+     * @throws IndexOutOfBoundsException if a range is out of bounds.
+     */
+    public void copyFrom(BitVector src, int srcIndex, int index, int count) {
+        src.checkRange(srcIndex, srcIndex + count);
+        checkRange(index, index + count);
+        if (src == this && index > srcIndex && index < srcIndex + count) {
+            // Overlapping towards higher indexes, copy from the top
+            for (int remaining = count; remaining > 0; ) {
+                int n = Math.min(64, remaining);
+                remaining -= n;
+                setBits(index + remaining, src.getBits(srcIndex + remaining, n), n);
+            }
+        }
+        else {
+            for (int done = 0; done < count; ) {
+                int n = Math.min(64, count - done);
+                setBits(index + done, src.getBits(srcIndex + done, n), n);
+                done += n;
+            }
+        }
+    }
+
+    /**
+     * Copies a range of bits to another <tt>BitVector</tt>.
+     *
+     * @param dest      the <tt>BitVector</tt> to copy to.
+     * @param index     the index of the first bit to copy.
+     * @param destIndex the index of the first bit to set in <tt>dest</tt>.
+     * @param count     the number of bits to copy.
+     *
+     * @throws IndexOutOfBoundsException if a range is out of bounds.
+     */
+    public void copyTo(BitVector dest, int index, int destIndex, int count) {
+        dest.copyFrom(this, index, destIndex, count);
+    }
+
+    /**
+     * Writes the first <tt>count</tt> bytes storing the bits of this
+     * <tt>BitVector</tt> to the given buffer, without copying them first.
+     *
+     * @param buffer the buffer to write to.
+     * @param count  the number of bytes to write.
+     */
+    public void writeBytes(ByteBuffer buffer, int count) {
+        if (count > byteCount) {
+            throw new IndexOutOfBoundsException(count + " > " + byteCount + " bytes");
+        }
+        for (int k = 0; k < count; k++) {
+            buffer.put(getByte(k));
+        }
+    }
+
+    /**
+     * Reads <tt>count</tt> bytes storing the bits of this
+     * <tt>BitVector</tt> from the given buffer.
+     *
+     * @param buffer the buffer to read from.
+     * @param count  the number of bytes to read.
+     */
+    public void readBytes(ByteBuffer buffer, int count) {
+        if (count > byteCount) {
+            throw new IndexOutOfBoundsException(count + " > " + byteCount + " bytes");
+        }
+        for (int k = 0; k < count; k++) {
+            setByte(k, buffer.get());
+        }
+    }
+
+    /**
+     * Returns up to 64 bits starting at the given index, the bit at
+     * <tt>index</tt> in the least significant bit of the result.
+     *
+     * @param index the index of the first bit.
+     * @param count the number of bits, 0 to 64.
+     *
+     * @return the bits.
+     *
+     * @throws IndexOutOfBoundsException if the range is out of bounds.
+     */
+    public long getBits(int index, int count) {
+        checkRange(index, index + count);
+        if (count == 0) {
+            return 0;
+        }
+        if (count > 64) {
+            throw new IllegalArgumentException("Count must not exceed 64: " + count);
+        }
+        int w = index >>> 6;
+        int shift = index & 63;
+        long bits = words[w] >>> shift;
+        if (shift != 0 && shift + count > 64) {
+            bits |= words[w + 1] << (64 - shift);
+        }
+        return count == 64 ? bits : bits & ((1L << count) - 1);
+    }
+
+    /**
+     * Sets up to 64 bits starting at the given index from the least
+     * significant bits of <tt>bits</tt>.
+     *
+     * @param index the index of the first bit.
+     * @param bits  the bits.
+     * @param count the number of bits, 0 to 64.
+     *
+     * @throws IndexOutOfBoundsException if the range is out of bounds.
+     */
+    public void setBits(int index, long bits, int count) {
+        checkRange(index, index + count);
+        if (count == 0) {
+            return;
+        }
+        if (count > 64) {
+            throw new IllegalArgumentException("Count must not exceed 64: " + count);
+        }
+        long mask = count == 64 ? -1L : (1L << count) - 1;
+        bits &= mask;
+        int w = index >>> 6;
+        int shift = index & 63;
+        words[w] = words[w] & ~(mask << shift) | bits << shift;
+        if (shift != 0 && shift + count > 64) {
+            int high = 64 - shift;
+            words[w + 1] = words[w + 1] & ~(mask >>> high) | bits >>> high;
+        }
+    }
+
+    /**
+     * Sets the bits from <tt>from</tt> (inclusive) to <tt>to</tt> (exclusive).
+     *
+     * @param from the index of the first bit.
+     * @param to   the index after the last bit.
+     */
+    public void set(int from, int to) {
+        checkRange(from, to);
+        if (from == to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            words[first] |= firstMask & lastMask;
+            return;
+        }
+        words[first] |= firstMask;
+        for (int w = first + 1; w < last; w++) {
+            words[w] = -1L;
+        }
+        words[last] |= lastMask;
+    }
+
+    /**
+     * Sets or clears the bits from <tt>from</tt> (inclusive) to <tt>to</tt>
+     * (exclusive).
+     *
+     * @param from  the index of the first bit.
+     * @param to    the index after the last bit.
+     * @param value true to set the bits, false to clear them.
+     */
+    public void set(int from, int to, boolean value) {
+        if (value) {
+            set(from, to);
+        }
+        else {
+            clear(from, to);
+        }
+    }
+
+    /**
+     * Clears the bits from <tt>from</tt> (inclusive) to <tt>to</tt> (exclusive).
+     *
+     * @param from the index of the first bit.
+     * @param to   the index after the last bit.
+     */
+    public void clear(int from, int to) {
+        checkRange(from, to);
+        if (from == to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            words[first] &= ~(firstMask & lastMask);
+            return;
+        }
+        words[first] &= ~firstMask;
+        for (int w = first + 1; w < last; w++) {
+            words[w] = 0;
+        }
+        words[last] &= ~lastMask;
+    }
+
+    /**
+     * Inverts the bits from <tt>from</tt> (inclusive) to <tt>to</tt> (exclusive).
+     *
+     * @param from the index of the first bit.
+     * @param to   the index after the last bit.
+     */
+    public void flip(int from, int to) {
+        checkRange(from, to);
+        if (from == to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        if (first == last) {
+            words[first] ^= firstMask & lastMask;
+            return;
+        }
+        words[first] ^= firstMask;
+        for (int w = first + 1; w < last; w++) {
+            words[w] = ~words[w];
+        }
+        words[last] ^= lastMask;
+    }
+
+    /**
+     * Clears all bits of this <tt>BitVector</tt>.
+     */
+    public void clear() {
+        Arrays.fill(words, 0);
+    }
+
+    /**
+     * Returns the number of set bits within {@link #size()}.
+     *
+     * @return the number of set bits.
+     */
+    public int cardinality() {
+        int limit = Math.min(size, byteCount * 8);
+        int full = limit >>> 6;
+        int count = 0;
+        for (int w = 0; w < full; w++) {
+            count += Long.bitCount(words[w]);
+        }
+        if ((limit & 63) != 0) {
+            count += Long.bitCount(words[full] & (-1L >>> -limit));
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index of the first set bit at or after <tt>from</tt>.
+     * All set bits can be visited with
+     * <tt>for (int i = bv.nextSetBit(0); i &gt;= 0; i = bv.nextSetBit(i + 1))</tt>.
+     *
+     * @param from the index to start searching at.
+     *
+     * @return the index of the bit, or -1 if no bit within {@link #size()} is set.
+     */
+    public int nextSetBit(int from) {
+        if (from < 0) {
+            throw new IndexOutOfBoundsException("from < 0: " + from);
+        }
+        int limit = Math.min(size, byteCount * 8);
+        if (from >= limit) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word = words[w] & (-1L << from);
+        int last = (limit - 1) >>> 6;
+        while (true) {
+            if (word != 0) {
+                int index = (w << 6) + Long.numberOfTrailingZeros(word);
+                return index < limit ? index : -1;
+            }
+            if (++w > last) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    /**
+     * Returns the index of the first clear bit at or after <tt>from</tt>.
+     *
+     * @param from the index to start searching at.
+     *
+     * @return the index of the bit, or -1 if no bit within {@link #size()} is clear.
+     */
+    public int nextClearBit(int from) {
+        if (from < 0) {
+            throw new IndexOutOfBoundsException("from < 0: " + from);
+        }
+        int limit = Math.min(size, byteCount * 8);
+        if (from >= limit) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word = ~words[w] & (-1L << from);
+        int last = (limit - 1) >>> 6;
+        while (true) {
+            if (word != 0) {
+                int index = (w << 6) + Long.numberOfTrailingZeros(word);
+                return index < limit ? index : -1;
+            }
+            if (++w > last) {
+                return -1;
+            }
+            word = ~words[w];
+        }
+    }
+
     /**
      * Returns the state of the bit at the given index of this
      * <tt>BitVector</tt>.
@@ -173,11 +568,8 @@ public class BitVector {
      * @throws IndexOutOfBoundsException if the index is out of bounds.
      */
     public boolean getBit(int index) throws IndexOutOfBoundsException {
-        index = translateIndex(index);
-        logger.debug("Get bit #{}", index);
-        return ((data[byteIndex(index)]
-                & (0x01 << bitIndex(index))) != 0
-        );
+        index = checkIndex(translateIndex(index));
+        return (words[index >>> 6] & 1L << index) != 0;
     }
 
     /**
@@ -191,14 +583,13 @@ public class BitVector {
      * @throws IndexOutOfBoundsException if the index is out of bounds.
      */
     public void setBit(int index, boolean b) throws IndexOutOfBoundsException {
-        index = translateIndex(index);
-        logger.debug("Set bit #{}", index);
-        int value = ((b) ? 1 : 0);
-        int byteNum = byteIndex(index);
-        int bitNum = bitIndex(index);
-        data[byteNum] = (byte)((data[byteNum] & ~(0x01 << bitNum))
-                | ((value & 0x01) << bitNum)
-        );
+        index = checkIndex(translateIndex(index));
+        if (b) {
+            words[index >>> 6] |= 1L << index;
+        }
+        else {
+            words[index >>> 6] &= ~(1L << index);
+        }
     }
 
     /**
@@ -221,7 +612,7 @@ public class BitVector {
      *                                  the byte[] store size multiplied by 8.
      */
     public void forceSize(int size) {
-        if (size > data.length * 8) {
+        if (size > byteCount * 8) {
             throw new IllegalArgumentException("Size exceeds byte[] store");
         }
         else {
@@ -237,7 +628,7 @@ public class BitVector {
      * @return the number of bits in this <tt>BitVector</tt>.
      */
     public int byteSize() {
-        return data.length;
+        return byteCount;
     }
 
     /**
@@ -253,7 +644,7 @@ public class BitVector {
      */
     public String toString() {
         StringBuilder sbuf = new StringBuilder();
-        for (int i = 0; i < data.length; i++) {
+        for (int i = 0; i < byteCount; i++) {
 
             int numberOfBitsToPrint = Byte.SIZE;
             int remainingBits = size - (i * Byte.SIZE);
@@ -261,54 +652,49 @@ public class BitVector {
                 numberOfBitsToPrint = remainingBits;
             }
 
-            sbuf.append(String.format("%" + numberOfBitsToPrint + "s", Integer.toBinaryString(data[i] & 0xFF)).replace(' ', '0'));
+            sbuf.append(String.format("%" + numberOfBitsToPrint + "s", Integer.toBinaryString(getByte(i) & 0xFF)).replace(' ', '0'));
             sbuf.append(" ");
         }
         return sbuf.toString();
     }
 
+    private byte getByte(int k) {
+        return (byte)(words[k >>> 3] >>> ((k & 7) << 3));
+    }
+
+    private void setByte(int k, byte b) {
+        int shift = (k & 7) << 3;
+        words[k >>> 3] = words[k >>> 3] & ~(0xFFL << shift) | (b & 0xFFL) << shift;
+    }
+
     /**
-     * Returns the index of the byte in the the byte array
-     * that contains the given bit.
-     * <p>
+     * Checks that the given bit is within the byte store.
      *
      * @param index the index of the bit.
      *
-     * @return the index of the byte where the given bit is stored.
+     * @return the index.
      *
      * @throws IndexOutOfBoundsException if index is
      *                                   out of bounds.
      */
-    private int byteIndex(int index) throws IndexOutOfBoundsException {
-
-        if (index < 0 || index >= data.length * 8) {
+    private int checkIndex(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= byteCount * 8) {
             throw new IndexOutOfBoundsException();
         }
-        else {
-            return index / 8;
-        }
+        return index;
     }
 
     /**
-     * Returns the index of the given bit in the byte
-     * where it it stored.
-     * <p>
+     * Checks that the given range of bits is within the byte store.
      *
-     * @param index the index of the bit.
+     * @param from the index of the first bit.
+     * @param to   the index after the last bit.
      *
-     * @return the bit index relative to the position in the byte
-     * that stores the specified bit.
-     *
-     * @throws IndexOutOfBoundsException if index is
-     *                                   out of bounds.
+     * @throws IndexOutOfBoundsException if the range is out of bounds.
      */
-    private int bitIndex(int index) throws IndexOutOfBoundsException {
-
-        if (index < 0 || index >= data.length * 8) {
-            throw new IndexOutOfBoundsException();
-        }
-        else {
-            return index % 8;
+    private void checkRange(int from, int to) throws IndexOutOfBoundsException {
+        if (from < 0 || to < from || to > byteCount * 8) {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + " of " + byteCount * 8 + " bits");
         }
     }
 
@@ -330,4 +716,4 @@ public class BitVector {
             return idx;
         }
     }
-}
\ No newline at end of file
+}
@@ -26,6 +26,10 @@ import java.util.List;
 
 /**
  * Helper class that provides utility methods.
+ * <p>
+ * The register conversions handle one big endian value at a time; use
+ * {@link RegisterConverter} to convert arrays of values in other byte and
+ * word orders without allocating.
  *
  * @author Dieter Wimberger
  * @author John Charlton
@@ -35,6 +39,7 @@ import java.util.List;
 public class ModbusUtil {
 
     private static final Logger logger = LoggerFactory.getLogger(ModbusUtil.class);
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
     /* Table of CRC values for high-order byte */
     private static final short[] auchCRCHi = {
@@ -146,22 +151,24 @@ public class ModbusUtil {
      * @return the generated hexadecimal representation as <code>String</code>.
      */
     public static String toHex(byte[] data, int off, int end) {
-        //double size, two bytes (hex range) for one byte
-        StringBuilder buf = new StringBuilder(data.length * 2);
         if (end > data.length) {
             end = data.length;
         }
+        if (end <= off) {
+            return "";
+        }
+        //two hex digits and a separator for each byte
+        char[] chars = new char[(end - off) * 3 - 1];
+        int pos = 0;
         for (int i = off; i < end; i++) {
-            //don't forget the second hex digit
-            if (((int)data[i] & 0xff) < 0x10) {
-                buf.append("0");
-            }
-            buf.append(Long.toString((int)data[i] & 0xff, 16).toUpperCase());
-            if (i < end - 1) {
-                buf.append(" ");
+            int b = data[i] & 0xff;
+            if (pos > 0) {
+                chars[pos++] = ' ';
             }
+            chars[pos++] = HEX_DIGITS[b >> 4];
+            chars[pos++] = HEX_DIGITS[b & 0x0f];
         }
-        return buf.toString();
+        return new String(chars);
     }
 
     /**
@@ -173,19 +180,7 @@ public class ModbusUtil {
      * @return the generated hexadecimal representation as <code>byte[]</code>.
      */
     public static byte[] toHex(int i) {
-        StringBuilder buf = new StringBuilder(2);
-        //don't forget the second hex digit
-        if ((i & 0xff) < 0x10) {
-            buf.append("0");
-        }
-        buf.append(Long.toString(i & 0xff, 16).toUpperCase());
-        try {
-            return buf.toString().getBytes("US-ASCII");
-        }
-        catch (Exception e) {
-            logger.debug("Problem converting bytes to string - {}", e.getMessage());
-        }
-        return null;
+        return new byte[]{(byte)HEX_DIGITS[(i >> 4) & 0x0f], (byte)HEX_DIGITS[i & 0x0f]};
     }
 
     /**
@@ -476,8 +471,21 @@ public class ModbusUtil {
     }
 
     public static int[] calculateCRC(byte[] data, int offset, int len) {
+        return updateCRC(new int[]{0xFF, 0xFF}, data, offset, len);
+    }
 
-        int[] crc = {0xFF, 0xFF};
+    /**
+     * Continues a CRC returned by {@link #calculateCRC(byte[], int, int)}
+     * over further bytes, so a CRC can be calculated as the bytes arrive.
+     *
+     * @param crc    the CRC so far, updated in place.
+     * @param data   the bytes.
+     * @param offset the index of the first byte.
+     * @param len    the index after the last byte.
+     *
+     * @return <tt>crc</tt>.
+     */
+    public static int[] updateCRC(int[] crc, byte[] data, int offset, int len) {
         int nextByte;
         int uIndex; /* will index into CRC lookup*/ /* table */
     /* pass through message buffer */
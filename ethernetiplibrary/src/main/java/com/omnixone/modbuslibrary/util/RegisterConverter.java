@@ -0,0 +1,549 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.util;
+
+import com.omnixone.modbuslibrary.procimg.InputRegister;
+
+/**
+ * Helper class converting whole arrays of values from and to registers.
+ * <p>
+ * Registers are given as bytes in the order they are sent on the wire, two
+ * bytes per register, which is how they are held by a frame buffer or a
+ * {@link com.omnixone.modbuslibrary.msg.ModbusMessageView}. Values are
+ * decoded into and encoded from arrays owned by the caller in a single pass
+ * without allocating, using one of the four {@link RegisterOrder}s for values
+ * spanning more than one byte.
+ * <p>
+ * The decode methods take the offset of the first register byte and return
+ * the offset after the last register used, so consecutive blocks of a poll
+ * can be decoded in a chain. The encode methods do the same for the
+ * destination buffer.
+ *
+ * @see ModbusUtil
+ */
+public final class RegisterConverter {
+
+    /**
+     * Prevent instantiation
+     */
+    private RegisterConverter() {}
+
+    /**
+     * Copies the values of registers into a byte buffer, high byte first.
+     *
+     * @param src        the registers.
+     * @param srcIndex   the index of the first register.
+     * @param count      the number of registers.
+     * @param dest       the buffer to copy to.
+     * @param destOffset the offset in the buffer.
+     *
+     * @return the offset after the last byte written.
+     */
+    public static int toBytes(InputRegister[] src, int srcIndex, int count, byte[] dest, int destOffset) {
+        checkRange(src.length, srcIndex, count);
+        checkRange(dest.length, destOffset, count * 2);
+        for (int i = srcIndex; i < srcIndex + count; i++) {
+            int value = src[i].getValue();
+            dest[destOffset++] = (byte)(value >> 8);
+            dest[destOffset++] = (byte)value;
+        }
+        return destOffset;
+    }
+
+    /**
+     * Decodes signed 16-bit values, one per register.
+     *
+     * @param src        the register bytes.
+     * @param offset     the offset of the first register.
+     * @param dest       the array to decode into.
+     * @param destOffset the index of the first value.
+     * @param count      the number of values.
+     * @param order      the byte order of the registers.
+     *
+     * @return the offset after the last register.
+     */
+    public static int decodeShorts(byte[] src, int offset, short[] dest, int destOffset, int count, RegisterOrder order) {
+        checkRange(src.length, offset, count * 2);
+        checkRange(dest.length, destOffset, count);
+        boolean byteSwap = order.isByteSwapped();
+        for (int i = destOffset; i < destOffset + count; i++, offset += 2) {
+            dest[i] = (short)word(src, offset, byteSwap);
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes unsigned 16-bit values, one per register.
+     *
+     * @param src        the register bytes.
+     * @param offset     the offset of the first register.
+     * @param dest       the array to decode into.
+     * @param destOffset the index of the first value.
+     * @param count      the number of values.
+     * @param order      the byte order of the registers.
+     *
+     * @return the offset after the last register.
+     */
+    public static int decodeUnsignedShorts(byte[] src, int offset, int[] dest, int destOffset, int count, RegisterOrder order) {
+        checkRange(src.length, offset, count * 2);
+        checkRange(dest.length, destOffset, count);
+        boolean byteSwap = order.isByteSwapped();
+        for (int i = destOffset; i < destOffset + count; i++, offset += 2) {
+            dest[i] = word(src, offset, byteSwap);
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes signed 32-bit values from two registers each.
+     *
+     * @param src        the register bytes.
+     * @param offset     the offset of the first register.
+     * @param dest       the array to decode into.
+     * @param destOffset the index of the first value.
+     * @param count      the number of values.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     */
+    public static int decodeInts(byte[] src, int offset, int[] dest, int destOffset, int count, RegisterOrder order) {
+        checkRange(src.length, offset, count * 4);
+        checkRange(dest.length, destOffset, count);
+        for (int i = destOffset; i < destOffset + count; i++, offset += 4) {
+            dest[i] = getInt(src, offset, order);
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes unsigned 32-bit values from two registers each.
+     *
+     * @param src        the register bytes.
+     * @param offset     the offset of the first register.
+     * @param dest       the array to decode into.
+     * @param destOffset the index of the first value.
+     * @param count      the number of values.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     */
+    public static int decodeUnsignedInts(byte[] src, int offset, long[] dest, int destOffset, int count, RegisterOrder order) {
+        checkRange(src.length, offset, count * 4);
+        checkRange(dest.length, destOffset, count);
+        for (int i = destOffset; i < destOffset + count; i++, offset += 4) {
+            dest[i] = getInt(src, offset, order) & 0xFFFFFFFFL;
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes IEEE 754 single precision values from two registers each.
+     *
+     * @param src        the register bytes.
+     * @param offset     the offset of the first register.
+     * @param dest       the array to decode into.
+     * @param destOffset the index of the first value.
+     * @param count      the number of values.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     */
+    public static int decodeFloats(byte[] src, int offset, float[] dest, int destOffset, int count, RegisterOrder order) {
+        checkRange(src.length, offset, count * 4);
+        checkRange(dest.length, destOffset, count);
+        for (int i = destOffset; i < destOffset + count; i++, offset += 4) {
+            dest[i] = Float.intBitsToFloat(getInt(src, offset, order));
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes signed 64-bit values from four registers each.
+     *
+     * @param src        the register bytes.
+     * @param offset     the offset of the first register.
+     * @param dest       the array to decode into.
+     * @param destOffset the index of the first value.
+     * @param count      the number of values.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     */
+    public static int decodeLongs(byte[] src, int offset, long[] dest, int destOffset, int count, RegisterOrder order) {
+        checkRange(src.length, offset, count * 8);
+        checkRange(dest.length, destOffset, count);
+        for (int i = destOffset; i < destOffset + count; i++, offset += 8) {
+            dest[i] = getLong(src, offset, order);
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes IEEE 754 double precision values from four registers each.
+     *
+     * @param src        the register bytes.
+     * @param offset     the offset of the first register.
+     * @param dest       the array to decode into.
+     * @param destOffset the index of the first value.
+     * @param count      the number of values.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     */
+    public static int decodeDoubles(byte[] src, int offset, double[] dest, int destOffset, int count, RegisterOrder order) {
+        checkRange(src.length, offset, count * 8);
+        checkRange(dest.length, destOffset, count);
+        for (int i = destOffset; i < destOffset + count; i++, offset += 8) {
+            dest[i] = Double.longBitsToDouble(getLong(src, offset, order));
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes packed BCD values of four digits per register.
+     *
+     * @param src        the register bytes.
+     * @param offset     the offset of the first register.
+     * @param dest       the array to decode into.
+     * @param destOffset the index of the first value.
+     * @param count      the number of values.
+     * @param registers  the number of registers per value, 1 (0 to 9999)
+     *                   or 2 (0 to 99999999).
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     *
+     * @throws NumberFormatException if a digit is not a decimal digit.
+     */
+    public static int decodeBcd(byte[] src, int offset, int[] dest, int destOffset, int count, int registers, RegisterOrder order) {
+        checkBcdRegisters(registers);
+        checkRange(src.length, offset, count * registers * 2);
+        checkRange(dest.length, destOffset, count);
+        boolean byteSwap = order.isByteSwapped();
+        for (int i = destOffset; i < destOffset + count; i++, offset += registers * 2) {
+            int bcd = registers == 1 ? word(src, offset, byteSwap) : getInt(src, offset, order);
+            int value = 0;
+            for (int shift = registers * 16 - 4; shift >= 0; shift -= 4) {
+                int digit = (bcd >>> shift) & 0xF;
+                if (digit > 9) {
+                    throw new NumberFormatException(String.format("Invalid BCD value 0x%X", bcd));
+                }
+                value = value * 10 + digit;
+            }
+            dest[i] = value;
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes an ASCII string of two characters per register. Only the byte
+     * order applies; registers are always taken in sequence. The string ends
+     * at the first NUL character or after the given number of registers.
+     *
+     * @param src        the register bytes.
+     * @param offset     the offset of the first register.
+     * @param registers  the number of registers holding the string.
+     * @param dest       the array to decode into, large enough for two
+     *                   characters per register.
+     * @param destOffset the index of the first character.
+     * @param order      the byte order of the registers.
+     *
+     * @return the length of the string.
+     */
+    public static int decodeAscii(byte[] src, int offset, int registers, char[] dest, int destOffset, RegisterOrder order) {
+        checkRange(src.length, offset, registers * 2);
+        checkRange(dest.length, destOffset, registers * 2);
+        int swap = order.isByteSwapped() ? 1 : 0;
+        for (int i = 0; i < registers * 2; i++) {
+            int c = src[offset + (i ^ swap)] & 0xFF;
+            if (c == 0) {
+                return i;
+            }
+            dest[destOffset + i] = (char)c;
+        }
+        return registers * 2;
+    }
+
+    /**
+     * Encodes signed 16-bit values, one per register.
+     *
+     * @param src        the values.
+     * @param srcOffset  the index of the first value.
+     * @param count      the number of values.
+     * @param dest       the register bytes to encode into.
+     * @param destOffset the offset of the first register.
+     * @param order      the byte order of the registers.
+     *
+     * @return the offset after the last register.
+     */
+    public static int encodeShorts(short[] src, int srcOffset, int count, byte[] dest, int destOffset, RegisterOrder order) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dest.length, destOffset, count * 2);
+        boolean byteSwap = order.isByteSwapped();
+        for (int i = srcOffset; i < srcOffset + count; i++, destOffset += 2) {
+            putWord(dest, destOffset, src[i], byteSwap);
+        }
+        return destOffset;
+    }
+
+    /**
+     * Encodes unsigned 16-bit values, one per register. Only the low 16 bits
+     * of each value are used.
+     *
+     * @param src        the values.
+     * @param srcOffset  the index of the first value.
+     * @param count      the number of values.
+     * @param dest       the register bytes to encode into.
+     * @param destOffset the offset of the first register.
+     * @param order      the byte order of the registers.
+     *
+     * @return the offset after the last register.
+     */
+    public static int encodeUnsignedShorts(int[] src, int srcOffset, int count, byte[] dest, int destOffset, RegisterOrder order) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dest.length, destOffset, count * 2);
+        boolean byteSwap = order.isByteSwapped();
+        for (int i = srcOffset; i < srcOffset + count; i++, destOffset += 2) {
+            putWord(dest, destOffset, src[i], byteSwap);
+        }
+        return destOffset;
+    }
+
+    /**
+     * Encodes signed 32-bit values into two registers each.
+     *
+     * @param src        the values.
+     * @param srcOffset  the index of the first value.
+     * @param count      the number of values.
+     * @param dest       the register bytes to encode into.
+     * @param destOffset the offset of the first register.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     */
+    public static int encodeInts(int[] src, int srcOffset, int count, byte[] dest, int destOffset, RegisterOrder order) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dest.length, destOffset, count * 4);
+        for (int i = srcOffset; i < srcOffset + count; i++, destOffset += 4) {
+            putInt(dest, destOffset, src[i], order);
+        }
+        return destOffset;
+    }
+
+    /**
+     * Encodes unsigned 32-bit values into two registers each. Only the low
+     * 32 bits of each value are used.
+     *
+     * @param src        the values.
+     * @param srcOffset  the index of the first value.
+     * @param count      the number of values.
+     * @param dest       the register bytes to encode into.
+     * @param destOffset the offset of the first register.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     */
+    public static int encodeUnsignedInts(long[] src, int srcOffset, int count, byte[] dest, int destOffset, RegisterOrder order) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dest.length, destOffset, count * 4);
+        for (int i = srcOffset; i < srcOffset + count; i++, destOffset += 4) {
+            putInt(dest, destOffset, (int)src[i], order);
+        }
+        return destOffset;
+    }
+
+    /**
+     * Encodes IEEE 754 single precision values into two registers each.
+     *
+     * @param src        the values.
+     * @param srcOffset  the index of the first value.
+     * @param count      the number of values.
+     * @param dest       the register bytes to encode into.
+     * @param destOffset the offset of the first register.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     */
+    public static int encodeFloats(float[] src, int srcOffset, int count, byte[] dest, int destOffset, RegisterOrder order) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dest.length, destOffset, count * 4);
+        for (int i = srcOffset; i < srcOffset + count; i++, destOffset += 4) {
+            putInt(dest, destOffset, Float.floatToIntBits(src[i]), order);
+        }
+        return destOffset;
+    }
+
+    /**
+     * Encodes signed 64-bit values into four registers each.
+     *
+     * @param src        the values.
+     * @param srcOffset  the index of the first value.
+     * @param count      the number of values.
+     * @param dest       the register bytes to encode into.
+     * @param destOffset the offset of the first register.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     */
+    public static int encodeLongs(long[] src, int srcOffset, int count, byte[] dest, int destOffset, RegisterOrder order) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dest.length, destOffset, count * 8);
+        for (int i = srcOffset; i < srcOffset + count; i++, destOffset += 8) {
+            putLong(dest, destOffset, src[i], order);
+        }
+        return destOffset;
+    }
+
+    /**
+     * Encodes IEEE 754 double precision values into four registers each.
+     *
+     * @param src        the values.
+     * @param srcOffset  the index of the first value.
+     * @param count      the number of values.
+     * @param dest       the register bytes to encode into.
+     * @param destOffset the offset of the first register.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     */
+    public static int encodeDoubles(double[] src, int srcOffset, int count, byte[] dest, int destOffset, RegisterOrder order) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dest.length, destOffset, count * 8);
+        for (int i = srcOffset; i < srcOffset + count; i++, destOffset += 8) {
+            putLong(dest, destOffset, Double.doubleToLongBits(src[i]), order);
+        }
+        return destOffset;
+    }
+
+    /**
+     * Encodes packed BCD values of four digits per register.
+     *
+     * @param src        the values.
+     * @param srcOffset  the index of the first value.
+     * @param count      the number of values.
+     * @param registers  the number of registers per value, 1 (0 to 9999)
+     *                   or 2 (0 to 99999999).
+     * @param dest       the register bytes to encode into.
+     * @param destOffset the offset of the first register.
+     * @param order      the byte and word order of the values.
+     *
+     * @return the offset after the last register.
+     *
+     * @throws IllegalArgumentException if a value does not fit.
+     */
+    public static int encodeBcd(int[] src, int srcOffset, int count, int registers, byte[] dest, int destOffset, RegisterOrder order) {
+        checkBcdRegisters(registers);
+        checkRange(src.length, srcOffset, count);
+        checkRange(dest.length, destOffset, count * registers * 2);
+        int max = registers == 1 ? 9999 : 99999999;
+        for (int i = srcOffset; i < srcOffset + count; i++, destOffset += registers * 2) {
+            int value = src[i];
+            if (value < 0 || value > max) {
+                throw new IllegalArgumentException("Value does not fit into BCD: " + value);
+            }
+            int bcd = 0;
+            for (int shift = 0; value != 0; shift += 4, value /= 10) {
+                bcd |= (value % 10) << shift;
+            }
+            if (registers == 1) {
+                putWord(dest, destOffset, bcd, order.isByteSwapped());
+            }
+            else {
+                putInt(dest, destOffset, bcd, order);
+            }
+        }
+        return destOffset;
+    }
+
+    /**
+     * Encodes an ASCII string of two characters per register. Only the byte
+     * order applies; registers are always written in sequence. Shorter strings
+     * are padded with NUL characters, longer strings are truncated, and
+     * characters outside of ASCII are replaced by <tt>'?'</tt>.
+     *
+     * @param src        the string.
+     * @param registers  the number of registers to fill.
+     * @param dest       the register bytes to encode into.
+     * @param destOffset the offset of the first register.
+     * @param order      the byte order of the registers.
+     *
+     * @return the offset after the last register.
+     */
+    public static int encodeAscii(CharSequence src, int registers, byte[] dest, int destOffset, RegisterOrder order) {
+        checkRange(dest.length, destOffset, registers * 2);
+        int swap = order.isByteSwapped() ? 1 : 0;
+        int length = Math.min(src.length(), registers * 2);
+        for (int i = 0; i < registers * 2; i++) {
+            int c = i < length ? src.charAt(i) : 0;
+            dest[destOffset + (i ^ swap)] = (byte)(c < 0x80 ? c : '?');
+        }
+        return destOffset + registers * 2;
+    }
+
+    private static int word(byte[] b, int p, boolean byteSwap) {
+        return byteSwap ? (b[p + 1] & 0xFF) << 8 | (b[p] & 0xFF) : (b[p] & 0xFF) << 8 | (b[p + 1] & 0xFF);
+    }
+
+    private static void putWord(byte[] b, int p, int v, boolean byteSwap) {
+        b[p + (byteSwap ? 1 : 0)] = (byte)(v >> 8);
+        b[p + (byteSwap ? 0 : 1)] = (byte)v;
+    }
+
+    private static int getInt(byte[] b, int p, RegisterOrder order) {
+        boolean byteSwap = order.isByteSwapped();
+        if (order.isWordSwapped()) {
+            return word(b, p + 2, byteSwap) << 16 | word(b, p, byteSwap);
+        }
+        return word(b, p, byteSwap) << 16 | word(b, p + 2, byteSwap);
+    }
+
+    private static void putInt(byte[] b, int p, int v, RegisterOrder order) {
+        boolean byteSwap = order.isByteSwapped();
+        boolean wordSwap = order.isWordSwapped();
+        putWord(b, wordSwap ? p + 2 : p, v >>> 16, byteSwap);
+        putWord(b, wordSwap ? p : p + 2, v, byteSwap);
+    }
+
+    private static long getLong(byte[] b, int p, RegisterOrder order) {
+        boolean byteSwap = order.isByteSwapped();
+        long v = 0;
+        for (int i = 0; i < 4; i++) {
+            int r = order.isWordSwapped() ? 3 - i : i;
+            v = v << 16 | word(b, p + r * 2, byteSwap);
+        }
+        return v;
+    }
+
+    private static void putLong(byte[] b, int p, long v, RegisterOrder order) {
+        boolean byteSwap = order.isByteSwapped();
+        for (int i = 3; i >= 0; i--, v >>>= 16) {
+            int r = order.isWordSwapped() ? 3 - i : i;
+            putWord(b, p + r * 2, (int)v, byteSwap);
+        }
+    }
+
+    private static void checkBcdRegisters(int registers) {
+        if (registers != 1 && registers != 2) {
+            throw new IllegalArgumentException("BCD values span 1 or 2 registers");
+        }
+    }
+
+    private static void checkRange(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > arrayLength) {
+            throw new IndexOutOfBoundsException(String.format("Range %d..%d outside of array of length %d", offset, offset + length, arrayLength));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2002-2016 jamod & j2mod development teams
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.omnixone.modbuslibrary.util;
+
+/**
+ * Enumeration of the byte and word orders used by devices to store values
+ * spanning more than one byte in registers.
+ * <p>
+ * The names give the order of the bytes of a 32-bit value <tt>0xAABBCCDD</tt>
+ * as they appear on the wire, starting with the high byte of the first
+ * register. Values of other sizes follow the same rule: the byte swap
+ * applies to each register and the word swap to the order of the registers.
+ */
+public enum RegisterOrder {
+
+    /**
+     * Big endian, the Modbus order: high word first, high byte first
+     */
+    ABCD(false, false),
+
+    /**
+     * High word first, low byte first in each register
+     */
+    BADC(false, true),
+
+    /**
+     * Low word first, high byte first in each register (word swapped)
+     */
+    CDAB(true, false),
+
+    /**
+     * Little endian: low word first, low byte first in each register
+     */
+    DCBA(true, true);
+
+    private final boolean wordSwap;
+    private final boolean byteSwap;
+
+    RegisterOrder(boolean wordSwap, boolean byteSwap) {
+        this.wordSwap = wordSwap;
+        this.byteSwap = byteSwap;
+    }
+
+    /**
+     * Tests if the low register of a value comes first.
+     *
+     * @return true if the registers are swapped.
+     */
+    public boolean isWordSwapped() {
+        return wordSwap;
+    }
+
+    /**
+     * Tests if the low byte of a register comes first.
+     *
+     * @return true if the bytes are swapped.
+     */
+    public boolean isByteSwapped() {
+        return byteSwap;
+    }
+}
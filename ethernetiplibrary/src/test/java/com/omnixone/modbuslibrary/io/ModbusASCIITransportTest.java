@@ -0,0 +1,231 @@
+package com.omnixone.modbuslibrary.io;
+
+import com.omnixone.modbuslibrary.ModbusIOException;
+import com.omnixone.modbuslibrary.msg.ModbusRequest;
+import com.omnixone.modbuslibrary.msg.ModbusResponse;
+import com.omnixone.modbuslibrary.msg.ReadMultipleRegistersRequest;
+import com.omnixone.modbuslibrary.msg.ReadMultipleRegistersResponse;
+import com.omnixone.modbuslibrary.msg.WriteSingleRegisterRequest;
+import com.omnixone.modbuslibrary.net.AbstractSerialConnection;
+import com.omnixone.modbuslibrary.procimg.Register;
+import com.omnixone.modbuslibrary.procimg.SimpleRegister;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encoding and decoding of Modbus ASCII frames, read from a port that
+ * delivers each frame as a burst.
+ */
+public class ModbusASCIITransportTest {
+
+    @Test
+    public void roundTripsRequestAndResponse() throws Exception {
+        ReadMultipleRegistersRequest request = new ReadMultipleRegistersRequest(0x1234, 2);
+        request.setUnitID(17);
+        String frame = write(request);
+        assertEquals(":110312340002A4\r\n", frame);
+
+        Port slavePort = new Port(frame);
+        ModbusRequest received = transport(slavePort).readRequest(null);
+        assertEquals(17, received.getUnitID());
+        assertEquals(0x1234, ((ReadMultipleRegistersRequest)received).getReference());
+        assertEquals(2, ((ReadMultipleRegistersRequest)received).getWordCount());
+
+        ReadMultipleRegistersResponse response = new ReadMultipleRegistersResponse(new Register[]{new SimpleRegister(0xABCD), new SimpleRegister(7)});
+        response.setUnitID(17);
+        Port masterPort = new Port(write(response));
+        ModbusResponse answer = transport(masterPort).readResponse();
+        assertEquals(0xABCD, ((ReadMultipleRegistersResponse)answer).getRegisterValue(0));
+        assertEquals(7, ((ReadMultipleRegistersResponse)answer).getRegisterValue(1));
+        assertEquals(0, slavePort.shortReads + masterPort.shortReads);
+    }
+
+    @Test
+    public void skipsFrameWithBadLRC() throws Exception {
+        String good = write(register(1, 5));
+        String bad = good.substring(0, 13) + "00\r\n";
+        assertEquals(6, readValue(new Port(bad, write(register(2, 6)))));
+    }
+
+    @Test
+    public void skipsTruncatedFrame() throws Exception {
+        String truncated = write(register(1, 5)).substring(0, 7);
+        assertEquals(6, readValue(new Port(truncated + write(register(2, 6)))));
+    }
+
+    @Test
+    public void acceptsLowercaseHex() throws Exception {
+        String frame = write(register(0xAB, 0xCDEF));
+        assertEquals(0xCDEF, readValue(new Port(frame.toLowerCase())));
+    }
+
+    @Test
+    public void slaveDoesNotWaitForShorterFrames() throws Exception {
+        // A request of the master, the shorter response of slave 1 and the next request
+        String response = write(new ReadMultipleRegistersResponse(new Register[]{new SimpleRegister(7)}));
+        Port port = new Port(write(new ReadMultipleRegistersRequest(0, 1)), response, write(register(2, 6)));
+        ModbusSerialTransport transport = transport(port);
+
+        transport.readRequest(null);
+        try {
+            // The response does not decode as a request
+            transport.readRequest(null);
+        }
+        catch (ModbusIOException e) {
+            // expected
+        }
+        assertEquals(6, ((WriteSingleRegisterRequest)transport.readRequest(null)).getRegister().getValue());
+        assertEquals(0, port.shortReads);
+    }
+
+    private static WriteSingleRegisterRequest register(int ref, int value) {
+        WriteSingleRegisterRequest request = new WriteSingleRegisterRequest(ref, new SimpleRegister(value));
+        request.setUnitID(1);
+        return request;
+    }
+
+    private static int readValue(Port port) throws Exception {
+        WriteSingleRegisterRequest request = (WriteSingleRegisterRequest)transport(port).readRequest(null);
+        return request.getRegister().getValue();
+    }
+
+    private static String write(ModbusRequest request) throws Exception {
+        Port port = new Port();
+        transport(port).writeRequest(request);
+        return port.written.toString("US-ASCII");
+    }
+
+    private static String write(ModbusResponse response) throws Exception {
+        Port port = new Port();
+        transport(port).writeResponse(response);
+        return port.written.toString("US-ASCII");
+    }
+
+    private static ModbusSerialTransport transport(Port port) throws IOException {
+        ModbusASCIITransport transport = new ModbusASCIITransport();
+        transport.setCommPort(port);
+        return transport;
+    }
+
+    /**
+     * Port delivering each frame as a burst, like a bus with silence between
+     * frames. A read asking for more than is left of the burst would wait
+     * for the timeout on a real port; it is counted as a short read.
+     */
+    private static class Port extends AbstractSerialConnection {
+        private final Deque<byte[]> bursts = new ArrayDeque<>();
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private byte[] burst = new byte[0];
+        private int pos;
+        private int shortReads;
+
+        Port(String... frames) {
+            for (String frame : frames) {
+                bursts.add(frame.getBytes());
+            }
+        }
+
+        @Override
+        public int readBytes(byte[] buffer, int bytesToRead) {
+            if (pos == burst.length) {
+                if (bursts.isEmpty()) {
+                    return 0;
+                }
+                burst = bursts.poll();
+                pos = 0;
+            }
+            int count = Math.min(bytesToRead, burst.length - pos);
+            if (count < bytesToRead) {
+                shortReads++;
+            }
+            System.arraycopy(burst, pos, buffer, 0, count);
+            pos += count;
+            return count;
+        }
+
+        @Override
+        public int writeBytes(byte[] buffer, int bytesToWrite) {
+            written.write(buffer, 0, bytesToWrite);
+            return bytesToWrite;
+        }
+
+        @Override
+        public int bytesAvailable() {
+            // Like adapters that report nothing useful
+            return 0;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public AbstractModbusTransport getModbusTransport() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int getBaudRate() {
+            return 115200;
+        }
+
+        @Override
+        public int getNumDataBits() {
+            return 7;
+        }
+
+        @Override
+        public int getNumStopBits() {
+            return 1;
+        }
+
+        @Override
+        public int getParity() {
+            return EVEN_PARITY;
+        }
+
+        @Override
+        public String getPortName() {
+            return "test";
+        }
+
+        @Override
+        public String getDescriptivePortName() {
+            return "test";
+        }
+
+        @Override
+        public void setComPortTimeouts(int newTimeoutMode, int newReadTimeout, int newWriteTimeout) {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public int getTimeout() {
+            return 0;
+        }
+
+        @Override
+        public void setTimeout(int timeout) {
+        }
+
+        @Override
+        public Set<String> getCommPorts() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.omnixone.modbuslibrary.io;
+
+import com.omnixone.modbuslibrary.msg.ExceptionResponse;
+import com.omnixone.modbuslibrary.msg.ReadMultipleRegistersRequest;
+import com.omnixone.modbuslibrary.msg.ReadMultipleRegistersResponse;
+import com.omnixone.modbuslibrary.util.ModbusUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decoding RTU traffic fed to the monitor in chunks, as a serial adapter
+ * delivers it.
+ */
+public class RTUBusMonitorTest {
+
+    private final List<BusFrame> frames = new ArrayList<>();
+
+    // The monitor is fed directly, so it needs no connection
+    private final RTUBusMonitor monitor = new RTUBusMonitor(null, frames::add);
+
+    @Test
+    public void pairsRequestAndResponseSplitAcrossBursts() {
+        byte[] bus = concat(frame(1, 3, 0, 200, 0, 2), frame(1, 3, 4, 0, 1, 0, 2));
+        feed(bus, 3, 5, 2, 7);
+
+        assertEquals(2, frames.size());
+        BusFrame request = frames.get(0);
+        BusFrame response = frames.get(1);
+        assertEquals(BusFrame.Kind.REQUEST, request.getKind());
+        assertTrue(request.getMessage() instanceof ReadMultipleRegistersRequest);
+        assertEquals(BusFrame.Kind.RESPONSE, response.getKind());
+        assertTrue(response.getMessage() instanceof ReadMultipleRegistersResponse);
+        assertSame(request, response.getRequest());
+        assertEquals(2, ((ReadMultipleRegistersResponse)response.getMessage()).getRegisterValue(1));
+        assertEquals(2, monitor.getFrameCount());
+        assertEquals(0, monitor.getInvalidByteCount());
+    }
+
+    @Test
+    public void decodesExceptionResponse() {
+        feed(concat(frame(3, 3, 0, 0, 0, 1), frame(3, 0x83, 2)), 1);
+
+        assertEquals(2, frames.size());
+        BusFrame response = frames.get(1);
+        assertEquals(BusFrame.Kind.RESPONSE, response.getKind());
+        assertEquals(3, response.getUnitID());
+        assertEquals(0x83, response.getFunctionCode());
+        assertTrue(response.getMessage() instanceof ExceptionResponse);
+        assertSame(frames.get(0), response.getRequest());
+    }
+
+    @Test
+    public void expectsNoResponseToBroadcast() {
+        feed(concat(frame(0, 16, 0, 0, 0, 1, 2, 0, 9), frame(1, 3, 0, 0, 0, 1)), 4);
+
+        assertEquals(2, frames.size());
+        assertEquals(BusFrame.Kind.REQUEST, frames.get(0).getKind());
+        assertEquals(0, frames.get(0).getUnitID());
+        assertEquals(BusFrame.Kind.REQUEST, frames.get(1).getKind());
+        assertEquals(0, monitor.getUnansweredCount());
+
+        // Only the unicast request stays unanswered
+        monitor.idle(System.nanoTime());
+        assertEquals(1, monitor.getUnansweredCount());
+    }
+
+    @Test
+    public void reportsGarbageBeforeFrame() {
+        feed(concat(new byte[]{0x55, 0x66, 0x77}, frame(6, 4, 0, 0, 0, 1), frame(6, 4, 2, 0, 7)), 2);
+
+        assertEquals(3, frames.size());
+        assertEquals(BusFrame.Kind.INVALID, frames.get(0).getKind());
+        assertArrayEquals(new byte[]{0x55, 0x66, 0x77}, frames.get(0).getData());
+        assertEquals(BusFrame.Kind.REQUEST, frames.get(1).getKind());
+        assertEquals(BusFrame.Kind.RESPONSE, frames.get(2).getKind());
+        assertEquals(3, monitor.getInvalidByteCount());
+    }
+
+    @Test
+    public void findsFrameWithUnknownFunctionCodeByCRC() {
+        byte[] unknown = frame(7, 0x41, 1, 2, 3, 4, 5);
+        feed(concat(unknown, frame(7, 3, 0, 0, 0, 1)), 1);
+
+        assertEquals(2, frames.size());
+        assertEquals(BusFrame.Kind.REQUEST, frames.get(0).getKind());
+        assertEquals(0x41, frames.get(0).getFunctionCode());
+        assertArrayEquals(unknown, frames.get(0).getData());
+        assertEquals(BusFrame.Kind.REQUEST, frames.get(1).getKind());
+        assertEquals(3, frames.get(1).getFunctionCode());
+    }
+
+    @Test
+    public void resynchronisesBehindLongGarbage() {
+        byte[] garbage = new byte[300];
+        for (int i = 0; i < garbage.length; i++) {
+            garbage[i] = (byte)(0x41 + i % 7);
+        }
+        feed(concat(garbage, frame(9, 6, 0, 1, 0, 5)), 1);
+
+        BusFrame last = frames.get(frames.size() - 1);
+        assertEquals(BusFrame.Kind.REQUEST, last.getKind());
+        assertEquals(9, last.getUnitID());
+        assertEquals(garbage.length, monitor.getInvalidByteCount());
+    }
+
+    /**
+     * Feeds the bytes in chunks of the given sizes, repeating the last size
+     */
+    private void feed(byte[] data, int... sizes) {
+        long now = System.nanoTime();
+        for (int offset = 0, i = 0; offset < data.length; i++) {
+            int count = Math.min(sizes[Math.min(i, sizes.length - 1)], data.length - offset);
+            byte[] chunk = new byte[count];
+            System.arraycopy(data, offset, chunk, 0, count);
+            monitor.received(chunk, count, now);
+            offset += count;
+        }
+    }
+
+    private static byte[] frame(int... bytes) {
+        byte[] frame = new byte[bytes.length + 2];
+        for (int i = 0; i < bytes.length; i++) {
+            frame[i] = (byte)bytes[i];
+        }
+        int[] crc = ModbusUtil.calculateCRC(frame, 0, bytes.length);
+        frame[bytes.length] = (byte)crc[0];
+        frame[bytes.length + 1] = (byte)crc[1];
+        return frame;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
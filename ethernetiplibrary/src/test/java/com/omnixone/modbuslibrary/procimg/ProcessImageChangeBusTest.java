@@ -0,0 +1,117 @@
+package com.omnixone.modbuslibrary.procimg;
+
+import com.omnixone.modbuslibrary.util.BitVector;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Starting the bus on process images with holes in their address ranges,
+ * and writing points added after it was started.
+ */
+public class ProcessImageChangeBusTest {
+
+    @Test
+    public void startsOnSparseProcessImage() throws Exception {
+        SparseProcessImage image = new SparseProcessImage();
+        image.addCoils(10, 4);
+        image.addRegisters(100, 4);
+        image.setRegisterValue(101, 7);
+
+        ProcessImageChangeBus bus = new ProcessImageChangeBus(image);
+        BlockingQueue<ProcessImageChange> changes = new ArrayBlockingQueue<>(16);
+        bus.addListener(changes::add);
+        bus.setSettleTime(0);
+        bus.start();
+        try {
+            assertTrue(bus.isRunning());
+
+            image.writeRegisters(101, new int[]{8, 9}, 0, 2);
+            ProcessImageChange change = changes.poll(5, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(ProcessImageChange.Type.HOLDING_REGISTER, change.getType());
+            assertEquals(101, change.getReference());
+            assertEquals(7, change.getOldValue(0));
+            assertEquals(8, change.getNewValue(0));
+            assertEquals(9, change.getNewValue(1));
+
+            BitVector coils = new BitVector(1);
+            coils.setBit(0, true);
+            image.writeCoils(12, coils);
+            change = changes.poll(5, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(ProcessImageChange.Type.COIL, change.getType());
+            assertEquals(12, change.getReference());
+            assertEquals(1, change.getNewValue(0));
+        }
+        finally {
+            bus.stop();
+        }
+        assertFalse(bus.isRunning());
+    }
+
+    @Test
+    public void skipsHolesOfSimpleProcessImage() throws Exception {
+        SimpleProcessImage image = new SimpleProcessImage();
+        image.addRegister(0, new SimpleRegister(1));
+        image.addRegister(2, new SimpleRegister(3));
+
+        ProcessImageChangeBus bus = new ProcessImageChangeBus(image);
+        BlockingQueue<ProcessImageChange> changes = new ArrayBlockingQueue<>(16);
+        bus.addListener(changes::add);
+        bus.setSettleTime(0);
+        bus.start();
+        try {
+            assertTrue(bus.isRunning());
+
+            // The marked range spans the hole at address 1
+            image.getRegister(2).setValue(4);
+            bus.registersChanged(0, 3);
+            ProcessImageChange change = changes.poll(5, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(0, change.getReference());
+            assertFalse(change.isChanged(0));
+            assertTrue(change.isChanged(2));
+            assertEquals(4, change.getNewValue(2));
+        }
+        finally {
+            bus.stop();
+        }
+        assertFalse(bus.isRunning());
+    }
+
+    @Test
+    public void deliversWritesToRegistersAddedLater() throws Exception {
+        SimpleProcessImage image = new SimpleProcessImage();
+        image.addRegister(0, new SimpleRegister(1));
+
+        ProcessImageChangeBus bus = new ProcessImageChangeBus(image);
+        BlockingQueue<ProcessImageChange> changes = new ArrayBlockingQueue<>(16);
+        bus.addListener(changes::add);
+        bus.setSettleTime(0);
+        bus.start();
+        try {
+            image.addRegister(5, new SimpleRegister(0));
+            image.writeRegisters(5, new int[]{42}, 0, 1);
+            assertEquals(42, image.getRegister(5).getValue());
+
+            ProcessImageChange change = changes.poll(5, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(ProcessImageChange.Type.HOLDING_REGISTER, change.getType());
+            assertEquals(5, change.getReference());
+            assertEquals(0, change.getOldValue(0));
+            assertEquals(42, change.getNewValue(0));
+
+            // Marks beyond the Modbus address range are dropped
+            bus.registersChanged(65535, 10);
+            bus.coilsChanged(-1, 1);
+        }
+        finally {
+            bus.stop();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.omnixone.modbuslibrary.procimg;
+
+import com.omnixone.modbuslibrary.util.BitVector;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Range writes spanning holes of a <tt>SimpleProcessImage</tt>.
+ */
+public class SimpleProcessImageTest {
+
+    @Test
+    public void rejectsRegisterWriteOverHole() {
+        SimpleProcessImage image = new SimpleProcessImage();
+        image.addRegister(0, new SimpleRegister(1));
+        image.addRegister(2, new SimpleRegister(3));
+
+        try {
+            image.writeRegisters(0, new byte[]{0, 10, 0, 11, 0, 12}, 0, 3);
+            fail("Write over a hole accepted");
+        }
+        catch (IllegalAddressException expected) {
+            // expected
+        }
+        assertEquals(1, image.getRegister(0).getValue());
+        assertEquals(3, image.getRegister(2).getValue());
+    }
+
+    @Test
+    public void rejectsCoilWriteOverHole() {
+        SimpleProcessImage image = new SimpleProcessImage();
+        image.addDigitalOut(0, new SimpleDigitalOut(false));
+        image.addDigitalOut(2, new SimpleDigitalOut(false));
+
+        BitVector coils = new BitVector(3);
+        coils.set(0, 3);
+        try {
+            image.writeCoils(0, coils);
+            fail("Write over a hole accepted");
+        }
+        catch (IllegalAddressException expected) {
+            // expected
+        }
+        assertFalse(image.getDigitalOut(0).isSet());
+        assertFalse(image.getDigitalOut(2).isSet());
+    }
+
+    @Test
+    public void writesCompleteRange() {
+        SimpleProcessImage image = new SimpleProcessImage();
+        for (int i = 0; i < 3; i++) {
+            image.addRegister(new SimpleRegister(0));
+        }
+
+        image.writeRegisters(0, new byte[]{0, 10, 0, 11, 1, 0}, 0, 3);
+        assertEquals(10, image.getRegister(0).getValue());
+        assertEquals(11, image.getRegister(1).getValue());
+        assertEquals(256, image.getRegister(2).getValue());
+    }
+}
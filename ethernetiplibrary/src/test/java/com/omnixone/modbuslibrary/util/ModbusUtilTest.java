@@ -0,0 +1,61 @@
+package com.omnixone.modbuslibrary.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Hex formatting of <tt>ModbusUtil</tt>.
+ */
+public class ModbusUtilTest {
+
+    @Test
+    public void formatsEveryByteValue() {
+        byte[] data = new byte[256];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        assertEquals(reference(data, 0, data.length), ModbusUtil.toHex(data));
+        assertEquals("00 01 7F 80 AB FF", ModbusUtil.toHex(new byte[]{0, 1, 0x7F, (byte)0x80, (byte)0xAB, (byte)0xFF}));
+    }
+
+    @Test
+    public void formatsRanges() {
+        byte[] data = {0x10, 0x20, 0x3A, 0x4B};
+        assertEquals("20 3A", ModbusUtil.toHex(data, 1, 3));
+        assertEquals("3A 4B", ModbusUtil.toHex(data, 2, 10));
+        assertEquals("", ModbusUtil.toHex(data, 2, 2));
+        assertEquals("", ModbusUtil.toHex(new byte[0]));
+        for (int off = 0; off <= data.length; off++) {
+            for (int end = off; end <= data.length + 1; end++) {
+                assertEquals(reference(data, off, end), ModbusUtil.toHex(data, off, end));
+            }
+        }
+    }
+
+    @Test
+    public void formatsSingleByteAsDigits() {
+        for (int i = 0; i < 256; i++) {
+            String digits = reference(new byte[]{(byte)i}, 0, 1);
+            assertArrayEquals(digits.getBytes(), ModbusUtil.toHex(i));
+        }
+    }
+
+    /**
+     * The formatting <tt>toHex</tt> has always produced
+     */
+    private static String reference(byte[] data, int off, int end) {
+        StringBuilder buf = new StringBuilder();
+        end = Math.min(end, data.length);
+        for (int i = off; i < end; i++) {
+            if ((data[i] & 0xff) < 0x10) {
+                buf.append("0");
+            }
+            buf.append(Long.toString(data[i] & 0xff, 16).toUpperCase());
+            if (i < end - 1) {
+                buf.append(" ");
+            }
+        }
+        return buf.toString();
+    }
+}